@@ -0,0 +1,93 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.executor;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import org.glowroot.microbenchmarks.support.TransactionWorthy;
+
+// this benchmark requires JDK 21+ (reflection is used since the benchmarks are compiled against an
+// older JDK)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class VirtualThreadBenchmark {
+
+    @Param("100000")
+    private int transactionCount;
+
+    private Method startVirtualThreadMethod;
+
+    @Setup
+    public void setup() throws Exception {
+        startVirtualThreadMethod = Thread.class.getMethod("startVirtualThread", Runnable.class);
+    }
+
+    // all transactions are active at the same time (so are also all sampled by the stack trace
+    // collector if they are held open long enough)
+    @Benchmark
+    public void concurrentTransactions() throws Exception {
+        CountDownLatch started = new CountDownLatch(transactionCount);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread[] threads = new Thread[transactionCount];
+        for (int i = 0; i < transactionCount; i++) {
+            threads[i] = (Thread) startVirtualThreadMethod.invoke(null,
+                    new ConcurrentTransaction(started, release));
+        }
+        started.await();
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    private static class ConcurrentTransaction extends TransactionWorthy implements Runnable {
+
+        private final CountDownLatch started;
+        private final CountDownLatch release;
+
+        private ConcurrentTransaction(CountDownLatch started, CountDownLatch release) {
+            this.started = started;
+            this.release = release;
+        }
+
+        @Override
+        public void run() {
+            try {
+                doSomethingTransactionWorthy();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public void doSomethingTransactionWorthy() throws Exception {
+            started.countDown();
+            release.await();
+        }
+    }
+}
@@ -25,6 +25,7 @@ import java.util.concurrent.TimeUnit;
 
 import org.openjdk.jmh.annotations.Benchmark;
 import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
 import org.openjdk.jmh.annotations.Mode;
 import org.openjdk.jmh.annotations.OperationsPerInvocation;
 import org.openjdk.jmh.annotations.OutputTimeUnit;
@@ -37,6 +38,13 @@ import org.openjdk.jmh.annotations.TearDown;
 import org.glowroot.agent.plugin.jdbc.support.MockConnection;
 import org.glowroot.microbenchmarks.support.TransactionWorthy;
 
+// reports the overhead per ResultSet.next(), next() times each ResultSet.next() (two
+// System.nanoTime() calls per row) while nextRowCountOnly() runs with the jdbc plugin property
+// resultSetNavigateRowCountOnly enabled (only counting rows), use the MOCK database to isolate the
+// agent overhead from the database overhead
+//
+// nextRowCountOnly() reads its config.json from target/conf/jdbc-row-count-only (copied from
+// src/main/conf during the build), so this needs to be run from the agent/benchmarks directory
 @BenchmarkMode(Mode.AverageTime)
 @OutputTimeUnit(TimeUnit.NANOSECONDS)
 @State(Scope.Thread)
@@ -82,6 +90,14 @@ public class ResultSetBenchmark extends TransactionWorthy {
         doSomethingTransactionWorthy();
     }
 
+    // the agent only reads config.json at startup, so this needs its own forked jvm
+    @Benchmark
+    @OperationsPerInvocation(10000)
+    @Fork(jvmArgsAppend = "-Dglowroot.conf.dir=target/conf/jdbc-row-count-only")
+    public void nextRowCountOnly() throws Exception {
+        doSomethingTransactionWorthy();
+    }
+
     @Override
     public void doSomethingTransactionWorthy() throws SQLException {
         ResultSet resultSet = preparedStatement.executeQuery();
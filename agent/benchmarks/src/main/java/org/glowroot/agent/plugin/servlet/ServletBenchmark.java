@@ -30,6 +30,7 @@ import org.openjdk.jmh.annotations.Setup;
 import org.openjdk.jmh.annotations.State;
 
 import org.glowroot.agent.plugin.servlet.support.MockHttpRequest;
+import org.glowroot.agent.plugin.servlet.support.MockHttpRequestWithHeaders;
 import org.glowroot.agent.plugin.servlet.support.MockHttpResponse;
 import org.glowroot.agent.plugin.servlet.support.MockHttpServlet;
 
@@ -40,12 +41,14 @@ public class ServletBenchmark {
 
     private HttpServlet servlet;
     private HttpServletRequest request;
+    private HttpServletRequest requestWithHeaders;
     private HttpServletResponse response;
 
     @Setup
     public void setup() {
         servlet = new MockHttpServlet();
         request = new MockHttpRequest();
+        requestWithHeaders = new MockHttpRequestWithHeaders();
         response = new MockHttpResponse();
     }
 
@@ -53,4 +56,11 @@ public class ServletBenchmark {
     public void service() throws Exception {
         servlet.service(request, response);
     }
+
+    // captureRequestHeaders needs to be configured for the servlet plugin (e.g. "x-*, accept*")
+    // in order for this to exercise the header capture
+    @Benchmark
+    public void serviceWithHeaders() throws Exception {
+        servlet.service(requestWithHeaders, response);
+    }
 }
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.servlet.support;
+
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Map;
+
+import com.google.common.collect.ImmutableMap;
+
+// header names and counts similar to a typical browser request that has passed through a load
+// balancer
+public class MockHttpRequestWithHeaders extends MockHttpRequest {
+
+    private static final Map<String, String> HEADERS = ImmutableMap.<String, String>builder()
+            .put("Host", "www.example.com")
+            .put("Connection", "keep-alive")
+            .put("Cache-Control", "max-age=0")
+            .put("Upgrade-Insecure-Requests", "1")
+            .put("User-Agent", "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36"
+                    + " (KHTML, like Gecko) Chrome/60.0.3112.113 Safari/537.36")
+            .put("Accept", "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8")
+            .put("Referer", "https://www.example.com/")
+            .put("Accept-Encoding", "gzip, deflate, br")
+            .put("Accept-Language", "en-US,en;q=0.8")
+            .put("Cookie", "JSESSIONID=0123456789ABCDEF; _ga=GA1.2.123456789.1234567890")
+            .put("X-Forwarded-For", "203.0.113.10, 198.51.100.20")
+            .put("X-Forwarded-Proto", "https")
+            .put("X-Forwarded-Port", "443")
+            .put("X-Request-Id", "9f8e7d6c-5b4a-3c2d-1e0f-a1b2c3d4e5f6")
+            .put("X-Amzn-Trace-Id", "Root=1-59b7c1a2-0123456789abcdef01234567")
+            .put("DNT", "1")
+            .build();
+
+    @Override
+    public String getMethod() {
+        return "GET";
+    }
+
+    @Override
+    public String getRequestURI() {
+        return "/index.html";
+    }
+
+    @Override
+    public String getHeader(String name) {
+        return HEADERS.get(name);
+    }
+
+    @Override
+    public Enumeration<String> getHeaders(String name) {
+        String value = HEADERS.get(name);
+        if (value == null) {
+            return Collections.enumeration(Collections.<String>emptyList());
+        }
+        return Collections.enumeration(Collections.singletonList(value));
+    }
+
+    @Override
+    public Enumeration<String> getHeaderNames() {
+        return Collections.enumeration(HEADERS.keySet());
+    }
+}
@@ -15,6 +15,8 @@
  */
 package org.glowroot.agent.central;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.net.InetAddress;
@@ -27,15 +29,21 @@ import javax.annotation.Nullable;
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.protobuf.MessageLite;
+import com.google.protobuf.Parser;
 import io.grpc.stub.StreamObserver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.glowroot.agent.central.CentralConnection.GrpcCall;
+import org.glowroot.agent.central.CentralConnection.SpoolReplayCallFactory;
 import org.glowroot.agent.collector.Collector;
+import org.glowroot.agent.impl.MemoryBudget;
 import org.glowroot.agent.live.LiveJvmServiceImpl;
 import org.glowroot.agent.live.LiveTraceRepositoryImpl;
 import org.glowroot.agent.live.LiveWeavingServiceImpl;
+import org.glowroot.agent.util.LazyPlatformMBeanServer;
+import org.glowroot.common.util.Clock;
 import org.glowroot.common.util.OnlyUsedByTests;
 import org.glowroot.wire.api.model.AgentConfigOuterClass.AgentConfig;
 import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
@@ -68,6 +76,9 @@ public class CentralCollector implements Collector {
     // log startup messages using logger name "org.glowroot"
     private static final Logger startupLogger = LoggerFactory.getLogger("org.glowroot");
 
+    private static final int UPLOAD_SPOOL_MAX_BYTES =
+            Integer.getInteger("glowroot.central.spool.maxBytes", 64 * 1024 * 1024);
+
     private final String agentId;
     private final String agentRollupId;
     private final String collectorAddress;
@@ -81,8 +92,10 @@ public class CentralCollector implements Collector {
 
     public CentralCollector(Map<String, String> properties, String collectorAddress,
             @Nullable String collectorAuthority, File confDir, @Nullable File sharedConfDir,
-            LiveJvmServiceImpl liveJvmService, LiveWeavingServiceImpl liveWeavingService,
-            LiveTraceRepositoryImpl liveTraceRepository, AgentConfigUpdater agentConfigUpdater)
+            File tmpDir, LiveJvmServiceImpl liveJvmService,
+            LiveWeavingServiceImpl liveWeavingService, LiveTraceRepositoryImpl liveTraceRepository,
+            AgentConfigUpdater agentConfigUpdater, MemoryBudget memoryBudget,
+            LazyPlatformMBeanServer lazyPlatformMBeanServer)
             throws Exception {
 
         String agentId = properties.get("glowroot.agent.id");
@@ -100,10 +113,14 @@ public class CentralCollector implements Collector {
         }
 
         AtomicBoolean inConnectionFailure = new AtomicBoolean();
+        UploadSpool uploadSpool = new UploadSpool(new File(tmpDir, "upload-spool.dat"),
+                UPLOAD_SPOOL_MAX_BYTES, Clock.systemClock());
+        lazyPlatformMBeanServer.lazyRegisterMBean(uploadSpool, "org.glowroot:type=UploadSpool");
         centralConnection = new CentralConnection(collectorAddress, collectorAuthority, confDir,
-                sharedConfDir, inConnectionFailure);
+                sharedConfDir, inConnectionFailure, memoryBudget, uploadSpool);
         collectorServiceStub = CollectorServiceGrpc.newStub(centralConnection.getChannel())
                 .withCompression("gzip");
+        centralConnection.startSpoolReplay(new SpoolReplayCallFactoryImpl());
         downstreamServiceObserver = new DownstreamServiceObserver(centralConnection,
                 agentConfigUpdater, liveJvmService, liveWeavingService, liveTraceRepository,
                 agentId, inConnectionFailure, sharedQueryTextLimiter);
@@ -159,6 +176,11 @@ public class CentralCollector implements Collector {
             public void call(StreamObserver<EmptyMessage> responseObserver) {
                 collectorServiceStub.collectGaugeValues(gaugeValueMessage, responseObserver);
             }
+            @Override
+            boolean spool(UploadSpool uploadSpool) {
+                return uploadSpool.append(UploadSpool.GAUGE_VALUES,
+                        gaugeValueMessage.toByteArray());
+            }
         });
     }
 
@@ -260,8 +282,18 @@ public class CentralCollector implements Collector {
 
         @Override
         public void call(StreamObserver<AggregateResponseMessage> responseObserver) {
-            final StreamObserver<AggregateStreamMessage> requestObserver =
-                    collectorServiceStub.collectAggregateStream(responseObserver);
+            send(collectorServiceStub.collectAggregateStream(responseObserver));
+        }
+
+        @Override
+        boolean spool(UploadSpool uploadSpool) {
+            SpoolingStreamObserver<AggregateStreamMessage> requestObserver =
+                    new SpoolingStreamObserver<AggregateStreamMessage>();
+            send(requestObserver);
+            return requestObserver.spool(uploadSpool, UploadSpool.AGGREGATES);
+        }
+
+        private void send(StreamObserver<AggregateStreamMessage> requestObserver) {
             requestObserver.onNext(AggregateStreamMessage.newBuilder()
                     .setStreamHeader(AggregateStreamHeader.newBuilder()
                             .setAgentId(agentId)
@@ -301,8 +333,22 @@ public class CentralCollector implements Collector {
 
         @Override
         public void call(StreamObserver<EmptyMessage> responseObserver) {
-            StreamObserver<TraceStreamMessage> requestObserver =
-                    collectorServiceStub.collectTraceStream(responseObserver);
+            send(collectorServiceStub.collectTraceStream(responseObserver));
+        }
+
+        @Override
+        boolean spool(UploadSpool uploadSpool) {
+            if (traceReader.partial()) {
+                // partial traces are live, and will be superseded by the completed trace anyways
+                return false;
+            }
+            SpoolingStreamObserver<TraceStreamMessage> requestObserver =
+                    new SpoolingStreamObserver<TraceStreamMessage>();
+            send(requestObserver);
+            return requestObserver.spool(uploadSpool, UploadSpool.TRACE);
+        }
+
+        private void send(StreamObserver<TraceStreamMessage> requestObserver) {
             requestObserver.onNext(TraceStreamMessage.newBuilder()
                     .setStreamHeader(TraceStreamHeader.newBuilder()
                             .setAgentId(agentId)
@@ -401,4 +447,95 @@ public class CentralCollector implements Collector {
                     .build());
         }
     }
+
+    private class SpoolReplayCallFactoryImpl implements SpoolReplayCallFactory {
+
+        @Override
+        public GrpcCall<?> create(UploadSpool.Record record) throws IOException {
+            switch (record.type()) {
+                case UploadSpool.AGGREGATES:
+                    final List<AggregateStreamMessage> aggregateStreamMessages =
+                            readDelimited(record.payload(), AggregateStreamMessage.parser());
+                    return new GrpcCall<AggregateResponseMessage>() {
+                        @Override
+                        public void call(
+                                StreamObserver<AggregateResponseMessage> responseObserver) {
+                            sendAll(collectorServiceStub.collectAggregateStream(responseObserver),
+                                    aggregateStreamMessages);
+                        }
+                    };
+                case UploadSpool.GAUGE_VALUES:
+                    final GaugeValueMessage gaugeValueMessage =
+                            GaugeValueMessage.parseFrom(record.payload());
+                    return new GrpcCall<EmptyMessage>() {
+                        @Override
+                        public void call(StreamObserver<EmptyMessage> responseObserver) {
+                            collectorServiceStub.collectGaugeValues(gaugeValueMessage,
+                                    responseObserver);
+                        }
+                    };
+                case UploadSpool.TRACE:
+                    final List<TraceStreamMessage> traceStreamMessages =
+                            readDelimited(record.payload(), TraceStreamMessage.parser());
+                    return new GrpcCall<EmptyMessage>() {
+                        @Override
+                        public void call(StreamObserver<EmptyMessage> responseObserver) {
+                            sendAll(collectorServiceStub.collectTraceStream(responseObserver),
+                                    traceStreamMessages);
+                        }
+                    };
+                default:
+                    throw new IOException("Unexpected upload spool record type: " + record.type());
+            }
+        }
+
+        private <T extends MessageLite> List<T> readDelimited(byte[] payload, Parser<T> parser)
+                throws IOException {
+            ByteArrayInputStream in = new ByteArrayInputStream(payload);
+            List<T> messages = Lists.newArrayList();
+            T message;
+            while ((message = parser.parseDelimitedFrom(in)) != null) {
+                messages.add(message);
+            }
+            return messages;
+        }
+
+        private <T> void sendAll(StreamObserver<T> requestObserver, List<T> messages) {
+            for (T message : messages) {
+                requestObserver.onNext(message);
+            }
+            requestObserver.onCompleted();
+        }
+    }
+
+    // captures the messages of a streaming call so they can be written to the upload spool
+    private static class SpoolingStreamObserver<T extends MessageLite>
+            implements StreamObserver<T> {
+
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        private boolean failed;
+
+        @Override
+        public void onNext(T value) {
+            try {
+                value.writeDelimitedTo(out);
+            } catch (IOException e) {
+                // ByteArrayOutputStream does not throw IOException
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            failed = true;
+        }
+
+        @Override
+        public void onCompleted() {}
+
+        private boolean spool(UploadSpool uploadSpool, byte type) {
+            return !failed && uploadSpool.append(type, out.toByteArray());
+        }
+    }
 }
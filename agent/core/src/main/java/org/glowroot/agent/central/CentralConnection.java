@@ -49,9 +49,11 @@ import org.immutables.value.Value;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.glowroot.agent.impl.MemoryBudget;
 import org.glowroot.agent.util.RateLimitedLogger;
 import org.glowroot.agent.util.ThreadFactories;
 import org.glowroot.common.util.OnlyUsedByTests;
+import org.glowroot.common.util.ScheduledRunnable;
 
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
@@ -63,6 +65,11 @@ class CentralConnection {
     // back pressure on connection to the central collector
     private static final int PENDING_LIMIT = 100;
 
+    // rate limit on replaying spooled data, so that the central collector is not flooded after
+    // an outage
+    private static final int SPOOL_REPLAY_RECORDS_PER_SECOND =
+            Integer.getInteger("glowroot.central.spool.replayRecordsPerSecond", 10);
+
     @SuppressWarnings("nullness:type.argument.type.incompatible")
     private final ThreadLocal<Boolean> suppressLogCollector = new ThreadLocal<Boolean>() {
         @Override
@@ -78,6 +85,10 @@ class CentralConnection {
     private final ScheduledExecutorService retryExecutor;
 
     private final AtomicBoolean inConnectionFailure;
+    private final MemoryBudget memoryBudget;
+    private final UploadSpool uploadSpool;
+
+    private volatile @Nullable SpoolReplayRunnable spoolReplayRunnable;
 
     private final Random random = new Random();
 
@@ -100,7 +111,8 @@ class CentralConnection {
     private volatile boolean closed;
 
     CentralConnection(String collectorAddress, @Nullable String collectorAuthority, File confDir,
-            @Nullable File sharedConfDir, AtomicBoolean inConnectionFailure) throws SSLException {
+            @Nullable File sharedConfDir, AtomicBoolean inConnectionFailure,
+            MemoryBudget memoryBudget, UploadSpool uploadSpool) throws SSLException {
         ParsedCollectorAddress parsedCollectorAddress = parseCollectorAddress(collectorAddress);
         eventLoopGroup = EventLoopGroups.create("Glowroot-GRPC-Worker-ELG");
         channelExecutor =
@@ -143,6 +155,8 @@ class CentralConnection {
         retryExecutor = Executors.newSingleThreadScheduledExecutor(
                 ThreadFactories.create("Glowroot-Collector-Retry"));
         this.inConnectionFailure = inConnectionFailure;
+        this.memoryBudget = memoryBudget;
+        this.uploadSpool = uploadSpool;
         this.collectorAddress = collectorAddress;
     }
 
@@ -154,6 +168,12 @@ class CentralConnection {
         return channel;
     }
 
+    void startSpoolReplay(SpoolReplayCallFactory spoolReplayCallFactory) {
+        SpoolReplayRunnable spoolReplayRunnable = new SpoolReplayRunnable(spoolReplayCallFactory);
+        spoolReplayRunnable.scheduleWithFixedDelay(retryExecutor, 1, 1, SECONDS);
+        this.spoolReplayRunnable = spoolReplayRunnable;
+    }
+
     <T extends /*@NonNull*/ Object> void callOnce(GrpcCall<T> call) {
         callWithAFewRetries(0, -1, call);
     }
@@ -176,6 +196,7 @@ class CentralConnection {
             return;
         }
         if (inConnectionFailure.get()) {
+            spool(call);
             return;
         }
         boolean logWarningAndDoNotSend = false;
@@ -184,16 +205,21 @@ class CentralConnection {
                 logWarningAndDoNotSend = true;
             } else {
                 pendingRequestCount++;
+                memoryBudget.incrementPendingUploads();
             }
         }
         if (logWarningAndDoNotSend) {
+            if (spool(call)) {
+                return;
+            }
             // it is important not to perform logging under the above synchronized lock in order to
             // eliminate possibility of deadlock
             suppressLogCollector(new Runnable() {
                 @Override
                 public void run() {
                     discardingDataLogger.warn("not sending data to the central collector"
-                            + " because pending request limit ({}) exceeded", PENDING_LIMIT);
+                            + " because pending request limit ({}) exceeded and the upload spool"
+                            + " is full", PENDING_LIMIT);
                 }
             });
             return;
@@ -233,6 +259,19 @@ class CentralConnection {
         call.call(new RetryingStreamObserver<T>(call, 15, -1, true));
     }
 
+    // returns false if the call could not be spooled, in which case the data is lost
+    private boolean spool(GrpcCall<?> call) {
+        if (closed) {
+            return false;
+        }
+        try {
+            return call.spool(uploadSpool);
+        } catch (Throwable t) {
+            logger.error(t.getMessage(), t);
+            return false;
+        }
+    }
+
     void suppressLogCollector(Runnable runnable) {
         boolean priorValue = suppressLogCollector.get();
         suppressLogCollector.set(true);
@@ -246,6 +285,10 @@ class CentralConnection {
     @OnlyUsedByTests
     void close() {
         closed = true;
+        SpoolReplayRunnable spoolReplayRunnable = this.spoolReplayRunnable;
+        if (spoolReplayRunnable != null) {
+            spoolReplayRunnable.cancel();
+        }
         retryExecutor.shutdown();
         channel.shutdown();
     }
@@ -344,6 +387,14 @@ class CentralConnection {
     abstract static class GrpcCall<T extends /*@NonNull*/ Object> {
         abstract void call(StreamObserver<T> responseObserver);
         void doWithResponse(@SuppressWarnings("unused") T response) {}
+        // returns false if this call does not support spooling or if the spool is full
+        boolean spool(@SuppressWarnings("unused") UploadSpool uploadSpool) throws Exception {
+            return false;
+        }
+    }
+
+    interface SpoolReplayCallFactory {
+        GrpcCall<?> create(UploadSpool.Record record) throws Exception;
     }
 
     private class RetryingStreamObserver<T extends /*@NonNull*/ Object>
@@ -388,6 +439,9 @@ class CentralConnection {
                 });
             }
             if (inConnectionFailure.get()) {
+                if (!init) {
+                    spool(grpcCall);
+                }
                 decrementPendingRequestCount();
                 return;
             }
@@ -398,7 +452,7 @@ class CentralConnection {
                 }
             });
             if (!init && stopwatch.elapsed(SECONDS) > maxTotalInSeconds) {
-                if (initCallSucceeded) {
+                if (!spool(grpcCall) && initCallSucceeded) {
                     suppressLogCollector(new Runnable() {
                         @Override
                         public void run() {
@@ -450,11 +504,101 @@ class CentralConnection {
             if (!init) {
                 synchronized (discardingDataLogger) {
                     pendingRequestCount--;
+                    memoryBudget.decrementPendingUploads();
                 }
             }
         }
     }
 
+    // replays spooled data one record at a time (in order), only removing each record from the
+    // spool once it has been successfully received by the central collector
+    private class SpoolReplayRunnable extends ScheduledRunnable {
+
+        private final SpoolReplayCallFactory spoolReplayCallFactory;
+
+        private final AtomicBoolean inProgress = new AtomicBoolean();
+
+        // only accessed by the current replay chain (see inProgress)
+        private volatile int remainingPermits;
+
+        private SpoolReplayRunnable(SpoolReplayCallFactory spoolReplayCallFactory) {
+            this.spoolReplayCallFactory = spoolReplayCallFactory;
+        }
+
+        @Override
+        protected void runInternal() {
+            if (closed || !initCallSucceeded || inConnectionFailure.get()) {
+                return;
+            }
+            synchronized (discardingDataLogger) {
+                // give priority to current data
+                if (pendingRequestCount >= PENDING_LIMIT / 2) {
+                    return;
+                }
+            }
+            if (!inProgress.compareAndSet(false, true)) {
+                return;
+            }
+            remainingPermits = SPOOL_REPLAY_RECORDS_PER_SECOND;
+            replayNext();
+        }
+
+        private void replayNext() {
+            if (closed || inConnectionFailure.get() || remainingPermits == 0) {
+                inProgress.set(false);
+                return;
+            }
+            UploadSpool.Record record = uploadSpool.peek();
+            if (record == null) {
+                inProgress.set(false);
+                return;
+            }
+            remainingPermits--;
+            GrpcCall<?> call;
+            try {
+                call = spoolReplayCallFactory.create(record);
+            } catch (Exception e) {
+                logger.error("discarding unreadable upload spool record: {}", e.getMessage(), e);
+                uploadSpool.remove(record);
+                replayNext();
+                return;
+            }
+            replay(call, record);
+        }
+
+        private <T extends /*@NonNull*/ Object> void replay(final GrpcCall<T> call,
+                final UploadSpool.Record record) {
+            StreamObserver<T> responseObserver = new StreamObserver<T>() {
+                @Override
+                public void onNext(T value) {
+                    call.doWithResponse(value);
+                }
+                @Override
+                public void onError(final Throwable t) {
+                    // will try again on next run
+                    suppressLogCollector(new Runnable() {
+                        @Override
+                        public void run() {
+                            logger.debug(t.getMessage(), t);
+                        }
+                    });
+                    inProgress.set(false);
+                }
+                @Override
+                public void onCompleted() {
+                    uploadSpool.remove(record);
+                    replayNext();
+                }
+            };
+            try {
+                call.call(responseObserver);
+            } catch (Throwable t) {
+                logger.error(t.getMessage(), t);
+                inProgress.set(false);
+            }
+        }
+    }
+
     private static class SimpleNameResolverFactory extends NameResolver.Factory {
 
         private final List<InetSocketAddress> collectorAddresses;
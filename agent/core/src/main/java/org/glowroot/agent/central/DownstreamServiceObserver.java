@@ -15,8 +15,10 @@
  */
 package org.glowroot.agent.central;
 
+import java.io.FileNotFoundException;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -51,6 +53,8 @@ import org.glowroot.wire.api.model.DownstreamServiceOuterClass.CentralRequest;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.CentralRequest.MessageCase;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.EntriesResponse;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.ExceptionResponse;
+import org.glowroot.wire.api.model.DownstreamServiceOuterClass.FileChunkRequest;
+import org.glowroot.wire.api.model.DownstreamServiceOuterClass.FileChunkResponse;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.FullTraceResponse;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.GcResponse;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.GlobalMeta;
@@ -58,6 +62,8 @@ import org.glowroot.wire.api.model.DownstreamServiceOuterClass.GlobalMetaRespons
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.HeaderResponse;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.HeapDumpFileInfo;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.HeapDumpResponse;
+import org.glowroot.wire.api.model.DownstreamServiceOuterClass.HeapDumpSummary;
+import org.glowroot.wire.api.model.DownstreamServiceOuterClass.HeapDumpSummaryResponse;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.HeapHistogram;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.HeapHistogramResponse;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.Hello;
@@ -114,6 +120,11 @@ class DownstreamServiceObserver implements StreamObserver<CentralRequest> {
 
     private final ScheduledExecutorService scheduledRetryExecutor;
 
+    // only one heap dump summary is run at a time, since it can take minutes and uses a good amount
+    // of memory (requests received while one is already running are rejected)
+    private final ExecutorService heapDumpSummaryExecutor;
+    private final AtomicBoolean heapDumpSummaryRunning = new AtomicBoolean();
+
     private final RateLimitedLogger lostConnectionLogger =
             new RateLimitedLogger(DownstreamServiceObserver.class, true);
 
@@ -134,6 +145,8 @@ class DownstreamServiceObserver implements StreamObserver<CentralRequest> {
         this.sharedQueryTextLimiter = sharedQueryTextLimiter;
         scheduledRetryExecutor = Executors.newSingleThreadScheduledExecutor(
                 ThreadFactories.create("Glowroot-Downstream-Retry"));
+        heapDumpSummaryExecutor = Executors.newSingleThreadExecutor(
+                ThreadFactories.create("Glowroot-Heap-Dump-Summary"));
     }
 
     @Override
@@ -190,7 +203,8 @@ class DownstreamServiceObserver implements StreamObserver<CentralRequest> {
 
     void connectAsync() {
         // these are async so never fail, onError() will be called on failure
-        StreamObserver<AgentResponse> responseObserver = downstreamServiceStub.connect(this);
+        StreamObserver<AgentResponse> responseObserver =
+                new SynchronizedStreamObserver(downstreamServiceStub.connect(this));
         currResponseObserver = responseObserver;
         responseObserver.onNext(AgentResponse.newBuilder()
                 .setHello(Hello.newBuilder()
@@ -220,6 +234,12 @@ class DownstreamServiceObserver implements StreamObserver<CentralRequest> {
             case HEAP_DUMP_REQUEST:
                 heapDumpAndRespond(request, responseObserver);
                 return;
+            case FILE_CHUNK_REQUEST:
+                fileChunkAndRespond(request, responseObserver);
+                return;
+            case HEAP_DUMP_SUMMARY_REQUEST:
+                heapDumpSummaryAndRespondAsync(request, responseObserver);
+                return;
             case HEAP_HISTOGRAM_REQUEST:
                 heapHistogramAndRespond(request, responseObserver);
                 return;
@@ -400,6 +420,75 @@ class DownstreamServiceObserver implements StreamObserver<CentralRequest> {
                 .build());
     }
 
+    private void fileChunkAndRespond(CentralRequest request,
+            StreamObserver<AgentResponse> responseObserver) {
+        FileChunkRequest req = request.getFileChunkRequest();
+        FileChunkResponse fileChunkResponse;
+        try {
+            fileChunkResponse = liveJvmService.readFileChunk(req.getFilePath(), req.getOffset(),
+                    req.getMaxBytes());
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+            sendExceptionResponse(request, responseObserver);
+            return;
+        }
+        responseObserver.onNext(AgentResponse.newBuilder()
+                .setRequestId(request.getRequestId())
+                .setFileChunkResponse(fileChunkResponse)
+                .build());
+    }
+
+    // summarizing a large heap dump can take minutes, so the response is sent from a separate
+    // thread, instead of blocking all other downstream requests (which are processed one at a time)
+    private void heapDumpSummaryAndRespondAsync(final CentralRequest request,
+            final StreamObserver<AgentResponse> responseObserver) {
+        if (!heapDumpSummaryRunning.compareAndSet(false, true)) {
+            logger.warn("heap dump summary request rejected since another heap dump summary is"
+                    + " already running");
+            sendExceptionResponse(request, responseObserver);
+            return;
+        }
+        heapDumpSummaryExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
+                try {
+                    heapDumpSummaryAndRespond(request, responseObserver);
+                } catch (Throwable t) {
+                    logger.error(t.getMessage(), t);
+                } finally {
+                    heapDumpSummaryRunning.set(false);
+                }
+            }
+        });
+    }
+
+    private void heapDumpSummaryAndRespond(CentralRequest request,
+            StreamObserver<AgentResponse> responseObserver) {
+        HeapDumpSummary heapDumpSummary;
+        try {
+            heapDumpSummary = liveJvmService.heapDumpSummary("",
+                    request.getHeapDumpSummaryRequest().getFilePath());
+        } catch (FileNotFoundException e) {
+            logger.debug(e.getMessage(), e);
+            responseObserver.onNext(AgentResponse.newBuilder()
+                    .setRequestId(request.getRequestId())
+                    .setHeapDumpSummaryResponse(HeapDumpSummaryResponse.newBuilder()
+                            .setFileNotFound(true))
+                    .build());
+            return;
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+            sendExceptionResponse(request, responseObserver);
+            return;
+        }
+        responseObserver.onNext(AgentResponse.newBuilder()
+                .setRequestId(request.getRequestId())
+                .setHeapDumpSummaryResponse(HeapDumpSummaryResponse.newBuilder()
+                        .setHeapDumpSummary(heapDumpSummary))
+                .build());
+    }
+
     private void heapHistogramAndRespond(CentralRequest request,
             StreamObserver<AgentResponse> responseObserver) {
         HeapHistogram heapHistogram;
@@ -815,4 +904,31 @@ class DownstreamServiceObserver implements StreamObserver<CentralRequest> {
             }
         }
     }
+
+    // responses are normally sent from the grpc thread that delivers the requests, but some are
+    // sent from a separate thread (see heapDumpSummaryAndRespondAsync()), and StreamObserver is not
+    // thread safe
+    private static class SynchronizedStreamObserver implements StreamObserver<AgentResponse> {
+
+        private final StreamObserver<AgentResponse> delegate;
+
+        private SynchronizedStreamObserver(StreamObserver<AgentResponse> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public synchronized void onNext(AgentResponse value) {
+            delegate.onNext(value);
+        }
+
+        @Override
+        public synchronized void onError(Throwable t) {
+            delegate.onError(t);
+        }
+
+        @Override
+        public synchronized void onCompleted() {
+            delegate.onCompleted();
+        }
+    }
 }
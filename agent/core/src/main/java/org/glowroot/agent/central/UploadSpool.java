@@ -0,0 +1,252 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.central;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.glowroot.common.util.Clock;
+
+// bounded, append-only, memory-mapped file where data is spooled when it cannot be sent to the
+// central collector, so that it can be replayed (in order) once the connection recovers
+//
+// the read and write positions are stored in the file header so that spooled data also survives
+// agent restarts
+class UploadSpool implements UploadSpoolMXBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(UploadSpool.class);
+
+    static final byte AGGREGATES = 1;
+    static final byte GAUGE_VALUES = 2;
+    static final byte TRACE = 3;
+
+    // read position and write position
+    private static final int HEADER_SIZE = 8;
+    // payload length, type and spool time
+    private static final int RECORD_HEADER_SIZE = 13;
+
+    private final File file;
+    private final int maxBytes;
+    private final Clock clock;
+
+    @GuardedBy("this")
+    private @MonotonicNonNull MappedByteBuffer mappedBuffer;
+    // the region of the mapped buffer following the header
+    @GuardedBy("this")
+    private @MonotonicNonNull ByteBuffer data;
+    @GuardedBy("this")
+    private int readPosition;
+    @GuardedBy("this")
+    private int writePosition;
+    @GuardedBy("this")
+    private int recordCount;
+    @GuardedBy("this")
+    private boolean unavailable;
+
+    UploadSpool(File file, int maxBytes, Clock clock) {
+        this.file = file;
+        this.maxBytes = maxBytes;
+        this.clock = clock;
+        if (file.exists()) {
+            // replay data spooled prior to restart
+            synchronized (this) {
+                open();
+            }
+        }
+    }
+
+    // returns false if there is not enough room in the spool
+    synchronized boolean append(byte type, byte[] payload) {
+        if (!open()) {
+            return false;
+        }
+        int recordSize = RECORD_HEADER_SIZE + payload.length;
+        if (writePosition + recordSize > data.capacity()) {
+            compact();
+            if (writePosition + recordSize > data.capacity()) {
+                return false;
+            }
+        }
+        data.putInt(writePosition, payload.length);
+        data.put(writePosition + 4, type);
+        data.putLong(writePosition + 5, clock.currentTimeMillis());
+        ByteBuffer buffer = data.duplicate();
+        buffer.position(writePosition + RECORD_HEADER_SIZE);
+        buffer.put(payload);
+        writePosition += recordSize;
+        recordCount++;
+        writeHeader();
+        return true;
+    }
+
+    synchronized @Nullable Record peek() {
+        if (data == null || readPosition == writePosition) {
+            return null;
+        }
+        ByteBuffer buffer = data.duplicate();
+        buffer.position(readPosition);
+        byte[] payload = new byte[buffer.getInt()];
+        byte type = buffer.get();
+        // skip spool time
+        buffer.getLong();
+        buffer.get(payload);
+        return new Record(type, payload);
+    }
+
+    // removes the record returned by the prior call to peek()
+    synchronized void remove(Record record) {
+        if (data == null || readPosition == writePosition) {
+            return;
+        }
+        readPosition += RECORD_HEADER_SIZE + record.payload.length;
+        recordCount--;
+        if (readPosition == writePosition) {
+            readPosition = 0;
+            writePosition = 0;
+        }
+        writeHeader();
+    }
+
+    @Override
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    @Override
+    public synchronized long getSizeBytes() {
+        return writePosition - readPosition;
+    }
+
+    @Override
+    public synchronized int getRecordCount() {
+        return recordCount;
+    }
+
+    @Override
+    public synchronized long getReplayLagMillis() {
+        if (data == null || readPosition == writePosition) {
+            return 0;
+        }
+        return clock.currentTimeMillis() - data.getLong(readPosition + 5);
+    }
+
+    @GuardedBy("this")
+    private boolean open() {
+        if (data != null) {
+            return true;
+        }
+        if (unavailable) {
+            return false;
+        }
+        try {
+            RandomAccessFile out = new RandomAccessFile(file, "rw");
+            try {
+                // the mapping remains valid after the file is closed
+                mappedBuffer = out.getChannel().map(MapMode.READ_WRITE, 0, maxBytes);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            logger.error("unable to create upload spool file {}: {}", file.getAbsolutePath(),
+                    e.getMessage(), e);
+            unavailable = true;
+            return false;
+        }
+        mappedBuffer.position(HEADER_SIZE);
+        data = mappedBuffer.slice();
+        readPosition = mappedBuffer.getInt(0);
+        writePosition = mappedBuffer.getInt(4);
+        if (!isValid()) {
+            logger.warn("discarding corrupt upload spool file: {}", file.getAbsolutePath());
+            readPosition = 0;
+            writePosition = 0;
+            recordCount = 0;
+            writeHeader();
+        }
+        return true;
+    }
+
+    @GuardedBy("this")
+    private boolean isValid() {
+        if (readPosition < 0 || readPosition > writePosition || writePosition > data.capacity()) {
+            return false;
+        }
+        int position = readPosition;
+        while (position < writePosition) {
+            if (position + RECORD_HEADER_SIZE > writePosition) {
+                return false;
+            }
+            int payloadLength = data.getInt(position);
+            if (payloadLength < 0
+                    || payloadLength > writePosition - position - RECORD_HEADER_SIZE) {
+                return false;
+            }
+            position += RECORD_HEADER_SIZE + payloadLength;
+            recordCount++;
+        }
+        return position == writePosition;
+    }
+
+    @GuardedBy("this")
+    private void compact() {
+        if (readPosition == 0) {
+            return;
+        }
+        ByteBuffer buffer = data.duplicate();
+        buffer.position(readPosition);
+        buffer.limit(writePosition);
+        buffer.compact();
+        writePosition -= readPosition;
+        readPosition = 0;
+        writeHeader();
+    }
+
+    @GuardedBy("this")
+    private void writeHeader() {
+        mappedBuffer.putInt(0, readPosition);
+        mappedBuffer.putInt(4, writePosition);
+    }
+
+    static class Record {
+
+        private final byte type;
+        private final byte[] payload;
+
+        private Record(byte type, byte[] payload) {
+            this.type = type;
+            this.payload = payload;
+        }
+
+        byte type() {
+            return type;
+        }
+
+        byte[] payload() {
+            return payload;
+        }
+    }
+}
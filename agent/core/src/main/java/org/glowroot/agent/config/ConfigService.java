@@ -403,6 +403,13 @@ public class ConfigService {
                     .addMbeanAttributes(ImmutableMBeanAttribute.of("SystemCpuLoad", false));
         }
         defaultGaugeConfigs.add(operatingSystemMBean.build());
+        // registered by the jdbc plugin for recognized connection pools
+        defaultGaugeConfigs.add(ImmutableGaugeConfig.builder()
+                .mbeanObjectName("org.glowroot:type=JdbcConnectionPool,name=*")
+                .addMbeanAttributes(ImmutableMBeanAttribute.of("ActiveConnections", false))
+                .addMbeanAttributes(ImmutableMBeanAttribute.of("IdleConnections", false))
+                .addMbeanAttributes(ImmutableMBeanAttribute.of("PendingThreads", false))
+                .build());
         return ImmutableList.copyOf(defaultGaugeConfigs);
     }
 
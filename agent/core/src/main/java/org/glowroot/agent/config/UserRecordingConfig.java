@@ -34,10 +34,18 @@ public abstract class UserRecordingConfig {
     @JsonInclude(Include.NON_NULL)
     public abstract @Nullable Integer profilingIntervalMillis();
 
+    // allocations between stack trace samples are attributed to the sampled stack traces
+    @Value.Default
+    @JsonInclude(Include.NON_EMPTY)
+    public boolean allocationProfiling() {
+        return false;
+    }
+
     public AgentConfig.UserRecordingConfig toProto() {
         AgentConfig.UserRecordingConfig.Builder builder =
                 AgentConfig.UserRecordingConfig.newBuilder()
-                        .addAllUser(users());
+                        .addAllUser(users())
+                        .setAllocationProfiling(allocationProfiling());
         Integer profilingIntervalMillis = profilingIntervalMillis();
         if (profilingIntervalMillis != null) {
             builder.setProfilingIntervalMillis(
@@ -48,7 +56,8 @@ public abstract class UserRecordingConfig {
 
     public static UserRecordingConfig create(AgentConfig.UserRecordingConfig config) {
         ImmutableUserRecordingConfig.Builder builder = ImmutableUserRecordingConfig.builder()
-                .addAllUsers(config.getUserList());
+                .addAllUsers(config.getUserList())
+                .allocationProfiling(config.getAllocationProfiling());
         if (config.hasProfilingIntervalMillis()) {
             builder.profilingIntervalMillis(config.getProfilingIntervalMillis().getValue());
         }
@@ -327,7 +327,8 @@ public class AggregateDao implements AggregateRepository {
                             toBeMergedQuery.getTruncatedText(),
                             Strings.emptyToNull(toBeMergedQuery.getFullTextSha1()),
                             toBeMergedQuery.getTotalDurationNanos(),
-                            toBeMergedQuery.getExecutionCount(), toBeMergedQuery.hasTotalRows(),
+                            toBeMergedQuery.getExecutionCount(),
+                            toBeMergedQuery.getRoundTripCount(), toBeMergedQuery.hasTotalRows(),
                             toBeMergedQuery.getTotalRows().getValue());
                 }
             }
@@ -511,7 +512,8 @@ public class AggregateDao implements AggregateRepository {
                                 query.getTruncatedText(),
                                 Strings.emptyToNull(query.getFullTextSha1()),
                                 query.getTotalDurationNanos(), query.getExecutionCount(),
-                                query.hasTotalRows(), query.getTotalRows().getValue());
+                                query.getRoundTripCount(), query.hasTotalRows(),
+                                query.getTotalRows().getValue());
                     }
                 }
             }
@@ -254,7 +254,8 @@ class AggregateInsert implements JdbcUpdate {
                         .setTruncatedText(truncatedQueryText.truncatedText())
                         .setFullTextSha1(Strings.nullToEmpty(truncatedQueryText.fullTextSha1()))
                         .setTotalDurationNanos(loopQuery.getTotalDurationNanos())
-                        .setExecutionCount(loopQuery.getExecutionCount());
+                        .setExecutionCount(loopQuery.getExecutionCount())
+                        .setRoundTripCount(loopQuery.getRoundTripCount());
                 if (loopQuery.hasTotalRows()) {
                     storedQuery.setTotalRows(Stored.OptionalInt64.newBuilder()
                             .setValue(loopQuery.getTotalRows().getValue())
@@ -281,7 +282,8 @@ class AggregateInsert implements JdbcUpdate {
                         .setTruncatedText(query.getTruncatedText())
                         .setFullTextSha1(Strings.nullToEmpty(query.getFullTextSha1()))
                         .setTotalDurationNanos(query.getTotalDurationNanos())
-                        .setExecutionCount(query.getExecutionCount());
+                        .setExecutionCount(query.getExecutionCount())
+                        .setRoundTripCount(query.getRoundTripCount());
                 if (query.hasTotalRows()) {
                     storedQuery.setTotalRows(Stored.OptionalInt64.newBuilder()
                             .setValue(query.getTotalRows())
@@ -106,6 +106,16 @@ public class Aggregator {
         activeIntervalCollector.clear();
     }
 
+    int getPendingTransactionCount() {
+        synchronized (queueLock) {
+            return queueLength;
+        }
+    }
+
+    int getPendingIntervalCount() {
+        return pendingIntervalCollectors.size();
+    }
+
     long add(Transaction transaction) {
         // this synchronized block is to ensure traces are placed into processing queue in the
         // order of captureTime (so that queue reader can assume if captureTime indicates time to
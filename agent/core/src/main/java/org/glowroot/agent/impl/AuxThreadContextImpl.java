@@ -118,6 +118,7 @@ class AuxThreadContextImpl implements AuxThreadContext {
         if (completeAsyncTransaction) {
             context.setTransactionAsyncComplete();
         }
+        context.setReusableAuxThreadContext(this);
         TraceEntryImpl rootEntry = context.getRootEntry();
         if (locationStackTrace != null) {
             rootEntry.setLocationStackTrace(locationStackTrace);
@@ -125,6 +126,15 @@ class AuxThreadContextImpl implements AuxThreadContext {
         return rootEntry;
     }
 
+    boolean isReusableFor(@Nullable TraceEntryImpl parentTraceEntry,
+            @Nullable TraceEntryImpl parentThreadContextPriorEntry,
+            @Nullable ServletRequestInfo servletRequestInfo) {
+        return this.parentTraceEntry == parentTraceEntry
+                && this.parentThreadContextPriorEntry == parentThreadContextPriorEntry
+                && this.servletRequestInfo == servletRequestInfo
+                && locationStackTrace == null;
+    }
+
     private static Object getThreadContextDisplay(@Nullable TraceEntryImpl parentTraceEntry) {
         if (parentTraceEntry == null) {
             return "null (aux thread context limit exceeded)";
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.impl;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.glowroot.common.util.ScheduledRunnable;
+
+// global budget across the agent's in-memory structures, based on (rough) estimated sizes, which
+// are recalculated periodically so that there is no accounting overhead on the transaction path
+//
+// when the budget is exceeded, the agent degrades gracefully by first dropping stack trace
+// samples, then trace entries and finally traces altogether
+public class MemoryBudget extends ScheduledRunnable implements MemoryBudgetMXBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(MemoryBudget.class);
+
+    public static final int PERIOD_MILLIS = 1000;
+
+    // these are only rough estimates, the budget is meant to catch runaway memory usage, not to
+    // perform precise accounting
+    private static final long TRANSACTION_BYTES = 2048;
+    private static final long ENTRY_BYTES = 300;
+    private static final long PROFILE_SAMPLE_BYTES = 100;
+    private static final long AGGREGATE_INTERVAL_BYTES = 256 * 1024;
+    private static final long UPLOAD_BYTES = 64 * 1024;
+
+    private final TransactionRegistry transactionRegistry;
+    private final TransactionCollector transactionCollector;
+    private final Aggregator aggregator;
+    private final long maxBytes;
+
+    private final AtomicInteger pendingUploadCount = new AtomicInteger();
+
+    // this is off-heap so it is not counted against the budget, but it is replenished from the same
+    // background thread
+    private final TraceEntrySpillPool traceEntrySpillPool =
+            new TraceEntrySpillPool(Long.getLong("glowroot.transaction.entry.spill.maxTotalBytes",
+                    Runtime.getRuntime().maxMemory() / 10));
+
+    private volatile long activeTransactionBytes;
+    private volatile long pendingAggregateBytes;
+    private volatile long pendingTraceBytes;
+
+    private volatile Degradation degradation = Degradation.NONE;
+
+    public MemoryBudget(TransactionRegistry transactionRegistry,
+            TransactionCollector transactionCollector, Aggregator aggregator, long maxBytes) {
+        this.transactionRegistry = transactionRegistry;
+        this.transactionCollector = transactionCollector;
+        this.aggregator = aggregator;
+        this.maxBytes = maxBytes;
+    }
+
+    public void incrementPendingUploads() {
+        pendingUploadCount.getAndIncrement();
+    }
+
+    public void decrementPendingUploads() {
+        pendingUploadCount.getAndDecrement();
+    }
+
+    TraceEntrySpillPool getTraceEntrySpillPool() {
+        return traceEntrySpillPool;
+    }
+
+    boolean isDroppingProfiles() {
+        return degradation.compareTo(Degradation.DROP_PROFILES) >= 0;
+    }
+
+    boolean isDroppingEntries() {
+        return degradation.compareTo(Degradation.DROP_ENTRIES) >= 0;
+    }
+
+    boolean isDroppingTraces() {
+        return degradation == Degradation.DROP_TRACES;
+    }
+
+    @Override
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    @Override
+    public long getEstimatedBytes() {
+        return activeTransactionBytes + pendingAggregateBytes + pendingTraceBytes
+                + getPendingUploadBytes();
+    }
+
+    @Override
+    public long getActiveTransactionBytes() {
+        return activeTransactionBytes;
+    }
+
+    @Override
+    public long getPendingAggregateBytes() {
+        return pendingAggregateBytes;
+    }
+
+    @Override
+    public long getPendingTraceBytes() {
+        return pendingTraceBytes;
+    }
+
+    @Override
+    public long getPendingUploadBytes() {
+        return pendingUploadCount.get() * UPLOAD_BYTES;
+    }
+
+    @Override
+    public String getDegradation() {
+        return degradation.name();
+    }
+
+    @Override
+    protected void runInternal() {
+        long activeTransactionBytes = 0;
+        for (Transaction transaction : transactionRegistry.getTransactions()) {
+            activeTransactionBytes += estimateBytes(transaction);
+        }
+        long pendingTraceBytes = 0;
+        for (Transaction transaction : transactionCollector.getPendingTransactions()) {
+            pendingTraceBytes += estimateBytes(transaction);
+        }
+        // transactions waiting to be aggregated are not tracked individually, so are counted at the
+        // base transaction size
+        this.pendingAggregateBytes =
+                aggregator.getPendingTransactionCount() * TRANSACTION_BYTES
+                        + aggregator.getPendingIntervalCount() * AGGREGATE_INTERVAL_BYTES;
+        this.activeTransactionBytes = activeTransactionBytes;
+        this.pendingTraceBytes = pendingTraceBytes;
+        updateDegradation(getEstimatedBytes());
+        traceEntrySpillPool.replenish();
+    }
+
+    private void updateDegradation(long estimatedBytes) {
+        Degradation degradation;
+        if (estimatedBytes >= maxBytes * 3 / 2) {
+            degradation = Degradation.DROP_TRACES;
+        } else if (estimatedBytes >= maxBytes * 5 / 4) {
+            degradation = Degradation.DROP_ENTRIES;
+        } else if (estimatedBytes >= maxBytes) {
+            degradation = Degradation.DROP_PROFILES;
+        } else {
+            degradation = Degradation.NONE;
+        }
+        Degradation priorDegradation = this.degradation;
+        if (degradation == priorDegradation) {
+            return;
+        }
+        this.degradation = degradation;
+        if (degradation.compareTo(priorDegradation) > 0) {
+            logger.warn("agent memory budget exceeded (estimated {} bytes, budget {} bytes),"
+                    + " degrading to {}", estimatedBytes, maxBytes, degradation);
+        } else {
+            logger.info("agent memory usage is back down (estimated {} bytes, budget {} bytes),"
+                    + " degrading to {}", estimatedBytes, maxBytes, degradation);
+        }
+    }
+
+    @VisibleForTesting
+    static long estimateBytes(Transaction transaction) {
+        long profileSampleCount = transaction.getMainThreadProfileSampleCount()
+                + transaction.getAuxThreadProfileSampleCount();
+        return TRANSACTION_BYTES + transaction.getEntryCount() * ENTRY_BYTES
+                + profileSampleCount * PROFILE_SAMPLE_BYTES;
+    }
+
+    // ordered from least to most severe
+    enum Degradation {
+        NONE, DROP_PROFILES, DROP_ENTRIES, DROP_TRACES
+    }
+}
@@ -26,6 +26,7 @@ import org.glowroot.agent.api.internal.GlowrootService;
 import org.glowroot.agent.plugin.api.TimerName;
 import org.glowroot.agent.plugin.api.config.ConfigService;
 import org.glowroot.agent.plugin.api.internal.ServiceRegistry;
+import org.glowroot.agent.util.LazyPlatformMBeanServer;
 
 public class ServiceRegistryImpl implements ServiceRegistry {
 
@@ -33,13 +34,16 @@ public class ServiceRegistryImpl implements ServiceRegistry {
 
     private final GlowrootService glowrootService;
     private final TimerNameCache timerNameCache;
+    private final LazyPlatformMBeanServer lazyPlatformMBeanServer;
 
     private final LoadingCache<String, ConfigService> configServices;
 
     private ServiceRegistryImpl(GlowrootService glowrootService, TimerNameCache timerNameCache,
+            LazyPlatformMBeanServer lazyPlatformMBeanServer,
             final ConfigServiceFactory configServiceFactory) {
         this.glowrootService = glowrootService;
         this.timerNameCache = timerNameCache;
+        this.lazyPlatformMBeanServer = lazyPlatformMBeanServer;
         configServices = CacheBuilder.newBuilder()
                 .build(new CacheLoader<String, ConfigService>() {
                     @Override
@@ -64,6 +68,16 @@ public class ServiceRegistryImpl implements ServiceRegistry {
         return configServices.getUnchecked(pluginId);
     }
 
+    @Override
+    public void lazyRegisterMBean(Object object, String name) {
+        lazyPlatformMBeanServer.lazyRegisterMBean(object, name);
+    }
+
+    @Override
+    public void lazyUnregisterMBean(String name) {
+        lazyPlatformMBeanServer.lazyUnregisterMBean(name);
+    }
+
     // called via reflection from org.glowroot.agent.plugin.api.Agent
     // also called via reflection from generated pointcut config advice
     public static @Nullable ServiceRegistry getInstance() {
@@ -77,8 +91,10 @@ public class ServiceRegistryImpl implements ServiceRegistry {
     }
 
     public static void init(GlowrootService glowrootService, TimerNameCache timerNameCache,
+            LazyPlatformMBeanServer lazyPlatformMBeanServer,
             ConfigServiceFactory configServiceFactory) {
-        instance = new ServiceRegistryImpl(glowrootService, timerNameCache, configServiceFactory);
+        instance = new ServiceRegistryImpl(glowrootService, timerNameCache,
+                lazyPlatformMBeanServer, configServiceFactory);
     }
 
     public interface ConfigServiceFactory {
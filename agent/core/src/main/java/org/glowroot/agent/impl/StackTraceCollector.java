@@ -22,6 +22,7 @@ import java.util.Random;
 
 import javax.annotation.Nullable;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import org.slf4j.Logger;
@@ -29,6 +30,7 @@ import org.slf4j.LoggerFactory;
 
 import org.glowroot.agent.config.ConfigService;
 import org.glowroot.agent.plugin.api.config.ConfigListener;
+import org.glowroot.agent.util.VirtualThreads;
 import org.glowroot.common.util.OnlyUsedByTests;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -81,28 +83,62 @@ public class StackTraceCollector {
 
     static void captureStackTraces(List<ThreadContextImpl> threadContexts,
             ConfigService configService) {
-        if (threadContexts.isEmpty()) {
+        captureStackTraces(threadContexts, configService, VirtualThreads.isSupported());
+    }
+
+    @VisibleForTesting
+    static void captureStackTraces(List<ThreadContextImpl> threadContexts,
+            ConfigService configService, boolean virtualThreadsSupported) {
+        int limit = configService.getAdvancedConfig().maxStackTraceSamplesPerTransaction();
+        List<ThreadContextImpl> platformThreadContexts = threadContexts;
+        if (virtualThreadsSupported) {
+            platformThreadContexts = Lists.newArrayListWithCapacity(threadContexts.size());
+            for (ThreadContextImpl threadContext : threadContexts) {
+                Thread virtualThread = threadContext.getVirtualThread();
+                if (virtualThread == null) {
+                    platformThreadContexts.add(threadContext);
+                } else {
+                    captureStackTrace(threadContext, virtualThread, limit);
+                }
+            }
+        }
+        if (platformThreadContexts.isEmpty()) {
             // critical not to call ThreadMXBean.getThreadInfo() with empty id list
             // see https://bugs.openjdk.java.net/browse/JDK-8074368
             return;
         }
-        long[] threadIds = new long[threadContexts.size()];
-        for (int i = 0; i < threadContexts.size(); i++) {
-            threadIds[i] = threadContexts.get(i).getThreadId();
+        long[] threadIds = new long[platformThreadContexts.size()];
+        for (int i = 0; i < platformThreadContexts.size(); i++) {
+            threadIds[i] = platformThreadContexts.get(i).getThreadId();
         }
         @Nullable
         ThreadInfo[] threadInfos =
                 ManagementFactory.getThreadMXBean().getThreadInfo(threadIds, Integer.MAX_VALUE);
-        int limit = configService.getAdvancedConfig().maxStackTraceSamplesPerTransaction();
-        for (int i = 0; i < threadContexts.size(); i++) {
-            ThreadContextImpl threadContext = threadContexts.get(i);
+        for (int i = 0; i < platformThreadContexts.size(); i++) {
+            ThreadContextImpl threadContext = platformThreadContexts.get(i);
             ThreadInfo threadInfo = threadInfos[i];
             if (threadInfo != null) {
-                threadContext.captureStackTrace(threadInfo, limit);
+                threadContext.captureStackTrace(threadInfo.getStackTrace(),
+                        threadInfo.getThreadState(), limit);
             }
         }
     }
 
+    // virtual threads are not visible to ThreadMXBean, and sampling the carrier thread would
+    // capture whichever virtual thread (if any) happens to be mounted on it, but
+    // Thread.getStackTrace() on a virtual thread returns its own stack trace whether or not it is
+    // currently mounted
+    private static void captureStackTrace(ThreadContextImpl threadContext, Thread virtualThread,
+            int limit) {
+        Thread.State threadState = virtualThread.getState();
+        StackTraceElement[] stackTrace = virtualThread.getStackTrace();
+        if (stackTrace.length == 0) {
+            // virtual thread has not started or has already terminated
+            return;
+        }
+        threadContext.captureStackTrace(stackTrace, threadState, limit);
+    }
+
     private class InternalRunnable implements Runnable {
 
         private volatile boolean closed;
@@ -15,7 +15,6 @@
  */
 package org.glowroot.agent.impl;
 
-import java.lang.management.ThreadInfo;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
@@ -55,6 +54,7 @@ import org.glowroot.agent.plugin.api.internal.NopTransactionService;
 import org.glowroot.agent.plugin.api.internal.NopTransactionService.NopTimer;
 import org.glowroot.agent.util.ThreadAllocatedBytes;
 import org.glowroot.agent.util.Tickers;
+import org.glowroot.agent.util.VirtualThreads;
 import org.glowroot.common.model.ServiceCallCollector;
 import org.glowroot.common.util.NotAvailableAware;
 import org.glowroot.common.util.UsedByGeneratedBytecode;
@@ -106,6 +106,8 @@ public class ThreadContextImpl implements ThreadContextPlus {
     private @MonotonicNonNull Map<String, QueryDataMap> allServiceCallTypesMap;
 
     private final long threadId;
+    // only non-null when running in a virtual thread, which cannot be sampled via ThreadMXBean
+    private final @Nullable Thread virtualThread;
 
     private final boolean limitExceededAuxThreadContext;
 
@@ -117,6 +119,9 @@ public class ThreadContextImpl implements ThreadContextPlus {
 
     private volatile boolean mayHaveChildAuxThreadContext;
 
+    // only accessed by the thread context's thread
+    private @Nullable AuxThreadContextImpl reusableAuxThreadContext;
+
     // this is not used much, so overhead of Long seems good tradeoff for avoiding extra field
     private volatile @MonotonicNonNull Long detachedTime;
 
@@ -142,9 +147,12 @@ public class ThreadContextImpl implements ThreadContextPlus {
         traceEntryComponent = new TraceEntryComponent(castInitialized(this), messageSupplier,
                 rootTimer, startTick);
         this.parentThreadContextPriorEntry = parentThreadContextPriorEntry;
-        threadId = Thread.currentThread().getId();
-        threadStatsComponent =
-                captureThreadStats ? new ThreadStatsComponent(threadAllocatedBytes) : null;
+        Thread currentThread = Thread.currentThread();
+        threadId = currentThread.getId();
+        virtualThread = VirtualThreads.isVirtual(currentThread) ? currentThread : null;
+        // ThreadMXBean does not support cpu time, allocated bytes, etc for virtual threads
+        threadStatsComponent = captureThreadStats && virtualThread == null
+                ? new ThreadStatsComponent(threadAllocatedBytes) : null;
         this.limitExceededAuxThreadContext = limitExceededAuxThreadContext;
         this.ticker = ticker;
         this.threadContextHolder = threadContextHolder;
@@ -191,6 +199,10 @@ public class ThreadContextImpl implements ThreadContextPlus {
         return threadId;
     }
 
+    public @Nullable Thread getVirtualThread() {
+        return virtualThread;
+    }
+
     boolean isCompleted() {
         return traceEntryComponent.isCompleted();
     }
@@ -242,8 +254,8 @@ public class ThreadContextImpl implements ThreadContextPlus {
         QueryData curr = headQueryData;
         while (curr != null) {
             queries.mergeQuery(curr.getQueryType(), curr.getQueryText(),
-                    curr.getTotalDurationNanos(), curr.getExecutionCount(), curr.hasTotalRows(),
-                    curr.getTotalRows());
+                    curr.getTotalDurationNanos(), curr.getExecutionCount(),
+                    curr.getRoundTripCount(), curr.hasTotalRows(), curr.getTotalRows());
             curr = curr.getNextQueryData();
         }
     }
@@ -402,8 +414,19 @@ public class ThreadContextImpl implements ThreadContextPlus {
         return entry;
     }
 
-    void captureStackTrace(ThreadInfo threadInfo, int limit) {
-        transaction.captureStackTrace(isAuxiliary(), threadInfo, limit);
+    void captureStackTrace(StackTraceElement[] stackTrace, Thread.State threadState, int limit) {
+        long cpuNanos = 0;
+        long allocatedBytes = 0;
+        if (threadStatsComponent != null) {
+            // these return -1 if not supported or if the thread context has completed
+            cpuNanos = Math.max(threadStatsComponent.getCpuNanosSinceLastSample(), 0);
+            if (transaction.isAllocationProfiling()) {
+                allocatedBytes =
+                        Math.max(threadStatsComponent.getAllocatedBytesSinceLastSample(), 0);
+            }
+        }
+        transaction.captureStackTrace(isAuxiliary(), stackTrace, threadState, cpuNanos,
+                allocatedBytes, limit);
         // memory barrier read ensures timely visibility of detach()
         transaction.memoryBarrierRead();
     }
@@ -420,15 +443,49 @@ public class ThreadContextImpl implements ThreadContextPlus {
         if (limitExceededAuxThreadContext) {
             // no auxiliary thread context hierarchy after limit exceeded in order to limit the
             // retention of auxiliary thread contexts
-            return new AuxThreadContextImpl(transaction, null, null, servletRequestInfo,
-                    locationStackTrace, transaction.getTransactionRegistry(),
-                    transaction.getTransactionService());
+            return getOrCreateAuxThreadContext(null, null, locationStackTrace);
+        } else if (Transaction.COALESCE_AUX_THREAD_CONTEXTS && parentTraceEntry != null
+                && traceEntryComponent.isEmpty()) {
+            // this auxiliary thread context is just a hop with nothing of its own (yet), so the
+            // next hop is attached directly to this one's parent, which keeps this one mergeable
+            // once it completes
+            return getOrCreateAuxThreadContext(parentTraceEntry, parentThreadContextPriorEntry,
+                    locationStackTrace);
         } else {
             mayHaveChildAuxThreadContext = true;
-            return new AuxThreadContextImpl(transaction, traceEntryComponent.getActiveEntry(),
-                    traceEntryComponent.getTailEntry(), servletRequestInfo, locationStackTrace,
-                    transaction.getTransactionRegistry(), transaction.getTransactionService());
+            return getOrCreateAuxThreadContext(traceEntryComponent.getActiveEntry(),
+                    traceEntryComponent.getTailEntry(), locationStackTrace);
+        }
+    }
+
+    // auxiliary thread contexts are immutable, so the same instance is handed out repeatedly as
+    // long as nothing has changed, e.g. fan-out from a single place, or a chain of coalesced hops
+    // (which are seeded with the auxiliary thread context that started them)
+    //
+    // reuse is part of the opt-in coalescing mode
+    void setReusableAuxThreadContext(AuxThreadContextImpl reusableAuxThreadContext) {
+        if (Transaction.COALESCE_AUX_THREAD_CONTEXTS) {
+            this.reusableAuxThreadContext = reusableAuxThreadContext;
+        }
+    }
+
+    private AuxThreadContextImpl getOrCreateAuxThreadContext(
+            @Nullable TraceEntryImpl parentTraceEntry,
+            @Nullable TraceEntryImpl parentThreadContextPriorEntry,
+            @Nullable ImmutableList<StackTraceElement> locationStackTrace) {
+        AuxThreadContextImpl auxThreadContext = reusableAuxThreadContext;
+        if (locationStackTrace == null && auxThreadContext != null
+                && auxThreadContext.isReusableFor(parentTraceEntry,
+                        parentThreadContextPriorEntry, servletRequestInfo)) {
+            return auxThreadContext;
+        }
+        auxThreadContext = new AuxThreadContextImpl(transaction, parentTraceEntry,
+                parentThreadContextPriorEntry, servletRequestInfo, locationStackTrace,
+                transaction.getTransactionRegistry(), transaction.getTransactionService());
+        if (Transaction.COALESCE_AUX_THREAD_CONTEXTS) {
+            reusableAuxThreadContext = auxThreadContext;
         }
+        return auxThreadContext;
     }
 
     // typically pop() methods don't require the objects to pop, but for safety, the entry to pop is
@@ -22,6 +22,7 @@ import javax.annotation.Nullable;
 import com.google.common.base.Strings;
 import com.google.common.base.Ticker;
 import com.google.common.collect.ImmutableList;
+import com.google.protobuf.InvalidProtocolBufferException;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -54,7 +55,9 @@ class TraceEntryImpl extends QueryEntryBase implements AsyncQueryEntry, Timer {
 
     private final ThreadContextImpl threadContext;
     private final @Nullable TraceEntryImpl parentTraceEntry;
-    private final @Nullable Object messageSupplier;
+    // not final, since it is replaced by SpilledMessage once spilled, and not volatile, so depends
+    // on memory barrier in Transaction for visibility
+    private @Nullable Object messageSupplier;
 
     // volatile so it can be set from another thread (needed for async trace entries)
     private volatile @Nullable ErrorMessage errorMessage;
@@ -101,6 +104,9 @@ class TraceEntryImpl extends QueryEntryBase implements AsyncQueryEntry, Timer {
 
     @Override
     public @Nullable Object getMessageSupplier() {
+        if (messageSupplier instanceof SpilledMessage) {
+            return null;
+        }
         return messageSupplier;
     }
 
@@ -124,7 +130,7 @@ class TraceEntryImpl extends QueryEntryBase implements AsyncQueryEntry, Timer {
             durationNanos = Math.max(captureTick - revisedStartTick, 0);
             active = true;
         }
-        Object messageSupplier = getMessageSupplier();
+        Object messageSupplier = this.messageSupplier;
 
         Trace.Entry.Builder builder = Trace.Entry.newBuilder()
                 .setDepth(depth)
@@ -134,7 +140,21 @@ class TraceEntryImpl extends QueryEntryBase implements AsyncQueryEntry, Timer {
 
         // async root entry always has empty message and empty detail
 
-        if (messageSupplier instanceof MessageSupplier) {
+        if (messageSupplier instanceof SpilledMessage) {
+            builder.mergeFrom(((SpilledMessage) messageSupplier).read());
+            if (builder.hasQueryEntryMessage()) {
+                // shared query text index and row count are not spilled since the former is
+                // specific to each trace capture and the latter can still change (e.g. while
+                // iterating over a result set after the query entry has ended)
+                String queryText = checkNotNull(getQueryText());
+                Trace.QueryEntryMessage.Builder queryMessage = builder.getQueryEntryMessageBuilder()
+                        .setSharedQueryTextIndex(entryVisitor.visitSharedQueryText(queryText));
+                String rowCountSuffix = getRowCountSuffix();
+                if (!rowCountSuffix.isEmpty()) {
+                    queryMessage.setSuffix(queryMessage.getSuffix() + rowCountSuffix);
+                }
+            }
+        } else if (messageSupplier instanceof MessageSupplier) {
             ReadableMessage readableMessage =
                     (ReadableMessage) ((MessageSupplier) messageSupplier).get();
             builder.setMessage(readableMessage.getText());
@@ -402,11 +422,44 @@ class TraceEntryImpl extends QueryEntryBase implements AsyncQueryEntry, Timer {
             threadContext.getTransaction().memoryBarrierWrite();
         } else {
             selfNestingLevel--;
+            if (parentTraceEntry != null) {
+                TraceEntrySpill traceEntrySpill =
+                        threadContext.getTransaction().getTraceEntrySpill();
+                if (traceEntrySpill != null && traceEntrySpill.hasCapacity()) {
+                    spill(traceEntrySpill);
+                }
+            }
             threadContext.popEntry(this, endTick);
         }
         initialComplete = true;
     }
 
+    // renders the message and detail now (the same as they would be rendered when the trace is
+    // captured, except for the query row count) and moves them off-heap
+    private void spill(TraceEntrySpill traceEntrySpill) {
+        Object messageSupplier = this.messageSupplier;
+        Trace.Entry.Builder builder = Trace.Entry.newBuilder();
+        if (messageSupplier instanceof MessageSupplier) {
+            ReadableMessage readableMessage =
+                    (ReadableMessage) ((MessageSupplier) messageSupplier).get();
+            builder.setMessage(readableMessage.getText());
+            builder.addAllDetailEntry(DetailMapWriter.toProto(readableMessage.getDetail()));
+        } else if (messageSupplier instanceof QueryMessageSupplier) {
+            ReadableQueryMessage readableQueryMessage =
+                    (ReadableQueryMessage) ((QueryMessageSupplier) messageSupplier).get();
+            builder.getQueryEntryMessageBuilder()
+                    .setPrefix(readableQueryMessage.getPrefix())
+                    .setSuffix(readableQueryMessage.getSuffix());
+            builder.addAllDetailEntry(DetailMapWriter.toProto(readableQueryMessage.getDetail()));
+        } else {
+            return;
+        }
+        long handle = traceEntrySpill.write(builder.build());
+        if (handle != -1) {
+            this.messageSupplier = new SpilledMessage(traceEntrySpill, handle);
+        }
+    }
+
     private String getRowCountSuffix() {
         if (!isRowNavigationAttempted()) {
             return "";
@@ -444,6 +497,9 @@ class TraceEntryImpl extends QueryEntryBase implements AsyncQueryEntry, Timer {
     // and in ThreadContextImpl.populateParentChildMap()
     @Override
     public String toString() {
+        if (messageSupplier instanceof SpilledMessage) {
+            return "<spilled>";
+        }
         if (messageSupplier instanceof MessageSupplier) {
             return ((ReadableMessage) ((MessageSupplier) messageSupplier).get()).getText();
         } else if (messageSupplier instanceof QueryMessageSupplier) {
@@ -457,4 +513,19 @@ class TraceEntryImpl extends QueryEntryBase implements AsyncQueryEntry, Timer {
         }
         return super.toString();
     }
+
+    private static class SpilledMessage {
+
+        private final TraceEntrySpill traceEntrySpill;
+        private final long handle;
+
+        private SpilledMessage(TraceEntrySpill traceEntrySpill, long handle) {
+            this.traceEntrySpill = traceEntrySpill;
+            this.handle = handle;
+        }
+
+        private Trace.Entry read() throws InvalidProtocolBufferException {
+            return traceEntrySpill.read(handle);
+        }
+    }
 }
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.impl;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import javax.annotation.concurrent.GuardedBy;
+
+import com.google.common.collect.Lists;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import org.glowroot.wire.api.model.TraceOuterClass.Trace;
+
+// off-heap storage for the rendered messages of completed trace entries of transactions that have
+// exceeded the spill threshold, so that long running transactions (e.g. batch jobs) do not build up
+// large amounts of heap until the transaction ends
+//
+// the direct buffer chunks come from the agent-wide TraceEntrySpillPool, and are returned to the
+// pool when the transaction (and so this spill) is garbage collected
+class TraceEntrySpill {
+
+    // this is only to limit off-heap memory used by a single transaction
+    private static final long MAX_BYTES =
+            Long.getLong("glowroot.transaction.entry.spill.maxBytes", 64 * 1024 * 1024);
+
+    // entries are not rendered for spilling unless there is at least this much room left in the
+    // current chunk (or there is a free chunk in the pool)
+    private static final int MIN_REMAINING = 4096;
+
+    private final TraceEntrySpillPool pool;
+
+    // this is also the lock, since it is shared with the pool
+    private final List<ByteBuffer> chunks = Lists.newArrayList();
+    @GuardedBy("chunks")
+    private long totalCapacity;
+    @GuardedBy("chunks")
+    private boolean full;
+
+    TraceEntrySpill(TraceEntrySpillPool pool) {
+        this.pool = pool;
+        pool.register(this, chunks);
+    }
+
+    // this is checked prior to rendering the entry, so that the entry is not rendered needlessly
+    boolean hasCapacity() {
+        synchronized (chunks) {
+            if (full) {
+                return false;
+            }
+            ByteBuffer chunk = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+            return chunk != null && chunk.remaining() >= MIN_REMAINING || pool.hasFreeChunk();
+        }
+    }
+
+    // returns -1 if the entry could not be spilled
+    long write(Trace.Entry entry) {
+        synchronized (chunks) {
+            if (full) {
+                return -1;
+            }
+            byte[] bytes = entry.toByteArray();
+            int length = bytes.length + 4;
+            if (length > TraceEntrySpillPool.CHUNK_SIZE) {
+                return -1;
+            }
+            ByteBuffer chunk = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+            if (chunk == null || chunk.remaining() < length) {
+                if (totalCapacity + TraceEntrySpillPool.CHUNK_SIZE > MAX_BYTES) {
+                    full = true;
+                    return -1;
+                }
+                chunk = pool.poll();
+                if (chunk == null) {
+                    // pool is temporarily (or permanently, if the agent-wide limit is reached)
+                    // exhausted, so the entry just stays on the heap
+                    return -1;
+                }
+                chunks.add(chunk);
+                totalCapacity += chunk.capacity();
+            }
+            long handle = ((long) (chunks.size() - 1) << 32) | chunk.position();
+            chunk.putInt(bytes.length);
+            chunk.put(bytes);
+            return handle;
+        }
+    }
+
+    Trace.Entry read(long handle) throws InvalidProtocolBufferException {
+        synchronized (chunks) {
+            ByteBuffer chunk = chunks.get((int) (handle >>> 32)).duplicate();
+            chunk.position((int) handle);
+            byte[] bytes = new byte[chunk.getInt()];
+            chunk.get(bytes);
+            return Trace.Entry.parseFrom(bytes);
+        }
+    }
+}
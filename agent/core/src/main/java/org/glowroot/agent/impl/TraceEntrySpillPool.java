@@ -0,0 +1,138 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.impl;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.annotation.Nullable;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Sets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// agent-wide pool of the direct buffer chunks used by trace entry spills
+//
+// chunks are only ever allocated from a background thread (see replenish()), so that the
+// application thread never pays for ByteBuffer.allocateDirect(), which can call System.gc() when
+// near the direct memory limit, and the total is capped across all transactions
+//
+// chunks are returned to the pool once their spill has been garbage collected, which avoids having
+// to coordinate with (possibly retried) trace collection
+class TraceEntrySpillPool {
+
+    private static final Logger logger = LoggerFactory.getLogger(TraceEntrySpillPool.class);
+
+    static final int CHUNK_SIZE = 1024 * 1024;
+
+    // number of chunks kept ready for use by application threads
+    private static final int MIN_FREE_CHUNKS = 4;
+
+    private final int maxChunks;
+
+    private final Queue<ByteBuffer> freeChunks = new ConcurrentLinkedQueue<ByteBuffer>();
+
+    private final ReferenceQueue<TraceEntrySpill> referenceQueue =
+            new ReferenceQueue<TraceEntrySpill>();
+    // the references need to be strongly reachable in order to be enqueued
+    private final Set<SpillReference> references = Sets.newConcurrentHashSet();
+
+    // chunks are not allocated until the first spill is created, so that agents without any large
+    // transactions do not use any direct memory
+    private volatile boolean used;
+
+    // only accessed by the replenish thread
+    private int allocatedChunks;
+    private boolean allocationFailed;
+
+    TraceEntrySpillPool(long maxBytes) {
+        maxChunks = (int) Math.min(Integer.MAX_VALUE, maxBytes / CHUNK_SIZE);
+    }
+
+    // this is called from the application thread, and never allocates
+    @Nullable
+    ByteBuffer poll() {
+        return freeChunks.poll();
+    }
+
+    boolean hasFreeChunk() {
+        return !freeChunks.isEmpty();
+    }
+
+    // the chunks list is synchronized on by both the spill and the pool
+    void register(TraceEntrySpill traceEntrySpill, List<ByteBuffer> chunks) {
+        references.add(new SpillReference(traceEntrySpill, referenceQueue, chunks));
+        used = true;
+    }
+
+    // this is called periodically from a background thread
+    void replenish() {
+        Reference<? extends TraceEntrySpill> reference;
+        while ((reference = referenceQueue.poll()) != null) {
+            SpillReference spillReference = (SpillReference) reference;
+            references.remove(spillReference);
+            synchronized (spillReference.chunks) {
+                for (ByteBuffer chunk : spillReference.chunks) {
+                    chunk.clear();
+                    freeChunks.add(chunk);
+                }
+                spillReference.chunks.clear();
+            }
+        }
+        if (!used || allocationFailed) {
+            // not retrying after failure, in order to not compete with the application for direct
+            // memory
+            return;
+        }
+        while (freeChunks.size() < MIN_FREE_CHUNKS && allocatedChunks < maxChunks) {
+            ByteBuffer chunk;
+            try {
+                chunk = ByteBuffer.allocateDirect(CHUNK_SIZE);
+            } catch (OutOfMemoryError e) {
+                logger.warn("unable to allocate direct buffer for trace entry spill, trace entries"
+                        + " of large transactions will be retained on the heap: {}",
+                        e.getMessage());
+                allocationFailed = true;
+                return;
+            }
+            allocatedChunks++;
+            freeChunks.add(chunk);
+        }
+    }
+
+    @VisibleForTesting
+    int getAllocatedChunks() {
+        return allocatedChunks;
+    }
+
+    private static class SpillReference extends PhantomReference<TraceEntrySpill> {
+
+        private final List<ByteBuffer> chunks;
+
+        private SpillReference(TraceEntrySpill referent,
+                ReferenceQueue<? super TraceEntrySpill> queue, List<ByteBuffer> chunks) {
+            super(referent, queue);
+            this.chunks = chunks;
+        }
+    }
+}
@@ -100,6 +100,20 @@ public class Transaction {
     private static final int TRANSACTION_AUX_THREAD_CONTEXT_LIMIT =
             Integer.getInteger("glowroot.transaction.aux.thread.context.limit", 10000);
 
+    // when enabled, chains of short asynchronous hops (auxiliary thread contexts that do nothing
+    // but hand off to the next hop) are coalesced into a single async timeline under the original
+    // parent, and completed empty hops are merged early instead of being retained until the
+    // transaction completes (or the aux thread context limit is reached)
+    static final boolean COALESCE_AUX_THREAD_CONTEXTS =
+            Boolean.getBoolean("glowroot.transaction.aux.thread.context.coalesce");
+
+    private static final int COALESCE_AUX_THREAD_CONTEXTS_MIN_THRESHOLD = 100;
+
+    // entries that complete after a transaction exceeds this number of entries have their messages
+    // moved off-heap, this is only to limit heap usage of long running transactions
+    private static final int TRACE_ENTRY_SPILL_THRESHOLD =
+            Integer.getInteger("glowroot.transaction.entry.spill.threshold", 1000);
+
     private static final Random random = new Random();
 
     private volatile @Nullable String traceId;
@@ -150,6 +164,11 @@ public class Transaction {
 
     private volatile boolean partiallyStored;
 
+    private volatile @MonotonicNonNull TraceEntrySpill traceEntrySpill;
+
+    // set for transactions selected via user recording config
+    private volatile boolean allocationProfiling;
+
     private long captureTime;
 
     // memory barrier is used to ensure memory visibility of entries and timers at key points,
@@ -170,6 +189,11 @@ public class Transaction {
     private volatile int aggregateQueryLimitCounter;
     private volatile int aggregateServiceCallLimitCounter;
 
+    // entries dropped due to the agent memory budget are tracked separately from the entry limit
+    // counter, so that they do not count towards the trace entry spill threshold, and so that
+    // entries are captured again once memory pressure ends
+    private volatile boolean entriesDroppedDueToMemoryBudget;
+
     private volatile @Nullable AtomicInteger throwableFrameLimitCounter;
 
     private final ThreadContextImpl mainThreadContext;
@@ -193,6 +217,7 @@ public class Transaction {
     private final Ticker ticker;
 
     private final UserProfileScheduler userProfileScheduler;
+    private final MemoryBudget memoryBudget;
 
     private @Nullable SelfRemovableEntry transactionEntry;
 
@@ -202,6 +227,9 @@ public class Transaction {
     private @MonotonicNonNull ThreadStatsCollectorImpl alreadyMergedAuxThreadStats;
     @GuardedBy("mainThreadContext")
     private boolean stopMergingAuxThreadContexts;
+    // grows with the number of non-mergeable aux thread contexts so that early merging remains
+    // amortized constant time per aux thread context
+    private int coalesceAuxThreadContextsThreshold = COALESCE_AUX_THREAD_CONTEXTS_MIN_THRESHOLD;
 
     Transaction(long startTime, long startTick, String transactionType, String transactionName,
             MessageSupplier messageSupplier, TimerName timerName, boolean captureThreadStats,
@@ -211,7 +239,7 @@ public class Transaction {
             CompletionCallback completionCallback, Ticker ticker,
             TransactionRegistry transactionRegistry, TransactionServiceImpl transactionService,
             ConfigService configService, UserProfileScheduler userProfileScheduler,
-            ThreadContextThreadLocal.Holder threadContextHolder) {
+            MemoryBudget memoryBudget, ThreadContextThreadLocal.Holder threadContextHolder) {
         this.startTime = startTime;
         this.startTick = startTick;
         this.transactionType = transactionType;
@@ -222,6 +250,7 @@ public class Transaction {
         this.completionCallback = completionCallback;
         this.ticker = ticker;
         this.userProfileScheduler = userProfileScheduler;
+        this.memoryBudget = memoryBudget;
         this.transactionRegistry = transactionRegistry;
         this.transactionService = transactionService;
         this.configService = configService;
@@ -431,6 +460,10 @@ public class Transaction {
 
     // this method has side effect of incrementing counter
     boolean allowAnotherEntry() {
+        if (memoryBudget.isDroppingEntries()) {
+            entriesDroppedDueToMemoryBudget = true;
+            return false;
+        }
         return entryLimitCounter++ < maxTraceEntriesPerTransaction;
     }
 
@@ -477,6 +510,11 @@ public class Transaction {
                 captureTick, 0, entryVisitor, async);
     }
 
+    int getEntryCount() {
+        return Math.min(entryLimitCounter, maxTraceEntriesPerTransaction)
+                + Math.min(extraErrorEntryLimitCounter, maxTraceEntriesPerTransaction);
+    }
+
     long getMainThreadProfileSampleCount() {
         if (mainThreadProfile == null) {
             return 0;
@@ -620,6 +658,34 @@ public class Transaction {
         }
     }
 
+    // returns null if the transaction has not (yet) exceeded the trace entry spill threshold
+    @Nullable
+    TraceEntrySpill getTraceEntrySpill() {
+        TraceEntrySpill traceEntrySpill = this.traceEntrySpill;
+        if (traceEntrySpill != null) {
+            return traceEntrySpill;
+        }
+        if (entryLimitCounter <= TRACE_ENTRY_SPILL_THRESHOLD) {
+            return null;
+        }
+        synchronized (mainThreadContext) {
+            traceEntrySpill = this.traceEntrySpill;
+            if (traceEntrySpill == null) {
+                traceEntrySpill = new TraceEntrySpill(memoryBudget.getTraceEntrySpillPool());
+                this.traceEntrySpill = traceEntrySpill;
+            }
+            return traceEntrySpill;
+        }
+    }
+
+    boolean isAllocationProfiling() {
+        return allocationProfiling;
+    }
+
+    void setAllocationProfiling() {
+        allocationProfiling = true;
+    }
+
     void setUserProfileRunnable(Cancellable userProfileRunnable) {
         if (this.userProfileRunnable != null) {
             logger.warn("setUserProfileRunnable(): overwriting non-null userProfileRunnable");
@@ -701,14 +767,7 @@ public class Transaction {
                 checkNotNull(auxThreadContexts).add(auxThreadContext);
                 return;
             }
-            if (alreadyMergedAuxThreadTimers == null) {
-                alreadyMergedAuxThreadTimers = new RootTimerCollectorImpl();
-            }
-            if (alreadyMergedAuxThreadStats == null) {
-                alreadyMergedAuxThreadStats = new ThreadStatsCollectorImpl();
-            }
-            alreadyMergedAuxThreadTimers.mergeRootTimer(auxThreadContext.getRootTimer());
-            alreadyMergedAuxThreadStats.mergeThreadStats(auxThreadContext.getThreadStats());
+            mergeAuxThreadContext(auxThreadContext);
         }
     }
 
@@ -753,11 +812,15 @@ public class Transaction {
     }
 
     boolean isEntryLimitExceeded() {
-        return entryLimitCounter > maxTraceEntriesPerTransaction;
+        // entries dropped due to the agent memory budget are reported the same as exceeding the
+        // entry limit, since either way the trace is missing entries
+        return entryLimitCounter > maxTraceEntriesPerTransaction
+                || entriesDroppedDueToMemoryBudget;
     }
 
-    void captureStackTrace(boolean auxiliary, ThreadInfo threadInfo, int limit) {
-        if (completed) {
+    void captureStackTrace(boolean auxiliary, StackTraceElement[] stackTrace,
+            Thread.State threadState, long cpuNanos, long allocatedBytes, int limit) {
+        if (completed || memoryBudget.isDroppingProfiles()) {
             return;
         }
         ThreadProfile profile;
@@ -775,7 +838,7 @@ public class Transaction {
             // transaction profile field, so that it is not possible to read a profile that doesn't
             // have at least one stack trace
             profile = new ThreadProfile();
-            profile.addStackTrace(threadInfo, limit);
+            profile.addStackTrace(stackTrace, threadState, cpuNanos, allocatedBytes, limit);
             if (auxiliary) {
                 auxThreadProfile = profile;
             } else {
@@ -783,7 +846,7 @@ public class Transaction {
             }
             return;
         }
-        profile.addStackTrace(threadInfo, limit);
+        profile.addStackTrace(stackTrace, threadState, cpuNanos, allocatedBytes, limit);
     }
 
     void end(long endTick, boolean completeAsyncTransaction) {
@@ -821,6 +884,10 @@ public class Transaction {
         return transactionRegistry;
     }
 
+    MemoryBudget getMemoryBudget() {
+        return memoryBudget;
+    }
+
     TransactionServiceImpl getTransactionService() {
         return transactionService;
     }
@@ -860,6 +927,20 @@ public class Transaction {
     // must be called under synchronized (mainThreadContext)
     @RequiresNonNull("auxThreadContexts")
     private boolean allowAnotherAuxThreadContextWithHierarchy() {
+        if (COALESCE_AUX_THREAD_CONTEXTS
+                && auxThreadContexts.size() >= coalesceAuxThreadContextsThreshold) {
+            List<ThreadContextImpl> nonMergeableAuxThreadContexts = Lists.newArrayList();
+            for (ThreadContextImpl loopAuxThreadContext : auxThreadContexts) {
+                if (loopAuxThreadContext.isCompleteAndEmptyExceptForTimersAndThreadStats()) {
+                    mergeAuxThreadContext(loopAuxThreadContext);
+                } else {
+                    nonMergeableAuxThreadContexts.add(loopAuxThreadContext);
+                }
+            }
+            auxThreadContexts = nonMergeableAuxThreadContexts;
+            coalesceAuxThreadContextsThreshold = Math.max(
+                    COALESCE_AUX_THREAD_CONTEXTS_MIN_THRESHOLD, 2 * auxThreadContexts.size());
+        }
         if (auxThreadContexts.size() < TRANSACTION_AUX_THREAD_CONTEXT_LIMIT) {
             return true;
         }
@@ -881,19 +962,23 @@ public class Transaction {
             stopMergingAuxThreadContexts = true;
             return false;
         }
+        for (ThreadContextImpl mergeableAuxThreadContext : mergeableAuxThreadContexts) {
+            mergeAuxThreadContext(mergeableAuxThreadContext);
+        }
+        auxThreadContexts = nonMergeableAuxThreadContexts;
+        return true;
+    }
+
+    // must be called under synchronized (mainThreadContext)
+    private void mergeAuxThreadContext(ThreadContextImpl auxThreadContext) {
         if (alreadyMergedAuxThreadTimers == null) {
             alreadyMergedAuxThreadTimers = new RootTimerCollectorImpl();
         }
         if (alreadyMergedAuxThreadStats == null) {
             alreadyMergedAuxThreadStats = new ThreadStatsCollectorImpl();
         }
-        for (ThreadContextImpl mergeableAuxThreadContext : mergeableAuxThreadContexts) {
-            alreadyMergedAuxThreadTimers.mergeRootTimer(mergeableAuxThreadContext.getRootTimer());
-            alreadyMergedAuxThreadStats
-                    .mergeThreadStats(mergeableAuxThreadContext.getThreadStats());
-        }
-        auxThreadContexts = nonMergeableAuxThreadContexts;
-        return true;
+        alreadyMergedAuxThreadTimers.mergeRootTimer(auxThreadContext.getRootTimer());
+        alreadyMergedAuxThreadStats.mergeThreadStats(auxThreadContext.getThreadStats());
     }
 
     private static void addProtobufChildEntries(TraceEntryImpl entry,
@@ -122,6 +122,12 @@ public class TransactionCollector {
                     + " traces already waiting to be stored", PENDING_LIMIT);
             return;
         }
+        if (transaction.getMemoryBudget().isDroppingTraces()
+                && !transaction.isPartiallyStored()) {
+            backPressureLogger.warn("not storing a trace because the agent memory budget has been"
+                    + " exceeded");
+            return;
+        }
         pendingTransactions.add(transaction);
 
         // this need to be called inside the transaction thread
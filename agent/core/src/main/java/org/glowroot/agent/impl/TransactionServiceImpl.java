@@ -39,6 +39,7 @@ public class TransactionServiceImpl implements ConfigListener {
     private final TimerNameCache timerNameCache;
     private final @Nullable ThreadAllocatedBytes threadAllocatedBytes;
     private final UserProfileScheduler userProfileScheduler;
+    private final MemoryBudget memoryBudget;
     private final Clock clock;
     private final Ticker ticker;
 
@@ -55,10 +56,12 @@ public class TransactionServiceImpl implements ConfigListener {
     public static void createSingleton(TransactionRegistry transactionRegistry,
             TransactionCollector transactionCollector, ConfigService configService,
             TimerNameCache timerNameCache, @Nullable ThreadAllocatedBytes threadAllocatedBytes,
-            UserProfileScheduler userProfileScheduler, Ticker ticker, Clock clock) {
+            UserProfileScheduler userProfileScheduler, MemoryBudget memoryBudget, Ticker ticker,
+            Clock clock) {
         TransactionServiceImpl transactionServiceImpl =
                 new TransactionServiceImpl(transactionRegistry, transactionCollector, configService,
-                        timerNameCache, threadAllocatedBytes, userProfileScheduler, ticker, clock);
+                        timerNameCache, threadAllocatedBytes, userProfileScheduler, memoryBudget,
+                        ticker, clock);
         configService.addConfigListener(transactionServiceImpl);
         TransactionServiceHolder.transactionService = transactionServiceImpl;
     }
@@ -66,13 +69,15 @@ public class TransactionServiceImpl implements ConfigListener {
     private TransactionServiceImpl(TransactionRegistry transactionRegistry,
             TransactionCollector transactionCollector, ConfigService configService,
             TimerNameCache timerNameCache, @Nullable ThreadAllocatedBytes threadAllocatedBytes,
-            UserProfileScheduler userProfileScheduler, Ticker ticker, Clock clock) {
+            UserProfileScheduler userProfileScheduler, MemoryBudget memoryBudget, Ticker ticker,
+            Clock clock) {
         this.transactionRegistry = transactionRegistry;
         this.transactionCollector = transactionCollector;
         this.configService = configService;
         this.timerNameCache = timerNameCache;
         this.threadAllocatedBytes = threadAllocatedBytes;
         this.userProfileScheduler = userProfileScheduler;
+        this.memoryBudget = memoryBudget;
         this.clock = clock;
         this.ticker = ticker;
     }
@@ -88,7 +93,7 @@ public class TransactionServiceImpl implements ConfigListener {
                 maxTraceEntriesPerTransaction, maxAggregateQueriesPerType,
                 maxAggregateServiceCallsPerType, threadAllocatedBytes,
                 transactionCompletionCallback, ticker, transactionRegistry, this, configService,
-                userProfileScheduler, threadContextHolder);
+                userProfileScheduler, memoryBudget, threadContextHolder);
         SelfRemovableEntry transactionEntry = transactionRegistry.addTransaction(transaction);
         transaction.setTransactionEntry(transactionEntry);
         threadContextHolder.set(transaction.getMainThreadContext());
@@ -60,6 +60,9 @@ public class UserProfileScheduler {
         }
         // for now lumping user recording into slow traces tab
         transaction.setSlowThresholdMillis(0, Priority.CORE_MAX);
+        if (userRecordingConfig.allocationProfiling()) {
+            transaction.setAllocationProfiling();
+        }
 
         // schedule the first stack collection for configured interval after transaction start (or
         // immediately, if the transaction's total time already exceeds configured collection
@@ -42,6 +42,7 @@ import org.glowroot.agent.config.PluginDescriptor;
 import org.glowroot.agent.impl.Aggregator;
 import org.glowroot.agent.impl.ConfigServiceImpl;
 import org.glowroot.agent.impl.GlowrootServiceImpl;
+import org.glowroot.agent.impl.MemoryBudget;
 import org.glowroot.agent.impl.ServiceRegistryImpl;
 import org.glowroot.agent.impl.ServiceRegistryImpl.ConfigServiceFactory;
 import org.glowroot.agent.impl.StackTraceCollector;
@@ -100,6 +101,7 @@ public class AgentModule {
     private final DeadlockedActiveWeavingRunnable deadlockedActiveWeavingRunnable;
     private final Aggregator aggregator;
     private final TransactionCollector transactionCollector;
+    private final MemoryBudget memoryBudget;
 
     private final LazyPlatformMBeanServer lazyPlatformMBeanServer;
 
@@ -177,6 +179,11 @@ public class AgentModule {
         aggregator = new Aggregator(collector, configService, ROLLUP_0_INTERVAL_MILLIS, clock);
         transactionCollector =
                 new TransactionCollector(configService, collector, aggregator, clock, ticker);
+        memoryBudget = new MemoryBudget(transactionRegistry, transactionCollector, aggregator,
+                Long.getLong("glowroot.memoryBudget.maxBytes",
+                        Runtime.getRuntime().maxMemory() / 5));
+        memoryBudget.scheduleWithFixedDelay(backgroundExecutor, MemoryBudget.PERIOD_MILLIS,
+                MILLISECONDS);
 
         OptionalService<ThreadAllocatedBytes> threadAllocatedBytes = ThreadAllocatedBytes.create();
 
@@ -186,7 +193,7 @@ public class AgentModule {
         GlowrootService glowrootService = new GlowrootServiceImpl(transactionRegistry);
         TransactionServiceImpl.createSingleton(transactionRegistry, transactionCollector,
                 configService, timerNameCache, threadAllocatedBytes.getService(),
-                userProfileScheduler, ticker, clock);
+                userProfileScheduler, memoryBudget, ticker, clock);
         ConfigServiceFactory configServiceFactory = new ConfigServiceFactory() {
             @Override
             public org.glowroot.agent.plugin.api.config.ConfigService create(String pluginId) {
@@ -196,9 +203,10 @@ public class AgentModule {
                         pluginId);
             }
         };
-        ServiceRegistryImpl.init(glowrootService, timerNameCache, configServiceFactory);
-
         lazyPlatformMBeanServer = LazyPlatformMBeanServer.create();
+        ServiceRegistryImpl.init(glowrootService, timerNameCache, lazyPlatformMBeanServer,
+                configServiceFactory);
+
         File[] roots = File.listRoots();
         if (roots != null) {
             for (File root : roots) {
@@ -211,6 +219,8 @@ public class AgentModule {
                         "org.glowroot:type=FileSystem,name=" + name);
             }
         }
+        lazyPlatformMBeanServer.lazyRegisterMBean(memoryBudget,
+                "org.glowroot:type=MemoryBudget");
         gaugeCollector = new GaugeCollector(configService, collector, lazyPlatformMBeanServer,
                 clock, ticker);
         // using fixed rate to keep gauge collections close to on the second mark
@@ -229,7 +239,7 @@ public class AgentModule {
         liveWeavingService = new LiveWeavingServiceImpl(analyzedWorld, instrumentation,
                 configService, adviceCache, jvmRetransformClassesSupported);
         liveJvmService = new LiveJvmServiceImpl(lazyPlatformMBeanServer, transactionRegistry,
-                transactionCollector, threadAllocatedBytes.getAvailability());
+                transactionCollector, threadAllocatedBytes.getAvailability(), tmpDir);
 
         initPlugins(pluginCache.pluginDescriptors());
 
@@ -247,6 +257,10 @@ public class AgentModule {
         return configService;
     }
 
+    public MemoryBudget getMemoryBudget() {
+        return memoryBudget;
+    }
+
     public LazyPlatformMBeanServer getLazyPlatformMBeanServer() {
         return lazyPlatformMBeanServer;
     }
@@ -353,6 +367,7 @@ public class AgentModule {
     @OnlyUsedByTests
     public void close() throws Exception {
         immedateTraceStoreWatcher.cancel();
+        memoryBudget.cancel();
         stackTraceCollector.close();
         gaugeCollector.close();
         lazyPlatformMBeanServer.close();
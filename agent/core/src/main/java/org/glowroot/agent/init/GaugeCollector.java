@@ -16,6 +16,7 @@
 package org.glowroot.agent.init;
 
 import java.lang.reflect.Method;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -23,17 +24,25 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import javax.annotation.Nullable;
+import javax.management.Attribute;
 import javax.management.AttributeNotFoundException;
 import javax.management.InstanceNotFoundException;
 import javax.management.MBeanServer;
+import javax.management.MBeanServerDelegate;
 import javax.management.MalformedObjectNameException;
+import javax.management.Notification;
+import javax.management.NotificationListener;
 import javax.management.ObjectName;
 import javax.management.openmbean.CompositeData;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.CharMatcher;
 import com.google.common.base.Ticker;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
@@ -56,12 +65,23 @@ import org.glowroot.common.util.ScheduledRunnable;
 import org.glowroot.common.util.Styles;
 import org.glowroot.wire.api.model.CollectorServiceOuterClass.GaugeValue;
 
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
 
 class GaugeCollector extends ScheduledRunnable {
 
     private static final Logger logger = LoggerFactory.getLogger(GaugeCollector.class);
 
+    private static final long SLOW_COLLECTION_NANOS = SECONDS.toNanos(1);
+
+    private static final String COLLECTION_OBJECT_NAME_PREFIX =
+            "org.glowroot:type=GaugeCollection,name=";
+
+    // characters that are not valid in unquoted object name values, or that would confuse the gauge
+    // display which splits on ':' and ','
+    private static final CharMatcher INVALID_NAME_CHARS = CharMatcher.anyOf(",=:\"*?\n");
+
     private final ConfigService configService;
     private final Collector collector;
     private final LazyPlatformMBeanServer lazyPlatformMBeanServer;
@@ -71,6 +91,19 @@ class GaugeCollector extends ScheduledRunnable {
 
     private final Set<String> pendingLoggedMBeanGauges = Sets.newConcurrentHashSet();
     private final Set<String> loggedMBeanGauges = Sets.newConcurrentHashSet();
+    private final Set<String> loggedSlowMBeanGauges = Sets.newConcurrentHashSet();
+
+    // incremented on every mbean registration and unregistration, so that pattern gauges only need
+    // to re-query matching mbeans when this has changed
+    private final AtomicLong mbeanRegistrationCount = new AtomicLong();
+    private final NotificationListener mbeanRegistrationListener = new NotificationListener() {
+        @Override
+        public void handleNotification(Notification notification, @Nullable Object handback) {
+            mbeanRegistrationCount.getAndIncrement();
+        }
+    };
+    // non-null once the listener has been added, so that it can be removed on close
+    private volatile @Nullable MBeanServer mbeanRegistrationListenerServer;
 
     // gauges have their own dedicated executor to make sure their collection is not hampered by
     // other glowroot background work
@@ -81,6 +114,15 @@ class GaugeCollector extends ScheduledRunnable {
     // priorRawCounterValues (except can't initialize here outside of the dedicated thread)
     private @MonotonicNonNull Map<String, RawCounterValue> priorRawCounterValues;
 
+    // same thread safety as above, except this one is only accessed from the dedicated thread
+    private final Map<GaugeConfig, GaugePlan> gaugePlans = Maps.newHashMap();
+
+    // the collection time of each gauge is exposed as an mbean so that slow gauges can themselves
+    // be gauged (and alerted on), e.g. using org.glowroot:type=GaugeCollection,name=*
+    //
+    // key is the gauge's mbean object name, and this is only accessed from the dedicated thread
+    private final Map<String, GaugeCollection> gaugeCollections = Maps.newHashMap();
+
     GaugeCollector(ConfigService configService, Collector collector,
             LazyPlatformMBeanServer lazyPlatformMBeanServer, Clock clock, Ticker ticker) {
         this.configService = configService;
@@ -106,6 +148,13 @@ class GaugeCollector extends ScheduledRunnable {
                 } catch (Exception e) {
                     logger.debug(e.getMessage(), e);
                 }
+                try {
+                    mbeanServer.addNotificationListener(MBeanServerDelegate.DELEGATE_NAME,
+                            mbeanRegistrationListener, null, null);
+                    mbeanRegistrationListenerServer = mbeanServer;
+                } catch (Exception e) {
+                    logger.debug(e.getMessage(), e);
+                }
             }
         });
     }
@@ -117,8 +166,20 @@ class GaugeCollector extends ScheduledRunnable {
             // wait to now to initialize priorGaugeValues inside of the dedicated thread
             priorRawCounterValues = Maps.newHashMap();
         }
-        for (GaugeConfig gaugeConfig : configService.getGaugeConfigs()) {
+        List<GaugeConfig> gaugeConfigs = configService.getGaugeConfigs();
+        // discard plans for gauges that have been removed or changed
+        gaugePlans.keySet().retainAll(ImmutableSet.copyOf(gaugeConfigs));
+        removeGaugeCollections(gaugeConfigs);
+        for (GaugeConfig gaugeConfig : gaugeConfigs) {
+            long startTick = ticker.read();
             gaugeValues.addAll(collectGaugeValues(gaugeConfig));
+            long collectionNanos = ticker.read() - startTick;
+            logger.debug("runInternal(): collected gauge {} in {} nanoseconds",
+                    gaugeConfig.mbeanObjectName(), collectionNanos);
+            getGaugeCollection(gaugeConfig.mbeanObjectName()).record(collectionNanos);
+            if (collectionNanos > SLOW_COLLECTION_NANOS) {
+                logFirstTimeSlowCollection(gaugeConfig.mbeanObjectName(), collectionNanos);
+            }
         }
         flushingExecutor.execute(new Runnable() {
             @Override
@@ -146,24 +207,70 @@ class GaugeCollector extends ScheduledRunnable {
         if (!flushingExecutor.awaitTermination(10, SECONDS)) {
             throw new IllegalStateException("Could not terminate executor");
         }
+        for (GaugeCollection gaugeCollection : gaugeCollections.values()) {
+            lazyPlatformMBeanServer.lazyUnregisterMBean(gaugeCollection.objectName);
+        }
+        gaugeCollections.clear();
+        MBeanServer mbeanServer = mbeanRegistrationListenerServer;
+        if (mbeanServer != null) {
+            try {
+                mbeanServer.removeNotificationListener(MBeanServerDelegate.DELEGATE_NAME,
+                        mbeanRegistrationListener);
+            } catch (Exception e) {
+                logger.debug(e.getMessage(), e);
+            }
+            mbeanRegistrationListenerServer = null;
+        }
+    }
+
+    private GaugeCollection getGaugeCollection(String mbeanObjectName) {
+        GaugeCollection gaugeCollection = gaugeCollections.get(mbeanObjectName);
+        if (gaugeCollection == null) {
+            String objectName = COLLECTION_OBJECT_NAME_PREFIX
+                    + INVALID_NAME_CHARS.replaceFrom(mbeanObjectName, '_');
+            gaugeCollection = new GaugeCollection(objectName);
+            lazyPlatformMBeanServer.lazyRegisterMBean(gaugeCollection, objectName);
+            gaugeCollections.put(mbeanObjectName, gaugeCollection);
+        }
+        return gaugeCollection;
+    }
+
+    private void removeGaugeCollections(List<GaugeConfig> gaugeConfigs) {
+        Set<String> mbeanObjectNames = Sets.newHashSet();
+        for (GaugeConfig gaugeConfig : gaugeConfigs) {
+            mbeanObjectNames.add(gaugeConfig.mbeanObjectName());
+        }
+        Iterator<Map.Entry<String, GaugeCollection>> i = gaugeCollections.entrySet().iterator();
+        while (i.hasNext()) {
+            Map.Entry<String, GaugeCollection> entry = i.next();
+            if (!mbeanObjectNames.contains(entry.getKey())) {
+                lazyPlatformMBeanServer.lazyUnregisterMBean(entry.getValue().objectName);
+                i.remove();
+            }
+        }
     }
 
     @VisibleForTesting
     @RequiresNonNull("priorRawCounterValues")
     List<GaugeValue> collectGaugeValues(GaugeConfig gaugeConfig) throws Exception {
+        GaugePlan gaugePlan = gaugePlans.get(gaugeConfig);
+        if (gaugePlan == null) {
+            gaugePlan = new GaugePlan(gaugeConfig);
+            gaugePlans.put(gaugeConfig, gaugePlan);
+        }
         String mbeanObjectName = gaugeConfig.mbeanObjectName();
-        ObjectName objectName;
-        try {
-            objectName = ObjectName.getInstance(mbeanObjectName);
-        } catch (MalformedObjectNameException e) {
+        ObjectName objectName = gaugePlan.objectName;
+        if (objectName == null) {
+            MalformedObjectNameException e = checkNotNull(gaugePlan.malformedException);
             logger.debug(e.getMessage(), e);
             logFirstTimeMBeanException(mbeanObjectName, e);
             return ImmutableList.of();
         }
         if (!objectName.isPattern()) {
-            return collectGaugeValues(objectName, gaugeConfig.mbeanAttributes(), mbeanObjectName);
+            return collectGaugeValues(objectName, gaugeConfig.mbeanAttributes(),
+                    gaugePlan.attributeNames, mbeanObjectName);
         }
-        Set<ObjectName> matchingObjectNames = lazyPlatformMBeanServer.queryNames(objectName, null);
+        Map<ObjectName, String> matchingObjectNames = gaugePlan.getMatchingObjectNames();
         if (matchingObjectNames.isEmpty()) {
             logFirstTimeMBeanNotMatchedOrFound(mbeanObjectName);
             return ImmutableList.of();
@@ -172,18 +279,33 @@ class GaugeCollector extends ScheduledRunnable {
         // normally and not with "waited ... seconds after jvm startup before logging this" message
         pendingLoggedMBeanGauges.remove(mbeanObjectName);
         List<GaugeValue> gaugeValues = Lists.newArrayList();
-        for (ObjectName matchingObjectName : matchingObjectNames) {
-            gaugeValues.addAll(collectGaugeValues(matchingObjectName, gaugeConfig.mbeanAttributes(),
-                    matchingObjectName.getDomain() + ":"
-                            + matchingObjectName.getKeyPropertyListString()));
+        for (Map.Entry<ObjectName, String> entry : matchingObjectNames.entrySet()) {
+            gaugeValues.addAll(collectGaugeValues(entry.getKey(), gaugeConfig.mbeanAttributes(),
+                    gaugePlan.attributeNames, entry.getValue()));
         }
         return gaugeValues;
     }
 
     @RequiresNonNull("priorRawCounterValues")
     private List<GaugeValue> collectGaugeValues(ObjectName objectName,
-            List<ImmutableMBeanAttribute> mbeanAttributes, String mbeanObjectName) {
+            List<ImmutableMBeanAttribute> mbeanAttributes, String[] attributeNames,
+            String mbeanObjectName) {
         long captureTime = clock.currentTimeMillis();
+        // read all attributes in a single call, falling back to reading attributes one at a time
+        // below for any attributes not returned, in order to report the reason
+        Map<String, /*@Nullable*/ Object> attributeValues = Maps.newHashMap();
+        try {
+            for (Attribute attribute : lazyPlatformMBeanServer
+                    .getAttributes(objectName, attributeNames).asList()) {
+                attributeValues.put(attribute.getName(), attribute.getValue());
+            }
+        } catch (InstanceNotFoundException e) {
+            logger.debug(e.getMessage(), e);
+            logFirstTimeMBeanNotMatchedOrFound(mbeanObjectName);
+            return ImmutableList.of();
+        } catch (Exception e) {
+            logger.debug(e.getMessage(), e);
+        }
         List<GaugeValue> gaugeValues = Lists.newArrayList();
         for (MBeanAttribute mbeanAttribute : mbeanAttributes) {
             String mbeanAttributeName = mbeanAttribute.name();
@@ -191,7 +313,7 @@ class GaugeCollector extends ScheduledRunnable {
             try {
                 if (mbeanAttributeName.contains(".")) {
                     String[] path = mbeanAttributeName.split("\\.");
-                    attributeValue = lazyPlatformMBeanServer.getAttribute(objectName, path[0]);
+                    attributeValue = getAttribute(objectName, path[0], attributeValues);
                     CompositeData compositeData = (CompositeData) attributeValue;
                     if (compositeData == null) {
                         // this is valid, e.g. attribute LastGcInfo on mbean
@@ -201,8 +323,7 @@ class GaugeCollector extends ScheduledRunnable {
                     }
                     attributeValue = compositeData.get(path[1]);
                 } else {
-                    attributeValue =
-                            lazyPlatformMBeanServer.getAttribute(objectName, mbeanAttributeName);
+                    attributeValue = getAttribute(objectName, mbeanAttributeName, attributeValues);
                 }
             } catch (InstanceNotFoundException e) {
                 logger.debug(e.getMessage(), e);
@@ -275,6 +396,22 @@ class GaugeCollector extends ScheduledRunnable {
         return gaugeValues;
     }
 
+    private @Nullable Object getAttribute(ObjectName objectName, String attributeName,
+            Map<String, /*@Nullable*/ Object> attributeValues) throws Exception {
+        if (attributeValues.containsKey(attributeName)) {
+            return attributeValues.get(attributeName);
+        }
+        return lazyPlatformMBeanServer.getAttribute(objectName, attributeName);
+    }
+
+    private void logFirstTimeSlowCollection(String mbeanObjectName, long collectionNanos) {
+        if (loggedSlowMBeanGauges.add(mbeanObjectName)) {
+            logger.warn("collecting gauge values for mbean {} took {} milliseconds (this warning"
+                    + " will only be logged once per mbean)", mbeanObjectName,
+                    NANOSECONDS.toMillis(collectionNanos));
+        }
+    }
+
     // relatively common, so nice message
     private void logFirstTimeMBeanNotMatchedOrFound(String mbeanObjectName) {
         int delaySeconds = configService.getAdvancedConfig().mbeanGaugeNotFoundDelaySeconds();
@@ -324,6 +461,89 @@ class GaugeCollector extends ScheduledRunnable {
         }
     }
 
+    // the parsed object name, attribute names and (for patterns) matching mbeans, so that these are
+    // not re-computed on every collection
+    private class GaugePlan {
+
+        private final @Nullable ObjectName objectName;
+        private final @Nullable MalformedObjectNameException malformedException;
+        private final String[] attributeNames;
+
+        // key is matching object name, value is its display name used in the gauge name
+        private @Nullable Map<ObjectName, String> matchingObjectNames;
+        private long matchingObjectNamesRegistrationCount;
+
+        private GaugePlan(GaugeConfig gaugeConfig) {
+            ObjectName objectName;
+            MalformedObjectNameException malformedException;
+            try {
+                objectName = ObjectName.getInstance(gaugeConfig.mbeanObjectName());
+                malformedException = null;
+            } catch (MalformedObjectNameException e) {
+                objectName = null;
+                malformedException = e;
+            }
+            this.objectName = objectName;
+            this.malformedException = malformedException;
+            Set<String> attributeNames = Sets.newLinkedHashSet();
+            for (MBeanAttribute mbeanAttribute : gaugeConfig.mbeanAttributes()) {
+                String name = mbeanAttribute.name();
+                int index = name.indexOf('.');
+                attributeNames.add(index == -1 ? name : name.substring(0, index));
+            }
+            this.attributeNames = attributeNames.toArray(new String[attributeNames.size()]);
+        }
+
+        private Map<ObjectName, String> getMatchingObjectNames() throws Exception {
+            long registrationCount = mbeanRegistrationCount.get();
+            if (matchingObjectNames != null && mbeanRegistrationListenerServer != null
+                    && registrationCount == matchingObjectNamesRegistrationCount) {
+                return matchingObjectNames;
+            }
+            Map<ObjectName, String> matchingObjectNames = Maps.newLinkedHashMap();
+            for (ObjectName matchingObjectName : lazyPlatformMBeanServer
+                    .queryNames(checkNotNull(objectName), null)) {
+                matchingObjectNames.put(matchingObjectName, matchingObjectName.getDomain() + ":"
+                        + matchingObjectName.getKeyPropertyListString());
+            }
+            this.matchingObjectNames = matchingObjectNames;
+            // registration count is read before querying, so a registration during the query will
+            // still trigger a re-query next time
+            matchingObjectNamesRegistrationCount = registrationCount;
+            return matchingObjectNames;
+        }
+    }
+
+    private static class GaugeCollection implements GaugeCollectionMXBean {
+
+        private final String objectName;
+
+        // only written from the dedicated thread, but read from jmx
+        private volatile long lastCollectionNanos;
+        private volatile long maxCollectionNanos;
+
+        private GaugeCollection(String objectName) {
+            this.objectName = objectName;
+        }
+
+        @Override
+        public long getLastCollectionNanos() {
+            return lastCollectionNanos;
+        }
+
+        @Override
+        public long getMaxCollectionNanos() {
+            return maxCollectionNanos;
+        }
+
+        private void record(long collectionNanos) {
+            lastCollectionNanos = collectionNanos;
+            if (collectionNanos > maxCollectionNanos) {
+                maxCollectionNanos = collectionNanos;
+            }
+        }
+    }
+
     @Value.Immutable
     @Styles.AllParameters
     interface RawCounterValue {
@@ -70,7 +70,7 @@ public class NonEmbeddedGlowrootAgentInit implements GlowrootAgentInit {
 
     @Override
     public void init(@Nullable File pluginsDir, final File confDir,
-            final @Nullable File sharedConfDir, File logDir, File tmpDir,
+            final @Nullable File sharedConfDir, File logDir, final File tmpDir,
             final Map<String, String> properties, final @Nullable Instrumentation instrumentation,
             final String glowrootVersion) throws Exception {
 
@@ -112,9 +112,11 @@ public class NonEmbeddedGlowrootAgentInit implements GlowrootAgentInit {
                 if (customCollector == null) {
                     centralCollector = new CentralCollector(properties,
                             checkNotNull(collectorAddress), collectorAuthority, confDir,
-                            sharedConfDir, agentModule.getLiveJvmService(),
+                            sharedConfDir, tmpDir, agentModule.getLiveJvmService(),
                             agentModule.getLiveWeavingService(),
-                            agentModule.getLiveTraceRepository(), agentConfigUpdater);
+                            agentModule.getLiveTraceRepository(), agentConfigUpdater,
+                            agentModule.getMemoryBudget(),
+                            agentModule.getLazyPlatformMBeanServer());
                     collector = centralCollector;
                 } else {
                     collector = customCollector;
@@ -0,0 +1,916 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.live;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.io.CountingInputStream;
+import com.google.common.primitives.Ints;
+import com.google.common.primitives.Longs;
+
+import org.glowroot.wire.api.model.DownstreamServiceOuterClass.HeapDumpSummary;
+import org.glowroot.wire.api.model.DownstreamServiceOuterClass.HeapDumpSummary.ClassSummary;
+import org.glowroot.wire.api.model.DownstreamServiceOuterClass.HeapDumpSummary.DuplicateString;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+// summarizes a HotSpot (hprof) heap dump by streaming through the file three times, only holding
+// per-class data plus a bounded number of object ids in memory, so that it can run inside the
+// monitored JVM against heap dumps that are much larger than its heap
+//
+// pass 1: class layouts and class histogram
+// pass 2: class and field names, ids of objects referenced by instances of the top classes (which
+//         are candidates for being retained by that class), and ids of String value arrays
+// pass 3: sizes of the candidate objects (excluding candidates that are also referenced from
+//         anywhere else), and contents of String value arrays
+class HeapDumpSummarizer {
+
+    private static final int MAX_TRACKED_OBJECTS =
+            Integer.getInteger("glowroot.heapDumpSummary.maxTrackedObjects", 250000);
+
+    private static final int TOP_CLASSES = 50;
+    private static final int RETAINED_TOP_CLASSES = 20;
+    private static final int TOP_DUPLICATE_STRINGS = 50;
+    private static final int MAX_STRING_PREVIEW_CHARS = 100;
+    private static final int MAX_STRING_PREVIEWS = 10000;
+
+    // record tags
+    private static final int UTF8 = 0x01;
+    private static final int LOAD_CLASS = 0x02;
+    private static final int HEAP_DUMP = 0x0C;
+    private static final int HEAP_DUMP_SEGMENT = 0x1C;
+
+    // heap dump sub-record tags
+    private static final int ROOT_UNKNOWN = 0xFF;
+    private static final int ROOT_JNI_GLOBAL = 0x01;
+    private static final int ROOT_JNI_LOCAL = 0x02;
+    private static final int ROOT_JAVA_FRAME = 0x03;
+    private static final int ROOT_NATIVE_STACK = 0x04;
+    private static final int ROOT_STICKY_CLASS = 0x05;
+    private static final int ROOT_THREAD_BLOCK = 0x06;
+    private static final int ROOT_MONITOR_USED = 0x07;
+    private static final int ROOT_THREAD_OBJECT = 0x08;
+    private static final int CLASS_DUMP = 0x20;
+    private static final int INSTANCE_DUMP = 0x21;
+    private static final int OBJ_ARRAY_DUMP = 0x22;
+    private static final int PRIM_ARRAY_DUMP = 0x23;
+
+    // basic types
+    private static final int OBJECT = 2;
+    private static final int BOOLEAN = 4;
+    private static final int CHAR = 5;
+    private static final int FLOAT = 6;
+    private static final int DOUBLE = 7;
+    private static final int BYTE = 8;
+    private static final int SHORT = 9;
+    private static final int INT = 10;
+    private static final int LONG = 11;
+
+    private static final String[] PRIMITIVE_ARRAY_NAMES = new String[] {null, null, null, null,
+            "boolean[]", "char[]", "float[]", "double[]", "byte[]", "short[]", "int[]", "long[]"};
+
+    // candidate owner for objects that are referenced from more than one place
+    private static final int SHARED = -1;
+    // "owner" index for references from outside of the top classes
+    private static final int NOT_TOP_CLASS = -2;
+
+    private static final Object lock = new Object();
+
+    private final File file;
+    private final int maxTrackedObjects;
+
+    private @Nullable DataInputStream in;
+    private @Nullable CountingInputStream countingIn;
+    private int idSize;
+    private long recordCount;
+    private byte[] buffer = new byte[8192];
+
+    private final Map<Long, ClassInfo> classes = Maps.newHashMap();
+    private final long[] primitiveArrayCounts = new long[PRIMITIVE_ARRAY_NAMES.length];
+    private final long[] primitiveArrayBytes = new long[PRIMITIVE_ARRAY_NAMES.length];
+
+    // only the names that are needed are retained
+    private final Set<Long> neededNameIds = Sets.newHashSet();
+    private final Map<Long, String> names = Maps.newHashMap();
+
+    private boolean stringClassResolved;
+    private @Nullable ClassInfo stringClass;
+    private int stringValueOffset = -1;
+    private int stringCoderOffset = -1;
+
+    private final List<ClassInfo> topClasses = Lists.newArrayList();
+
+    // object id -> index into topClasses (or SHARED)
+    private @Nullable LongKeyTable candidates;
+    private int /*@Nullable*/ [] candidateOwners;
+    private int /*@Nullable*/ [] candidateBytes;
+
+    // String value array id -> String coder
+    private @Nullable LongKeyTable stringValues;
+    private byte /*@Nullable*/ [] stringValueCoders;
+
+    // String value hash -> count
+    private @Nullable LongKeyTable stringHashes;
+    private int /*@Nullable*/ [] stringHashCounts;
+    private int /*@Nullable*/ [] stringHashBytes;
+    private final Map<Long, String> stringPreviews = Maps.newHashMap();
+
+    private long stringCount;
+    private boolean truncated;
+
+    HeapDumpSummarizer(File file, int maxTrackedObjects) {
+        this.file = file;
+        this.maxTrackedObjects = maxTrackedObjects;
+    }
+
+    // only one summary is run at a time so that memory stays bounded (requests from the central
+    // collector are already run one at a time, but requests from the embedded ui are not)
+    static HeapDumpSummary summarize(File file) throws IOException {
+        synchronized (lock) {
+            return new HeapDumpSummarizer(file, MAX_TRACKED_OBJECTS).summarize();
+        }
+    }
+
+    HeapDumpSummary summarize() throws IOException {
+        scan(1);
+        selectTopClasses();
+        candidates = new LongKeyTable(maxTrackedObjects);
+        candidateOwners = new int[candidates.capacity()];
+        candidateBytes = new int[candidates.capacity()];
+        stringValues = new LongKeyTable(maxTrackedObjects);
+        stringValueCoders = new byte[stringValues.capacity()];
+        scan(2);
+        stringHashes = new LongKeyTable(maxTrackedObjects);
+        stringHashCounts = new int[stringHashes.capacity()];
+        stringHashBytes = new int[stringHashes.capacity()];
+        scan(3);
+        return buildSummary();
+    }
+
+    private void scan(int pass) throws IOException {
+        countingIn = new CountingInputStream(
+                new BufferedInputStream(new FileInputStream(file), 65536));
+        in = new DataInputStream(countingIn);
+        try {
+            readHeader();
+            while (true) {
+                int tag = in.read();
+                if (tag == -1) {
+                    break;
+                }
+                checkInterrupted();
+                in.readInt(); // time
+                long length = in.readInt() & 0xFFFFFFFFL;
+                if (tag == UTF8 && pass == 2) {
+                    readUtf8(length);
+                } else if (tag == LOAD_CLASS && pass == 1) {
+                    readLoadClass(length);
+                } else if (tag == HEAP_DUMP || tag == HEAP_DUMP_SEGMENT) {
+                    readHeapDump(countingIn.getCount() + length, pass);
+                } else {
+                    skip(length);
+                }
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private void readHeader() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int b;
+        while ((b = checkNotNull(in).read()) > 0 && sb.length() < 100) {
+            sb.append((char) b);
+        }
+        if (!sb.toString().startsWith("JAVA PROFILE ")) {
+            throw new IOException("Not an hprof heap dump: " + file.getAbsolutePath());
+        }
+        idSize = checkNotNull(in).readInt();
+        if (idSize != 4 && idSize != 8) {
+            throw new IOException("Unexpected identifier size: " + idSize);
+        }
+        skip(8); // timestamp
+    }
+
+    private void readUtf8(long length) throws IOException {
+        long id = readId();
+        int stringLength = Ints.checkedCast(length - idSize);
+        if (neededNameIds.contains(id)) {
+            byte[] bytes = new byte[stringLength];
+            checkNotNull(in).readFully(bytes);
+            names.put(id, new String(bytes, Charsets.UTF_8));
+        } else {
+            skip(stringLength);
+        }
+    }
+
+    private void readLoadClass(long length) throws IOException {
+        DataInputStream in = checkNotNull(this.in);
+        in.readInt(); // class serial number
+        long classId = readId();
+        in.readInt(); // stack trace serial number
+        long nameId = readId();
+        getOrCreateClass(classId).nameId = nameId;
+        skip(length - 8 - 2 * idSize);
+    }
+
+    private void readHeapDump(long end, int pass) throws IOException {
+        if (pass == 2 && !stringClassResolved) {
+            resolveStringClass();
+        }
+        DataInputStream in = checkNotNull(this.in);
+        CountingInputStream countingIn = checkNotNull(this.countingIn);
+        while (countingIn.getCount() < end) {
+            if ((++recordCount & 0xFFFF) == 0) {
+                checkInterrupted();
+            }
+            int subTag = in.readUnsignedByte();
+            switch (subTag) {
+                case ROOT_UNKNOWN:
+                case ROOT_STICKY_CLASS:
+                case ROOT_MONITOR_USED:
+                    skip(idSize);
+                    break;
+                case ROOT_JNI_GLOBAL:
+                    skip(2 * idSize);
+                    break;
+                case ROOT_JNI_LOCAL:
+                case ROOT_JAVA_FRAME:
+                case ROOT_THREAD_OBJECT:
+                    skip(idSize + 8);
+                    break;
+                case ROOT_NATIVE_STACK:
+                case ROOT_THREAD_BLOCK:
+                    skip(idSize + 4);
+                    break;
+                case CLASS_DUMP:
+                    readClassDump(pass);
+                    break;
+                case INSTANCE_DUMP:
+                    readInstanceDump(pass);
+                    break;
+                case OBJ_ARRAY_DUMP:
+                    readObjectArrayDump(pass);
+                    break;
+                case PRIM_ARRAY_DUMP:
+                    readPrimitiveArrayDump(pass);
+                    break;
+                default:
+                    throw new IOException("Unexpected heap dump sub-record tag: " + subTag);
+            }
+        }
+    }
+
+    private void readClassDump(int pass) throws IOException {
+        DataInputStream in = checkNotNull(this.in);
+        long classId = readId();
+        in.readInt(); // stack trace serial number
+        long superId = readId();
+        // class loader, signers, protection domain, reserved, reserved
+        skip(5 * idSize);
+        in.readInt(); // instance size
+        int constantPoolSize = in.readUnsignedShort();
+        for (int i = 0; i < constantPoolSize; i++) {
+            in.readUnsignedShort();
+            skip(valueSize(in.readUnsignedByte()));
+        }
+        int staticFieldCount = in.readUnsignedShort();
+        for (int i = 0; i < staticFieldCount; i++) {
+            readId(); // name
+            int type = in.readUnsignedByte();
+            if (type == OBJECT && pass == 3) {
+                // referenced from a static field
+                markReference(NOT_TOP_CLASS, readId());
+            } else {
+                skip(valueSize(type));
+            }
+        }
+        int instanceFieldCount = in.readUnsignedShort();
+        long[] fieldNameIds = new long[instanceFieldCount];
+        byte[] fieldTypes = new byte[instanceFieldCount];
+        for (int i = 0; i < instanceFieldCount; i++) {
+            fieldNameIds[i] = readId();
+            fieldTypes[i] = in.readByte();
+        }
+        if (pass == 1) {
+            ClassInfo classInfo = getOrCreateClass(classId);
+            classInfo.superId = superId;
+            classInfo.fieldNameIds = fieldNameIds;
+            classInfo.fieldTypes = fieldTypes;
+        }
+    }
+
+    private void readInstanceDump(int pass) throws IOException {
+        DataInputStream in = checkNotNull(this.in);
+        long objectId = readId();
+        in.readInt(); // stack trace serial number
+        long classId = readId();
+        int numBytes = in.readInt();
+        ClassInfo classInfo = getOrCreateClass(classId);
+        long bytes = align((idSize == 4 ? 8 : 16) + numBytes);
+        if (pass == 1) {
+            classInfo.count++;
+            classInfo.bytes += bytes;
+            skip(numBytes);
+        } else if (pass == 2) {
+            boolean isString = classInfo == stringClass;
+            if (classInfo.topIndex < 0 && !isString) {
+                skip(numBytes);
+                return;
+            }
+            readIntoBuffer(numBytes);
+            if (classInfo.topIndex >= 0) {
+                for (int offset : getReferenceOffsets(classInfo)) {
+                    addCandidate(getId(offset), classInfo.topIndex);
+                }
+            }
+            if (isString) {
+                readStringInstance();
+            }
+        } else {
+            recordCandidateBytes(objectId, classInfo.topIndex, bytes);
+            int[] referenceOffsets = getReferenceOffsets(classInfo);
+            if (referenceOffsets.length == 0) {
+                skip(numBytes);
+                return;
+            }
+            readIntoBuffer(numBytes);
+            for (int offset : referenceOffsets) {
+                markReference(classInfo.topIndex, getId(offset));
+            }
+        }
+    }
+
+    private void readObjectArrayDump(int pass) throws IOException {
+        DataInputStream in = checkNotNull(this.in);
+        long arrayId = readId();
+        in.readInt(); // stack trace serial number
+        int length = in.readInt();
+        long arrayClassId = readId();
+        ClassInfo classInfo = getOrCreateClass(arrayClassId);
+        long bytes = align((idSize == 4 ? 12 : 16) + (long) length * idSize);
+        if (pass == 1) {
+            classInfo.objectArray = true;
+            classInfo.count++;
+            classInfo.bytes += bytes;
+            skip((long) length * idSize);
+        } else if (pass == 2) {
+            if (classInfo.topIndex < 0) {
+                skip((long) length * idSize);
+                return;
+            }
+            for (int i = 0; i < length; i++) {
+                addCandidate(readId(), classInfo.topIndex);
+            }
+        } else {
+            recordCandidateBytes(arrayId, classInfo.topIndex, bytes);
+            for (int i = 0; i < length; i++) {
+                markReference(classInfo.topIndex, readId());
+            }
+        }
+    }
+
+    private void readPrimitiveArrayDump(int pass) throws IOException {
+        DataInputStream in = checkNotNull(this.in);
+        long arrayId = readId();
+        in.readInt(); // stack trace serial number
+        int length = in.readInt();
+        int type = in.readUnsignedByte();
+        long dataBytes = (long) length * valueSize(type);
+        long bytes = align((idSize == 4 ? 12 : 16) + dataBytes);
+        if (pass == 1) {
+            primitiveArrayCounts[type]++;
+            primitiveArrayBytes[type] += bytes;
+            skip(dataBytes);
+        } else if (pass == 2) {
+            skip(dataBytes);
+        } else {
+            recordCandidateBytes(arrayId, NOT_TOP_CLASS, bytes);
+            int stringValueSlot = checkNotNull(stringValues).indexOf(arrayId);
+            if (stringValueSlot >= 0) {
+                readStringValue(type, dataBytes, bytes,
+                        checkNotNull(stringValueCoders)[stringValueSlot]);
+            } else {
+                skip(dataBytes);
+            }
+        }
+    }
+
+    private void readStringInstance() {
+        stringCount++;
+        if (stringValueOffset < 0) {
+            return;
+        }
+        long valueId = getId(stringValueOffset);
+        if (valueId == 0) {
+            return;
+        }
+        int slot = checkNotNull(stringValues).add(valueId);
+        if (slot < 0) {
+            truncated = true;
+            return;
+        }
+        if (stringCoderOffset >= 0) {
+            checkNotNull(stringValueCoders)[slot] = buffer[stringCoderOffset];
+        }
+    }
+
+    private void readStringValue(int type, long dataBytes, long bytes, byte coder)
+            throws IOException {
+        DataInputStream in = checkNotNull(this.in);
+        // FNV-1a
+        long hash = 0xcbf29ce484222325L;
+        byte[] preview = null;
+        long remaining = dataBytes;
+        while (remaining > 0) {
+            int n = (int) Math.min(buffer.length, remaining);
+            in.readFully(buffer, 0, n);
+            if (preview == null) {
+                preview = new byte[Math.min(n, MAX_STRING_PREVIEW_CHARS * 2)];
+                System.arraycopy(buffer, 0, preview, 0, preview.length);
+            }
+            for (int i = 0; i < n; i++) {
+                hash ^= buffer[i] & 0xFF;
+                hash *= 0x100000001b3L;
+            }
+            remaining -= n;
+        }
+        hash = hash * 31 + dataBytes;
+        if (hash == 0) {
+            hash = 1;
+        }
+        LongKeyTable stringHashes = checkNotNull(this.stringHashes);
+        int slot = stringHashes.indexOf(hash);
+        if (slot < 0) {
+            slot = stringHashes.add(hash);
+            if (slot < 0) {
+                truncated = true;
+                return;
+            }
+            checkNotNull(stringHashBytes)[slot] = (int) Math.min(bytes, Integer.MAX_VALUE);
+        }
+        int count = ++checkNotNull(stringHashCounts)[slot];
+        if (count == 2 && stringPreviews.size() < MAX_STRING_PREVIEWS) {
+            stringPreviews.put(hash,
+                    toPreview(preview == null ? new byte[0] : preview, type, coder));
+        }
+    }
+
+    private void addCandidate(long objectId, int ownerIndex) {
+        if (objectId == 0) {
+            return;
+        }
+        LongKeyTable candidates = checkNotNull(this.candidates);
+        int[] candidateOwners = checkNotNull(this.candidateOwners);
+        int slot = candidates.indexOf(objectId);
+        if (slot >= 0) {
+            if (candidateOwners[slot] != ownerIndex) {
+                candidateOwners[slot] = SHARED;
+            }
+            return;
+        }
+        slot = candidates.add(objectId);
+        if (slot < 0) {
+            truncated = true;
+            return;
+        }
+        candidateOwners[slot] = ownerIndex;
+    }
+
+    private void markReference(int referrerIndex, long objectId) {
+        if (objectId == 0) {
+            return;
+        }
+        int slot = checkNotNull(candidates).indexOf(objectId);
+        if (slot >= 0 && checkNotNull(candidateOwners)[slot] != referrerIndex) {
+            candidateOwners[slot] = SHARED;
+        }
+    }
+
+    private void recordCandidateBytes(long objectId, int classIndex, long bytes) {
+        int slot = checkNotNull(candidates).indexOf(objectId);
+        if (slot < 0) {
+            return;
+        }
+        if (checkNotNull(candidateOwners)[slot] == classIndex) {
+            // already counted as an instance of the owning class
+            candidateOwners[slot] = SHARED;
+        } else {
+            checkNotNull(candidateBytes)[slot] = (int) Math.min(bytes, Integer.MAX_VALUE);
+        }
+    }
+
+    private void selectTopClasses() {
+        List<ClassInfo> classInfos = Lists.newArrayList();
+        for (ClassInfo classInfo : classes.values()) {
+            if (classInfo.count > 0
+                    && (classInfo.objectArray || getReferenceOffsets(classInfo).length > 0)) {
+                classInfos.add(classInfo);
+            }
+        }
+        Collections.sort(classInfos, new Comparator<ClassInfo>() {
+            @Override
+            public int compare(ClassInfo left, ClassInfo right) {
+                return Longs.compare(right.bytes, left.bytes);
+            }
+        });
+        for (ClassInfo classInfo : classInfos) {
+            if (topClasses.size() == RETAINED_TOP_CLASSES) {
+                break;
+            }
+            classInfo.topIndex = topClasses.size();
+            topClasses.add(classInfo);
+        }
+        for (ClassInfo classInfo : classes.values()) {
+            neededNameIds.add(classInfo.nameId);
+            for (long fieldNameId : classInfo.fieldNameIds) {
+                neededNameIds.add(fieldNameId);
+            }
+        }
+    }
+
+    private void resolveStringClass() {
+        stringClassResolved = true;
+        for (ClassInfo classInfo : classes.values()) {
+            if ("java/lang/String".equals(names.get(classInfo.nameId))) {
+                stringClass = classInfo;
+                stringValueOffset = getFieldOffset(classInfo, "value", OBJECT);
+                // java 9+
+                stringCoderOffset = getFieldOffset(classInfo, "coder", BYTE);
+                return;
+            }
+        }
+    }
+
+    private HeapDumpSummary buildSummary() {
+        long[] retainedBytes = new long[topClasses.size()];
+        LongKeyTable candidates = checkNotNull(this.candidates);
+        int[] candidateOwners = checkNotNull(this.candidateOwners);
+        int[] candidateBytes = checkNotNull(this.candidateBytes);
+        for (int slot = 0; slot < candidates.capacity(); slot++) {
+            if (candidates.keyAt(slot) != 0 && candidateOwners[slot] >= 0) {
+                retainedBytes[candidateOwners[slot]] += candidateBytes[slot];
+            }
+        }
+        List<ClassSummary> classSummaries = Lists.newArrayList();
+        long totalBytes = 0;
+        long totalCount = 0;
+        for (ClassInfo classInfo : classes.values()) {
+            if (classInfo.count == 0) {
+                continue;
+            }
+            ClassSummary.Builder builder = ClassSummary.newBuilder()
+                    .setClassName(getClassName(classInfo))
+                    .setBytes(classInfo.bytes)
+                    .setCount(classInfo.count);
+            if (classInfo.topIndex >= 0) {
+                builder.setRetainedBytes(classInfo.bytes + retainedBytes[classInfo.topIndex]);
+            }
+            classSummaries.add(builder.build());
+            totalBytes += classInfo.bytes;
+            totalCount += classInfo.count;
+        }
+        for (int type = 0; type < PRIMITIVE_ARRAY_NAMES.length; type++) {
+            if (primitiveArrayCounts[type] == 0) {
+                continue;
+            }
+            classSummaries.add(ClassSummary.newBuilder()
+                    .setClassName(checkNotNull(PRIMITIVE_ARRAY_NAMES[type]))
+                    .setBytes(primitiveArrayBytes[type])
+                    .setCount(primitiveArrayCounts[type])
+                    .build());
+            totalBytes += primitiveArrayBytes[type];
+            totalCount += primitiveArrayCounts[type];
+        }
+        Collections.sort(classSummaries, new Comparator<ClassSummary>() {
+            @Override
+            public int compare(ClassSummary left, ClassSummary right) {
+                return Longs.compare(right.getBytes(), left.getBytes());
+            }
+        });
+        List<DuplicateString> duplicateStrings = Lists.newArrayList();
+        long duplicateStringCount = 0;
+        long duplicateStringBytes = 0;
+        LongKeyTable stringHashes = checkNotNull(this.stringHashes);
+        int[] stringHashCounts = checkNotNull(this.stringHashCounts);
+        int[] stringHashBytes = checkNotNull(this.stringHashBytes);
+        for (int slot = 0; slot < stringHashes.capacity(); slot++) {
+            int count = stringHashCounts[slot];
+            if (count < 2) {
+                continue;
+            }
+            long wastedBytes = (count - 1) * (long) stringHashBytes[slot];
+            duplicateStringCount += count - 1;
+            duplicateStringBytes += wastedBytes;
+            String preview = stringPreviews.get(stringHashes.keyAt(slot));
+            duplicateStrings.add(DuplicateString.newBuilder()
+                    .setValue(preview == null ? "" : preview)
+                    .setCount(count)
+                    .setWastedBytes(wastedBytes)
+                    .build());
+        }
+        Collections.sort(duplicateStrings, new Comparator<DuplicateString>() {
+            @Override
+            public int compare(DuplicateString left, DuplicateString right) {
+                return Longs.compare(right.getWastedBytes(), left.getWastedBytes());
+            }
+        });
+        return HeapDumpSummary.newBuilder()
+                .setTotalBytes(totalBytes)
+                .setTotalCount(totalCount)
+                .addAllClassSummary(
+                        classSummaries.subList(0, Math.min(TOP_CLASSES, classSummaries.size())))
+                .setStringCount(stringCount)
+                .setDuplicateStringTotalCount(duplicateStringCount)
+                .setDuplicateStringTotalBytes(duplicateStringBytes)
+                .addAllDuplicateString(duplicateStrings.subList(0,
+                        Math.min(TOP_DUPLICATE_STRINGS, duplicateStrings.size())))
+                .setTruncated(truncated)
+                .build();
+    }
+
+    private ClassInfo getOrCreateClass(long classId) {
+        ClassInfo classInfo = classes.get(classId);
+        if (classInfo == null) {
+            classInfo = new ClassInfo(classId);
+            classes.put(classId, classInfo);
+        }
+        return classInfo;
+    }
+
+    // offsets of reference fields within the instance data, which contains the class's own fields
+    // followed by the fields of its super classes
+    private int[] getReferenceOffsets(ClassInfo classInfo) {
+        int[] referenceOffsets = classInfo.referenceOffsets;
+        if (referenceOffsets != null) {
+            return referenceOffsets;
+        }
+        List<Integer> offsets = Lists.newArrayList();
+        int offset = 0;
+        ClassInfo curr = classInfo;
+        while (curr != null) {
+            for (byte fieldType : curr.fieldTypes) {
+                if (fieldType == OBJECT) {
+                    offsets.add(offset);
+                }
+                offset += valueSizeOrZero(fieldType);
+            }
+            curr = classes.get(curr.superId);
+        }
+        referenceOffsets = Ints.toArray(offsets);
+        classInfo.referenceOffsets = referenceOffsets;
+        return referenceOffsets;
+    }
+
+    private int getFieldOffset(ClassInfo classInfo, String fieldName, int fieldType) {
+        int offset = 0;
+        ClassInfo curr = classInfo;
+        while (curr != null) {
+            for (int i = 0; i < curr.fieldTypes.length; i++) {
+                if (curr.fieldTypes[i] == fieldType
+                        && fieldName.equals(names.get(curr.fieldNameIds[i]))) {
+                    return offset;
+                }
+                offset += valueSizeOrZero(curr.fieldTypes[i]);
+            }
+            curr = classes.get(curr.superId);
+        }
+        return -1;
+    }
+
+    private String getClassName(ClassInfo classInfo) {
+        String name = names.get(classInfo.nameId);
+        if (name == null) {
+            return "unknown class 0x" + Long.toHexString(classInfo.id);
+        }
+        name = name.replace('/', '.');
+        int dimensions = 0;
+        while (dimensions < name.length() && name.charAt(dimensions) == '[') {
+            dimensions++;
+        }
+        if (dimensions == 0) {
+            return name;
+        }
+        StringBuilder sb = new StringBuilder();
+        String elementName = name.substring(dimensions);
+        if (elementName.startsWith("L") && elementName.endsWith(";")) {
+            sb.append(elementName, 1, elementName.length() - 1);
+        } else {
+            sb.append(elementName);
+        }
+        for (int i = 0; i < dimensions; i++) {
+            sb.append("[]");
+        }
+        return sb.toString();
+    }
+
+    private long readId() throws IOException {
+        DataInputStream in = checkNotNull(this.in);
+        return idSize == 4 ? in.readInt() & 0xFFFFFFFFL : in.readLong();
+    }
+
+    private long getId(int offset) {
+        if (idSize == 4) {
+            return Ints.fromBytes(buffer[offset], buffer[offset + 1], buffer[offset + 2],
+                    buffer[offset + 3]) & 0xFFFFFFFFL;
+        }
+        return Longs.fromBytes(buffer[offset], buffer[offset + 1], buffer[offset + 2],
+                buffer[offset + 3], buffer[offset + 4], buffer[offset + 5], buffer[offset + 6],
+                buffer[offset + 7]);
+    }
+
+    private void readIntoBuffer(int numBytes) throws IOException {
+        if (buffer.length < numBytes) {
+            buffer = new byte[numBytes];
+        }
+        checkNotNull(in).readFully(buffer, 0, numBytes);
+    }
+
+    private void skip(long n) throws IOException {
+        DataInputStream in = checkNotNull(this.in);
+        long remaining = n;
+        while (remaining > 0) {
+            long skipped = in.skip(remaining);
+            if (skipped == 0) {
+                if (in.read() == -1) {
+                    throw new EOFException();
+                }
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+    }
+
+    private int valueSize(int type) throws IOException {
+        int size = valueSizeOrZero(type);
+        if (size == 0) {
+            throw new IOException("Unexpected basic type: " + type);
+        }
+        return size;
+    }
+
+    private int valueSizeOrZero(int type) {
+        switch (type) {
+            case OBJECT:
+                return idSize;
+            case BOOLEAN:
+            case BYTE:
+                return 1;
+            case CHAR:
+            case SHORT:
+                return 2;
+            case FLOAT:
+            case INT:
+                return 4;
+            case DOUBLE:
+            case LONG:
+                return 8;
+            default:
+                return 0;
+        }
+    }
+
+    private static String toPreview(byte[] bytes, int type, byte coder) {
+        if (type == BYTE && coder == 0) {
+            // java 9+ latin1
+            return new String(bytes, Charsets.ISO_8859_1);
+        }
+        ByteBuffer byteBuffer = ByteBuffer.wrap(bytes);
+        if (type == BYTE) {
+            // java 9+ utf16, which is stored in native byte order (which is the byte order of this
+            // jvm since it generated the heap dump)
+            byteBuffer.order(ByteOrder.nativeOrder());
+        }
+        StringBuilder sb = new StringBuilder();
+        while (byteBuffer.remaining() >= 2) {
+            sb.append(byteBuffer.getChar());
+        }
+        return sb.toString();
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    private static void checkInterrupted() throws InterruptedIOException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException();
+        }
+    }
+
+    private static class ClassInfo {
+
+        private final long id;
+        private long nameId;
+        private long superId;
+        private long[] fieldNameIds = new long[0];
+        private byte[] fieldTypes = new byte[0];
+        private boolean objectArray;
+
+        private long count;
+        private long bytes;
+
+        // index into topClasses
+        private int topIndex = -1;
+
+        private int /*@Nullable*/ [] referenceOffsets;
+
+        private ClassInfo(long id) {
+            this.id = id;
+        }
+    }
+
+    // open addressing hash table of non-zero long keys, with a fixed maximum size so that memory
+    // stays bounded (callers store values in parallel arrays indexed by slot)
+    private static class LongKeyTable {
+
+        private final long[] keys;
+        private final int mask;
+        private final int maxSize;
+
+        private int size;
+
+        private LongKeyTable(int maxSize) {
+            int capacity = Integer.highestOneBit(Math.max(maxSize, 8) * 2 - 1) << 1;
+            keys = new long[capacity];
+            mask = capacity - 1;
+            this.maxSize = maxSize;
+        }
+
+        private int capacity() {
+            return keys.length;
+        }
+
+        private long keyAt(int slot) {
+            return keys[slot];
+        }
+
+        private int indexOf(long key) {
+            int slot = hash(key) & mask;
+            while (true) {
+                long curr = keys[slot];
+                if (curr == key) {
+                    return slot;
+                }
+                if (curr == 0) {
+                    return -1;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        // returns -1 if the table is full
+        private int add(long key) {
+            int slot = hash(key) & mask;
+            while (keys[slot] != 0) {
+                if (keys[slot] == key) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            if (size == maxSize) {
+                return -1;
+            }
+            keys[slot] = key;
+            size++;
+            return slot;
+        }
+
+        private static int hash(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+}
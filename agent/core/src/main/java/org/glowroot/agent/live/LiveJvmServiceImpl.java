@@ -17,9 +17,11 @@ package org.glowroot.agent.live;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
 import java.lang.management.ManagementFactory;
 import java.lang.management.ThreadMXBean;
 import java.lang.reflect.Array;
@@ -31,6 +33,7 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.regex.Pattern;
 
 import javax.annotation.Nullable;
 import javax.management.MBeanAttributeInfo;
@@ -46,6 +49,7 @@ import javax.management.openmbean.TabularData;
 import javax.tools.ToolProvider;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
 import com.google.common.base.Joiner;
 import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
@@ -56,7 +60,9 @@ import com.google.common.collect.Ordering;
 import com.google.common.collect.Sets;
 import com.google.common.io.CharStreams;
 import com.google.common.io.Closer;
+import com.google.common.io.Files;
 import com.google.common.primitives.Longs;
+import com.google.protobuf.ByteString;
 import org.objectweb.asm.Type;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -68,7 +74,9 @@ import org.glowroot.agent.util.LazyPlatformMBeanServer;
 import org.glowroot.common.live.LiveJvmService;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.Availability;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.Capabilities;
+import org.glowroot.wire.api.model.DownstreamServiceOuterClass.FileChunkResponse;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.HeapDumpFileInfo;
+import org.glowroot.wire.api.model.DownstreamServiceOuterClass.HeapDumpSummary;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.HeapHistogram;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.MBeanDump;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.MBeanDumpRequest.MBeanDumpKind;
@@ -91,16 +99,41 @@ public class LiveJvmServiceImpl implements LiveJvmService {
             ImmutableSet.of("long", "int", "double", "float", "java.lang.Long", "java.lang.Integer",
                     "java.lang.Double", "java.lang.Float");
 
+    private static final int MAX_FILE_CHUNK_BYTES = 4 * 1024 * 1024;
+
+    private static final Pattern HEAP_DUMP_FILE_NAME =
+            Pattern.compile("heap-dump-[0-9]{8}-[0-9]{6}(-[0-9]+)?\\.(hprof|phd)");
+
     private final LazyPlatformMBeanServer lazyPlatformMBeanServer;
     private final ThreadDumpService threadDumpService;
     private final Availability threadAllocatedBytesAvailability;
 
+    // only files created by this agent are available for transfer to the central collector
+    //
+    // these are persisted under the tmp dir so that heap dumps created before an agent restart can
+    // still be transferred and summarized
+    private final Set<String> transferableFilePaths = Sets.newConcurrentHashSet();
+    private final File transferableFilePathsFile;
+
     public LiveJvmServiceImpl(LazyPlatformMBeanServer lazyPlatformMBeanServer,
             TransactionRegistry transactionRegistry, TransactionCollector transactionCollector,
-            Availability threadAllocatedBytesAvailability) {
+            Availability threadAllocatedBytesAvailability, File tmpDir) {
         this.lazyPlatformMBeanServer = lazyPlatformMBeanServer;
         threadDumpService = new ThreadDumpService(transactionRegistry, transactionCollector);
         this.threadAllocatedBytesAvailability = threadAllocatedBytesAvailability;
+        transferableFilePathsFile = new File(tmpDir, "heap-dumps.txt");
+        if (transferableFilePathsFile.exists()) {
+            try {
+                for (String filePath : Files.readLines(transferableFilePathsFile, Charsets.UTF_8)) {
+                    // heap dumps that have since been deleted are dropped on the next write
+                    if (!filePath.isEmpty() && new File(filePath).isFile()) {
+                        transferableFilePaths.add(filePath);
+                    }
+                }
+            } catch (IOException e) {
+                logger.warn(e.getMessage(), e);
+            }
+        }
     }
 
     @Override
@@ -173,12 +206,86 @@ public class LiveJvmServiceImpl implements LiveJvmService {
         } else {
             file = heapDump(dir);
         }
+        addTransferableFile(file);
         return HeapDumpFileInfo.newBuilder()
                 .setFilePath(file.getAbsolutePath())
                 .setFileSizeBytes(file.length())
                 .build();
     }
 
+    @Override
+    public HeapDumpFileInfo transferHeapDump(String agentId, String filePath,
+            TransferProgressListener progressListener) throws Exception {
+        // heap dump is already on the local disk
+        File file = new File(filePath);
+        if (!isHeapDumpFile(file)) {
+            throw new FileNotFoundException(filePath);
+        }
+        return HeapDumpFileInfo.newBuilder()
+                .setFilePath(filePath)
+                .setFileSizeBytes(file.length())
+                .build();
+    }
+
+    @Override
+    public HeapDumpSummary heapDumpSummary(String agentId, String filePath) throws Exception {
+        File file = new File(filePath);
+        if (!isHeapDumpFile(file)) {
+            throw new FileNotFoundException(filePath);
+        }
+        return HeapDumpSummarizer.summarize(file);
+    }
+
+    public FileChunkResponse readFileChunk(String filePath, long offset, int maxBytes)
+            throws IOException {
+        File file = new File(filePath);
+        if (!isHeapDumpFile(file)) {
+            return FileChunkResponse.newBuilder()
+                    .setFileNotFound(true)
+                    .build();
+        }
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            long fileSize = in.length();
+            int length = (int) Math.max(0,
+                    Math.min(Math.min(maxBytes, MAX_FILE_CHUNK_BYTES), fileSize - offset));
+            byte[] bytes = new byte[length];
+            if (length > 0) {
+                in.seek(offset);
+                in.readFully(bytes);
+            }
+            return FileChunkResponse.newBuilder()
+                    .setData(ByteString.copyFrom(bytes))
+                    .setFileSizeBytes(fileSize)
+                    .build();
+        } finally {
+            in.close();
+        }
+    }
+
+    @VisibleForTesting
+    void addTransferableFile(File file) throws IOException {
+        transferableFilePaths.add(file.getCanonicalPath());
+        try {
+            Files.asCharSink(transferableFilePathsFile, Charsets.UTF_8)
+                    .writeLines(transferableFilePaths);
+        } catch (IOException e) {
+            // the heap dump is still transferable until the agent restarts
+            logger.warn(e.getMessage(), e);
+        }
+    }
+
+    @VisibleForTesting
+    boolean isHeapDumpFile(File file) throws IOException {
+        if (!file.isFile()) {
+            return false;
+        }
+        // canonical file is used to prevent symbolic links from pointing somewhere else
+        File canonicalFile = file.getCanonicalFile();
+        return transferableFilePaths.contains(canonicalFile.getPath())
+                && HEAP_DUMP_FILE_NAME.matcher(canonicalFile.getName()).matches();
+    }
+
     private File generateHeapDumpFileName(File dir, String extension) {
         String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
         File file = new File(dir, "heap-dump-" + timestamp + extension);
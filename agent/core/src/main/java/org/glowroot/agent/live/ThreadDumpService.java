@@ -87,6 +87,10 @@ class ThreadDumpService {
             if (!threadContext.isActive()) {
                 continue;
             }
+            if (threadContext.getVirtualThread() != null) {
+                // virtual threads are not included in ThreadMXBean thread dumps
+                continue;
+            }
             long threadId = threadContext.getThreadId();
             ThreadInfo threadInfo = unmatchedThreadInfos.remove(threadId);
             if (threadInfo == null) {
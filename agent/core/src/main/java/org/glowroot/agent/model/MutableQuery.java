@@ -23,6 +23,7 @@ class MutableQuery {
 
     private MutableDouble totalDurationNanos;
     private long executionCount;
+    private long roundTripCount;
 
     private boolean hasTotalRows;
     private long totalRows;
@@ -39,6 +40,10 @@ class MutableQuery {
         return executionCount;
     }
 
+    long getRoundTripCount() {
+        return roundTripCount;
+    }
+
     boolean hasTotalRows() {
         return hasTotalRows;
     }
@@ -55,6 +60,10 @@ class MutableQuery {
         this.executionCount += executionCount;
     }
 
+    void addToRoundTripCount(long roundTripCount) {
+        this.roundTripCount += roundTripCount;
+    }
+
     void addToTotalRows(boolean hasTotalRows, long totalRows) {
         if (hasTotalRows) {
             this.hasTotalRows = true;
@@ -68,7 +77,8 @@ class MutableQuery {
         Aggregate.Query.Builder builder = Aggregate.Query.newBuilder()
                 .setSharedQueryTextIndex(sharedQueryTextIndex)
                 .setTotalDurationNanos(totalDurationNanos.getValue())
-                .setExecutionCount(executionCount);
+                .setExecutionCount(executionCount)
+                .setRoundTripCount(roundTripCount);
         if (hasTotalRows) {
             builder.setTotalRows(OptionalInt64.newBuilder().setValue(totalRows));
         }
@@ -76,6 +76,7 @@ public class QueryCollector {
                     limitExceededBucket
                             .addToTotalDurationNanos((long) exceededQuery.getTotalDurationNanos());
                     limitExceededBucket.addToExecutionCount(exceededQuery.getExecutionCount());
+                    limitExceededBucket.addToRoundTripCount(exceededQuery.getRoundTripCount());
                     limitExceededBucket.addToTotalRows(exceededQuery.hasTotalRows(),
                             exceededQuery.getTotalRows().getValue());
                 }
@@ -93,14 +94,14 @@ public class QueryCollector {
     }
 
     public void mergeQuery(String queryType, String queryText, long totalDurationNanos,
-            long executionCount, boolean hasTotalRows, long totalRows) {
+            long executionCount, long roundTripCount, boolean hasTotalRows, long totalRows) {
         Map<String, MutableQuery> queriesForType = queries.get(queryType);
         if (queriesForType == null) {
             queriesForType = Maps.newHashMap();
             queries.put(queryType, queriesForType);
         }
-        mergeQuery(queryType, queryText, totalDurationNanos, executionCount, totalRows,
-                hasTotalRows, queriesForType);
+        mergeQuery(queryType, queryText, totalDurationNanos, executionCount, roundTripCount,
+                totalRows, hasTotalRows, queriesForType);
     }
 
     public void mergeQueriesInto(org.glowroot.common.model.QueryCollector collector) {
@@ -121,7 +122,7 @@ public class QueryCollector {
                 MutableQuery query = entry.getValue();
                 collector.mergeQuery(outerEntry.getKey(), truncatedQueryText, fullQueryTextSha1,
                         query.getTotalDurationNanos(), query.getExecutionCount(),
-                        query.hasTotalRows(), query.getTotalRows());
+                        query.getRoundTripCount(), query.hasTotalRows(), query.getTotalRows());
             }
         }
     }
@@ -142,7 +143,7 @@ public class QueryCollector {
     }
 
     private void mergeQuery(String queryType, String queryText, long totalDurationNanos,
-            long executionCount, long totalRows, boolean hasTotalRows,
+            long executionCount, long roundTripCount, long totalRows, boolean hasTotalRows,
             Map<String, MutableQuery> queriesForType) {
         MutableQuery aggregateQuery = queriesForType.get(queryText);
         if (aggregateQuery == null) {
@@ -159,6 +160,7 @@ public class QueryCollector {
         }
         aggregateQuery.addToTotalDurationNanos(totalDurationNanos);
         aggregateQuery.addToExecutionCount(executionCount);
+        aggregateQuery.addToRoundTripCount(roundTripCount);
         aggregateQuery.addToTotalRows(hasTotalRows, totalRows);
     }
 
@@ -46,6 +46,8 @@ public class QueryData {
     // nanosecond rollover (292 years) isn't a concern for total time on a single transaction
     private long totalDurationNanos;
     private long executionCount;
+    // executions of a batch (e.g. jdbc executeBatch()) only count as a single round trip
+    private long roundTripCount;
 
     // this is needed to differentiate between queries that return no rows, and queries which don't
     // even have a concept of row (e.g. http client requests which are also tracked as queries)
@@ -79,6 +81,7 @@ public class QueryData {
         if (selfNestingLevel++ == 0) {
             this.startTick = startTick;
             executionCount += batchSize;
+            roundTripCount++;
         }
         if (limitExceededBucket != null) {
             limitExceededBucket.start(startTick, batchSize);
@@ -94,6 +97,11 @@ public class QueryData {
         return executionCount;
     }
 
+    // only called after transaction completion
+    public long getRoundTripCount() {
+        return roundTripCount;
+    }
+
     // only called after transaction completion
     public boolean hasTotalRows() {
         return hasTotalRows;
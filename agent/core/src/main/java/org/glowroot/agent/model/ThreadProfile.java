@@ -15,7 +15,6 @@
  */
 package org.glowroot.agent.model;
 
-import java.lang.management.ThreadInfo;
 import java.util.Arrays;
 import java.util.List;
 
@@ -35,6 +34,10 @@ public class ThreadProfile {
     @GuardedBy("lock")
     private final List<Thread.State> unmergedStackTraceThreadStates = Lists.newArrayList();
     @GuardedBy("lock")
+    private final List<Long> unmergedStackTraceCpuNanos = Lists.newArrayList();
+    @GuardedBy("lock")
+    private final List<Long> unmergedStackTraceAllocatedBytes = Lists.newArrayList();
+    @GuardedBy("lock")
     private @MonotonicNonNull MutableProfile profile;
     @GuardedBy("lock")
     private long sampleCount;
@@ -57,8 +60,7 @@ public class ThreadProfile {
             if (profile == null) {
                 profile = new MutableProfile();
                 mergeTheUnmergedInto(profile);
-                unmergedStackTraces.clear();
-                unmergedStackTraceThreadStates.clear();
+                clearTheUnmerged();
             }
             return profile.toProto();
         }
@@ -73,25 +75,29 @@ public class ThreadProfile {
 
     // limit is just to cap memory consumption for a single transaction profile in case it runs for
     // a very very very long time
-    public void addStackTrace(ThreadInfo threadInfo, int limit) {
+    //
+    // cpuNanos and allocatedBytes are the cpu time consumed and the amount allocated by the thread
+    // since its prior stack trace sample (zero if not available or not enabled)
+    public void addStackTrace(StackTraceElement[] stackTraceElements, Thread.State threadState,
+            long cpuNanos, long allocatedBytes, int limit) {
         synchronized (lock) {
             if (sampleCount >= limit) {
                 return;
             }
-            List<StackTraceElement> stackTrace = Arrays.asList(threadInfo.getStackTrace());
-            Thread.State threadState = threadInfo.getThreadState();
+            List<StackTraceElement> stackTrace = Arrays.asList(stackTraceElements);
             if (profile == null) {
                 unmergedStackTraces.add(stackTrace);
                 unmergedStackTraceThreadStates.add(threadState);
+                unmergedStackTraceCpuNanos.add(cpuNanos);
+                unmergedStackTraceAllocatedBytes.add(allocatedBytes);
                 if (unmergedStackTraces.size() >= 10) {
                     // merged stack tree takes up less memory
                     profile = new MutableProfile();
                     mergeTheUnmergedInto(profile);
-                    unmergedStackTraces.clear();
-                    unmergedStackTraceThreadStates.clear();
+                    clearTheUnmerged();
                 }
             } else {
-                profile.merge(stackTrace, threadState);
+                profile.merge(stackTrace, threadState, cpuNanos, allocatedBytes);
             }
             sampleCount++;
         }
@@ -101,7 +107,16 @@ public class ThreadProfile {
         for (int i = 0; i < unmergedStackTraces.size(); i++) {
             List<StackTraceElement> stackTrace = unmergedStackTraces.get(i);
             Thread.State threadState = unmergedStackTraceThreadStates.get(i);
-            profile.merge(stackTrace, threadState);
+            long cpuNanos = unmergedStackTraceCpuNanos.get(i);
+            long allocatedBytes = unmergedStackTraceAllocatedBytes.get(i);
+            profile.merge(stackTrace, threadState, cpuNanos, allocatedBytes);
         }
     }
+
+    private void clearTheUnmerged() {
+        unmergedStackTraces.clear();
+        unmergedStackTraceThreadStates.clear();
+        unmergedStackTraceCpuNanos.clear();
+        unmergedStackTraceAllocatedBytes.clear();
+    }
 }
@@ -45,6 +45,11 @@ public class ThreadStatsComponent {
 
     private final @Nullable ThreadAllocatedBytes threadAllocatedBytes;
 
+    @GuardedBy("lock")
+    private long lastSampleCpuNanos;
+    @GuardedBy("lock")
+    private long lastSampleAllocatedBytes;
+
     @GuardedBy("lock")
     private volatile @MonotonicNonNull ThreadStats completedThreadStats;
 
@@ -73,6 +78,8 @@ public class ThreadStatsComponent {
             startingAllocatedBytes = -1;
         }
         this.threadAllocatedBytes = threadAllocatedBytes;
+        lastSampleCpuNanos = startingCpuNanos;
+        lastSampleAllocatedBytes = startingAllocatedBytes;
     }
 
     // must be called from transaction thread
@@ -114,6 +121,45 @@ public class ThreadStatsComponent {
         }
     }
 
+    // safe to be called from another thread, returns the cpu time consumed by the transaction
+    // thread since the prior call (used to attribute cpu time to stack trace samples)
+    public long getCpuNanosSinceLastSample() {
+        synchronized (lock) {
+            if (completedThreadStats != null || lastSampleCpuNanos == -1) {
+                return -1;
+            }
+            // transaction thread is still alive (and cannot terminate in the middle of this
+            // method because of above lock)
+            long threadCpuNanos = threadMXBean.getThreadCpuTime(threadId);
+            if (threadCpuNanos == -1) {
+                return -1;
+            }
+            long sinceLastSample = threadCpuNanos - lastSampleCpuNanos;
+            lastSampleCpuNanos = threadCpuNanos;
+            return sinceLastSample;
+        }
+    }
+
+    // safe to be called from another thread, returns the bytes allocated by the transaction thread
+    // since the prior call (used to attribute allocations to stack trace samples)
+    public long getAllocatedBytesSinceLastSample() {
+        synchronized (lock) {
+            if (completedThreadStats != null || threadAllocatedBytes == null
+                    || lastSampleAllocatedBytes == -1) {
+                return -1;
+            }
+            // transaction thread is still alive (and cannot terminate in the middle of this
+            // method because of above lock)
+            long allocatedBytes = threadAllocatedBytes.getThreadAllocatedBytesSafely(threadId);
+            if (allocatedBytes == -1) {
+                return -1;
+            }
+            long sinceLastSample = allocatedBytes - lastSampleAllocatedBytes;
+            lastSampleAllocatedBytes = allocatedBytes;
+            return sinceLastSample;
+        }
+    }
+
     private ThreadStats getThreadStatsInternal() {
         ThreadInfo threadInfo = threadMXBean.getThreadInfo(threadId, 0);
         if (threadInfo == null) {
@@ -22,6 +22,7 @@ import java.util.Set;
 
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
+import javax.management.AttributeList;
 import javax.management.InstanceAlreadyExistsException;
 import javax.management.MBeanInfo;
 import javax.management.MBeanServer;
@@ -111,6 +112,32 @@ public class LazyPlatformMBeanServer {
         }
     }
 
+    public void lazyUnregisterMBean(String name) {
+        ObjectName objectName;
+        try {
+            objectName = ObjectName.getInstance(name);
+        } catch (MalformedObjectNameException e) {
+            logger.warn(e.getMessage(), e);
+            return;
+        }
+        synchronized (initListeners) {
+            toBeUnregistered.remove(objectName);
+            if (platformMBeanServer == null) {
+                for (ObjectNamePair objectNamePair : toBeRegistered) {
+                    if (objectNamePair.name().equals(objectName)) {
+                        toBeRegistered.remove(objectNamePair);
+                    }
+                }
+            } else {
+                try {
+                    platformMBeanServer.unregisterMBean(objectName);
+                } catch (Throwable t) {
+                    logger.debug(t.getMessage(), t);
+                }
+            }
+        }
+    }
+
     public void invoke(ObjectName name, String operationName, Object[] params, String[] signature)
             throws Exception {
         ensureInit();
@@ -137,6 +164,11 @@ public class LazyPlatformMBeanServer {
         return platformMBeanServer.getAttribute(name, attribute);
     }
 
+    public AttributeList getAttributes(ObjectName name, String[] attributes) throws Exception {
+        ensureInit();
+        return platformMBeanServer.getAttributes(name, attributes);
+    }
+
     public void addInitListener(InitListener initListener) {
         synchronized (initListeners) {
             if (platformMBeanServer == null) {
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.util;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// virtual threads (JDK 21+) are not visible to ThreadMXBean, so they need to be recognized in order
+// to sample their stack traces directly (instead of sampling whatever carrier thread they happen to
+// be mounted on, if any) and to skip per-thread stats that are not supported for them
+//
+// the class is looked up once so that the check is just an instanceof check (no reflection), and
+// is always false on JVMs prior to JDK 21
+public class VirtualThreads {
+
+    private static final Logger logger = LoggerFactory.getLogger(VirtualThreads.class);
+
+    private static final @Nullable Class<?> baseVirtualThreadClass;
+
+    static {
+        baseVirtualThreadClass = getBaseVirtualThreadClass();
+    }
+
+    private VirtualThreads() {}
+
+    public static boolean isSupported() {
+        return baseVirtualThreadClass != null;
+    }
+
+    public static boolean isVirtual(Thread thread) {
+        return baseVirtualThreadClass != null && baseVirtualThreadClass.isInstance(thread);
+    }
+
+    private static @Nullable Class<?> getBaseVirtualThreadClass() {
+        // java.lang.BaseVirtualThread is the common super class of java.lang.VirtualThread and
+        // java.lang.ThreadBuilders$BoundVirtualThread (used on platforms without continuations)
+        try {
+            return Class.forName("java.lang.BaseVirtualThread", false, null);
+        } catch (ClassNotFoundException e) {
+            // JVM prior to JDK 21
+            logger.debug(e.getMessage(), e);
+            return null;
+        }
+    }
+}
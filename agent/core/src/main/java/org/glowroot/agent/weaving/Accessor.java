@@ -25,6 +25,9 @@ import static com.google.common.base.Preconditions.checkNotNull;
 
 class Accessor {
 
+    // shared to avoid allocating an empty varargs array on every evaluation
+    private static final Object[] NO_ARGS = new Object[0];
+
     private final AccessorType accessorType;
     private final @Nullable Method method;
     private final @Nullable Field field;
@@ -82,7 +85,7 @@ class Accessor {
         switch (accessorType) {
             case METHOD:
                 checkNotNull(method);
-                return method.invoke(object);
+                return method.invoke(object, NO_ARGS);
             case FIELD:
                 checkNotNull(field);
                 return field.get(object);
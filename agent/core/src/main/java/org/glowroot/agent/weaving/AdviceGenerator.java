@@ -292,31 +292,29 @@ class AdviceGenerator {
             } else {
                 mv.visitLdcInsn(transactionType);
             }
-            mv.visitVarInsn(ALOAD, 4);
+            mv.visitVarInsn(ALOAD, 3);
             mv.visitMethodInsn(INVOKEVIRTUAL, methodMetaInternalName, "getTransactionNameTemplate",
                     "()Lorg/glowroot/agent/weaving/MessageTemplate;", false);
             mv.visitVarInsn(ALOAD, 1);
             mv.visitVarInsn(ALOAD, 2);
-            mv.visitVarInsn(ALOAD, 3);
             mv.visitMethodInsn(INVOKESTATIC, "org/glowroot/agent/weaving/GenericMessageSupplier",
                     "create",
                     "(Lorg/glowroot/agent/weaving/MessageTemplate;"
-                            + "Ljava/lang/Object;Ljava/lang/String;[Ljava/lang/Object;)"
+                            + "Ljava/lang/Object;[Ljava/lang/Object;)"
                             + "Lorg/glowroot/agent/weaving/GenericMessageSupplier;",
                     false);
             mv.visitMethodInsn(INVOKEVIRTUAL, "org/glowroot/agent/weaving/GenericMessageSupplier",
                     "getMessageText", "()Ljava/lang/String;", false);
         }
-        mv.visitVarInsn(ALOAD, 4);
+        mv.visitVarInsn(ALOAD, 3);
         mv.visitMethodInsn(INVOKEVIRTUAL, methodMetaInternalName, "getMessageTemplate",
                 "()Lorg/glowroot/agent/weaving/MessageTemplate;", false);
         mv.visitVarInsn(ALOAD, 1);
         mv.visitVarInsn(ALOAD, 2);
-        mv.visitVarInsn(ALOAD, 3);
         mv.visitMethodInsn(INVOKESTATIC, "org/glowroot/agent/weaving/GenericMessageSupplier",
                 "create",
                 "(Lorg/glowroot/agent/weaving/MessageTemplate;"
-                        + "Ljava/lang/Object;Ljava/lang/String;[Ljava/lang/Object;)"
+                        + "Ljava/lang/Object;[Ljava/lang/Object;)"
                         + "Lorg/glowroot/agent/weaving/GenericMessageSupplier;",
                 false);
         mv.visitFieldInsn(GETSTATIC, adviceInternalName, "timerName",
@@ -377,7 +375,7 @@ class AdviceGenerator {
             desc.append("Lorg/glowroot/agent/plugin/api/ThreadContext;");
         }
         if (methodMetaInternalName != null) {
-            desc.append("Ljava/lang/Object;Ljava/lang/String;[Ljava/lang/Object;L");
+            desc.append("Ljava/lang/Object;[Ljava/lang/Object;L");
             desc.append(methodMetaInternalName);
             desc.append(";)");
         } else {
@@ -390,11 +388,9 @@ class AdviceGenerator {
         if (methodMetaInternalName != null) {
             mv.visitParameterAnnotation(1, "Lorg/glowroot/agent/plugin/api/weaving/BindReceiver;",
                     true).visitEnd();
-            mv.visitParameterAnnotation(2, "Lorg/glowroot/agent/plugin/api/weaving/BindMethodName;",
-                    true).visitEnd();
-            mv.visitParameterAnnotation(3,
+            mv.visitParameterAnnotation(2,
                     "Lorg/glowroot/agent/plugin/api/weaving/BindParameterArray;", true).visitEnd();
-            mv.visitParameterAnnotation(4, "Lorg/glowroot/agent/plugin/api/weaving/BindMethodMeta;",
+            mv.visitParameterAnnotation(3, "Lorg/glowroot/agent/plugin/api/weaving/BindMethodMeta;",
                     true).visitEnd();
         }
         return mv;
@@ -418,7 +414,7 @@ class AdviceGenerator {
         for (String attrName : config.transactionAttributeTemplates().keySet()) {
             mv.visitVarInsn(ALOAD, 0);
             mv.visitLdcInsn(attrName);
-            mv.visitVarInsn(ALOAD, 4);
+            mv.visitVarInsn(ALOAD, 3);
             // methodMetaInternalName is non-null when transactionAttributeTemplates is
             // non-empty
             checkNotNull(methodMetaInternalName);
@@ -427,11 +423,10 @@ class AdviceGenerator {
                     "()Lorg/glowroot/agent/weaving/MessageTemplate;", false);
             mv.visitVarInsn(ALOAD, 1);
             mv.visitVarInsn(ALOAD, 2);
-            mv.visitVarInsn(ALOAD, 3);
             mv.visitMethodInsn(INVOKESTATIC, "org/glowroot/agent/weaving/GenericMessageSupplier",
                     "create",
                     "(Lorg/glowroot/agent/weaving/MessageTemplate;"
-                            + "Ljava/lang/Object;Ljava/lang/String;[Ljava/lang/Object;)"
+                            + "Ljava/lang/Object;[Ljava/lang/Object;)"
                             + "Lorg/glowroot/agent/weaving/GenericMessageSupplier;",
                     false);
             mv.visitMethodInsn(INVOKEVIRTUAL, "org/glowroot/agent/weaving/GenericMessageSupplier",
@@ -599,7 +594,7 @@ class AdviceGenerator {
     private void addCodeForSetTransactionX(MethodVisitor mv, String templateGetterName,
             String threadContextSetterName) {
         mv.visitVarInsn(ALOAD, 0);
-        mv.visitVarInsn(ALOAD, 4);
+        mv.visitVarInsn(ALOAD, 3);
         // methodMetaInternalName is non-null when transactionNameTemplate or
         // transactionUserTemplate are non-empty
         checkNotNull(methodMetaInternalName);
@@ -607,11 +602,10 @@ class AdviceGenerator {
                 "()Lorg/glowroot/agent/weaving/MessageTemplate;", false);
         mv.visitVarInsn(ALOAD, 1);
         mv.visitVarInsn(ALOAD, 2);
-        mv.visitVarInsn(ALOAD, 3);
         mv.visitMethodInsn(INVOKESTATIC, "org/glowroot/agent/weaving/GenericMessageSupplier",
                 "create",
                 "(Lorg/glowroot/agent/weaving/MessageTemplate;Ljava/lang/Object;"
-                        + "Ljava/lang/String;[Ljava/lang/Object;)"
+                        + "[Ljava/lang/Object;)"
                         + "Lorg/glowroot/agent/weaving/GenericMessageSupplier;",
                 false);
         mv.visitMethodInsn(INVOKEVIRTUAL, "org/glowroot/agent/weaving/GenericMessageSupplier",
@@ -30,22 +30,30 @@ import org.glowroot.common.util.UsedByGeneratedBytecode;
 @UsedByGeneratedBytecode
 public class GenericMessageSupplier extends MessageSupplier {
 
+    private static final /*@Nullable*/ Object[] EMPTY = new Object[0];
+
     private final MessageTemplate template;
-    private final String[] resolvedReceiverPathParts;
-    private final String[] resolvedArgPathParts;
-    private volatile String /*@MonotonicNonNull*/[] resolvedReturnValuePathParts;
-    private final String methodName;
+    // these hold strings or immutable values (see MessageTemplate.ValuePathPart.evaluatePart())
+    private final /*@Nullable*/ Object[] resolvedReceiverPathParts;
+    private final /*@Nullable*/ Object[] resolvedArgPathParts;
+    private volatile /*@Nullable*/ Object /*@MonotonicNonNull*/[] resolvedReturnValuePathParts;
 
     @UsedByGeneratedBytecode
     public static GenericMessageSupplier create(MessageTemplate template, Object receiver,
-            String methodName, @Nullable Object... args) {
-        // render paths to strings immediately in case the objects are mutable
-        String[] resolvedReceiverPathParts = new String[template.getThisPathParts().size()];
+            @Nullable Object... args) {
+        if (template.getConstantText() != null) {
+            // common case, nothing to evaluate
+            return new GenericMessageSupplier(template, EMPTY, EMPTY);
+        }
+        // evaluate paths immediately in case the objects are mutable
+        /*@Nullable*/ Object[] resolvedReceiverPathParts =
+                new Object[template.getThisPathParts().size()];
         int i = 0;
         for (ValuePathPart part : template.getThisPathParts()) {
             resolvedReceiverPathParts[i++] = part.evaluatePart(receiver);
         }
-        String[] resolvedArgPathParts = new String[template.getArgPathParts().size()];
+        /*@Nullable*/ Object[] resolvedArgPathParts =
+                new Object[template.getArgPathParts().size()];
         i = 0;
         for (ArgPathPart part : template.getArgPathParts()) {
             if (part.getArgNumber() >= args.length) {
@@ -55,21 +63,24 @@ public class GenericMessageSupplier extends MessageSupplier {
                 resolvedArgPathParts[i++] = part.evaluatePart(args[part.getArgNumber()]);
             }
         }
-        return new GenericMessageSupplier(template, resolvedReceiverPathParts, resolvedArgPathParts,
-                methodName);
+        return new GenericMessageSupplier(template, resolvedReceiverPathParts,
+                resolvedArgPathParts);
     }
 
-    private GenericMessageSupplier(MessageTemplate template, String[] resolvedReceiverPathParts,
-            String[] resolvedArgPathParts, String methodName) {
+    private GenericMessageSupplier(MessageTemplate template,
+            /*@Nullable*/ Object[] resolvedReceiverPathParts,
+            /*@Nullable*/ Object[] resolvedArgPathParts) {
         this.template = template;
         this.resolvedReceiverPathParts = resolvedReceiverPathParts;
         this.resolvedArgPathParts = resolvedArgPathParts;
-        this.methodName = methodName;
     }
 
     public void setReturnValue(@Nullable Object returnValue) {
-        // render the return value to strings immediately in case it is mutable
-        String[] parts = new String[template.getReturnPathParts().size()];
+        if (template.getReturnPathParts().isEmpty()) {
+            return;
+        }
+        // evaluate the return value paths immediately in case it is mutable
+        /*@Nullable*/ Object[] parts = new Object[template.getReturnPathParts().size()];
         int i = 0;
         for (ValuePathPart part : template.getReturnPathParts()) {
             parts[i++] = part.evaluatePart(returnValue);
@@ -84,6 +95,10 @@ public class GenericMessageSupplier extends MessageSupplier {
 
     @UsedByGeneratedBytecode
     public String getMessageText() {
+        String constantText = template.getConstantText();
+        if (constantText != null) {
+            return constantText;
+        }
         StringBuilder sb = new StringBuilder();
         int receiverPathPartIndex = 0;
         int argPathPartIndex = 0;
@@ -105,9 +120,6 @@ public class GenericMessageSupplier extends MessageSupplier {
                         sb.append(resolvedReturnValuePathParts[returnValuePathPartIndex++]);
                     }
                     break;
-                case METHOD_NAME:
-                    sb.append(methodName);
-                    break;
                 default:
                     throw new AssertionError("Unknown PartType enum: " + partType);
             }
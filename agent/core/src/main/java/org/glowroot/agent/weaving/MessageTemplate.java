@@ -28,6 +28,7 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -43,11 +44,20 @@ public class MessageTemplate {
 
     private static final Pattern pattern = Pattern.compile("\\{\\{([^}]*)}}");
 
+    // rendering of these to string can be safely deferred since they are immutable
+    private static final ImmutableSet<Class<?>> IMMUTABLE_VALUE_CLASSES =
+            ImmutableSet.<Class<?>>of(String.class, Boolean.class, Character.class, Byte.class,
+                    Short.class, Integer.class, Long.class, Float.class, Double.class);
+
     private final ImmutableList<Part> allParts;
     private final ImmutableList<ValuePathPart> thisPathParts;
     private final ImmutableList<ArgPathPart> argPathParts;
     private final ImmutableList<ValuePathPart> returnPathParts;
 
+    // non-null when the template does not have any value paths, in which case the message text is
+    // computed up front
+    private final @Nullable String constantText;
+
     @UsedByGeneratedBytecode
     public static MessageTemplate create(String template, Method method) {
         List<Part> allParts = Lists.newArrayList();
@@ -94,7 +104,8 @@ public class MessageTemplate {
                 allParts.add(part);
                 returnPathParts.add(part);
             } else if (base.equals("methodName")) {
-                allParts.add(new Part(PartType.METHOD_NAME));
+                // the template is specific to the method so this can be resolved up front
+                allParts.add(new ConstantPart(method.getName()));
             } else {
                 logger.warn("invalid template substitution: {}", path);
                 allParts.add(new ConstantPart("{{" + path + "}}"));
@@ -104,7 +115,8 @@ public class MessageTemplate {
         if (curr < template.length()) {
             allParts.add(new ConstantPart(template.substring(curr)));
         }
-        return new MessageTemplate(allParts, thisPathParts, argPathParts, returnPathParts);
+        return new MessageTemplate(mergeConstantParts(allParts), thisPathParts, argPathParts,
+                returnPathParts);
     }
 
     private MessageTemplate(List<Part> allParts, List<ValuePathPart> thisPathParts,
@@ -113,6 +125,33 @@ public class MessageTemplate {
         this.thisPathParts = ImmutableList.copyOf(thisPathParts);
         this.argPathParts = ImmutableList.copyOf(argPathParts);
         this.returnPathParts = ImmutableList.copyOf(returnPathParts);
+        if (allParts.isEmpty()) {
+            constantText = "";
+        } else if (allParts.size() == 1 && allParts.get(0).getType() == PartType.CONSTANT) {
+            constantText = ((ConstantPart) allParts.get(0)).getConstant();
+        } else {
+            constantText = null;
+        }
+    }
+
+    private static List<Part> mergeConstantParts(List<Part> parts) {
+        List<Part> mergedParts = Lists.newArrayList();
+        StringBuilder constant = new StringBuilder();
+        for (Part part : parts) {
+            if (part.getType() == PartType.CONSTANT) {
+                constant.append(((ConstantPart) part).getConstant());
+                continue;
+            }
+            if (constant.length() > 0) {
+                mergedParts.add(new ConstantPart(constant.toString()));
+                constant.setLength(0);
+            }
+            mergedParts.add(part);
+        }
+        if (constant.length() > 0) {
+            mergedParts.add(new ConstantPart(constant.toString()));
+        }
+        return mergedParts;
     }
 
     ImmutableList<Part> getAllParts() {
@@ -131,8 +170,13 @@ public class MessageTemplate {
         return returnPathParts;
     }
 
+    @Nullable
+    String getConstantText() {
+        return constantText;
+    }
+
     enum PartType {
-        CONSTANT, THIS_PATH, ARG_PATH, RETURN_PATH, METHOD_NAME;
+        CONSTANT, THIS_PATH, ARG_PATH, RETURN_PATH;
     }
 
     static class Part {
@@ -171,13 +215,20 @@ public class MessageTemplate {
             this.pathEvaluator = new PathEvaluator(valueClass, propertyPath);
         }
 
-        String evaluatePart(@Nullable Object base) {
+        // returns the raw value when it is immutable so that rendering it to string can be deferred
+        // until the message text is actually needed, otherwise renders the value to string
+        // immediately in case it is mutable
+        @Nullable
+        Object evaluatePart(@Nullable Object base) {
             if (base == null) {
-                // this is same as String.valueOf((Object) null);
-                return "null";
+                return null;
             }
             try {
-                return valueOf(pathEvaluator.evaluateOnBase(base));
+                Object value = pathEvaluator.evaluateOnBase(base);
+                if (value == null || IMMUTABLE_VALUE_CLASSES.contains(value.getClass())) {
+                    return value;
+                }
+                return valueOf(value);
             } catch (InvocationTargetException e) {
                 logger.debug(e.getMessage(), e);
                 // InvocationTargetException has the problem of obscuring the original message
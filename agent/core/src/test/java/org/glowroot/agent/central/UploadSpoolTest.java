@@ -0,0 +1,109 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.central;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.glowroot.common.util.Clock;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class UploadSpoolTest {
+
+    private File file;
+
+    @Before
+    public void beforeEachTest() throws Exception {
+        file = File.createTempFile("glowroot-test-", ".dat");
+        if (!file.delete()) {
+            throw new IllegalStateException("Could not delete file: " + file.getPath());
+        }
+    }
+
+    @After
+    public void afterEachTest() {
+        if (!file.delete()) {
+            throw new IllegalStateException("Could not delete file: " + file.getPath());
+        }
+    }
+
+    @Test
+    public void shouldReplayInOrder() {
+        // given
+        UploadSpool uploadSpool = new UploadSpool(file, 1024, Clock.systemClock());
+        // when
+        uploadSpool.append(UploadSpool.AGGREGATES, new byte[] {1});
+        uploadSpool.append(UploadSpool.TRACE, new byte[] {2, 2});
+        // then
+        assertThat(uploadSpool.getRecordCount()).isEqualTo(2);
+        UploadSpool.Record record = uploadSpool.peek();
+        assertThat(record.type()).isEqualTo(UploadSpool.AGGREGATES);
+        assertThat(record.payload()).containsExactly(new byte[] {1});
+        uploadSpool.remove(record);
+        record = uploadSpool.peek();
+        assertThat(record.type()).isEqualTo(UploadSpool.TRACE);
+        assertThat(record.payload()).containsExactly(new byte[] {2, 2});
+        uploadSpool.remove(record);
+        assertThat(uploadSpool.peek()).isNull();
+        assertThat(uploadSpool.getSizeBytes()).isZero();
+    }
+
+    @Test
+    public void shouldRejectWhenFull() {
+        // given
+        UploadSpool uploadSpool = new UploadSpool(file, 100, Clock.systemClock());
+        // when
+        boolean first = uploadSpool.append(UploadSpool.GAUGE_VALUES, new byte[50]);
+        boolean second = uploadSpool.append(UploadSpool.GAUGE_VALUES, new byte[50]);
+        // then
+        assertThat(first).isTrue();
+        assertThat(second).isFalse();
+        assertThat(uploadSpool.getRecordCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldCompactWhenFull() {
+        // given
+        UploadSpool uploadSpool = new UploadSpool(file, 100, Clock.systemClock());
+        uploadSpool.append(UploadSpool.GAUGE_VALUES, new byte[30]);
+        uploadSpool.append(UploadSpool.GAUGE_VALUES, new byte[] {1, 2, 3});
+        uploadSpool.remove(uploadSpool.peek());
+        // when
+        boolean appended = uploadSpool.append(UploadSpool.TRACE, new byte[50]);
+        // then
+        assertThat(appended).isTrue();
+        assertThat(uploadSpool.peek().payload()).containsExactly(new byte[] {1, 2, 3});
+        assertThat(uploadSpool.getRecordCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldSurviveRestart() {
+        // given
+        UploadSpool uploadSpool = new UploadSpool(file, 1024, Clock.systemClock());
+        uploadSpool.append(UploadSpool.AGGREGATES, new byte[] {1});
+        uploadSpool.append(UploadSpool.TRACE, new byte[] {2});
+        uploadSpool.remove(uploadSpool.peek());
+        // when
+        uploadSpool = new UploadSpool(file, 1024, Clock.systemClock());
+        // then
+        assertThat(uploadSpool.getRecordCount()).isEqualTo(1);
+        assertThat(uploadSpool.peek().type()).isEqualTo(UploadSpool.TRACE);
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.impl;
+
+import java.util.Collections;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class MemoryBudgetTest {
+
+    private TransactionRegistry transactionRegistry;
+    private TransactionCollector transactionCollector;
+    private Aggregator aggregator;
+
+    @Before
+    public void beforeEachTest() {
+        transactionRegistry = mock(TransactionRegistry.class);
+        transactionCollector = mock(TransactionCollector.class);
+        aggregator = mock(Aggregator.class);
+        when(transactionCollector.getPendingTransactions())
+                .thenReturn(Collections.<Transaction>emptyList());
+    }
+
+    @Test
+    public void shouldNotDegradeUnderBudget() {
+        // given
+        Transaction transaction = mockTransaction(10, 0);
+        when(transactionRegistry.getTransactions()).thenReturn(ImmutableList.of(transaction));
+        MemoryBudget memoryBudget = new MemoryBudget(transactionRegistry, transactionCollector,
+                aggregator, 1024 * 1024);
+        // when
+        memoryBudget.runInternal();
+        // then
+        assertThat(memoryBudget.getActiveTransactionBytes())
+                .isEqualTo(MemoryBudget.estimateBytes(transaction));
+        assertThat(memoryBudget.getDegradation()).isEqualTo("NONE");
+        assertThat(memoryBudget.isDroppingProfiles()).isFalse();
+    }
+
+    @Test
+    public void shouldDegradeInStages() {
+        // given
+        Transaction transaction = mockTransaction(100, 100);
+        when(transactionRegistry.getTransactions()).thenReturn(ImmutableList.of(transaction));
+        long estimatedBytes = MemoryBudget.estimateBytes(transaction);
+        // when
+        MemoryBudget memoryBudget = new MemoryBudget(transactionRegistry, transactionCollector,
+                aggregator, estimatedBytes);
+        memoryBudget.runInternal();
+        // then
+        assertThat(memoryBudget.isDroppingProfiles()).isTrue();
+        assertThat(memoryBudget.isDroppingEntries()).isFalse();
+
+        // when
+        memoryBudget = new MemoryBudget(transactionRegistry, transactionCollector, aggregator,
+                estimatedBytes * 3 / 4);
+        memoryBudget.runInternal();
+        // then
+        assertThat(memoryBudget.isDroppingEntries()).isTrue();
+        assertThat(memoryBudget.isDroppingTraces()).isFalse();
+
+        // when
+        memoryBudget = new MemoryBudget(transactionRegistry, transactionCollector, aggregator,
+                estimatedBytes / 2);
+        memoryBudget.runInternal();
+        // then
+        assertThat(memoryBudget.isDroppingTraces()).isTrue();
+        assertThat(memoryBudget.getDegradation()).isEqualTo("DROP_TRACES");
+    }
+
+    @Test
+    public void shouldRecover() {
+        // given
+        Transaction transaction = mockTransaction(100, 0);
+        when(transactionRegistry.getTransactions()).thenReturn(ImmutableList.of(transaction));
+        MemoryBudget memoryBudget = new MemoryBudget(transactionRegistry, transactionCollector,
+                aggregator, 1);
+        memoryBudget.runInternal();
+        // when
+        when(transactionRegistry.getTransactions()).thenReturn(ImmutableList.<Transaction>of());
+        memoryBudget.incrementPendingUploads();
+        memoryBudget.decrementPendingUploads();
+        memoryBudget.runInternal();
+        // then
+        assertThat(memoryBudget.getEstimatedBytes()).isZero();
+        assertThat(memoryBudget.getDegradation()).isEqualTo("NONE");
+    }
+
+    private static Transaction mockTransaction(int entryCount, long profileSampleCount) {
+        Transaction transaction = mock(Transaction.class);
+        when(transaction.getEntryCount()).thenReturn(entryCount);
+        when(transaction.getMainThreadProfileSampleCount()).thenReturn(profileSampleCount);
+        return transaction;
+    }
+}
@@ -31,7 +31,7 @@ public class QueryCollectorTest {
     public void testAddInAscendingOrder() {
         QueryCollector queries = new QueryCollector(100, 4);
         for (int i = 1; i <= 300; i++) {
-            queries.mergeQuery("SQL", Integer.toString(i), i, 1, true, 1);
+            queries.mergeQuery("SQL", Integer.toString(i), i, 1, 1, true, 1);
         }
         test(queries);
     }
@@ -40,7 +40,7 @@ public class QueryCollectorTest {
     public void testAddInDescendingOrder() {
         QueryCollector queries = new QueryCollector(100, 4);
         for (int i = 300; i > 0; i--) {
-            queries.mergeQuery("SQL", Integer.toString(i), i, 1, true, 1);
+            queries.mergeQuery("SQL", Integer.toString(i), i, 1, 1, true, 1);
         }
         test(queries);
     }
@@ -64,6 +64,7 @@ public class QueryCollectorTest {
             limitExceededBucketTotalNanos += i;
         }
         assertThat(topQuery.getTotalDurationNanos()).isEqualTo(limitExceededBucketTotalNanos);
+        assertThat(topQuery.getRoundTripCount()).isEqualTo(200);
         assertThat(queriesByType.getQueryList().get(1).getTotalDurationNanos()).isEqualTo(300);
         assertThat(queriesByType.getQueryList().get(100).getTotalDurationNanos()).isEqualTo(201);
     }
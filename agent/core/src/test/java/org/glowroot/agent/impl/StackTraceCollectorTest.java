@@ -0,0 +1,134 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.impl;
+
+import java.util.concurrent.CountDownLatch;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.glowroot.agent.config.ConfigService;
+import org.glowroot.agent.config.ImmutableAdvancedConfig;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class StackTraceCollectorTest {
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private ConfigService configService;
+    private Thread waitingThread;
+
+    @Before
+    public void beforeEachTest() throws Exception {
+        configService = mock(ConfigService.class);
+        when(configService.getAdvancedConfig())
+                .thenReturn(ImmutableAdvancedConfig.builder().build());
+        waitingThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        waitingThread.start();
+        while (waitingThread.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+    }
+
+    @After
+    public void afterEachTest() throws Exception {
+        release.countDown();
+        waitingThread.join();
+    }
+
+    @Test
+    public void shouldCapturePlatformThread() {
+        // given
+        ThreadContextImpl threadContext = mock(ThreadContextImpl.class);
+        when(threadContext.getThreadId()).thenReturn(waitingThread.getId());
+        int limit = configService.getAdvancedConfig().maxStackTraceSamplesPerTransaction();
+
+        // when
+        StackTraceCollector.captureStackTraces(ImmutableList.of(threadContext), configService,
+                true);
+
+        // then
+        verify(threadContext).captureStackTrace(any(StackTraceElement[].class),
+                eq(Thread.State.WAITING), eq(limit));
+    }
+
+    @Test
+    public void shouldCaptureVirtualThreadDirectly() {
+        // given
+        ThreadContextImpl threadContext = mock(ThreadContextImpl.class);
+        when(threadContext.getVirtualThread()).thenReturn(waitingThread);
+        int limit = configService.getAdvancedConfig().maxStackTraceSamplesPerTransaction();
+
+        // when
+        StackTraceCollector.captureStackTraces(ImmutableList.of(threadContext), configService,
+                true);
+
+        // then
+        verify(threadContext).captureStackTrace(any(StackTraceElement[].class),
+                eq(Thread.State.WAITING), eq(limit));
+        // virtual thread is not looked up through ThreadMXBean
+        verify(threadContext, never()).getThreadId();
+    }
+
+    @Test
+    public void shouldNotCaptureVirtualThreadThatHasNotStarted() {
+        // given
+        ThreadContextImpl threadContext = mock(ThreadContextImpl.class);
+        when(threadContext.getVirtualThread()).thenReturn(new Thread());
+
+        // when
+        StackTraceCollector.captureStackTraces(ImmutableList.of(threadContext), configService,
+                true);
+
+        // then
+        verify(threadContext, never()).captureStackTrace(any(StackTraceElement[].class),
+                any(Thread.State.class), anyInt());
+    }
+
+    @Test
+    public void shouldIgnoreVirtualThreadWhenNotSupported() {
+        // given
+        ThreadContextImpl threadContext = mock(ThreadContextImpl.class);
+        when(threadContext.getThreadId()).thenReturn(waitingThread.getId());
+        when(threadContext.getVirtualThread()).thenReturn(new Thread());
+
+        // when
+        StackTraceCollector.captureStackTraces(ImmutableList.of(threadContext), configService,
+                false);
+
+        // then
+        verify(threadContext).captureStackTrace(any(StackTraceElement[].class),
+                eq(Thread.State.WAITING), anyInt());
+    }
+}
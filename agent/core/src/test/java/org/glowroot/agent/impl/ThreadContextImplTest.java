@@ -16,12 +16,15 @@
 package org.glowroot.agent.impl;
 
 import com.google.common.base.Ticker;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
 
 import org.glowroot.agent.model.TimerNameImpl;
+import org.glowroot.agent.plugin.api.AuxThreadContext;
 import org.glowroot.agent.plugin.api.MessageSupplier;
 import org.glowroot.agent.plugin.api.QueryMessageSupplier;
+import org.glowroot.agent.plugin.api.ThreadContext.ServletRequestInfo;
 import org.glowroot.agent.plugin.api.internal.NopTransactionService;
 import org.glowroot.agent.plugin.api.internal.NopTransactionService.NopTimer;
 
@@ -166,6 +169,23 @@ public class ThreadContextImplTest {
         assertThat(threadContext.startTimer(timerName)).isEqualTo(NopTimer.INSTANCE);
     }
 
+    @Test
+    public void testNoReuseAuxThreadContextByDefault() {
+        Assume.assumeFalse(Transaction.COALESCE_AUX_THREAD_CONTEXTS);
+        AuxThreadContext auxContext = threadContext.createAuxThreadContext();
+        assertThat(threadContext.createAuxThreadContext()).isNotSameAs(auxContext);
+    }
+
+    @Test
+    public void testReuseAuxThreadContext() {
+        Assume.assumeTrue(Transaction.COALESCE_AUX_THREAD_CONTEXTS);
+        AuxThreadContext auxContext = threadContext.createAuxThreadContext();
+        assertThat(threadContext.createAuxThreadContext()).isSameAs(auxContext);
+
+        threadContext.setServletRequestInfo(mock(ServletRequestInfo.class));
+        assertThat(threadContext.createAuxThreadContext()).isNotSameAs(auxContext);
+    }
+
     @Test
     public void testSetters() {
         threadContext.setTransactionType(null, 0);
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.impl;
+
+import java.util.List;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import org.glowroot.agent.collector.Collector.EntryVisitor;
+import org.glowroot.agent.plugin.api.Message;
+import org.glowroot.agent.plugin.api.MessageSupplier;
+import org.glowroot.wire.api.model.TraceOuterClass.Trace;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class TraceEntrySpillTest {
+
+    @Test
+    public void shouldReadBackAcrossChunks() throws Exception {
+        // given
+        TraceEntrySpillPool pool = new TraceEntrySpillPool(64 * 1024 * 1024);
+        TraceEntrySpill traceEntrySpill = new TraceEntrySpill(pool);
+        List<Long> handles = Lists.newArrayList();
+        // when
+        for (int i = 0; i < 100; i++) {
+            Trace.Entry entry = Trace.Entry.newBuilder()
+                    .setMessage(i + Strings.repeat("x", 50000))
+                    .build();
+            long handle = traceEntrySpill.write(entry);
+            if (handle == -1) {
+                // simulate background replenish
+                pool.replenish();
+                handle = traceEntrySpill.write(entry);
+            }
+            handles.add(handle);
+        }
+        // then
+        for (int i = 0; i < 100; i++) {
+            assertThat(traceEntrySpill.read(handles.get(i)).getMessage())
+                    .isEqualTo(i + Strings.repeat("x", 50000));
+        }
+        assertThat(handles.get(99) >>> 32).isGreaterThan(0);
+    }
+
+    @Test
+    public void shouldSpillCompletedEntry() throws Exception {
+        // given
+        TraceEntrySpillPool pool = new TraceEntrySpillPool(64 * 1024 * 1024);
+        TraceEntrySpill traceEntrySpill = new TraceEntrySpill(pool);
+        pool.replenish();
+        Transaction transaction = mock(Transaction.class);
+        when(transaction.getTraceEntrySpill()).thenReturn(traceEntrySpill);
+        ThreadContextImpl threadContext = mock(ThreadContextImpl.class);
+        when(threadContext.getTransaction()).thenReturn(transaction);
+        MessageSupplier rootMessageSupplier = mock(MessageSupplier.class);
+        MessageSupplier messageSupplier = mock(MessageSupplier.class);
+        when(messageSupplier.get())
+                .thenReturn(Message.create("abc", ImmutableMap.of("key", "value")));
+        TimerImpl timer = mock(TimerImpl.class);
+        TraceEntryImpl rootEntry = new TraceEntryImpl(threadContext, null, rootMessageSupplier,
+                null, 0, 0, timer, null);
+        TraceEntryImpl entry =
+                new TraceEntryImpl(threadContext, rootEntry, messageSupplier, null, 0, 0, timer,
+                        null);
+        // when
+        entry.end();
+        // then
+        assertThat(entry.getMessageSupplier()).isNull();
+        CapturingEntryVisitor entryVisitor = new CapturingEntryVisitor();
+        entry.accept(1, 0, Long.MAX_VALUE, entryVisitor);
+        Trace.Entry capturedEntry = entryVisitor.entries.get(0);
+        assertThat(capturedEntry.getDepth()).isEqualTo(1);
+        assertThat(capturedEntry.getMessage()).isEqualTo("abc");
+        assertThat(capturedEntry.getDetailEntry(0).getName()).isEqualTo("key");
+        assertThat(capturedEntry.getDetailEntry(0).getValue(0).getString()).isEqualTo("value");
+    }
+
+    @Test
+    public void shouldNotAllocateOnWrite() throws Exception {
+        // given
+        TraceEntrySpillPool pool = new TraceEntrySpillPool(64 * 1024 * 1024);
+        TraceEntrySpill traceEntrySpill = new TraceEntrySpill(pool);
+        Trace.Entry entry = Trace.Entry.newBuilder()
+                .setMessage("abc")
+                .build();
+        // when
+        long handle = traceEntrySpill.write(entry);
+        // then
+        assertThat(handle).isEqualTo(-1);
+        assertThat(traceEntrySpill.hasCapacity()).isFalse();
+        assertThat(pool.getAllocatedChunks()).isZero();
+    }
+
+    @Test
+    public void shouldRespectAgentWideLimit() throws Exception {
+        // given
+        TraceEntrySpillPool pool = new TraceEntrySpillPool(2 * 1024 * 1024);
+        new TraceEntrySpill(pool);
+        // when
+        pool.replenish();
+        pool.replenish();
+        // then
+        assertThat(pool.getAllocatedChunks()).isEqualTo(2);
+    }
+
+    private static class CapturingEntryVisitor implements EntryVisitor {
+
+        private final List<Trace.Entry> entries = Lists.newArrayList();
+
+        @Override
+        public int visitSharedQueryText(String sharedQueryText) {
+            return 0;
+        }
+
+        @Override
+        public void visitEntry(Trace.Entry entry) {
+            entries.add(entry);
+        }
+    }
+}
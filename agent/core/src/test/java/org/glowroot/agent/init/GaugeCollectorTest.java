@@ -17,17 +17,29 @@ package org.glowroot.agent.init;
 
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
+import java.util.Collections;
 import java.util.List;
 
+import javax.management.Attribute;
+import javax.management.AttributeList;
 import javax.management.AttributeNotFoundException;
 import javax.management.InstanceNotFoundException;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerDelegate;
+import javax.management.MBeanServerNotification;
 import javax.management.MalformedObjectNameException;
+import javax.management.Notification;
+import javax.management.NotificationFilter;
+import javax.management.NotificationListener;
 import javax.management.ObjectName;
 
 import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.slf4j.Logger;
 
 import org.glowroot.agent.collector.Collector;
@@ -38,6 +50,7 @@ import org.glowroot.agent.config.ImmutableAdvancedConfig;
 import org.glowroot.agent.config.ImmutableGaugeConfig;
 import org.glowroot.agent.config.ImmutableMBeanAttribute;
 import org.glowroot.agent.util.LazyPlatformMBeanServer;
+import org.glowroot.agent.util.LazyPlatformMBeanServer.InitListener;
 import org.glowroot.common.util.Clock;
 import org.glowroot.wire.api.model.CollectorServiceOuterClass.GaugeValue;
 
@@ -46,8 +59,10 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.ArgumentMatchers.nullable;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
@@ -56,6 +71,7 @@ import static org.mockito.Mockito.when;
 public class GaugeCollectorTest {
 
     private GaugeCollector gaugeCollector;
+    private ConfigService configService;
     private LazyPlatformMBeanServer lazyPlatformMBeanServer;
     private Clock clock;
     private Ticker ticker;
@@ -63,13 +79,16 @@ public class GaugeCollectorTest {
 
     @Before
     public void beforeEachTest() throws Exception {
-        ConfigService configService = mock(ConfigService.class);
+        configService = mock(ConfigService.class);
         AdvancedConfig advancedConfig =
                 ImmutableAdvancedConfig.builder().mbeanGaugeNotFoundDelaySeconds(60).build();
         when(configService.getAdvancedConfig()).thenReturn(advancedConfig);
 
         Collector collector = mock(Collector.class);
         lazyPlatformMBeanServer = mock(LazyPlatformMBeanServer.class);
+        // bulk read returns nothing by default, so that attributes are read one at a time
+        when(lazyPlatformMBeanServer.getAttributes(any(ObjectName.class), any(String[].class)))
+                .thenReturn(new AttributeList());
         clock = mock(Clock.class);
         ticker = mock(Ticker.class);
         logger = mock(Logger.class);
@@ -331,6 +350,99 @@ public class GaugeCollectorTest {
                 "MBean attribute value is not a number or string");
     }
 
+    @Test
+    public void shouldReadAttributesInBulk() throws Exception {
+        // given
+        GaugeConfig gaugeConfig = ImmutableGaugeConfig.builder()
+                .mbeanObjectName("test:aaa=bbb")
+                .addMbeanAttributes(ImmutableMBeanAttribute.of("ccc", false))
+                .addMbeanAttributes(ImmutableMBeanAttribute.of("ddd", false))
+                .build();
+        AttributeList attributeList = new AttributeList();
+        attributeList.add(new Attribute("ccc", 555));
+        attributeList.add(new Attribute("ddd", 666));
+        when(lazyPlatformMBeanServer.getAttributes(ObjectName.getInstance("test:aaa=bbb"),
+                new String[] {"ccc", "ddd"})).thenReturn(attributeList);
+
+        // when
+        List<GaugeValue> gaugeValues = gaugeCollector.collectGaugeValues(gaugeConfig);
+
+        // then
+        assertThat(gaugeValues).hasSize(2);
+        assertThat(gaugeValues.get(0).getValue()).isEqualTo(555);
+        assertThat(gaugeValues.get(1).getValue()).isEqualTo(666);
+        verify(lazyPlatformMBeanServer, never()).getAttribute(any(ObjectName.class), anyString());
+    }
+
+    @Test
+    public void shouldOnlyRequeryPatternAfterMBeanRegistration() throws Exception {
+        // given
+        ArgumentCaptor<InitListener> initListener = ArgumentCaptor.forClass(InitListener.class);
+        verify(lazyPlatformMBeanServer).addInitListener(initListener.capture());
+        MBeanServer mbeanServer = mock(MBeanServer.class);
+        initListener.getValue().postInit(mbeanServer);
+        ArgumentCaptor<NotificationListener> notificationListener =
+                ArgumentCaptor.forClass(NotificationListener.class);
+        verify(mbeanServer).addNotificationListener(eq(MBeanServerDelegate.DELEGATE_NAME),
+                notificationListener.capture(), (NotificationFilter) isNull(), isNull());
+
+        GaugeConfig gaugeConfig = ImmutableGaugeConfig.builder()
+                .mbeanObjectName("test:aaa=*")
+                .addMbeanAttributes(ImmutableMBeanAttribute.of("ccc", false))
+                .build();
+        ObjectName objectName = ObjectName.getInstance("test:aaa=*");
+        when(lazyPlatformMBeanServer.queryNames(objectName, null))
+                .thenReturn(ImmutableSet.of(ObjectName.getInstance("test:aaa=bbb")));
+        when(lazyPlatformMBeanServer.getAttribute(any(ObjectName.class), anyString()))
+                .thenReturn(555);
+
+        // when
+        gaugeCollector.collectGaugeValues(gaugeConfig);
+        gaugeCollector.collectGaugeValues(gaugeConfig);
+        notificationListener.getValue().handleNotification(
+                new Notification(MBeanServerNotification.REGISTRATION_NOTIFICATION, "", 0), null);
+        List<GaugeValue> gaugeValues = gaugeCollector.collectGaugeValues(gaugeConfig);
+
+        // then
+        assertThat(gaugeValues).hasSize(1);
+        assertThat(gaugeValues.get(0).getGaugeName()).isEqualTo("test:aaa=bbb:ccc");
+        verify(lazyPlatformMBeanServer, times(2)).queryNames(objectName, null);
+    }
+
+    @Test
+    public void shouldExposeCollectionTime() throws Exception {
+        // given
+        GaugeConfig gaugeConfig = ImmutableGaugeConfig.builder()
+                .mbeanObjectName("test:aaa=bbb")
+                .addMbeanAttributes(ImmutableMBeanAttribute.of("ccc", false))
+                .build();
+        when(configService.getGaugeConfigs()).thenReturn(ImmutableList.of(gaugeConfig));
+        when(lazyPlatformMBeanServer.getAttribute(any(ObjectName.class), anyString()))
+                .thenReturn(555);
+        when(ticker.read()).thenReturn(0L, 100L, 1000L, 1050L);
+
+        // when
+        gaugeCollector.runInternal();
+        gaugeCollector.runInternal();
+
+        // then
+        String name = "org.glowroot:type=GaugeCollection,name=test_aaa_bbb";
+        ArgumentCaptor<Object> mbean = ArgumentCaptor.forClass(Object.class);
+        verify(lazyPlatformMBeanServer).lazyRegisterMBean(mbean.capture(), eq(name));
+        GaugeCollectionMXBean gaugeCollection = (GaugeCollectionMXBean) mbean.getValue();
+        assertThat(gaugeCollection.getLastCollectionNanos()).isEqualTo(50);
+        assertThat(gaugeCollection.getMaxCollectionNanos()).isEqualTo(100);
+        verify(logger, times(2)).debug(eq("runInternal(): collected gauge {} in {} nanoseconds"),
+                eq("test:aaa=bbb"), any());
+
+        // when
+        when(configService.getGaugeConfigs()).thenReturn(Collections.<GaugeConfig>emptyList());
+        gaugeCollector.runInternal();
+
+        // then
+        verify(lazyPlatformMBeanServer).lazyUnregisterMBean(name);
+    }
+
     private static void setLogger(Class<?> clazz, Logger logger) throws Exception {
         Field loggerField = clazz.getDeclaredField("logger");
         loggerField.setAccessible(true);
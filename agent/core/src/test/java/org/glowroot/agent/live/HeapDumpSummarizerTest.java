@@ -0,0 +1,295 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.live;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import com.google.common.base.Charsets;
+import com.sun.management.HotSpotDiagnosticMXBean;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.glowroot.wire.api.model.DownstreamServiceOuterClass.HeapDumpSummary;
+import org.glowroot.wire.api.model.DownstreamServiceOuterClass.HeapDumpSummary.ClassSummary;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HeapDumpSummarizerTest {
+
+    private static final long OBJECT_CLASS = 0x100;
+    private static final long STRING_CLASS = 0x101;
+    private static final long HOLDER_CLASS = 0x102;
+    private static final long OBJECT_ARRAY_CLASS = 0x103;
+
+    private File file;
+
+    @Before
+    public void beforeEach() throws IOException {
+        file = File.createTempFile("glowroot-test-", ".hprof");
+    }
+
+    @After
+    public void afterEach() {
+        file.delete();
+    }
+
+    @Test
+    public void shouldSummarize() throws Exception {
+        // given
+        HprofWriter writer = new HprofWriter();
+        writer.utf8(1, "java/lang/Object");
+        writer.utf8(2, "java/lang/String");
+        writer.utf8(3, "com/example/Holder");
+        writer.utf8(4, "[Ljava/lang/Object;");
+        writer.utf8(5, "value");
+        writer.utf8(6, "hash");
+        writer.utf8(7, "data");
+        writer.loadClass(OBJECT_CLASS, 1);
+        writer.loadClass(STRING_CLASS, 2);
+        writer.loadClass(HOLDER_CLASS, 3);
+        writer.loadClass(OBJECT_ARRAY_CLASS, 4);
+        HeapWriter heap = new HeapWriter();
+        heap.classDump(OBJECT_CLASS, 0);
+        heap.classDump(STRING_CLASS, OBJECT_CLASS, 5, 2, 6, 10);
+        heap.classDump(HOLDER_CLASS, OBJECT_CLASS, 7, 2);
+        heap.classDump(OBJECT_ARRAY_CLASS, OBJECT_CLASS);
+        heap.string(0x200, 0x300, "abc");
+        heap.string(0x201, 0x301, "abc");
+        heap.string(0x202, 0x302, "xyz");
+        // holder that exclusively references a byte array
+        heap.instance(0x400, HOLDER_CLASS, 0x500);
+        heap.byteArray(0x500, 1000);
+        // holder that references a byte array that is also referenced from an object array
+        heap.instance(0x401, HOLDER_CLASS, 0x501);
+        heap.byteArray(0x501, 2000);
+        heap.objectArray(0x600, OBJECT_ARRAY_CLASS, 0x501);
+        writer.heapDumpSegment(heap);
+        writer.writeTo(file);
+
+        // when
+        HeapDumpSummary summary = new HeapDumpSummarizer(file, 1000).summarize();
+
+        // then
+        assertThat(summary.getTruncated()).isFalse();
+        // 3 strings, 3 char arrays, 2 holders, 2 byte arrays, 1 object array
+        assertThat(summary.getTotalCount()).isEqualTo(11);
+        ClassSummary holder = getClassSummary(summary, "com.example.Holder");
+        assertThat(holder.getCount()).isEqualTo(2);
+        assertThat(holder.getBytes()).isEqualTo(48);
+        // only the exclusively referenced byte array is retained
+        assertThat(holder.getRetainedBytes()).isEqualTo(48 + 1016);
+        ClassSummary byteArray = getClassSummary(summary, "byte[]");
+        assertThat(byteArray.getCount()).isEqualTo(2);
+        assertThat(byteArray.getBytes()).isEqualTo(1016 + 2016);
+        assertThat(getClassSummary(summary, "java.lang.Object[]").getCount()).isEqualTo(1);
+        assertThat(summary.getClassSummary(0).getClassName()).isEqualTo("byte[]");
+        assertThat(summary.getStringCount()).isEqualTo(3);
+        assertThat(summary.getDuplicateStringTotalCount()).isEqualTo(1);
+        assertThat(summary.getDuplicateStringTotalBytes()).isEqualTo(24);
+        assertThat(summary.getDuplicateStringList()).hasSize(1);
+        assertThat(summary.getDuplicateString(0).getValue()).isEqualTo("abc");
+        assertThat(summary.getDuplicateString(0).getCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldMarkTruncated() throws Exception {
+        // given
+        HprofWriter writer = new HprofWriter();
+        writer.utf8(1, "java/lang/Object");
+        writer.utf8(2, "java/lang/String");
+        writer.utf8(5, "value");
+        writer.utf8(6, "hash");
+        writer.loadClass(OBJECT_CLASS, 1);
+        writer.loadClass(STRING_CLASS, 2);
+        HeapWriter heap = new HeapWriter();
+        heap.classDump(OBJECT_CLASS, 0);
+        heap.classDump(STRING_CLASS, OBJECT_CLASS, 5, 2, 6, 10);
+        for (int i = 0; i < 100; i++) {
+            heap.string(0x1000 + i, 0x2000 + i, "abc");
+        }
+        writer.heapDumpSegment(heap);
+        writer.writeTo(file);
+
+        // when
+        HeapDumpSummary summary = new HeapDumpSummarizer(file, 10).summarize();
+
+        // then
+        assertThat(summary.getTruncated()).isTrue();
+        assertThat(summary.getStringCount()).isEqualTo(100);
+        assertThat(summary.getDuplicateString(0).getCount()).isEqualTo(10);
+    }
+
+    @Test
+    public void shouldSummarizeActualHeapDump() throws Exception {
+        // given
+        file.delete();
+        HotSpotDiagnosticMXBean hotSpotDiagnosticMXBean = ManagementFactory.newPlatformMXBeanProxy(
+                ManagementFactory.getPlatformMBeanServer(),
+                "com.sun.management:type=HotSpotDiagnostic", HotSpotDiagnosticMXBean.class);
+        hotSpotDiagnosticMXBean.dumpHeap(file.getAbsolutePath(), true);
+
+        // when
+        HeapDumpSummary summary = HeapDumpSummarizer.summarize(file);
+
+        // then
+        assertThat(summary.getTotalBytes()).isGreaterThan(0);
+        assertThat(summary.getStringCount()).isGreaterThan(0);
+        ClassSummary string = getClassSummary(summary, "java.lang.String");
+        assertThat(string.getRetainedBytes()).isGreaterThan(string.getBytes());
+    }
+
+    private static ClassSummary getClassSummary(HeapDumpSummary summary, String className) {
+        for (ClassSummary classSummary : summary.getClassSummaryList()) {
+            if (classSummary.getClassName().equals(className)) {
+                return classSummary;
+            }
+        }
+        throw new AssertionError("Class not found: " + className);
+    }
+
+    private static class HprofWriter {
+
+        private final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(baos);
+
+        private HprofWriter() throws IOException {
+            out.write("JAVA PROFILE 1.0.2".getBytes(Charsets.US_ASCII));
+            out.write(0);
+            out.writeInt(8);
+            out.writeLong(0);
+        }
+
+        private void utf8(long id, String value) throws IOException {
+            byte[] bytes = value.getBytes(Charsets.UTF_8);
+            out.write(0x01);
+            out.writeInt(0);
+            out.writeInt(8 + bytes.length);
+            out.writeLong(id);
+            out.write(bytes);
+        }
+
+        private void loadClass(long classId, long nameId) throws IOException {
+            out.write(0x02);
+            out.writeInt(0);
+            out.writeInt(24);
+            out.writeInt(0);
+            out.writeLong(classId);
+            out.writeInt(0);
+            out.writeLong(nameId);
+        }
+
+        private void heapDumpSegment(HeapWriter heap) throws IOException {
+            byte[] bytes = heap.baos.toByteArray();
+            out.write(0x1C);
+            out.writeInt(0);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+            // heap dump end
+            out.write(0x2C);
+            out.writeInt(0);
+            out.writeInt(0);
+        }
+
+        private void writeTo(File file) throws IOException {
+            FileOutputStream fos = new FileOutputStream(file);
+            try {
+                baos.writeTo(fos);
+            } finally {
+                fos.close();
+            }
+        }
+    }
+
+    private static class HeapWriter {
+
+        private final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(baos);
+
+        // fields are pairs of name id and type
+        private void classDump(long classId, long superId, int... fields) throws IOException {
+            out.write(0x20);
+            out.writeLong(classId);
+            out.writeInt(0);
+            out.writeLong(superId);
+            for (int i = 0; i < 5; i++) {
+                out.writeLong(0);
+            }
+            out.writeInt(0);
+            out.writeShort(0);
+            out.writeShort(0);
+            out.writeShort(fields.length / 2);
+            for (int i = 0; i < fields.length; i += 2) {
+                out.writeLong(fields[i]);
+                out.write(fields[i + 1]);
+            }
+        }
+
+        private void instance(long objectId, long classId, long... references)
+                throws IOException {
+            out.write(0x21);
+            out.writeLong(objectId);
+            out.writeInt(0);
+            out.writeLong(classId);
+            out.writeInt(references.length * 8);
+            for (long reference : references) {
+                out.writeLong(reference);
+            }
+        }
+
+        private void string(long objectId, long valueId, String value) throws IOException {
+            out.write(0x21);
+            out.writeLong(objectId);
+            out.writeInt(0);
+            out.writeLong(STRING_CLASS);
+            out.writeInt(12);
+            out.writeLong(valueId);
+            out.writeInt(0);
+            out.write(0x23);
+            out.writeLong(valueId);
+            out.writeInt(0);
+            out.writeInt(value.length());
+            out.write(5);
+            out.writeChars(value);
+        }
+
+        private void byteArray(long arrayId, int length) throws IOException {
+            out.write(0x23);
+            out.writeLong(arrayId);
+            out.writeInt(0);
+            out.writeInt(length);
+            out.write(8);
+            out.write(new byte[length]);
+        }
+
+        private void objectArray(long arrayId, long arrayClassId, long... elements)
+                throws IOException {
+            out.write(0x22);
+            out.writeLong(arrayId);
+            out.writeInt(0);
+            out.writeInt(elements.length);
+            out.writeLong(arrayClassId);
+            for (long element : elements) {
+                out.writeLong(element);
+            }
+        }
+    }
+}
@@ -15,9 +15,18 @@
  */
 package org.glowroot.agent.live;
 
+import java.io.File;
+
+import com.google.common.io.Files;
 import org.junit.Test;
 
+import org.glowroot.agent.impl.TransactionCollector;
+import org.glowroot.agent.impl.TransactionRegistry;
+import org.glowroot.agent.util.LazyPlatformMBeanServer;
+import org.glowroot.wire.api.model.DownstreamServiceOuterClass.Availability;
+
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
 
 public class LiveJvmServiceImplTest {
 
@@ -34,4 +43,56 @@ public class LiveJvmServiceImplTest {
     public void testParseable() {
         assertThat(LiveJvmServiceImpl.parseProcessId("123456@host")).isEqualTo(123456);
     }
+
+    @Test
+    public void testIsHeapDumpFile() throws Exception {
+        File tmpDir = Files.createTempDir();
+        File dir = Files.createTempDir();
+        File otherDir = Files.createTempDir();
+        try {
+            LiveJvmServiceImpl liveJvmService = createLiveJvmService(tmpDir);
+            File heapDump = new File(dir, "heap-dump-20170101-000000.hprof");
+            File heapDump2 = new File(dir, "heap-dump-20170101-000000-2.phd");
+            File other = new File(dir, "other.hprof");
+            File notCreated = new File(dir, "heap-dump-20170101-000002.hprof");
+            File outside = new File(otherDir, "heap-dump-20170101-000000.hprof");
+            Files.touch(heapDump);
+            Files.touch(heapDump2);
+            Files.touch(other);
+            Files.touch(notCreated);
+            Files.touch(outside);
+            liveJvmService.addTransferableFile(heapDump);
+            liveJvmService.addTransferableFile(heapDump2);
+            liveJvmService.addTransferableFile(other);
+            assertThat(liveJvmService.isHeapDumpFile(heapDump)).isTrue();
+            assertThat(liveJvmService.isHeapDumpFile(heapDump2)).isTrue();
+            assertThat(liveJvmService.isHeapDumpFile(other)).isFalse();
+            assertThat(liveJvmService.isHeapDumpFile(notCreated)).isFalse();
+            assertThat(liveJvmService.isHeapDumpFile(outside)).isFalse();
+            assertThat(liveJvmService.isHeapDumpFile(
+                    new File(dir, "heap-dump-20170101-000001.hprof"))).isFalse();
+            assertThat(liveJvmService.isHeapDumpFile(dir)).isFalse();
+            // created heap dumps are remembered across agent restarts
+            LiveJvmServiceImpl restarted = createLiveJvmService(tmpDir);
+            assertThat(restarted.isHeapDumpFile(heapDump)).isTrue();
+            assertThat(restarted.isHeapDumpFile(outside)).isFalse();
+        } finally {
+            deleteDir(tmpDir);
+            deleteDir(dir);
+            deleteDir(otherDir);
+        }
+    }
+
+    private static LiveJvmServiceImpl createLiveJvmService(File tmpDir) {
+        return new LiveJvmServiceImpl(mock(LazyPlatformMBeanServer.class),
+                mock(TransactionRegistry.class), mock(TransactionCollector.class),
+                Availability.getDefaultInstance(), tmpDir);
+    }
+
+    private static void deleteDir(File dir) {
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
 }
@@ -29,7 +29,7 @@ public class GenericMessageSupplierTest {
         MessageTemplate template = MessageTemplate.create("abc",
                 TestReceiver.class.getMethod("execute", HasName.class));
         Message message = GenericMessageSupplier
-                .create(template, new HasName(), "execute", new HasName()).get();
+                .create(template, new HasName(), new HasName()).get();
         String text = ((ReadableMessage) message).getText();
         assertThat(text).isEqualTo("abc");
     }
@@ -40,7 +40,7 @@ public class GenericMessageSupplierTest {
                 MessageTemplate.create("{{this.class.name}}.{{methodName}}(): {{0.name}} => {{_}}",
                         TestReceiver.class.getMethod("execute", HasName.class));
         Message message = GenericMessageSupplier
-                .create(template, new TestReceiver(), "execute", new HasName()).get();
+                .create(template, new TestReceiver(), new HasName()).get();
         String text = ((ReadableMessage) message).getText();
         assertThat(text).isEqualTo(TestReceiver.class.getName() + ".execute(): the name => ");
     }
@@ -51,7 +51,7 @@ public class GenericMessageSupplierTest {
                 MessageTemplate.create("{{this.class.name}}.{{methodName}}(): {{0.name}} => {{_}}",
                         TestReceiver.class.getMethod("execute", HasName.class));
         Message message =
-                GenericMessageSupplier.create(template, null, "execute", new HasName()).get();
+                GenericMessageSupplier.create(template, null, new HasName()).get();
         String text = ((ReadableMessage) message).getText();
         assertThat(text).isEqualTo("null.execute(): the name => ");
     }
@@ -62,7 +62,7 @@ public class GenericMessageSupplierTest {
                 "{{this.class.name}}.{{methodName}}(): {{0.name}}, {{1.oops}} => {{_}}",
                 TestReceiver.class.getMethod("execute", HasName.class));
         Message message = GenericMessageSupplier
-                .create(template, new TestReceiver(), "execute", new HasName()).get();
+                .create(template, new TestReceiver(), new HasName()).get();
         String text = ((ReadableMessage) message).getText();
         assertThat(text).isEqualTo(TestReceiver.class.getName()
                 + ".execute(): the name, <requested arg index out of bounds: 1> => ");
@@ -74,7 +74,7 @@ public class GenericMessageSupplierTest {
                 MessageTemplate.create("{{this.class.name}}.{{methodName}}(): {{0.name}} trailing",
                         TestReceiver.class.getMethod("execute", HasName.class));
         Message message = GenericMessageSupplier
-                .create(template, new TestReceiver(), "execute", new HasName()).get();
+                .create(template, new TestReceiver(), new HasName()).get();
         String text = ((ReadableMessage) message).getText();
         assertThat(text).isEqualTo(TestReceiver.class.getName() + ".execute(): the name trailing");
     }
@@ -85,7 +85,7 @@ public class GenericMessageSupplierTest {
                 MessageTemplate.create("{{this.class.name}}.{{methodName}}(): {{1.name}} trailing",
                         TestReceiver.class.getMethod("execute", HasName.class));
         Message message = GenericMessageSupplier
-                .create(template, new TestReceiver(), "execute", new HasName()).get();
+                .create(template, new TestReceiver(), new HasName()).get();
         String text = ((ReadableMessage) message).getText();
         assertThat(text).isEqualTo(TestReceiver.class.getName()
                 + ".execute(): <requested arg index out of bounds: 1> trailing");
@@ -97,7 +97,7 @@ public class GenericMessageSupplierTest {
                 MessageTemplate.create("{{this.class.name}}.{{methodName}}(): {{x.name}} trailing",
                         TestReceiver.class.getMethod("execute", HasName.class));
         Message message =
-                GenericMessageSupplier.create(template, new TestReceiver(), "execute").get();
+                GenericMessageSupplier.create(template, new TestReceiver()).get();
         String text = ((ReadableMessage) message).getText();
         assertThat(text)
                 .isEqualTo(TestReceiver.class.getName() + ".execute(): {{x.name}} trailing");
@@ -109,7 +109,7 @@ public class GenericMessageSupplierTest {
                 MessageTemplate.create("{{this.class.name}}.{{methodName}}(): {{0.name}} trailing",
                         TestReceiver.class.getMethod("execute", HasName.class));
         Message message =
-                GenericMessageSupplier.create(template, new TestReceiver(), "execute").get();
+                GenericMessageSupplier.create(template, new TestReceiver()).get();
         String text = ((ReadableMessage) message).getText();
         assertThat(text).isEqualTo(TestReceiver.class.getName()
                 + ".execute(): <requested arg index out of bounds: 0> trailing");
@@ -121,7 +121,7 @@ public class GenericMessageSupplierTest {
                 "{{this.class.name}}.{{methodName}}(): {{0.throwingName}} trailing",
                 TestReceiver.class.getMethod("execute", HasName.class));
         Message message = GenericMessageSupplier
-                .create(template, new TestReceiver(), "execute", new HasName()).get();
+                .create(template, new TestReceiver(), new HasName()).get();
         String text = ((ReadableMessage) message).getText();
         assertThat(text).isEqualTo(TestReceiver.class.getName()
                 + ".execute(): <error evaluating: java.lang.RuntimeException: Abc Xyz> trailing");
@@ -133,7 +133,7 @@ public class GenericMessageSupplierTest {
                 MessageTemplate.create("{{this.class.name}}.{{methodName}}(): {{0.names}}",
                         TestArrayReceiver.class.getMethod("execute", HasArray.class));
         Message message = GenericMessageSupplier
-                .create(template, new TestReceiver(), "execute", new HasArray()).get();
+                .create(template, new TestReceiver(), new HasArray()).get();
         String text = ((ReadableMessage) message).getText();
         assertThat(text).isEqualTo(TestReceiver.class.getName() + ".execute(): [the name, two]");
     }
@@ -144,7 +144,7 @@ public class GenericMessageSupplierTest {
                 MessageTemplate.create("{{this.class.name}}.{{methodName}}(): {{0.names.name}}",
                         TestArrayReceiver1.class.getMethod("execute", HasArray1.class));
         Message message = GenericMessageSupplier
-                .create(template, new TestReceiver(), "execute", new HasArray1()).get();
+                .create(template, new TestReceiver(), new HasArray1()).get();
         String text = ((ReadableMessage) message).getText();
         assertThat(text)
                 .isEqualTo(TestReceiver.class.getName() + ".execute(): [the name, the name]");
@@ -156,7 +156,7 @@ public class GenericMessageSupplierTest {
                 MessageTemplate.create("{{this.class.name}}.{{methodName}}(): {{0.names.name}}",
                         TestArrayReceiver2.class.getMethod("execute", HasArray2.class));
         Message message = GenericMessageSupplier
-                .create(template, new TestReceiver(), "execute", new HasArray2()).get();
+                .create(template, new TestReceiver(), new HasArray2()).get();
         String text = ((ReadableMessage) message).getText();
         assertThat(text)
                 .isEqualTo(TestReceiver.class.getName() + ".execute(): [[the name, the name]]");
@@ -168,11 +168,35 @@ public class GenericMessageSupplierTest {
                 MessageTemplate.create("{{this.class.name}}.{{methodName}}(): {{0.names.length}}",
                         TestArrayReceiver.class.getMethod("execute", HasArray.class));
         Message message = GenericMessageSupplier
-                .create(template, new TestReceiver(), "execute", new HasArray()).get();
+                .create(template, new TestReceiver(), new HasArray()).get();
         String text = ((ReadableMessage) message).getText();
         assertThat(text).isEqualTo(TestReceiver.class.getName() + ".execute(): 2");
     }
 
+    @Test
+    public void shouldRenderMethodNameAsConstant() throws Exception {
+        MessageTemplate template = MessageTemplate.create("abc {{methodName}} xyz",
+                TestReceiver.class.getMethod("execute", HasName.class));
+        Message message = GenericMessageSupplier
+                .create(template, new TestReceiver(), new HasName()).get();
+        String text = ((ReadableMessage) message).getText();
+        assertThat(template.getConstantText()).isEqualTo("abc execute xyz");
+        assertThat(text).isEqualTo("abc execute xyz");
+    }
+
+    @Test
+    public void shouldRenderMutableValueAtCaptureTime() throws Exception {
+        MessageTemplate template = MessageTemplate.create("{{0.builder}} {{0.count}}",
+                TestMutableReceiver.class.getMethod("execute", HasMutable.class));
+        HasMutable hasMutable = new HasMutable();
+        GenericMessageSupplier messageSupplier =
+                GenericMessageSupplier.create(template, new TestMutableReceiver(), hasMutable);
+        hasMutable.builder.append("def");
+        hasMutable.count++;
+        String text = ((ReadableMessage) messageSupplier.get()).getText();
+        assertThat(text).isEqualTo("abc 1");
+    }
+
     public static class HasName {
         public String getName() {
             return "the name";
@@ -215,4 +239,19 @@ public class GenericMessageSupplierTest {
     public static class TestArrayReceiver2 {
         public void execute(@SuppressWarnings("unused") HasArray2 arg) {}
     }
+
+    public static class HasMutable {
+        private final StringBuilder builder = new StringBuilder("abc");
+        private int count = 1;
+        public StringBuilder getBuilder() {
+            return builder;
+        }
+        public int getCount() {
+            return count;
+        }
+    }
+
+    public static class TestMutableReceiver {
+        public void execute(@SuppressWarnings("unused") HasMutable arg) {}
+    }
 }
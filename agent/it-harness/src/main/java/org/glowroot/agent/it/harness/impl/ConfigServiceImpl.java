@@ -247,6 +247,15 @@ class ConfigServiceImpl implements ConfigService {
                     .setName("SystemCpuLoad"));
         }
         defaultGaugeConfigs.add(operatingSystemMBean.build());
+        defaultGaugeConfigs.add(GaugeConfig.newBuilder()
+                .setMbeanObjectName("org.glowroot:type=JdbcConnectionPool,name=*")
+                .addMbeanAttribute(MBeanAttribute.newBuilder()
+                        .setName("ActiveConnections"))
+                .addMbeanAttribute(MBeanAttribute.newBuilder()
+                        .setName("IdleConnections"))
+                .addMbeanAttribute(MBeanAttribute.newBuilder()
+                        .setName("PendingThreads"))
+                .build());
         return ImmutableList.copyOf(defaultGaugeConfigs);
     }
 
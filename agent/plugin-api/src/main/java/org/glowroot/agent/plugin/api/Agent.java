@@ -92,6 +92,33 @@ public class Agent {
         }
     }
 
+    /**
+     * Registers the {@code object} with the platform mbean server under the specified object
+     * {@code name}.
+     * 
+     * Registration is deferred until the agent has initialized the platform mbean server, which on
+     * some application servers (e.g. jboss-modules, glassfish) must not happen before the container
+     * has created it. This is why plugins should never call
+     * {@code ManagementFactory.getPlatformMBeanServer()} directly from application threads.
+     */
+    public static void lazyRegisterMBean(Object object, String name) {
+        ServiceRegistry serviceRegistry = getServiceRegistry();
+        if (serviceRegistry != null) {
+            serviceRegistry.lazyRegisterMBean(object, name);
+        }
+    }
+
+    /**
+     * Unregisters the mbean that was registered via {@link #lazyRegisterMBean(Object, String)}, or
+     * cancels its registration if it has not been registered yet.
+     */
+    public static void lazyUnregisterMBean(String name) {
+        ServiceRegistry serviceRegistry = getServiceRegistry();
+        if (serviceRegistry != null) {
+            serviceRegistry.lazyUnregisterMBean(name);
+        }
+    }
+
     public static Logger getLogger(Class<?> clazz) {
         return new LoggerImpl(LoggerFactory.getLogger(clazz));
     }
@@ -25,4 +25,8 @@ public interface ServiceRegistry {
     TimerName getTimerName(String name);
 
     ConfigService getConfigService(String pluginId);
+
+    void lazyRegisterMBean(Object object, String name);
+
+    void lazyUnregisterMBean(String name);
 }
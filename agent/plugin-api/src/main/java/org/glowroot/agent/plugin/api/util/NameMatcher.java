@@ -0,0 +1,202 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.api.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nullable;
+
+/**
+ * Case-insensitive matcher for a list of wildcard patterns (e.g. "content-type", "x-*", "*-id",
+ * "*password*"), such as the header and request parameter names configured in plugin properties.
+ *
+ * The patterns are precompiled into an exact name set, a prefix trie, a suffix trie and a single
+ * combined fallback regex for anything else, so that a name is not evaluated sequentially against
+ * every pattern. Match results are also cached per name (up to a fixed number of names, since
+ * names such as request parameter names are not under the application's control).
+ *
+ * Instances are immutable (other than the internal cache) and thread safe, and are expected to be
+ * rebuilt when the underlying configuration changes.
+ */
+public class NameMatcher {
+
+    private static final int MAX_CACHE_SIZE = 1000;
+
+    private static final NameMatcher NONE = new NameMatcher(false, new HashSet<String>(),
+            new TrieNode(), new TrieNode(), null);
+
+    private final boolean matchesAll;
+    private final Set<String> exactNames;
+    private final TrieNode prefixTrie;
+    private final TrieNode suffixTrie;
+    private final @Nullable Pattern fallbackPattern;
+    private final boolean empty;
+
+    // keyed by the name prior to converting to lower case
+    private final ConcurrentMap<String, Boolean> cache = new ConcurrentHashMap<String, Boolean>();
+
+    private NameMatcher(boolean matchesAll, Set<String> exactNames, TrieNode prefixTrie,
+            TrieNode suffixTrie, @Nullable Pattern fallbackPattern) {
+        this.matchesAll = matchesAll;
+        this.exactNames = exactNames;
+        this.prefixTrie = prefixTrie;
+        this.suffixTrie = suffixTrie;
+        this.fallbackPattern = fallbackPattern;
+        empty = !matchesAll && exactNames.isEmpty() && prefixTrie.isEmpty()
+                && suffixTrie.isEmpty() && fallbackPattern == null;
+    }
+
+    public static NameMatcher none() {
+        return NONE;
+    }
+
+    public static NameMatcher of(Iterable<String> wildcardPatterns) {
+        boolean matchesAll = false;
+        Set<String> exactNames = new HashSet<String>();
+        TrieNode prefixTrie = new TrieNode();
+        TrieNode suffixTrie = new TrieNode();
+        List<String> fallbackRegexes = new ArrayList<String>();
+        for (String wildcardPattern : wildcardPatterns) {
+            // converted to lower case for case-insensitive matching
+            String pattern = wildcardPattern.toLowerCase(Locale.ENGLISH);
+            int firstIndex = pattern.indexOf('*');
+            int lastIndex = pattern.lastIndexOf('*');
+            if (firstIndex == -1) {
+                exactNames.add(pattern);
+            } else if (pattern.replace("*", "").isEmpty()) {
+                matchesAll = true;
+            } else if (firstIndex == lastIndex && firstIndex == pattern.length() - 1) {
+                prefixTrie.add(pattern.substring(0, firstIndex), false);
+            } else if (firstIndex == lastIndex && firstIndex == 0) {
+                suffixTrie.add(pattern.substring(1), true);
+            } else {
+                fallbackRegexes.add(buildRegex(pattern));
+            }
+        }
+        Pattern fallbackPattern = null;
+        if (!fallbackRegexes.isEmpty()) {
+            StringBuilder sb = new StringBuilder();
+            for (String fallbackRegex : fallbackRegexes) {
+                if (sb.length() > 0) {
+                    sb.append('|');
+                }
+                sb.append("(?:");
+                sb.append(fallbackRegex);
+                sb.append(')');
+            }
+            fallbackPattern = Pattern.compile(sb.toString());
+        }
+        return new NameMatcher(matchesAll, exactNames, prefixTrie, suffixTrie, fallbackPattern);
+    }
+
+    public boolean isEmpty() {
+        return empty;
+    }
+
+    public boolean matches(String name) {
+        if (empty) {
+            return false;
+        }
+        if (matchesAll) {
+            return true;
+        }
+        Boolean cached = cache.get(name);
+        if (cached != null) {
+            return cached;
+        }
+        boolean matches = matchesInternal(name.toLowerCase(Locale.ENGLISH));
+        if (cache.size() < MAX_CACHE_SIZE) {
+            cache.put(name, matches);
+        }
+        return matches;
+    }
+
+    private boolean matchesInternal(String nameLowerCase) {
+        return exactNames.contains(nameLowerCase) || prefixTrie.matchesPrefixOf(nameLowerCase)
+                || suffixTrie.matchesSuffixOf(nameLowerCase)
+                || fallbackPattern != null && fallbackPattern.matcher(nameLowerCase).matches();
+    }
+
+    private static String buildRegex(String wildcardPattern) {
+        // convert * into .* and quote the rest of the text using \Q...\E
+        String regex = "\\Q" + wildcardPattern.replace("*", "\\E.*\\Q") + "\\E";
+        // strip off unnecessary \\Q\\E in case * appeared at beginning or end of part
+        return regex.replace("\\Q\\E", "");
+    }
+
+    private static class TrieNode {
+
+        private final Map<Character, TrieNode> children = new HashMap<Character, TrieNode>();
+        private boolean terminal;
+
+        private boolean isEmpty() {
+            return children.isEmpty() && !terminal;
+        }
+
+        private void add(String text, boolean reverse) {
+            TrieNode node = this;
+            int length = text.length();
+            for (int i = 0; i < length; i++) {
+                char c = text.charAt(reverse ? length - 1 - i : i);
+                TrieNode child = node.children.get(c);
+                if (child == null) {
+                    child = new TrieNode();
+                    node.children.put(c, child);
+                }
+                node = child;
+            }
+            node.terminal = true;
+        }
+
+        private boolean matchesPrefixOf(String text) {
+            TrieNode node = this;
+            int length = text.length();
+            for (int i = 0; i < length; i++) {
+                if (node.terminal) {
+                    return true;
+                }
+                node = node.children.get(text.charAt(i));
+                if (node == null) {
+                    return false;
+                }
+            }
+            return node.terminal;
+        }
+
+        private boolean matchesSuffixOf(String text) {
+            TrieNode node = this;
+            for (int i = text.length() - 1; i >= 0; i--) {
+                if (node.terminal) {
+                    return true;
+                }
+                node = node.children.get(text.charAt(i));
+                if (node == null) {
+                    return false;
+                }
+            }
+            return node.terminal;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.api.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * Cheap snapshot of name/value pairs (e.g. request headers or request parameters) for use by
+ * {@link org.glowroot.agent.plugin.api.MessageSupplier} implementations.
+ *
+ * The snapshot only copies references at capture time (which is still necessary since the
+ * underlying objects may not be thread safe, or may be recycled by the container once the request
+ * is complete). The more expensive work of matching names against the capture and mask patterns
+ * and building the detail map is deferred to {@link #toDetailMap(NameMatcher, NameMatcher)}, which
+ * is only called from {@link org.glowroot.agent.plugin.api.MessageSupplier#get()}, i.e. only when
+ * the trace is stored or viewed live, which is a small fraction of transactions. The detail map is
+ * cached, since {@code get()} can be called more than once for the same transaction (e.g. when
+ * viewed live and then stored).
+ *
+ * Instances should be fully populated before being published to other threads.
+ */
+public class NameValueSnapshot {
+
+    private static final String MASK_TEXT = "****";
+
+    private final List<String> names;
+    // values are either String or List<String>
+    private final List<Object> values;
+
+    private volatile @Nullable CachedDetailMap cachedDetailMap;
+
+    public NameValueSnapshot() {
+        names = new ArrayList<String>();
+        values = new ArrayList<Object>();
+    }
+
+    public NameValueSnapshot(int expectedSize) {
+        names = new ArrayList<String>(expectedSize);
+        values = new ArrayList<Object>(expectedSize);
+    }
+
+    public void put(String name, String value) {
+        names.add(name);
+        values.add(value);
+    }
+
+    public void put(String name, List<String> value) {
+        names.add(name);
+        values.add(value);
+    }
+
+    public boolean isEmpty() {
+        return names.isEmpty();
+    }
+
+    public int size() {
+        return names.size();
+    }
+
+    // the returned map is unmodifiable
+    public Map<String, Object> toDetailMap(NameMatcher captureMatcher, NameMatcher maskMatcher) {
+        if (names.isEmpty() || captureMatcher.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        // matchers are rebuilt when the configuration changes, so identity is sufficient here
+        CachedDetailMap cached = cachedDetailMap;
+        if (cached != null && cached.captureMatcher == captureMatcher
+                && cached.maskMatcher == maskMatcher) {
+            return cached.detailMap;
+        }
+        Map<String, Object> detail = new LinkedHashMap<String, Object>();
+        for (int i = 0; i < names.size(); i++) {
+            String name = names.get(i);
+            if (!captureMatcher.matches(name)) {
+                continue;
+            }
+            if (maskMatcher.matches(name)) {
+                detail.put(name, MASK_TEXT);
+            } else {
+                detail.put(name, values.get(i));
+            }
+        }
+        Map<String, Object> detailMap = Collections.unmodifiableMap(detail);
+        cachedDetailMap = new CachedDetailMap(captureMatcher, maskMatcher, detailMap);
+        return detailMap;
+    }
+
+    private static class CachedDetailMap {
+
+        private final NameMatcher captureMatcher;
+        private final NameMatcher maskMatcher;
+        private final Map<String, Object> detailMap;
+
+        private CachedDetailMap(NameMatcher captureMatcher, NameMatcher maskMatcher,
+                Map<String, Object> detailMap) {
+            this.captureMatcher = captureMatcher;
+            this.maskMatcher = maskMatcher;
+            this.detailMap = detailMap;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.api.util;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class NameMatcherTest {
+
+    @Test
+    public void shouldMatchExactName() {
+        NameMatcher matcher = NameMatcher.of(ImmutableList.of("Content-Type"));
+        assertThat(matcher.matches("content-type")).isTrue();
+        assertThat(matcher.matches("CONTENT-TYPE")).isTrue();
+        assertThat(matcher.matches("content-types")).isFalse();
+    }
+
+    @Test
+    public void shouldMatchPrefix() {
+        NameMatcher matcher = NameMatcher.of(ImmutableList.of("x-*", "accept*"));
+        assertThat(matcher.matches("X-Forwarded-For")).isTrue();
+        assertThat(matcher.matches("x-")).isTrue();
+        assertThat(matcher.matches("Accept")).isTrue();
+        assertThat(matcher.matches("Accept-Encoding")).isTrue();
+        assertThat(matcher.matches("host")).isFalse();
+        assertThat(matcher.matches("x")).isFalse();
+    }
+
+    @Test
+    public void shouldMatchSuffix() {
+        NameMatcher matcher = NameMatcher.of(ImmutableList.of("*-id"));
+        assertThat(matcher.matches("Request-Id")).isTrue();
+        assertThat(matcher.matches("-id")).isTrue();
+        assertThat(matcher.matches("id")).isFalse();
+        assertThat(matcher.matches("request-ids")).isFalse();
+    }
+
+    @Test
+    public void shouldMatchFallback() {
+        NameMatcher matcher = NameMatcher.of(ImmutableList.of("*password*", "a*b", "x.y"));
+        assertThat(matcher.matches("userPassword1")).isTrue();
+        assertThat(matcher.matches("axyzb")).isTrue();
+        assertThat(matcher.matches("ab")).isTrue();
+        assertThat(matcher.matches("abc")).isFalse();
+        // regex characters must be quoted
+        assertThat(matcher.matches("xzy")).isFalse();
+        assertThat(matcher.matches("x.y")).isTrue();
+    }
+
+    @Test
+    public void shouldMatchAll() {
+        NameMatcher matcher = NameMatcher.of(ImmutableList.of("*"));
+        assertThat(matcher.isEmpty()).isFalse();
+        assertThat(matcher.matches("anything")).isTrue();
+        assertThat(matcher.matches("")).isTrue();
+    }
+
+    @Test
+    public void shouldMatchNothing() {
+        assertThat(NameMatcher.none().isEmpty()).isTrue();
+        assertThat(NameMatcher.none().matches("anything")).isFalse();
+        assertThat(NameMatcher.of(ImmutableList.<String>of()).isEmpty()).isTrue();
+    }
+
+    @Test
+    public void shouldReturnSameResultFromCache() {
+        NameMatcher matcher = NameMatcher.of(ImmutableList.of("abc*"));
+        assertThat(matcher.matches("ABCD")).isTrue();
+        assertThat(matcher.matches("ABCD")).isTrue();
+        assertThat(matcher.matches("xyz")).isFalse();
+        assertThat(matcher.matches("xyz")).isFalse();
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.api.util;
+
+import java.util.Map;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class NameValueSnapshotTest {
+
+    @Test
+    public void shouldCaptureAndMask() {
+        // given
+        NameValueSnapshot snapshot = new NameValueSnapshot();
+        snapshot.put("Abc", "1");
+        snapshot.put("xyz", "2");
+        snapshot.put("Password", ImmutableList.of("3", "4"));
+        // when
+        Map<String, Object> detail =
+                snapshot.toDetailMap(NameMatcher.of(ImmutableList.of("a*", "pass*")),
+                        NameMatcher.of(ImmutableList.of("*password*")));
+        // then
+        assertThat(detail).hasSize(2);
+        assertThat(detail.get("Abc")).isEqualTo("1");
+        assertThat(detail.get("Password")).isEqualTo("****");
+    }
+
+    @Test
+    public void shouldMatchOnlyOnceForSameMatchers() {
+        // given
+        NameValueSnapshot snapshot = new NameValueSnapshot();
+        snapshot.put("abc", "1");
+        NameMatcher captureMatcher = NameMatcher.of(ImmutableList.of("a*"));
+        NameMatcher maskMatcher = NameMatcher.none();
+        // when
+        Map<String, Object> detail = snapshot.toDetailMap(captureMatcher, maskMatcher);
+        Map<String, Object> detail2 = snapshot.toDetailMap(captureMatcher, maskMatcher);
+        Map<String, Object> detail3 =
+                snapshot.toDetailMap(NameMatcher.of(ImmutableList.of("x*")), maskMatcher);
+        // then
+        assertThat(detail2).isSameAs(detail);
+        assertThat(detail3).isEmpty();
+    }
+
+    @Test
+    public void shouldCaptureNothingWithoutCapturePatterns() {
+        // given
+        NameValueSnapshot snapshot = new NameValueSnapshot();
+        snapshot.put("abc", "1");
+        // when
+        Map<String, Object> detail = snapshot.toDetailMap(NameMatcher.none(), NameMatcher.none());
+        // then
+        assertThat(detail).isEmpty();
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.cassandra;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import javax.annotation.Nullable;
+
+import org.glowroot.agent.plugin.api.Agent;
+import org.glowroot.agent.plugin.api.AsyncTraceEntry;
+import org.glowroot.agent.plugin.api.MessageSupplier;
+import org.glowroot.agent.plugin.api.ThreadContext;
+import org.glowroot.agent.plugin.api.TimerName;
+import org.glowroot.agent.plugin.api.config.BooleanProperty;
+import org.glowroot.agent.plugin.api.config.ConfigService;
+import org.glowroot.agent.plugin.api.util.FastThreadLocal;
+import org.glowroot.agent.plugin.api.weaving.BindParameter;
+import org.glowroot.agent.plugin.api.weaving.BindReceiver;
+import org.glowroot.agent.plugin.api.weaving.BindReturn;
+import org.glowroot.agent.plugin.api.weaving.BindTraveler;
+import org.glowroot.agent.plugin.api.weaving.IsEnabled;
+import org.glowroot.agent.plugin.api.weaving.Mixin;
+import org.glowroot.agent.plugin.api.weaving.OnAfter;
+import org.glowroot.agent.plugin.api.weaving.OnBefore;
+import org.glowroot.agent.plugin.api.weaving.OnReturn;
+import org.glowroot.agent.plugin.api.weaving.Pointcut;
+import org.glowroot.agent.plugin.api.weaving.Shim;
+
+// captures each round trip to a coordinator host (including paging fetches) as an async service
+// call, so that service call aggregates are broken down by host
+//
+// the round trip is ended from the driver's i/o thread when the response arrives, so the async
+// completion latency is captured without the application needing to block on the result
+public class RequestHandlerAspect {
+
+    private static final String SERVICE_CALL_TYPE = "Cassandra";
+
+    private static final ConfigService configService = Agent.getConfigService("cassandra");
+
+    private static final BooleanProperty captureRoundTrips =
+            configService.getBooleanProperty("captureRoundTrips");
+
+    // paging fetches are performed synchronously on the thread iterating the result set, up to the
+    // point of sending the request
+    private static final FastThreadLocal</*@Nullable*/ Boolean> inPageFetch =
+            new FastThreadLocal</*@Nullable*/ Boolean>();
+
+    @Shim("com.datastax.driver.core.Host")
+    public interface Host {
+
+        @Nullable
+        InetSocketAddress getSocketAddress();
+    }
+
+    // the field and method names are verbose since they will be mixed in to existing classes
+    @Mixin("com.datastax.driver.core.RequestHandler$SpeculativeExecution")
+    public static class SpeculativeExecutionImpl implements SpeculativeExecutionMixin {
+
+        private volatile boolean glowroot$completed;
+        private volatile @Nullable Throwable glowroot$exception;
+        private volatile @Nullable AsyncTraceEntry glowroot$asyncTraceEntry;
+
+        @Override
+        public void glowroot$setCompleted() {
+            glowroot$completed = true;
+        }
+
+        @Override
+        public boolean glowroot$isCompleted() {
+            return glowroot$completed;
+        }
+
+        @Override
+        public void glowroot$setException(Throwable exception) {
+            glowroot$exception = exception;
+        }
+
+        @Override
+        public @Nullable Throwable glowroot$getException() {
+            return glowroot$exception;
+        }
+
+        @Override
+        public @Nullable AsyncTraceEntry glowroot$getAsyncTraceEntry() {
+            return glowroot$asyncTraceEntry;
+        }
+
+        @Override
+        public void glowroot$setAsyncTraceEntry(@Nullable AsyncTraceEntry asyncTraceEntry) {
+            glowroot$asyncTraceEntry = asyncTraceEntry;
+        }
+    }
+
+    // the method names are verbose since they will be mixed in to existing classes
+    public interface SpeculativeExecutionMixin {
+
+        void glowroot$setCompleted();
+
+        boolean glowroot$isCompleted();
+
+        void glowroot$setException(Throwable t);
+
+        @Nullable
+        Throwable glowroot$getException();
+
+        @Nullable
+        AsyncTraceEntry glowroot$getAsyncTraceEntry();
+
+        void glowroot$setAsyncTraceEntry(@Nullable AsyncTraceEntry asyncTraceEntry);
+    }
+
+    @Pointcut(className = "com.datastax.driver.core.ArrayBackedResultSet$MultiPage",
+            methodName = "queryNextPage", methodParameterTypes = {".."})
+    public static class QueryNextPageAdvice {
+        @IsEnabled
+        public static boolean isEnabled() {
+            return captureRoundTrips.value();
+        }
+        @OnBefore
+        public static FastThreadLocal.Holder</*@Nullable*/ Boolean> onBefore() {
+            FastThreadLocal.Holder</*@Nullable*/ Boolean> holder = inPageFetch.getHolder();
+            holder.set(true);
+            return holder;
+        }
+        @OnAfter
+        public static void onAfter(
+                @BindTraveler FastThreadLocal.Holder</*@Nullable*/ Boolean> holder) {
+            holder.set(null);
+        }
+    }
+
+    // retries and speculative executions that are sent from the driver's own threads are not
+    // captured, since there is no thread context there
+    @Pointcut(className = "com.datastax.driver.core.RequestHandler$SpeculativeExecution",
+            methodName = "query", methodParameterTypes = {"com.datastax.driver.core.Host"},
+            timerName = "cql round trip")
+    public static class QueryAdvice {
+        private static final TimerName timerName = Agent.getTimerName(QueryAdvice.class);
+        @IsEnabled
+        public static boolean isEnabled() {
+            return captureRoundTrips.value();
+        }
+        @OnReturn
+        public static void onReturn(ThreadContext context, @BindReturn boolean sent,
+                @BindReceiver SpeculativeExecutionMixin execution,
+                @BindParameter @Nullable Host host) {
+            if (!sent || execution.glowroot$getAsyncTraceEntry() != null) {
+                return;
+            }
+            // page fetches are aggregated separately from initial round trips since their latency
+            // profile is different (e.g. no query planning)
+            String serviceCallText = getHostText(host);
+            if (inPageFetch.get() != null) {
+                serviceCallText = "page fetch " + serviceCallText;
+            }
+            AsyncTraceEntry asyncTraceEntry = context.startAsyncServiceCallEntry(SERVICE_CALL_TYPE,
+                    serviceCallText, MessageSupplier.create("cql round trip: {}", serviceCallText),
+                    timerName);
+            asyncTraceEntry.stopSyncTimer();
+            // to prevent race condition, setting async trace entry before getting completed status,
+            // and the converse is done when getting async trace entry
+            // ok if end() happens to get called twice
+            execution.glowroot$setAsyncTraceEntry(asyncTraceEntry);
+            if (execution.glowroot$isCompleted()) {
+                // response arrived really fast, prior to @OnReturn
+                Throwable exception = execution.glowroot$getException();
+                if (exception == null) {
+                    asyncTraceEntry.end();
+                } else {
+                    asyncTraceEntry.endWithError(exception);
+                }
+            }
+        }
+    }
+
+    @Pointcut(className = "com.datastax.driver.core.RequestHandler$SpeculativeExecution",
+            methodName = "onSet", methodParameterTypes = {"com.datastax.driver.core.Connection",
+                    "com.datastax.driver.core.Message$Response", "long", "int"})
+    public static class OnSetAdvice {
+        @OnBefore
+        public static void onBefore(@BindReceiver SpeculativeExecutionMixin execution) {
+            execution.glowroot$setCompleted();
+            AsyncTraceEntry asyncTraceEntry = execution.glowroot$getAsyncTraceEntry();
+            if (asyncTraceEntry != null) {
+                asyncTraceEntry.end();
+            }
+        }
+    }
+
+    @Pointcut(className = "com.datastax.driver.core.RequestHandler$SpeculativeExecution",
+            methodName = "onException", methodParameterTypes = {
+                    "com.datastax.driver.core.Connection", "java.lang.Exception", "long", "int"})
+    public static class OnExceptionAdvice {
+        @OnBefore
+        public static void onBefore(@BindReceiver SpeculativeExecutionMixin execution,
+                @BindParameter @Nullable Exception exception) {
+            Throwable t = exception == null ? new IllegalStateException("Unknown exception")
+                    : exception;
+            execution.glowroot$setCompleted();
+            execution.glowroot$setException(t);
+            AsyncTraceEntry asyncTraceEntry = execution.glowroot$getAsyncTraceEntry();
+            if (asyncTraceEntry != null) {
+                asyncTraceEntry.endWithError(t);
+            }
+        }
+    }
+
+    @Pointcut(className = "com.datastax.driver.core.RequestHandler$SpeculativeExecution",
+            methodName = "onTimeout",
+            methodParameterTypes = {"com.datastax.driver.core.Connection", "long", "int"})
+    public static class OnTimeoutAdvice {
+        @OnBefore
+        public static void onBefore(@BindReceiver SpeculativeExecutionMixin execution) {
+            Throwable t = new IllegalStateException("Timed out waiting for server response");
+            execution.glowroot$setCompleted();
+            execution.glowroot$setException(t);
+            AsyncTraceEntry asyncTraceEntry = execution.glowroot$getAsyncTraceEntry();
+            if (asyncTraceEntry != null) {
+                asyncTraceEntry.endWithError(t);
+            }
+        }
+    }
+
+    private static String getHostText(@Nullable Host host) {
+        if (host == null) {
+            return "";
+        }
+        InetSocketAddress socketAddress = host.getSocketAddress();
+        if (socketAddress == null) {
+            return "";
+        }
+        InetAddress address = socketAddress.getAddress();
+        String hostAddress =
+                address == null ? socketAddress.getHostName() : address.getHostAddress();
+        return hostAddress + ":" + socketAddress.getPort();
+    }
+}
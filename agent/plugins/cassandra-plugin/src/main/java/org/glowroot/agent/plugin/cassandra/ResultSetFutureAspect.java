@@ -179,7 +179,8 @@ public class ResultSetFutureAspect {
         // using @OnBefore instead of @OnReturn to ensure that async trace entry is ended prior to
         // an overall transaction that may be waiting on this future has a chance to end
         @OnBefore
-        public static void onBefore(@BindReceiver ResultSetFutureMixin resultSetFuture) {
+        public static void onBefore(@BindReceiver ResultSetFutureMixin resultSetFuture,
+                @BindParameter @Nullable Object value) {
             // to prevent race condition, setting completed status before getting async query entry,
             // and the converse is done when setting async query entry
             // ok if end() happens to get called twice
@@ -187,6 +188,12 @@ public class ResultSetFutureAspect {
             AsyncQueryEntry asyncQueryEntry = resultSetFuture.glowroot$getAsyncQueryEntry();
             if (asyncQueryEntry != null) {
                 asyncQueryEntry.end();
+                if (value instanceof ResultSet) {
+                    // pass query entry to the result set here (instead of only in get()) so that
+                    // rows are still counted when the result set is consumed from a callback
+                    // without ever blocking on the future
+                    ((ResultSet) value).glowroot$setLastQueryEntry(asyncQueryEntry);
+                }
             }
         }
     }
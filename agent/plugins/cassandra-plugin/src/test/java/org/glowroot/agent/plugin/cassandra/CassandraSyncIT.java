@@ -25,6 +25,7 @@ import com.datastax.driver.core.ResultSet;
 import com.datastax.driver.core.Row;
 import com.datastax.driver.core.Session;
 import com.datastax.driver.core.SimpleStatement;
+import com.datastax.driver.core.Statement;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
@@ -76,6 +77,57 @@ public class CassandraSyncIT {
         assertThat(i.hasNext()).isFalse();
     }
 
+    @Test
+    public void shouldCaptureRoundTrip() throws Exception {
+        // given
+        container.getConfigService().setPluginProperty("cassandra", "captureRoundTrips", true);
+
+        // when
+        Trace trace = container.execute(ExecuteStatement.class);
+
+        // then
+        Iterator<Trace.Entry> i = trace.getEntryList().iterator();
+
+        Trace.Entry entry = i.next();
+        assertThat(entry.getDepth()).isEqualTo(0);
+        assertThat(entry.getQueryEntryMessage().getPrefix()).isEqualTo("cql execution: ");
+        assertThat(entry.getQueryEntryMessage().getSuffix()).isEqualTo(" => 10 rows");
+
+        entry = i.next();
+        assertThat(entry.getDepth()).isEqualTo(1);
+        assertThat(entry.getMessage()).matches("cql round trip: .*:\\d+");
+
+        assertThat(i.hasNext()).isFalse();
+
+        // when
+        trace = container.execute(ExecuteStatementWithPaging.class);
+
+        // then
+        i = trace.getEntryList().iterator();
+
+        entry = i.next();
+        assertThat(entry.getDepth()).isEqualTo(0);
+        assertThat(entry.getQueryEntryMessage().getPrefix()).isEqualTo("cql execution: ");
+        assertThat(entry.getQueryEntryMessage().getSuffix()).isEqualTo(" => 10 rows");
+
+        entry = i.next();
+        assertThat(entry.getDepth()).isEqualTo(1);
+        assertThat(entry.getMessage()).matches("cql round trip: .*:\\d+");
+        String hostText = entry.getMessage().substring("cql round trip: ".length());
+
+        // page fetches are performed while iterating, after the execution has returned, and use a
+        // distinct service call text so they are aggregated separately from the initial round trip
+        entry = i.next();
+        assertThat(entry.getDepth()).isEqualTo(0);
+        assertThat(entry.getMessage()).isEqualTo("cql round trip: page fetch " + hostText);
+
+        entry = i.next();
+        assertThat(entry.getDepth()).isEqualTo(0);
+        assertThat(entry.getMessage()).isEqualTo("cql round trip: page fetch " + hostText);
+
+        assertThat(i.hasNext()).isFalse();
+    }
+
     @Test
     public void shouldExecuteStatementReturningNoRecords() throws Exception {
         // when
@@ -203,6 +255,28 @@ public class CassandraSyncIT {
         }
     }
 
+    public static class ExecuteStatementWithPaging implements AppUnderTest, TransactionMarker {
+
+        private Session session;
+
+        @Override
+        public void executeApp() throws Exception {
+            session = Sessions.createSession();
+            transactionMarker();
+            Sessions.closeSession(session);
+        }
+
+        @Override
+        public void transactionMarker() throws Exception {
+            // 10 rows are fetched in pages of 4, 4 and 2
+            Statement statement = new SimpleStatement("SELECT * FROM test.users").setFetchSize(4);
+            ResultSet results = session.execute(statement);
+            for (Row row : results) {
+                row.getInt("id");
+            }
+        }
+    }
+
     public static class ExecuteStatementReturningNoRecords
             implements AppUnderTest, TransactionMarker {
 
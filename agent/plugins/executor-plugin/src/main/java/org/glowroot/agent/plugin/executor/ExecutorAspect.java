@@ -41,6 +41,7 @@ import org.glowroot.agent.plugin.api.weaving.OnBefore;
 import org.glowroot.agent.plugin.api.weaving.OnReturn;
 import org.glowroot.agent.plugin.api.weaving.OnThrow;
 import org.glowroot.agent.plugin.api.weaving.Pointcut;
+import org.glowroot.agent.plugin.api.weaving.Shim;
 
 public class ExecutorAspect {
 
@@ -81,6 +82,14 @@ public class ExecutorAspect {
 
     public interface SuppressedRunnableEtcMixin {}
 
+    @Shim("java.util.concurrent.CompletableFuture$Completion")
+    public interface CompletionShim {
+
+        // false once the completion has fired (or was cancelled)
+        @Shim("boolean isLive()")
+        boolean glowroot$isLive();
+    }
+
     @Pointcut(
             className = "java.util.concurrent.Executor|java.util.concurrent.ExecutorService"
                     + "|java.util.concurrent.ForkJoinPool"
@@ -120,6 +129,28 @@ public class ExecutorAspect {
         }
     }
 
+    // dependent stages (e.g. thenApply()) registered inside of a transaction are often fired by
+    // whatever thread completes the source future (e.g. an I/O thread outside of any transaction),
+    // so the context is captured when the stage is registered (UniCompletion is the base class for
+    // all of the dependent stages that run user functions, async or not)
+    @Pointcut(className = "java.util.concurrent.CompletableFuture$UniCompletion",
+            methodName = "<init>", methodParameterTypes = {".."},
+            nestingGroup = "executor-execute")
+    public static class CompletionInitAdvice {
+        @OnReturn
+        public static void onReturn(ThreadContext context, @BindReceiver Object completion) {
+            if (!(completion instanceof RunnableEtcMixin)) {
+                // this class may have been loaded before class file transformer was added to jvm
+                return;
+            }
+            RunnableEtcMixin completionMixin = (RunnableEtcMixin) completion;
+            if (completionMixin.glowroot$getAuxContext() == null) {
+                // null check is for subclass constructors, e.g. BiCompletion
+                completionMixin.glowroot$setAuxContext(context.createAuxThreadContext());
+            }
+        }
+    }
+
     @Pointcut(
             className = "java.util.concurrent.ExecutorService|java.util.concurrent.ForkJoinPool"
                     + "|akka.jsr166y.ForkJoinPool|scala.concurrent.forkjoin.ForkJoinPool",
@@ -388,6 +419,55 @@ public class ExecutorAspect {
         }
     }
 
+    // the nesting group only starts applying once auxiliary thread context is started (it does not
+    // apply to OptionalThreadContext that miss)
+    @Pointcut(className = "java.util.concurrent.CompletableFuture$Completion",
+            methodName = "tryFire", methodParameterTypes = {"int"}, nestingGroup = "executor-run")
+    public static class CompletionTryFireAdvice {
+        @IsEnabled
+        public static boolean isEnabled(@BindReceiver Object completion) {
+            return ExecAdvice.isEnabled(completion);
+        }
+        @OnBefore
+        public static @Nullable TraceEntry onBefore(@BindReceiver Object completion) {
+            RunnableEtcMixin completionMixin = (RunnableEtcMixin) completion;
+            AuxThreadContext auxContext = completionMixin.glowroot$getAuxContext();
+            if (auxContext == null) {
+                // this is unlikely (since checked in @IsEnabled) but possible under concurrency
+                return null;
+            }
+            // the aux context is not cleared here (unlike run/call/exec above) since tryFire() is
+            // also called speculatively by the registering thread before the source is complete
+            // (in which case start() is a no-op since the registering thread already has a context)
+            // and by a bi-completion's first source to complete, neither of which fires it
+            return auxContext.start();
+        }
+        @OnReturn
+        public static void onReturn(@BindReceiver Object completion,
+                @BindTraveler @Nullable TraceEntry traceEntry) {
+            if (traceEntry != null) {
+                traceEntry.end();
+            }
+            clearAuxContextIfFired(completion);
+        }
+        @OnThrow
+        public static void onThrow(@BindThrowable Throwable t, @BindReceiver Object completion,
+                @BindTraveler @Nullable TraceEntry traceEntry) {
+            if (traceEntry != null) {
+                traceEntry.endWithError(t);
+            }
+            clearAuxContextIfFired(completion);
+        }
+        // completions can be retained after they fire (e.g. in the source's stack until it is
+        // cleaned), and should not keep the transaction reachable
+        private static void clearAuxContextIfFired(Object completion) {
+            if (completion instanceof CompletionShim
+                    && !((CompletionShim) completion).glowroot$isLive()) {
+                ((RunnableEtcMixin) completion).glowroot$setAuxContext(null);
+            }
+        }
+    }
+
     // ========== debug ==========
 
     // KEEP THIS CODE IT IS VERY USEFUL
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.executor;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiFunction;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import org.glowroot.agent.it.harness.AppUnderTest;
+import org.glowroot.agent.it.harness.Container;
+import org.glowroot.agent.it.harness.Containers;
+import org.glowroot.agent.it.harness.TraceEntryMarker;
+import org.glowroot.agent.it.harness.TransactionMarker;
+import org.glowroot.wire.api.model.TraceOuterClass.Trace;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CompletableFutureIT {
+
+    private static Container container;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        // CompletableFuture is loaded by the bootstrap class loader, so it is only woven when
+        // running under javaagent
+        Assume.assumeTrue(Containers.useJavaagent());
+        container = Containers.create();
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        // need null check in case assumption is false in setUp()
+        if (container != null) {
+            container.close();
+        }
+    }
+
+    @After
+    public void afterEachTest() throws Exception {
+        container.checkAndReset();
+    }
+
+    @Test
+    public void shouldCaptureDependentStageCompletedOutsideTransaction() throws Exception {
+        // when
+        Trace trace = container.execute(DependentStageCompletedOutsideTransaction.class);
+
+        // then
+        checkTrace(trace);
+    }
+
+    @Test
+    public void shouldCaptureBiDependentStageCompletedOutsideTransaction() throws Exception {
+        // when
+        Trace trace = container.execute(BiDependentStageCompletedOutsideTransaction.class);
+
+        // then
+        checkTrace(trace);
+    }
+
+    @Test
+    public void shouldClearAuxContextOnceFired() throws Exception {
+        // when
+        Trace trace = container.execute(ClearAuxContextOnceFired.class);
+
+        // then
+        checkTrace(trace);
+    }
+
+    private static void checkTrace(Trace trace) {
+        Iterator<Trace.Entry> i = trace.getEntryList().iterator();
+
+        Trace.Entry entry = i.next();
+        assertThat(entry.getDepth()).isEqualTo(0);
+        assertThat(entry.getMessage()).isEqualTo("auxiliary thread");
+
+        entry = i.next();
+        assertThat(entry.getDepth()).isEqualTo(1);
+        assertThat(entry.getMessage()).isEqualTo("trace entry marker / CreateTraceEntry");
+
+        assertThat(i.hasNext()).isFalse();
+    }
+
+    private static void completeOutsideTransaction(final CompletableFuture<String> future)
+            throws InterruptedException {
+        // plain threads are not captured by the executor plugin, similar to an I/O thread that
+        // completes a future
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                future.complete("abc");
+            }
+        });
+        thread.start();
+        thread.join();
+    }
+
+    public static class DependentStageCompletedOutsideTransaction
+            implements AppUnderTest, TransactionMarker {
+
+        @Override
+        public void executeApp() throws Exception {
+            transactionMarker();
+        }
+
+        @Override
+        public void transactionMarker() throws Exception {
+            CompletableFuture<String> future = new CompletableFuture<String>();
+            CompletableFuture<Void> dependent = future.thenRun(new Runnable() {
+                @Override
+                public void run() {
+                    new CreateTraceEntry().traceEntryMarker();
+                }
+            });
+            completeOutsideTransaction(future);
+            dependent.get();
+        }
+    }
+
+    public static class BiDependentStageCompletedOutsideTransaction
+            implements AppUnderTest, TransactionMarker {
+
+        @Override
+        public void executeApp() throws Exception {
+            transactionMarker();
+        }
+
+        @Override
+        public void transactionMarker() throws Exception {
+            CompletableFuture<String> future1 = new CompletableFuture<String>();
+            CompletableFuture<String> future2 = CompletableFuture.completedFuture("xyz");
+            CompletableFuture<String> dependent = future1.thenCombine(future2,
+                    new BiFunction<String, String, String>() {
+                        @Override
+                        public String apply(String value1, String value2) {
+                            new CreateTraceEntry().traceEntryMarker();
+                            return value1 + value2;
+                        }
+                    });
+            completeOutsideTransaction(future1);
+            dependent.get();
+        }
+    }
+
+    public static class ClearAuxContextOnceFired implements AppUnderTest, TransactionMarker {
+
+        @Override
+        public void executeApp() throws Exception {
+            transactionMarker();
+        }
+
+        @Override
+        public void transactionMarker() throws Exception {
+            CompletableFuture<String> future = new CompletableFuture<String>();
+            CompletableFuture<Void> dependent = future.thenRun(new Runnable() {
+                @Override
+                public void run() {
+                    new CreateTraceEntry().traceEntryMarker();
+                }
+            });
+            // the completion is only reachable via the source future's stack prior to firing
+            Field stackField = CompletableFuture.class.getDeclaredField("stack");
+            stackField.setAccessible(true);
+            Object completion = stackField.get(future);
+            Method getAuxContextMethod = completion.getClass().getMethod("glowroot$getAuxContext");
+            if (getAuxContextMethod.invoke(completion) == null) {
+                throw new IllegalStateException("Aux context was not captured");
+            }
+            completeOutsideTransaction(future);
+            dependent.get();
+            if (getAuxContextMethod.invoke(completion) != null) {
+                throw new IllegalStateException("Aux context was not cleared");
+            }
+        }
+    }
+
+    private static class CreateTraceEntry implements TraceEntryMarker {
+        @Override
+        public void traceEntryMarker() {}
+    }
+}
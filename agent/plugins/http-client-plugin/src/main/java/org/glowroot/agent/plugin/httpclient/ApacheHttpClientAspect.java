@@ -22,11 +22,14 @@ import javax.annotation.Nullable;
 import org.glowroot.agent.plugin.api.Agent;
 import org.glowroot.agent.plugin.api.MessageSupplier;
 import org.glowroot.agent.plugin.api.ThreadContext;
+import org.glowroot.agent.plugin.api.Timer;
 import org.glowroot.agent.plugin.api.TimerName;
 import org.glowroot.agent.plugin.api.TraceEntry;
 import org.glowroot.agent.plugin.api.weaving.BindParameter;
 import org.glowroot.agent.plugin.api.weaving.BindThrowable;
 import org.glowroot.agent.plugin.api.weaving.BindTraveler;
+import org.glowroot.agent.plugin.api.weaving.IsEnabled;
+import org.glowroot.agent.plugin.api.weaving.OnAfter;
 import org.glowroot.agent.plugin.api.weaving.OnBefore;
 import org.glowroot.agent.plugin.api.weaving.OnReturn;
 import org.glowroot.agent.plugin.api.weaving.OnThrow;
@@ -71,8 +74,17 @@ public class ApacheHttpClientAspect {
 
     @Shim({"org.apache.http.HttpHost", "wiremock.org.apache.http.HttpHost"})
     public interface HttpHost {
+
         @Nullable
         String toURI();
+
+        @Nullable
+        String getHostName();
+
+        int getPort();
+
+        @Nullable
+        String getSchemeName();
     }
 
     @Shim({"org.apache.http.client.methods.HttpUriRequest",
@@ -176,4 +188,144 @@ public class ApacheHttpClientAspect {
             traceEntry.endWithError(t);
         }
     }
+
+    // the phase timing advice below is only for httpclient 4.3+
+
+    @Pointcut(className = "org.apache.http.conn.ConnectionRequest", methodName = "get",
+            methodParameterTypes = {"long", "java.util.concurrent.TimeUnit"},
+            nestingGroup = "http-client-pool-lease", timerName = "http client pool lease")
+    public static class PoolLeaseAdvice {
+        private static final TimerName timerName = Agent.getTimerName(PoolLeaseAdvice.class);
+        @IsEnabled
+        public static boolean isEnabled() {
+            return ConnectionPhases.isEnabled();
+        }
+        @OnBefore
+        public static Timer onBefore(ThreadContext context) {
+            return context.startTimer(timerName);
+        }
+        @OnAfter
+        public static void onAfter(@BindTraveler Timer timer) {
+            timer.stop();
+        }
+    }
+
+    @Pointcut(className = "org.apache.http.conn.DnsResolver", methodName = "resolve",
+            methodParameterTypes = {"java.lang.String"}, nestingGroup = "http-client-dns-lookup",
+            timerName = "http client dns lookup")
+    public static class DnsLookupAdvice {
+        private static final TimerName timerName = Agent.getTimerName(DnsLookupAdvice.class);
+        @IsEnabled
+        public static boolean isEnabled() {
+            return ConnectionPhases.isEnabled();
+        }
+        @OnBefore
+        public static Timer onBefore(ThreadContext context) {
+            return context.startTimer(timerName);
+        }
+        @OnAfter
+        public static void onAfter(@BindTraveler Timer timer) {
+            timer.stop();
+        }
+    }
+
+    // this is only called for new connections, so it includes dns lookup and tls handshake
+    @Pointcut(className = "org.apache.http.conn.HttpClientConnectionOperator",
+            methodName = "connect",
+            methodParameterTypes = {"org.apache.http.conn.ManagedHttpClientConnection",
+                    "org.apache.http.HttpHost", ".."},
+            nestingGroup = "http-client-connect", timerName = "http client connect")
+    public static class ConnectAdvice {
+        private static final TimerName timerName = Agent.getTimerName(ConnectAdvice.class);
+        @IsEnabled
+        public static boolean isEnabled() {
+            return ConnectionPhases.isConnectEnabled();
+        }
+        @OnBefore
+        public static Object onBefore(ThreadContext context,
+                @SuppressWarnings("unused") @BindParameter @Nullable Object conn,
+                @BindParameter @Nullable HttpHost host) {
+            if (host == null) {
+                return ConnectionPhases.startConnect(context, "", -1, timerName);
+            }
+            String hostName = host.getHostName();
+            int port = host.getPort();
+            if (port == -1) {
+                port = "https".equalsIgnoreCase(host.getSchemeName()) ? 443 : 80;
+            }
+            return ConnectionPhases.startConnect(context, hostName == null ? "" : hostName, port,
+                    timerName);
+        }
+        @OnReturn
+        public static void onReturn(@BindTraveler Object entryOrTimer) {
+            ConnectionPhases.end(entryOrTimer);
+        }
+        @OnThrow
+        public static void onThrow(@BindThrowable Throwable t,
+                @BindTraveler Object entryOrTimer) {
+            ConnectionPhases.endWithError(t, entryOrTimer);
+        }
+    }
+
+    @Pointcut(className = "org.apache.http.conn.socket.LayeredConnectionSocketFactory",
+            methodName = "createLayeredSocket",
+            methodParameterTypes = {"java.net.Socket", "java.lang.String", "int",
+                    "org.apache.http.protocol.HttpContext"},
+            nestingGroup = "http-client-tls-handshake", timerName = "http client tls handshake")
+    public static class TlsHandshakeAdvice {
+        private static final TimerName timerName = Agent.getTimerName(TlsHandshakeAdvice.class);
+        @IsEnabled
+        public static boolean isEnabled() {
+            return ConnectionPhases.isEnabled();
+        }
+        @OnBefore
+        public static Timer onBefore(ThreadContext context) {
+            return context.startTimer(timerName);
+        }
+        @OnAfter
+        public static void onAfter(@BindTraveler Timer timer) {
+            timer.stop();
+        }
+    }
+
+    // nesting group is needed since connection implementations delegate to one another
+    @Pointcut(className = "org.apache.http.HttpClientConnection",
+            methodName = "receiveResponseHeader", methodParameterTypes = {},
+            nestingGroup = "http-client-first-byte", timerName = "http client first byte")
+    public static class FirstByteAdvice {
+        private static final TimerName timerName = Agent.getTimerName(FirstByteAdvice.class);
+        @IsEnabled
+        public static boolean isEnabled() {
+            return ConnectionPhases.isEnabled();
+        }
+        @OnBefore
+        public static Timer onBefore(ThreadContext context) {
+            return context.startTimer(timerName);
+        }
+        @OnAfter
+        public static void onAfter(@BindTraveler Timer timer) {
+            timer.stop();
+        }
+    }
+
+    // the response body is typically read after HttpClient.execute() has returned, in which case
+    // this timer is not nested under the "http client request" timer
+    @Pointcut(className = "org.apache.http.conn.EofSensorInputStream", methodName = "read",
+            methodParameterTypes = {".."}, nestingGroup = "http-client-response-body",
+            timerName = "http client response body")
+    public static class ResponseBodyAdvice {
+        private static final TimerName timerName = Agent.getTimerName(ResponseBodyAdvice.class);
+        @IsEnabled
+        public static boolean isEnabled() {
+            return ConnectionPhases.isResponseBodyEnabled();
+        }
+        @OnBefore
+        public static Timer onBefore(ThreadContext context) {
+            return context.startTimer(timerName);
+        }
+        @OnAfter
+        public static void onAfter(@BindTraveler Timer timer) {
+            timer.stop();
+        }
+    }
 }
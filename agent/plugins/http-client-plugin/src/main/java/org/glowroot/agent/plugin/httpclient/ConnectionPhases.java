@@ -0,0 +1,90 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.httpclient;
+
+import javax.annotation.Nullable;
+
+import org.glowroot.agent.plugin.api.Agent;
+import org.glowroot.agent.plugin.api.MessageSupplier;
+import org.glowroot.agent.plugin.api.ThreadContext;
+import org.glowroot.agent.plugin.api.Timer;
+import org.glowroot.agent.plugin.api.TimerName;
+import org.glowroot.agent.plugin.api.TraceEntry;
+import org.glowroot.agent.plugin.api.config.BooleanProperty;
+import org.glowroot.agent.plugin.api.config.ConfigService;
+
+// shared by the phase timing advice (pool lease, dns lookup, connect, tls handshake, first byte,
+// response body) in the individual http client aspects
+//
+// the phase timers are nested under the "http client request" timer so they are aggregated along
+// with the rest of the transaction timers, and new connections can optionally be captured as
+// "HTTP connect" service calls keyed by host and port, so that comparing their count against the
+// "HTTP" service calls gives the connection reuse ratio per target host
+class ConnectionPhases {
+
+    private static final ConfigService configService = Agent.getConfigService("http-client");
+
+    private static final BooleanProperty capturePhaseTimings =
+            configService.getBooleanProperty("capturePhaseTimings");
+
+    private static final BooleanProperty captureResponseBodyTimings =
+            configService.getBooleanProperty("captureResponseBodyTimings");
+
+    private static final BooleanProperty captureNewConnections =
+            configService.getBooleanProperty("captureNewConnections");
+
+    private ConnectionPhases() {}
+
+    static boolean isEnabled() {
+        return capturePhaseTimings.value();
+    }
+
+    // this is separate from the other phases (and off by default) since it adds a timer to every
+    // read from the response body stream
+    static boolean isResponseBodyEnabled() {
+        return captureResponseBodyTimings.value();
+    }
+
+    static boolean isConnectEnabled() {
+        return capturePhaseTimings.value() || captureNewConnections.value();
+    }
+
+    static Object startConnect(ThreadContext context, String host, int port,
+            TimerName timerName) {
+        if (captureNewConnections.value()) {
+            String target = host + ":" + port;
+            return context.startServiceCallEntry("HTTP connect", target,
+                    MessageSupplier.create("http client connect: {}", target), timerName);
+        }
+        return context.startTimer(timerName);
+    }
+
+    static void end(@Nullable Object entryOrTimer) {
+        if (entryOrTimer instanceof TraceEntry) {
+            ((TraceEntry) entryOrTimer).end();
+        } else if (entryOrTimer instanceof Timer) {
+            ((Timer) entryOrTimer).stop();
+        }
+    }
+
+    static void endWithError(Throwable t, @Nullable Object entryOrTimer) {
+        if (entryOrTimer instanceof TraceEntry) {
+            ((TraceEntry) entryOrTimer).endWithError(t);
+        } else if (entryOrTimer instanceof Timer) {
+            ((Timer) entryOrTimer).stop();
+        }
+    }
+}
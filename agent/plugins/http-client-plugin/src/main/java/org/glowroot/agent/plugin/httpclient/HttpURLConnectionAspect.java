@@ -28,10 +28,12 @@ import org.glowroot.agent.plugin.api.ThreadContext;
 import org.glowroot.agent.plugin.api.Timer;
 import org.glowroot.agent.plugin.api.TimerName;
 import org.glowroot.agent.plugin.api.TraceEntry;
+import org.glowroot.agent.plugin.api.weaving.BindParameter;
 import org.glowroot.agent.plugin.api.weaving.BindReceiver;
 import org.glowroot.agent.plugin.api.weaving.BindReturn;
 import org.glowroot.agent.plugin.api.weaving.BindThrowable;
 import org.glowroot.agent.plugin.api.weaving.BindTraveler;
+import org.glowroot.agent.plugin.api.weaving.IsEnabled;
 import org.glowroot.agent.plugin.api.weaving.Mixin;
 import org.glowroot.agent.plugin.api.weaving.OnAfter;
 import org.glowroot.agent.plugin.api.weaving.OnBefore;
@@ -234,4 +236,71 @@ public class HttpURLConnectionAspect {
             }
         }
     }
+
+    // this is only called for new connections (i.e. not when the connection is taken from the
+    // keep-alive cache), and includes dns lookup, but not tls handshake which is performed after
+    @Pointcut(className = "sun.net.www.http.HttpClient", methodName = "openServer",
+            methodParameterTypes = {"java.lang.String", "int"},
+            nestingGroup = "http-client-connect", timerName = "http client connect")
+    public static class OpenServerAdvice {
+        private static final TimerName timerName = Agent.getTimerName(OpenServerAdvice.class);
+        @IsEnabled
+        public static boolean isEnabled() {
+            return ConnectionPhases.isConnectEnabled();
+        }
+        @OnBefore
+        public static Object onBefore(ThreadContext context, @BindParameter @Nullable String host,
+                @BindParameter int port) {
+            return ConnectionPhases.startConnect(context, host == null ? "" : host, port,
+                    timerName);
+        }
+        @OnReturn
+        public static void onReturn(@BindTraveler Object entryOrTimer) {
+            ConnectionPhases.end(entryOrTimer);
+        }
+        @OnThrow
+        public static void onThrow(@BindThrowable Throwable t,
+                @BindTraveler Object entryOrTimer) {
+            ConnectionPhases.endWithError(t, entryOrTimer);
+        }
+    }
+
+    @Pointcut(className = "sun.net.www.protocol.https.HttpsClient", methodName = "afterConnect",
+            methodParameterTypes = {}, nestingGroup = "http-client-tls-handshake",
+            timerName = "http client tls handshake")
+    public static class TlsHandshakeAdvice {
+        private static final TimerName timerName = Agent.getTimerName(TlsHandshakeAdvice.class);
+        @IsEnabled
+        public static boolean isEnabled() {
+            return ConnectionPhases.isEnabled();
+        }
+        @OnBefore
+        public static Timer onBefore(ThreadContext context) {
+            return context.startTimer(timerName);
+        }
+        @OnAfter
+        public static void onAfter(@BindTraveler Timer timer) {
+            timer.stop();
+        }
+    }
+
+    // reading of the response body is already captured by HttpInputStreamAdvice above
+    @Pointcut(className = "sun.net.www.http.HttpClient", methodName = "parseHTTP",
+            methodParameterTypes = {".."}, nestingGroup = "http-client-first-byte",
+            timerName = "http client first byte")
+    public static class FirstByteAdvice {
+        private static final TimerName timerName = Agent.getTimerName(FirstByteAdvice.class);
+        @IsEnabled
+        public static boolean isEnabled() {
+            return ConnectionPhases.isEnabled();
+        }
+        @OnBefore
+        public static Timer onBefore(ThreadContext context) {
+            return context.startTimer(timerName);
+        }
+        @OnAfter
+        public static void onAfter(@BindTraveler Timer timer) {
+            timer.stop();
+        }
+    }
 }
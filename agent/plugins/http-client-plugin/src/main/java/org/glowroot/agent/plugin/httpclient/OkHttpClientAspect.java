@@ -24,6 +24,7 @@ import org.glowroot.agent.plugin.api.AsyncTraceEntry;
 import org.glowroot.agent.plugin.api.AuxThreadContext;
 import org.glowroot.agent.plugin.api.MessageSupplier;
 import org.glowroot.agent.plugin.api.ThreadContext;
+import org.glowroot.agent.plugin.api.Timer;
 import org.glowroot.agent.plugin.api.TimerName;
 import org.glowroot.agent.plugin.api.TraceEntry;
 import org.glowroot.agent.plugin.api.weaving.BindClassMeta;
@@ -31,7 +32,9 @@ import org.glowroot.agent.plugin.api.weaving.BindParameter;
 import org.glowroot.agent.plugin.api.weaving.BindReceiver;
 import org.glowroot.agent.plugin.api.weaving.BindThrowable;
 import org.glowroot.agent.plugin.api.weaving.BindTraveler;
+import org.glowroot.agent.plugin.api.weaving.IsEnabled;
 import org.glowroot.agent.plugin.api.weaving.Mixin;
+import org.glowroot.agent.plugin.api.weaving.OnAfter;
 import org.glowroot.agent.plugin.api.weaving.OnBefore;
 import org.glowroot.agent.plugin.api.weaving.OnReturn;
 import org.glowroot.agent.plugin.api.weaving.OnThrow;
@@ -48,6 +51,27 @@ public class OkHttpClientAspect {
         URL url();
     }
 
+    @Shim("com.squareup.okhttp.internal.io.RealConnection")
+    public interface RealConnection {
+        @Shim("com.squareup.okhttp.Route getRoute()")
+        @Nullable
+        Route glowroot$getRoute();
+    }
+
+    @Shim("com.squareup.okhttp.Route")
+    public interface Route {
+        @Shim("com.squareup.okhttp.Address getAddress()")
+        @Nullable
+        Address glowroot$getAddress();
+    }
+
+    @Shim("com.squareup.okhttp.Address")
+    public interface Address {
+        @Nullable
+        String getUriHost();
+        int getUriPort();
+    }
+
     // the field and method names are verbose since they will be mixed in to existing classes
     @Mixin("com.squareup.okhttp.Callback")
     public abstract static class CallbackImpl implements CallbackMixin {
@@ -218,4 +242,121 @@ public class OkHttpClientAspect {
             }
         }
     }
+
+    // the phase timing advice below only captures synchronous calls, since asynchronous calls
+    // perform the network i/o on the dispatcher threads
+
+    @Pointcut(className = "com.squareup.okhttp.Dns", methodName = "lookup",
+            methodParameterTypes = {"java.lang.String"}, nestingGroup = "http-client-dns-lookup",
+            timerName = "http client dns lookup")
+    public static class DnsLookupAdvice {
+        private static final TimerName timerName = Agent.getTimerName(DnsLookupAdvice.class);
+        @IsEnabled
+        public static boolean isEnabled() {
+            return ConnectionPhases.isEnabled();
+        }
+        @OnBefore
+        public static Timer onBefore(ThreadContext context) {
+            return context.startTimer(timerName);
+        }
+        @OnAfter
+        public static void onAfter(@BindTraveler Timer timer) {
+            timer.stop();
+        }
+    }
+
+    // this is only called for new connections, so it includes tls handshake (but not dns lookup
+    // which is performed prior when selecting the route)
+    @Pointcut(className = "com.squareup.okhttp.internal.io.RealConnection", methodName = "connect",
+            methodParameterTypes = {"int", "int", "int", "java.util.List", "boolean"},
+            nestingGroup = "http-client-connect", timerName = "http client connect")
+    public static class ConnectAdvice {
+        private static final TimerName timerName = Agent.getTimerName(ConnectAdvice.class);
+        @IsEnabled
+        public static boolean isEnabled() {
+            return ConnectionPhases.isConnectEnabled();
+        }
+        @OnBefore
+        public static Object onBefore(ThreadContext context,
+                @BindReceiver RealConnection connection) {
+            Route route = connection.glowroot$getRoute();
+            Address address = route == null ? null : route.glowroot$getAddress();
+            if (address == null) {
+                return ConnectionPhases.startConnect(context, "", -1, timerName);
+            }
+            String host = address.getUriHost();
+            return ConnectionPhases.startConnect(context, host == null ? "" : host,
+                    address.getUriPort(), timerName);
+        }
+        @OnReturn
+        public static void onReturn(@BindTraveler Object entryOrTimer) {
+            ConnectionPhases.end(entryOrTimer);
+        }
+        @OnThrow
+        public static void onThrow(@BindThrowable Throwable t,
+                @BindTraveler Object entryOrTimer) {
+            ConnectionPhases.endWithError(t, entryOrTimer);
+        }
+    }
+
+    @Pointcut(className = "com.squareup.okhttp.internal.io.RealConnection",
+            methodName = "connectTls", methodParameterTypes = {".."},
+            nestingGroup = "http-client-tls-handshake", timerName = "http client tls handshake")
+    public static class TlsHandshakeAdvice {
+        private static final TimerName timerName = Agent.getTimerName(TlsHandshakeAdvice.class);
+        @IsEnabled
+        public static boolean isEnabled() {
+            return ConnectionPhases.isEnabled();
+        }
+        @OnBefore
+        public static Timer onBefore(ThreadContext context) {
+            return context.startTimer(timerName);
+        }
+        @OnAfter
+        public static void onAfter(@BindTraveler Timer timer) {
+            timer.stop();
+        }
+    }
+
+    @Pointcut(className = "com.squareup.okhttp.internal.http.HttpStream",
+            methodName = "readResponseHeaders", methodParameterTypes = {},
+            nestingGroup = "http-client-first-byte", timerName = "http client first byte")
+    public static class FirstByteAdvice {
+        private static final TimerName timerName = Agent.getTimerName(FirstByteAdvice.class);
+        @IsEnabled
+        public static boolean isEnabled() {
+            return ConnectionPhases.isEnabled();
+        }
+        @OnBefore
+        public static Timer onBefore(ThreadContext context) {
+            return context.startTimer(timerName);
+        }
+        @OnAfter
+        public static void onAfter(@BindTraveler Timer timer) {
+            timer.stop();
+        }
+    }
+
+    // the response body is read after Call.execute() has returned, so this timer is not nested
+    // under the "http client request" timer
+    @Pointcut(className = "com.squareup.okhttp.internal.http.Http1xStream$FixedLengthSource"
+            + "|com.squareup.okhttp.internal.http.Http1xStream$ChunkedSource"
+            + "|com.squareup.okhttp.internal.http.Http1xStream$UnknownLengthSource",
+            methodName = "read", methodParameterTypes = {"okio.Buffer", "long"},
+            nestingGroup = "http-client-response-body", timerName = "http client response body")
+    public static class ResponseBodyAdvice {
+        private static final TimerName timerName = Agent.getTimerName(ResponseBodyAdvice.class);
+        @IsEnabled
+        public static boolean isEnabled() {
+            return ConnectionPhases.isResponseBodyEnabled();
+        }
+        @OnBefore
+        public static Timer onBefore(ThreadContext context) {
+            return context.startTimer(timerName);
+        }
+        @OnAfter
+        public static void onAfter(@BindTraveler Timer timer) {
+            timer.stop();
+        }
+    }
 }
@@ -18,7 +18,9 @@ package org.glowroot.agent.plugin.httpclient;
 import java.io.InputStream;
 import java.lang.reflect.Method;
 import java.util.Iterator;
+import java.util.List;
 
+import com.google.common.collect.Lists;
 import com.google.common.io.ByteStreams;
 import org.apache.http.HttpHost;
 import org.apache.http.HttpResponse;
@@ -27,6 +29,7 @@ import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.junit.After;
 import org.junit.AfterClass;
+import org.junit.Assume;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
@@ -38,6 +41,8 @@ import static org.assertj.core.api.Assertions.assertThat;
 
 public class ApacheHttpClientPluginIT {
 
+    private static final String PLUGIN_ID = "http-client";
+
     private static Container container;
 
     @BeforeClass
@@ -119,6 +124,69 @@ public class ApacheHttpClientPluginIT {
         assertThat(i.hasNext()).isFalse();
     }
 
+    @Test
+    public void shouldCapturePhaseTimers() throws Exception {
+        Assume.assumeTrue(isHttpClient43OrLater());
+
+        // when
+        Trace trace = container.execute(ExecuteHttpGet.class);
+
+        // then
+        List<String> timerNames = Lists.newArrayList();
+        collectTimerNames(trace.getHeader().getMainThreadRootTimer(), timerNames);
+        assertThat(timerNames).contains("http client pool lease", "http client dns lookup",
+                "http client connect", "http client first byte");
+        assertThat(timerNames).doesNotContain("http client response body");
+    }
+
+    @Test
+    public void shouldNotCapturePhaseTimers() throws Exception {
+        // given
+        container.getConfigService().setPluginProperty(PLUGIN_ID, "capturePhaseTimings", false);
+
+        // when
+        Trace trace = container.execute(ExecuteHttpGet.class);
+
+        // then
+        List<String> timerNames = Lists.newArrayList();
+        collectTimerNames(trace.getHeader().getMainThreadRootTimer(), timerNames);
+        assertThat(timerNames).doesNotContain("http client pool lease", "http client dns lookup",
+                "http client connect", "http client first byte", "http client response body");
+    }
+
+    @Test
+    public void shouldCaptureResponseBodyTimer() throws Exception {
+        Assume.assumeTrue(isHttpClient43OrLater());
+
+        // given
+        container.getConfigService().setPluginProperty(PLUGIN_ID, "captureResponseBodyTimings",
+                true);
+
+        // when
+        Trace trace = container.execute(ExecuteHttpGet.class);
+
+        // then
+        List<String> timerNames = Lists.newArrayList();
+        collectTimerNames(trace.getHeader().getMainThreadRootTimer(), timerNames);
+        assertThat(timerNames).contains("http client response body");
+    }
+
+    private static boolean isHttpClient43OrLater() {
+        try {
+            Class.forName("org.apache.http.conn.HttpClientConnectionOperator");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    private static void collectTimerNames(Trace.Timer timer, List<String> timerNames) {
+        timerNames.add(timer.getName());
+        for (Trace.Timer childTimer : timer.getChildTimerList()) {
+            collectTimerNames(childTimer, timerNames);
+        }
+    }
+
     private static HttpClient createHttpClient() throws Exception {
         try {
             return (HttpClient) Class.forName("org.apache.http.impl.client.HttpClients")
@@ -18,7 +18,9 @@ package org.glowroot.agent.plugin.httpclient;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.Iterator;
+import java.util.List;
 
+import com.google.common.collect.Lists;
 import com.google.common.io.ByteStreams;
 import org.junit.After;
 import org.junit.AfterClass;
@@ -34,6 +36,8 @@ import static org.assertj.core.api.Assertions.assertThat;
 
 public class HttpURLConnectionIT {
 
+    private static final String PLUGIN_ID = "http-client";
+
     private static Container container;
 
     @BeforeClass
@@ -82,6 +86,63 @@ public class HttpURLConnectionIT {
         shouldCaptureHttpPost(ExecuteHttpPostHTTPS.class, "https");
     }
 
+    @Test
+    public void shouldCapturePhaseTimersHTTPS() throws Exception {
+        // when
+        Trace trace = container.execute(ExecuteHttpGetHTTPS.class);
+
+        // then
+        List<String> timerNames = Lists.newArrayList();
+        collectTimerNames(trace.getHeader().getMainThreadRootTimer(), timerNames);
+        assertThat(timerNames).contains("http client connect", "http client tls handshake",
+                "http client first byte");
+    }
+
+    @Test
+    public void shouldNotCapturePhaseTimers() throws Exception {
+        // given
+        container.getConfigService().setPluginProperty(PLUGIN_ID, "capturePhaseTimings", false);
+
+        // when
+        Trace trace = container.execute(ExecuteHttpGetHTTPS.class);
+
+        // then
+        List<String> timerNames = Lists.newArrayList();
+        collectTimerNames(trace.getHeader().getMainThreadRootTimer(), timerNames);
+        assertThat(timerNames).doesNotContain("http client connect", "http client tls handshake",
+                "http client first byte");
+    }
+
+    @Test
+    public void shouldCaptureNewConnection() throws Exception {
+        // given
+        container.getConfigService().setPluginProperty(PLUGIN_ID, "captureNewConnections", true);
+
+        // when
+        Trace trace = container.execute(ExecuteHttpGet.class);
+
+        // then
+        Iterator<Trace.Entry> i = trace.getEntryList().iterator();
+
+        Trace.Entry entry = i.next();
+        assertThat(entry.getDepth()).isEqualTo(0);
+        assertThat(entry.getMessage())
+                .matches("http client request: GET http://localhost:\\d+/hello1/");
+
+        entry = i.next();
+        assertThat(entry.getDepth()).isEqualTo(1);
+        assertThat(entry.getMessage()).matches("http client connect: localhost:\\d+");
+
+        assertThat(i.hasNext()).isFalse();
+    }
+
+    private static void collectTimerNames(Trace.Timer timer, List<String> timerNames) {
+        timerNames.add(timer.getName());
+        for (Trace.Timer childTimer : timer.getChildTimerList()) {
+            collectTimerNames(childTimer, timerNames);
+        }
+    }
+
     private void shouldCaptureHttpGet(Class<? extends AppUnderTest> appUnderTestClass,
             String protocol) throws Exception {
         // when
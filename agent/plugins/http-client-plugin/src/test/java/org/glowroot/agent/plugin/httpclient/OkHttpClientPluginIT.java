@@ -17,9 +17,11 @@ package org.glowroot.agent.plugin.httpclient;
 
 import java.io.IOException;
 import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import com.google.common.collect.Lists;
 import com.squareup.okhttp.Callback;
 import com.squareup.okhttp.MediaType;
 import com.squareup.okhttp.OkHttpClient;
@@ -40,6 +42,8 @@ import static org.assertj.core.api.Assertions.assertThat;
 
 public class OkHttpClientPluginIT {
 
+    private static final String PLUGIN_ID = "http-client";
+
     private static Container container;
 
     @BeforeClass
@@ -140,6 +144,56 @@ public class OkHttpClientPluginIT {
         assertThat(i.hasNext()).isFalse();
     }
 
+    @Test
+    public void shouldCapturePhaseTimers() throws Exception {
+        // when
+        Trace trace = container.execute(ExecuteHttpGetReadingBody.class);
+
+        // then
+        List<String> timerNames = Lists.newArrayList();
+        collectTimerNames(trace.getHeader().getMainThreadRootTimer(), timerNames);
+        assertThat(timerNames).contains("http client dns lookup", "http client connect",
+                "http client first byte");
+        assertThat(timerNames).doesNotContain("http client response body");
+    }
+
+    @Test
+    public void shouldNotCapturePhaseTimers() throws Exception {
+        // given
+        container.getConfigService().setPluginProperty(PLUGIN_ID, "capturePhaseTimings", false);
+
+        // when
+        Trace trace = container.execute(ExecuteHttpGetReadingBody.class);
+
+        // then
+        List<String> timerNames = Lists.newArrayList();
+        collectTimerNames(trace.getHeader().getMainThreadRootTimer(), timerNames);
+        assertThat(timerNames).doesNotContain("http client dns lookup", "http client connect",
+                "http client first byte", "http client response body");
+    }
+
+    @Test
+    public void shouldCaptureResponseBodyTimer() throws Exception {
+        // given
+        container.getConfigService().setPluginProperty(PLUGIN_ID, "captureResponseBodyTimings",
+                true);
+
+        // when
+        Trace trace = container.execute(ExecuteHttpGetReadingBody.class);
+
+        // then
+        List<String> timerNames = Lists.newArrayList();
+        collectTimerNames(trace.getHeader().getMainThreadRootTimer(), timerNames);
+        assertThat(timerNames).contains("http client response body");
+    }
+
+    private static void collectTimerNames(Trace.Timer timer, List<String> timerNames) {
+        timerNames.add(timer.getName());
+        for (Trace.Timer childTimer : timer.getChildTimerList()) {
+            collectTimerNames(childTimer, timerNames);
+        }
+    }
+
     public static class ExecuteHttpGet extends ExecuteHttpBase {
         @Override
         public void transactionMarker() throws Exception {
@@ -156,6 +210,22 @@ public class OkHttpClientPluginIT {
         }
     }
 
+    public static class ExecuteHttpGetReadingBody extends ExecuteHttpBase {
+        @Override
+        public void transactionMarker() throws Exception {
+            OkHttpClient client = new OkHttpClient();
+            Request request = new Request.Builder()
+                    .url("http://localhost:" + getPort() + "/hello1/")
+                    .build();
+            Response response = client.newCall(request).execute();
+            if (response.code() != 200) {
+                throw new IllegalStateException(
+                        "Unexpected response status code: " + response.code());
+            }
+            response.body().bytes();
+        }
+    }
+
     public static class ExecuteHttpPost extends ExecuteHttpBase {
         @Override
         public void transactionMarker() throws Exception {
@@ -17,76 +17,58 @@ package org.glowroot.agent.plugin.javahttpserver;
 
 import java.net.InetSocketAddress;
 import java.util.List;
-import java.util.Locale;
-import java.util.Map;
 import java.util.Set;
-import java.util.regex.Pattern;
 
 import javax.annotation.Nullable;
 
 import com.google.common.base.Strings;
-import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 
+import org.glowroot.agent.plugin.api.util.NameValueSnapshot;
 import org.glowroot.agent.plugin.javahttpserver.HttpHandlerAspect.Headers;
 import org.glowroot.agent.plugin.javahttpserver.HttpHandlerAspect.HttpExchange;
 
+// header names are not matched against the capture/mask patterns here, that is deferred to
+// HttpHandlerMessageSupplier.get(), which is only called if the trace is stored or viewed
 class DetailCapture {
 
+    private static final NameValueSnapshot EMPTY_SNAPSHOT = new NameValueSnapshot(0);
+
     private DetailCapture() {}
 
-    static ImmutableMap<String, Object> captureRequestHeaders(HttpExchange exchange) {
-        ImmutableList<Pattern> capturePatterns =
-                JavaHttpServerPluginProperties.captureRequestHeaders();
-        if (capturePatterns.isEmpty()) {
-            return ImmutableMap.of();
+    static NameValueSnapshot captureRequestHeaders(HttpExchange exchange) {
+        if (JavaHttpServerPluginProperties.captureRequestHeaders().isEmpty()) {
+            return EMPTY_SNAPSHOT;
         }
-        return captureHeaders(capturePatterns, exchange.glowroot$getRequestHeaders(),
-                JavaHttpServerPluginProperties.maskRequestHeaders());
+        return captureHeaders(exchange.glowroot$getRequestHeaders());
     }
 
-    static ImmutableMap<String, Object> captureResponseHeaders(HttpExchange exchange) {
-        ImmutableList<Pattern> capturePatterns =
-                JavaHttpServerPluginProperties.captureResponseHeaders();
-        if (capturePatterns.isEmpty()) {
-            return ImmutableMap.of();
+    static NameValueSnapshot captureResponseHeaders(HttpExchange exchange) {
+        if (JavaHttpServerPluginProperties.captureResponseHeaders().isEmpty()) {
+            return EMPTY_SNAPSHOT;
         }
-        return captureHeaders(capturePatterns, exchange.glowroot$getResponseHeaders(),
-                ImmutableList.<Pattern>of());
+        return captureHeaders(exchange.glowroot$getResponseHeaders());
     }
 
-    private static ImmutableMap<String, Object> captureHeaders(
-            ImmutableList<Pattern> capturePatterns, @Nullable Headers headers,
-            ImmutableList<Pattern> maskPatterns) {
+    private static NameValueSnapshot captureHeaders(@Nullable Headers headers) {
         if (headers == null) {
-            return ImmutableMap.of();
+            return EMPTY_SNAPSHOT;
         }
         Set<String> headerNames = headers.keySet();
         if (headerNames == null) {
-            return ImmutableMap.of();
+            return EMPTY_SNAPSHOT;
         }
-        Map<String, Object> headersMap = Maps.newHashMap();
+        NameValueSnapshot snapshot = new NameValueSnapshot(headerNames.size());
         for (String name : headerNames) {
             if (name == null) {
                 continue;
             }
-            // converted to lower case for case-insensitive matching (patterns are lower case)
-            String keyLowerCase = name.toLowerCase(Locale.ENGLISH);
-            if (!matchesOneOf(keyLowerCase, capturePatterns)) {
-                continue;
-            }
-            if (matchesOneOf(keyLowerCase, maskPatterns)) {
-                headersMap.put(name, "****");
-                continue;
-            }
             List<String> values = headers.get(name);
             if (values != null) {
-                captureHeader(name, values, headersMap);
+                captureHeader(name, values, snapshot);
             }
         }
-        return ImmutableMap.copyOf(headersMap);
+        return snapshot;
     }
 
     static @Nullable String captureRequestRemoteAddr(HttpExchange exchange) {
@@ -121,25 +103,16 @@ class DetailCapture {
         }
     }
 
-    private static boolean matchesOneOf(String key, List<Pattern> patterns) {
-        for (Pattern pattern : patterns) {
-            if (pattern.matcher(key).matches()) {
-                return true;
-            }
-        }
-        return false;
-    }
-
     private static void captureHeader(String name, List<String> values,
-            Map<String, Object> header) {
+            NameValueSnapshot snapshot) {
         if (values.isEmpty()) {
-            header.put(name, "");
+            snapshot.put(name, "");
         } else {
-            List<String> list = Lists.newArrayList();
+            List<String> list = Lists.newArrayListWithCapacity(values.size());
             for (String value : values) {
                 list.add(Strings.nullToEmpty(value));
             }
-            header.put(name, ImmutableList.copyOf(list));
+            snapshot.put(name, list);
         }
     }
 }
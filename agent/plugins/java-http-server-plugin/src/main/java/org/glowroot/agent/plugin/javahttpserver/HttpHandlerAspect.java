@@ -24,7 +24,6 @@ import java.util.Map;
 import javax.annotation.Nullable;
 
 import com.google.common.base.Strings;
-import com.google.common.collect.ImmutableMap;
 
 import org.glowroot.agent.plugin.api.Agent;
 import org.glowroot.agent.plugin.api.OptionalThreadContext;
@@ -33,6 +32,7 @@ import org.glowroot.agent.plugin.api.ThreadContext.Priority;
 import org.glowroot.agent.plugin.api.TimerName;
 import org.glowroot.agent.plugin.api.TraceEntry;
 import org.glowroot.agent.plugin.api.util.FastThreadLocal;
+import org.glowroot.agent.plugin.api.util.NameValueSnapshot;
 import org.glowroot.agent.plugin.api.weaving.BindParameter;
 import org.glowroot.agent.plugin.api.weaving.BindReturn;
 import org.glowroot.agent.plugin.api.weaving.BindThrowable;
@@ -138,8 +138,7 @@ public class HttpHandlerAspect {
             String requestUri = getRequestURI(exchange.getRequestURI());
             String requestQueryString = getRequestQueryString(exchange.getRequestURI());
             String requestMethod = Strings.nullToEmpty(exchange.getRequestMethod());
-            ImmutableMap<String, Object> requestHeaders =
-                    DetailCapture.captureRequestHeaders(exchange);
+            NameValueSnapshot requestHeaders = DetailCapture.captureRequestHeaders(exchange);
             String requestRemoteAddr = DetailCapture.captureRequestRemoteAddr(exchange);
             String requestRemoteHost = DetailCapture.captureRequestRemoteHost(exchange);
             HttpHandlerMessageSupplier messageSupplier =
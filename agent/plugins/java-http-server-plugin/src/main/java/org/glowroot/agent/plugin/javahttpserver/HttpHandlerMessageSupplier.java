@@ -19,11 +19,12 @@ import java.util.Map;
 
 import javax.annotation.Nullable;
 
-import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
 
 import org.glowroot.agent.plugin.api.Message;
 import org.glowroot.agent.plugin.api.MessageSupplier;
+import org.glowroot.agent.plugin.api.util.NameMatcher;
+import org.glowroot.agent.plugin.api.util.NameValueSnapshot;
 
 class HttpHandlerMessageSupplier extends MessageSupplier {
 
@@ -31,14 +32,15 @@ class HttpHandlerMessageSupplier extends MessageSupplier {
     private final String requestUri;
     private final @Nullable String requestQueryString;
 
-    private final ImmutableMap<String, Object> requestHeaders;
-    private @Nullable ImmutableMap<String, Object> responseHeaders;
+    // raw snapshots, captured against the configured patterns lazily in get()
+    private final NameValueSnapshot requestHeaders;
+    private @Nullable NameValueSnapshot responseHeaders;
 
     private final @Nullable String requestRemoteAddr;
     private final @Nullable String requestRemoteHost;
 
     HttpHandlerMessageSupplier(String requestMethod, String requestUri,
-            @Nullable String requestQueryString, ImmutableMap<String, Object> requestHeaders,
+            @Nullable String requestQueryString, NameValueSnapshot requestHeaders,
             @Nullable String requestRemoteAddr, @Nullable String requestRemoteHost) {
         this.requestMethod = requestMethod;
         this.requestUri = requestUri;
@@ -56,8 +58,11 @@ class HttpHandlerMessageSupplier extends MessageSupplier {
             // including empty query string since that means request ended with ?
             detail.put("Request query string", requestQueryString);
         }
-        if (!requestHeaders.isEmpty()) {
-            detail.put("Request headers", requestHeaders);
+        Map<String, Object> capturedRequestHeaders = requestHeaders.toDetailMap(
+                JavaHttpServerPluginProperties.captureRequestHeaders(),
+                JavaHttpServerPluginProperties.maskRequestHeaders());
+        if (!capturedRequestHeaders.isEmpty()) {
+            detail.put("Request headers", capturedRequestHeaders);
         }
         if (requestRemoteAddr != null) {
             detail.put("Request remote address", requestRemoteAddr);
@@ -65,13 +70,17 @@ class HttpHandlerMessageSupplier extends MessageSupplier {
         if (requestRemoteHost != null) {
             detail.put("Request remote host", requestRemoteHost);
         }
-        if (responseHeaders != null && !responseHeaders.isEmpty()) {
-            detail.put("Response headers", responseHeaders);
+        if (responseHeaders != null) {
+            Map<String, Object> capturedResponseHeaders = responseHeaders.toDetailMap(
+                    JavaHttpServerPluginProperties.captureResponseHeaders(), NameMatcher.none());
+            if (!capturedResponseHeaders.isEmpty()) {
+                detail.put("Response headers", capturedResponseHeaders);
+            }
         }
         return Message.create(requestUri, detail);
     }
 
-    void setResponseHeaders(ImmutableMap<String, Object> responseHeaders) {
+    void setResponseHeaders(NameValueSnapshot responseHeaders) {
         this.responseHeaders = responseHeaders;
     }
 }
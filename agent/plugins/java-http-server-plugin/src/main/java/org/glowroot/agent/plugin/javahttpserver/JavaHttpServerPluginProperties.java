@@ -15,17 +15,12 @@
  */
 package org.glowroot.agent.plugin.javahttpserver;
 
-import java.util.List;
-import java.util.Locale;
-import java.util.regex.Pattern;
-
 import com.google.common.base.Splitter;
-import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Lists;
 
 import org.glowroot.agent.plugin.api.Agent;
 import org.glowroot.agent.plugin.api.config.ConfigListener;
 import org.glowroot.agent.plugin.api.config.ConfigService;
+import org.glowroot.agent.plugin.api.util.NameMatcher;
 
 class JavaHttpServerPluginProperties {
 
@@ -42,13 +37,13 @@ class JavaHttpServerPluginProperties {
 
     private static final Splitter splitter = Splitter.on(',').trimResults().omitEmptyStrings();
 
-    private static ImmutableList<Pattern> captureRequestHeaders = ImmutableList.of();
-    private static ImmutableList<Pattern> maskRequestHeaders = ImmutableList.of();
+    private static NameMatcher captureRequestHeaders = NameMatcher.none();
+    private static NameMatcher maskRequestHeaders = NameMatcher.none();
 
     private static boolean captureRequestRemoteAddr;
     private static boolean captureRequestRemoteHost;
 
-    private static ImmutableList<Pattern> captureResponseHeaders = ImmutableList.of();
+    private static NameMatcher captureResponseHeaders = NameMatcher.none();
 
     private static boolean traceErrorOn4xxResponseCode;
 
@@ -58,11 +53,11 @@ class JavaHttpServerPluginProperties {
 
     private JavaHttpServerPluginProperties() {}
 
-    static ImmutableList<Pattern> captureRequestHeaders() {
+    static NameMatcher captureRequestHeaders() {
         return captureRequestHeaders;
     }
 
-    static ImmutableList<Pattern> maskRequestHeaders() {
+    static NameMatcher maskRequestHeaders() {
         return maskRequestHeaders;
     }
 
@@ -74,7 +69,7 @@ class JavaHttpServerPluginProperties {
         return captureRequestRemoteHost;
     }
 
-    static ImmutableList<Pattern> captureResponseHeaders() {
+    static NameMatcher captureResponseHeaders() {
         return captureResponseHeaders;
     }
 
@@ -90,34 +85,20 @@ class JavaHttpServerPluginProperties {
         }
 
         private static void recalculateProperties() {
-            captureRequestHeaders = buildPatternList(CAPTURE_REQUEST_HEADER_PROPERTY_NAME);
-            maskRequestHeaders = buildPatternList(MASK_REQUEST_HEADER_PROPERTY_NAME);
+            captureRequestHeaders = buildNameMatcher(CAPTURE_REQUEST_HEADER_PROPERTY_NAME);
+            maskRequestHeaders = buildNameMatcher(MASK_REQUEST_HEADER_PROPERTY_NAME);
             captureRequestRemoteAddr = configService
                     .getBooleanProperty(CAPTURE_REQUEST_REMOTE_ADDR_PROPERTY_NAME).value();
             captureRequestRemoteHost = configService
                     .getBooleanProperty(CAPTURE_REQUEST_REMOTE_HOST_PROPERTY_NAME).value();
-            captureResponseHeaders = buildPatternList(CAPTURE_RESPONSE_HEADER_PROPERTY_NAME);
+            captureResponseHeaders = buildNameMatcher(CAPTURE_RESPONSE_HEADER_PROPERTY_NAME);
             traceErrorOn4xxResponseCode =
                     configService.getBooleanProperty(TRACE_ERROR_ON_4XX_RESPONSE_CODE).value();
         }
 
-        private static ImmutableList<Pattern> buildPatternList(String propertyName) {
-            String captureRequestParametersText =
-                    configService.getStringProperty(propertyName).value();
-            List<Pattern> captureParameters = Lists.newArrayList();
-            for (String parameter : splitter.split(captureRequestParametersText)) {
-                // converted to lower case for case-insensitive matching
-                captureParameters.add(buildRegexPattern(parameter.toLowerCase(Locale.ENGLISH)));
-            }
-            return ImmutableList.copyOf(captureParameters);
-        }
-
-        private static Pattern buildRegexPattern(String wildcardPattern) {
-            // convert * into .* and quote the rest of the text using \Q...\E
-            String regex = "\\Q" + wildcardPattern.replace("*", "\\E.*\\Q") + "\\E";
-            // strip off unnecessary \\Q\\E in case * appeared at beginning or end of part
-            regex = regex.replace("\\Q\\E", "");
-            return Pattern.compile(regex);
+        private static NameMatcher buildNameMatcher(String propertyName) {
+            String wildcardPatternsText = configService.getStringProperty(propertyName).value();
+            return NameMatcher.of(splitter.split(wildcardPatternsText));
         }
     }
 }
@@ -0,0 +1,483 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.jdbc;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import org.glowroot.agent.plugin.api.Agent;
+import org.glowroot.agent.plugin.api.Logger;
+import org.glowroot.agent.plugin.api.ThreadContext;
+import org.glowroot.agent.plugin.api.Timer;
+import org.glowroot.agent.plugin.api.TimerName;
+import org.glowroot.agent.plugin.api.config.BooleanProperty;
+import org.glowroot.agent.plugin.api.config.ConfigService;
+import org.glowroot.agent.plugin.api.util.FastThreadLocal;
+import org.glowroot.agent.plugin.api.weaving.BindParameter;
+import org.glowroot.agent.plugin.api.weaving.BindReceiver;
+import org.glowroot.agent.plugin.api.weaving.BindTraveler;
+import org.glowroot.agent.plugin.api.weaving.IsEnabled;
+import org.glowroot.agent.plugin.api.weaving.OnAfter;
+import org.glowroot.agent.plugin.api.weaving.OnBefore;
+import org.glowroot.agent.plugin.api.weaving.OnReturn;
+import org.glowroot.agent.plugin.api.weaving.Pointcut;
+import org.glowroot.agent.plugin.api.weaving.Shim;
+import org.glowroot.agent.plugin.jdbc.ConnectionPoolGauges.PoolGauge;
+
+// captures the time spent blocked waiting on exhausted HikariCP, Tomcat JDBC, DBCP2 and C3P0
+// connection pools (as a separate timer nested under "jdbc get connection"), and registers gauge
+// mbeans for these pools
+//
+// pool stats are read through shims (no reflection), and only by the gauge collector
+public class ConnectionPoolAspect {
+
+    private static final Logger logger = Agent.getLogger(ConnectionPoolAspect.class);
+
+    private static final ConfigService configService = Agent.getConfigService("jdbc");
+
+    private static final BooleanProperty captureConnectionPoolWait =
+            configService.getBooleanProperty("captureConnectionPoolWait");
+
+    private static final FastThreadLocal</*@Nullable*/ Boolean> inDbcp2GetConnection =
+            new FastThreadLocal</*@Nullable*/ Boolean>();
+
+    // ===================== Shims =====================
+
+    @Shim("com.zaxxer.hikari.pool.HikariPool")
+    public interface HikariPool {
+        int getActiveConnections();
+        int getIdleConnections();
+        int getThreadsAwaitingConnection();
+    }
+
+    @Shim("org.apache.tomcat.jdbc.pool.ConnectionPool")
+    public interface TomcatConnectionPool {
+        @Nullable
+        String getName();
+        int getActive();
+        int getIdle();
+        int getWaitCount();
+    }
+
+    @Shim("org.apache.commons.dbcp2.PoolingDataSource")
+    public interface Dbcp2PoolingDataSource {
+        @Shim("org.apache.commons.pool2.ObjectPool getPool()")
+        @Nullable
+        Object glowroot$getPool();
+    }
+
+    @Shim("org.apache.commons.pool2.impl.GenericObjectPool")
+    public interface GenericObjectPool {
+        int getNumActive();
+        int getNumIdle();
+        int getNumWaiters();
+    }
+
+    // the c3p0 pool manager is created lazily by the data source on first use, and the per-user
+    // pools are created lazily by the pool manager, so these are only read for pools that already
+    // exist (the getters on the data source itself would create the pool)
+    @Shim("com.mchange.v2.c3p0.impl.C3P0PooledConnectionPoolManager")
+    public interface C3p0PoolManager {
+        int getNumBusyConnectionsAllAuths() throws SQLException;
+        int getNumIdleConnectionsAllAuths() throws SQLException;
+        Set<?> getManagedAuths();
+        // passing create=false returns an existing pool (or throws SQLException)
+        @Shim("com.mchange.v2.c3p0.impl.C3P0PooledConnectionPool"
+                + " getPool(java.lang.String, java.lang.String, boolean)")
+        @Nullable
+        Object glowroot$getPool(@Nullable String user, @Nullable String password, boolean create)
+                throws SQLException;
+    }
+
+    @Shim("com.mchange.v2.c3p0.impl.DbAuth")
+    public interface C3p0DbAuth {
+        @Nullable
+        String getUser();
+        @Nullable
+        String getPassword();
+    }
+
+    @Shim("com.mchange.v2.c3p0.impl.C3P0PooledConnectionPool")
+    public interface C3p0Pool {
+        int getNumThreadsAwaitingCheckout() throws SQLException;
+    }
+
+    // ===================== Pool Wait =====================
+
+    // the pool wait timer only captures the time that the thread is blocked waiting for another
+    // thread to return a connection to the pool (or for the pool's background thread to create
+    // one), and not the time creating or validating physical connections in the calling thread
+    //
+    // nesting group is different from "jdbc" since this is always nested under
+    // DataSource.getConnection()
+
+    // hikari creates connections in a background thread, so borrow() only waits
+    @Pointcut(className = "com.zaxxer.hikari.util.ConcurrentBag", methodName = "borrow",
+            methodParameterTypes = {"long", "java.util.concurrent.TimeUnit"},
+            nestingGroup = "jdbc-pool-wait", timerName = "jdbc pool wait")
+    public static class HikariPoolWaitAdvice {
+        private static final TimerName timerName = Agent.getTimerName(HikariPoolWaitAdvice.class);
+        @IsEnabled
+        public static boolean isEnabled() {
+            return captureConnectionPoolWait.value();
+        }
+        @OnBefore
+        public static Timer onBefore(ThreadContext context) {
+            return context.startTimer(timerName);
+        }
+        @OnAfter
+        public static void onAfter(@BindTraveler Timer timer) {
+            timer.stop();
+        }
+    }
+
+    // ConnectionPool.borrowConnection() only calls the timed poll once the pool is exhausted (after
+    // the non-blocking poll and after trying to create a new connection)
+    //
+    // the wait is not captured when the pool is configured with fairQueue=false, since then the
+    // idle queue is a plain java.util.concurrent.ArrayBlockingQueue
+    @Pointcut(className = "org.apache.tomcat.jdbc.pool.FairBlockingQueue"
+            + "|org.apache.tomcat.jdbc.pool.MultiLockFairBlockingQueue",
+            methodName = "poll", methodParameterTypes = {"long", "java.util.concurrent.TimeUnit"},
+            nestingGroup = "jdbc-pool-wait", timerName = "jdbc pool wait")
+    public static class TomcatPoolWaitAdvice {
+        private static final TimerName timerName = Agent.getTimerName(TomcatPoolWaitAdvice.class);
+        @IsEnabled
+        public static boolean isEnabled() {
+            return captureConnectionPoolWait.value();
+        }
+        @OnBefore
+        public static Timer onBefore(ThreadContext context) {
+            return context.startTimer(timerName);
+        }
+        @OnAfter
+        public static void onAfter(@BindTraveler Timer timer) {
+            timer.stop();
+        }
+    }
+
+    // commons-pool2 is also used for non-jdbc pools (e.g. jedis), so the pool2 wait below is only
+    // captured while inside dbcp2's PoolingDataSource.getConnection()
+    @Pointcut(className = "org.apache.commons.dbcp2.PoolingDataSource",
+            methodName = "getConnection", methodParameterTypes = {},
+            nestingGroup = "jdbc-dbcp2-get-connection")
+    public static class Dbcp2GetConnectionAdvice {
+        @IsEnabled
+        public static boolean isEnabled() {
+            return captureConnectionPoolWait.value();
+        }
+        @OnBefore
+        public static FastThreadLocal.Holder</*@Nullable*/ Boolean> onBefore() {
+            FastThreadLocal.Holder</*@Nullable*/ Boolean> holder = inDbcp2GetConnection.getHolder();
+            holder.set(true);
+            return holder;
+        }
+        @OnAfter
+        public static void onAfter(
+                @BindTraveler FastThreadLocal.Holder</*@Nullable*/ Boolean> holder) {
+            holder.set(null);
+        }
+    }
+
+    // GenericObjectPool.borrowObject() only calls takeFirst() or the timed pollFirst() once the
+    // pool is exhausted (after the non-blocking pollFirst() and after trying to create a new
+    // connection)
+    @Pointcut(className = "org.apache.commons.pool2.impl.LinkedBlockingDeque",
+            methodName = "takeFirst", methodParameterTypes = {},
+            nestingGroup = "jdbc-pool-wait", timerName = "jdbc pool wait")
+    public static class Dbcp2PoolWaitAdvice {
+        private static final TimerName timerName = Agent.getTimerName(Dbcp2PoolWaitAdvice.class);
+        @IsEnabled
+        public static boolean isEnabled() {
+            return captureConnectionPoolWait.value() && inDbcp2GetConnection.get() != null;
+        }
+        @OnBefore
+        public static Timer onBefore(ThreadContext context) {
+            return context.startTimer(timerName);
+        }
+        @OnAfter
+        public static void onAfter(@BindTraveler Timer timer) {
+            timer.stop();
+        }
+    }
+
+    @Pointcut(className = "org.apache.commons.pool2.impl.LinkedBlockingDeque",
+            methodName = "pollFirst",
+            methodParameterTypes = {"long", "java.util.concurrent.TimeUnit"},
+            nestingGroup = "jdbc-pool-wait", timerName = "jdbc pool wait")
+    public static class Dbcp2PoolTimedWaitAdvice {
+        private static final TimerName timerName =
+                Agent.getTimerName(Dbcp2PoolTimedWaitAdvice.class);
+        @IsEnabled
+        public static boolean isEnabled() {
+            return captureConnectionPoolWait.value() && inDbcp2GetConnection.get() != null;
+        }
+        @OnBefore
+        public static Timer onBefore(ThreadContext context) {
+            return context.startTimer(timerName);
+        }
+        @OnAfter
+        public static void onAfter(@BindTraveler Timer timer) {
+            timer.stop();
+        }
+    }
+
+    // c3p0 acquires connections in its helper threads, and BasicResourcePool.checkoutResource()
+    // only calls awaitAvailable() when there are no unused connections
+    @Pointcut(className = "com.mchange.v2.resourcepool.BasicResourcePool",
+            methodName = "awaitAvailable", methodParameterTypes = {"long"},
+            nestingGroup = "jdbc-pool-wait", timerName = "jdbc pool wait")
+    public static class C3p0PoolWaitAdvice {
+        private static final TimerName timerName = Agent.getTimerName(C3p0PoolWaitAdvice.class);
+        @IsEnabled
+        public static boolean isEnabled() {
+            return captureConnectionPoolWait.value();
+        }
+        @OnBefore
+        public static Timer onBefore(ThreadContext context) {
+            return context.startTimer(timerName);
+        }
+        @OnAfter
+        public static void onAfter(@BindTraveler Timer timer) {
+            timer.stop();
+        }
+    }
+
+    // ===================== Pool Gauges =====================
+
+    @Pointcut(className = "com.zaxxer.hikari.pool.HikariPool", methodName = "<init>",
+            methodParameterTypes = {".."})
+    public static class HikariPoolInitAdvice {
+        @OnReturn
+        public static void onReturn(@BindReceiver HikariPool pool) {
+            ConnectionPoolGauges.register(new HikariPoolGauge(pool));
+        }
+    }
+
+    @Pointcut(className = "com.zaxxer.hikari.pool.HikariPool", methodName = "shutdown",
+            methodParameterTypes = {})
+    public static class HikariPoolShutdownAdvice {
+        @OnBefore
+        public static void onBefore(@BindReceiver HikariPool pool) {
+            ConnectionPoolGauges.unregister(pool);
+        }
+    }
+
+    @Pointcut(className = "org.apache.tomcat.jdbc.pool.ConnectionPool", methodName = "<init>",
+            methodParameterTypes = {".."})
+    public static class TomcatPoolInitAdvice {
+        @OnReturn
+        public static void onReturn(@BindReceiver TomcatConnectionPool pool) {
+            ConnectionPoolGauges.register(new TomcatPoolGauge(pool));
+        }
+    }
+
+    @Pointcut(className = "org.apache.tomcat.jdbc.pool.ConnectionPool", methodName = "close",
+            methodParameterTypes = {"boolean"})
+    public static class TomcatPoolCloseAdvice {
+        @OnBefore
+        public static void onBefore(@BindReceiver TomcatConnectionPool pool) {
+            ConnectionPoolGauges.unregister(pool);
+        }
+    }
+
+    @Pointcut(className = "org.apache.commons.dbcp2.PoolingDataSource", methodName = "<init>",
+            methodParameterTypes = {".."})
+    public static class Dbcp2PoolInitAdvice {
+        @OnReturn
+        public static void onReturn(@BindReceiver Dbcp2PoolingDataSource dataSource) {
+            if (dataSource.glowroot$getPool() instanceof GenericObjectPool) {
+                ConnectionPoolGauges.register(new Dbcp2PoolGauge(dataSource));
+            }
+        }
+    }
+
+    @Pointcut(className = "org.apache.commons.dbcp2.PoolingDataSource", methodName = "close",
+            methodParameterTypes = {})
+    public static class Dbcp2PoolCloseAdvice {
+        @OnBefore
+        public static void onBefore(@BindReceiver Dbcp2PoolingDataSource dataSource) {
+            ConnectionPoolGauges.unregister(dataSource);
+        }
+    }
+
+    @Pointcut(className = "com.mchange.v2.c3p0.impl.C3P0PooledConnectionPoolManager",
+            methodName = "<init>",
+            methodParameterTypes = {"javax.sql.ConnectionPoolDataSource", "java.util.Map",
+                    "java.util.Map", "int", "java.lang.String", "java.lang.String"})
+    public static class C3p0PoolManagerInitAdvice {
+        @OnReturn
+        public static void onReturn(@BindReceiver C3p0PoolManager poolManager,
+                @SuppressWarnings("unused") @BindParameter Object connectionPoolDataSource,
+                @SuppressWarnings("unused") @BindParameter Object flatPropertyOverrides,
+                @SuppressWarnings("unused") @BindParameter Object userOverrides,
+                @SuppressWarnings("unused") @BindParameter int numTaskThreads,
+                @SuppressWarnings("unused") @BindParameter @Nullable String identityToken,
+                @BindParameter @Nullable String dataSourceName) {
+            ConnectionPoolGauges.register(new C3p0PoolGauge(poolManager, dataSourceName));
+        }
+    }
+
+    // the data source closes its pool manager both when the data source is closed and when its
+    // configuration is changed (in which case a new pool manager is created on next use)
+    @Pointcut(className = "com.mchange.v2.c3p0.impl.C3P0PooledConnectionPoolManager",
+            methodName = "close", methodParameterTypes = {".."})
+    public static class C3p0PoolManagerCloseAdvice {
+        @OnBefore
+        public static void onBefore(@BindReceiver C3p0PoolManager poolManager) {
+            ConnectionPoolGauges.unregister(poolManager);
+        }
+    }
+
+    private static class HikariPoolGauge extends PoolGauge<HikariPool> {
+        private HikariPoolGauge(HikariPool pool) {
+            super("HikariCP", pool);
+        }
+        @Override
+        @Nullable
+        String getPoolName(HikariPool pool) {
+            // HikariPool.toString() returns the pool name
+            return pool.toString();
+        }
+        @Override
+        int getActiveConnections(HikariPool pool) {
+            return pool.getActiveConnections();
+        }
+        @Override
+        int getIdleConnections(HikariPool pool) {
+            return pool.getIdleConnections();
+        }
+        @Override
+        int getPendingThreads(HikariPool pool) {
+            return pool.getThreadsAwaitingConnection();
+        }
+    }
+
+    private static class TomcatPoolGauge extends PoolGauge<TomcatConnectionPool> {
+        private TomcatPoolGauge(TomcatConnectionPool pool) {
+            super("Tomcat JDBC", pool);
+        }
+        @Override
+        @Nullable
+        String getPoolName(TomcatConnectionPool pool) {
+            return pool.getName();
+        }
+        @Override
+        int getActiveConnections(TomcatConnectionPool pool) {
+            return pool.getActive();
+        }
+        @Override
+        int getIdleConnections(TomcatConnectionPool pool) {
+            return pool.getIdle();
+        }
+        @Override
+        int getPendingThreads(TomcatConnectionPool pool) {
+            return pool.getWaitCount();
+        }
+    }
+
+    private static class Dbcp2PoolGauge extends PoolGauge<Dbcp2PoolingDataSource> {
+        private Dbcp2PoolGauge(Dbcp2PoolingDataSource dataSource) {
+            super("DBCP2", dataSource);
+        }
+        @Override
+        @Nullable
+        String getPoolName(Dbcp2PoolingDataSource dataSource) {
+            // dbcp2 pools do not have a name
+            return null;
+        }
+        @Override
+        int getActiveConnections(Dbcp2PoolingDataSource dataSource) {
+            return getPool(dataSource).getNumActive();
+        }
+        @Override
+        int getIdleConnections(Dbcp2PoolingDataSource dataSource) {
+            return getPool(dataSource).getNumIdle();
+        }
+        @Override
+        int getPendingThreads(Dbcp2PoolingDataSource dataSource) {
+            return getPool(dataSource).getNumWaiters();
+        }
+        private static GenericObjectPool getPool(Dbcp2PoolingDataSource dataSource) {
+            // instanceof was checked prior to registering the gauge, and the pool cannot change
+            return (GenericObjectPool) dataSource.glowroot$getPool();
+        }
+    }
+
+    private static class C3p0PoolGauge extends PoolGauge<C3p0PoolManager> {
+        private final @Nullable String dataSourceName;
+        private C3p0PoolGauge(C3p0PoolManager poolManager, @Nullable String dataSourceName) {
+            super("C3P0", poolManager);
+            this.dataSourceName = dataSourceName;
+        }
+        @Override
+        @Nullable
+        String getPoolName(C3p0PoolManager poolManager) {
+            return dataSourceName;
+        }
+        @Override
+        int getActiveConnections(C3p0PoolManager poolManager) {
+            try {
+                return poolManager.getNumBusyConnectionsAllAuths();
+            } catch (SQLException e) {
+                // pool is being closed
+                logger.debug(e.getMessage(), e);
+                return 0;
+            }
+        }
+        @Override
+        int getIdleConnections(C3p0PoolManager poolManager) {
+            try {
+                return poolManager.getNumIdleConnectionsAllAuths();
+            } catch (SQLException e) {
+                // pool is being closed
+                logger.debug(e.getMessage(), e);
+                return 0;
+            }
+        }
+        @Override
+        int getPendingThreads(C3p0PoolManager poolManager) {
+            List<Object> auths;
+            // c3p0 pool manager methods synchronize on the pool manager, and getManagedAuths()
+            // returns a view of its internal map
+            synchronized (poolManager) {
+                auths = new ArrayList<Object>(poolManager.getManagedAuths());
+            }
+            int pendingThreads = 0;
+            for (Object auth : auths) {
+                if (!(auth instanceof C3p0DbAuth)) {
+                    continue;
+                }
+                C3p0DbAuth dbAuth = (C3p0DbAuth) auth;
+                try {
+                    Object pool = poolManager.glowroot$getPool(dbAuth.getUser(),
+                            dbAuth.getPassword(), false);
+                    if (pool instanceof C3p0Pool) {
+                        pendingThreads += ((C3p0Pool) pool).getNumThreadsAwaitingCheckout();
+                    }
+                } catch (SQLException e) {
+                    // pool is being closed
+                    logger.debug(e.getMessage(), e);
+                }
+            }
+            return pendingThreads;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.jdbc;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.collect.Lists;
+
+import org.glowroot.agent.plugin.api.Agent;
+
+// registers an mbean for each recognized connection pool so that its active/idle/pending counts are
+// captured by the default gauge org.glowroot:type=JdbcConnectionPool,name=*
+//
+// this is only called when connection pools are created and closed, never from getConnection()
+//
+// the mbeans are registered through the agent's lazy platform mbean server since pools are created
+// on application threads, possibly before the container has created the platform mbean server
+// (e.g. jboss-modules, glassfish)
+class ConnectionPoolGauges {
+
+    private static final String OBJECT_NAME_PREFIX = "org.glowroot:type=JdbcConnectionPool,name=";
+
+    // characters that are not valid in unquoted object name values, or that would confuse the gauge
+    // display which splits on ':' and ','
+    private static final CharMatcher INVALID_NAME_CHARS = CharMatcher.anyOf(",=:\"*?\n");
+
+    @GuardedBy("gauges")
+    private static final List<PoolGauge<?>> gauges = Lists.newArrayList();
+
+    private ConnectionPoolGauges() {}
+
+    static void register(PoolGauge<?> gauge) {
+        Object pool = gauge.poolRef.get();
+        if (pool == null) {
+            return;
+        }
+        synchronized (gauges) {
+            removeCollectedPools();
+            for (PoolGauge<?> registeredGauge : gauges) {
+                if (registeredGauge.poolRef.get() == pool) {
+                    // e.g. c3p0 constructors delegate to other constructors
+                    return;
+                }
+            }
+            String name = gauge.poolType;
+            String poolName = gauge.getPoolName();
+            if (poolName != null && !poolName.isEmpty()) {
+                name += " (" + poolName + ")";
+            }
+            String objectName = OBJECT_NAME_PREFIX + INVALID_NAME_CHARS.replaceFrom(name, '_');
+            if (isRegistered(objectName)) {
+                // multiple pools with the same name
+                objectName += " @" + Integer.toHexString(System.identityHashCode(pool));
+            }
+            gauge.objectName = objectName;
+            Agent.lazyRegisterMBean(gauge, objectName);
+            gauges.add(gauge);
+        }
+    }
+
+    static void unregister(Object pool) {
+        synchronized (gauges) {
+            Iterator<PoolGauge<?>> i = gauges.iterator();
+            while (i.hasNext()) {
+                PoolGauge<?> gauge = i.next();
+                Object registeredPool = gauge.poolRef.get();
+                if (registeredPool == pool || registeredPool == null) {
+                    unregister(gauge);
+                    i.remove();
+                }
+            }
+        }
+    }
+
+    @GuardedBy("gauges")
+    private static void removeCollectedPools() {
+        Iterator<PoolGauge<?>> i = gauges.iterator();
+        while (i.hasNext()) {
+            PoolGauge<?> gauge = i.next();
+            if (gauge.poolRef.get() == null) {
+                unregister(gauge);
+                i.remove();
+            }
+        }
+    }
+
+    @GuardedBy("gauges")
+    private static boolean isRegistered(String objectName) {
+        for (PoolGauge<?> gauge : gauges) {
+            if (objectName.equals(gauge.objectName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void unregister(PoolGauge<?> gauge) {
+        String objectName = gauge.objectName;
+        if (objectName != null) {
+            Agent.lazyUnregisterMBean(objectName);
+        }
+    }
+
+    // the pool is only weakly referenced so that the mbean does not prevent the pool from being
+    // collected if it is never closed (e.g. application redeploy)
+    abstract static class PoolGauge<T> implements ConnectionPoolMXBean {
+
+        private final String poolType;
+        private final WeakReference<T> poolRef;
+
+        // only accessed under synchronization on ConnectionPoolGauges.gauges
+        private @Nullable String objectName;
+
+        PoolGauge(String poolType, T pool) {
+            this.poolType = poolType;
+            poolRef = new WeakReference<T>(pool);
+        }
+
+        @Override
+        public int getActiveConnections() {
+            return getActiveConnections(getPool());
+        }
+
+        @Override
+        public int getIdleConnections() {
+            return getIdleConnections(getPool());
+        }
+
+        @Override
+        public int getPendingThreads() {
+            return getPendingThreads(getPool());
+        }
+
+        abstract @Nullable String getPoolName(T pool);
+
+        abstract int getActiveConnections(T pool);
+
+        abstract int getIdleConnections(T pool);
+
+        abstract int getPendingThreads(T pool);
+
+        private @Nullable String getPoolName() {
+            T pool = poolRef.get();
+            return pool == null ? null : getPoolName(pool);
+        }
+
+        private T getPool() {
+            T pool = poolRef.get();
+            if (pool == null) {
+                throw new IllegalStateException("Connection pool has been garbage collected");
+            }
+            return pool;
+        }
+    }
+}
@@ -29,6 +29,8 @@ public class JdbcPluginProperties {
 
     // visibility is provided by memoryBarrier in org.glowroot.config.ConfigService
     private static int stackTraceThresholdMillis;
+    // visibility is provided by memoryBarrier in org.glowroot.config.ConfigService
+    private static int batchBindParameterSampleSize;
 
     private static volatile ImmutableMultimap<String, Integer> displayBinaryParameterAsHex =
             ImmutableMultimap.of();
@@ -39,6 +41,8 @@ public class JdbcPluginProperties {
             public void onChange() {
                 Double value = configService.getDoubleProperty("stackTraceThresholdMillis").value();
                 stackTraceThresholdMillis = value == null ? Integer.MAX_VALUE : value.intValue();
+                value = configService.getDoubleProperty("batchBindParameterSampleSize").value();
+                batchBindParameterSampleSize = value == null ? 0 : value.intValue();
             }
         });
     }
@@ -60,6 +64,10 @@ public class JdbcPluginProperties {
         return stackTraceThresholdMillis;
     }
 
+    static int batchBindParameterSampleSize() {
+        return batchBindParameterSampleSize;
+    }
+
     static boolean displayBinaryParameterAsHex(String sql, int parameterIndex) {
         return displayBinaryParameterAsHex.containsEntry(sql, parameterIndex);
     }
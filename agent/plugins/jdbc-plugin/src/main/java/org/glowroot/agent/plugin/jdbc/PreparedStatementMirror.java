@@ -24,13 +24,12 @@ import com.google.common.collect.Queues;
 import com.google.common.hash.HashCode;
 
 import org.glowroot.agent.plugin.jdbc.message.BindParameterList;
+import org.glowroot.agent.plugin.jdbc.message.BindParameterTypeHistogram;
 
 // used to capture and mirror the state of prepared statements since the underlying
 // PreparedStatement values cannot be inspected after they have been set
 class PreparedStatementMirror extends StatementMirror {
 
-    private static final int CAPTURED_BATCH_SIZE_LIMIT = 1000;
-
     private static final int PARAMETERS_INITIAL_CAPACITY = 4;
 
     private final String sql;
@@ -41,6 +40,9 @@ class PreparedStatementMirror extends StatementMirror {
     // ok for this field to be non-volatile since it is only temporary storage for a single thread
     // while that thread is setting parameter values into the prepared statement and executing it
     private @Nullable Collection<BindParameterList> batchedParameters;
+    // ok for this field to be non-volatile since it is only temporary storage for a single thread
+    // while that thread is setting parameter values into the prepared statement and executing it
+    private @Nullable BindParameterTypeHistogram unsampledParameterTypes;
     private int batchSize;
 
     PreparedStatementMirror(String sql) {
@@ -49,14 +51,26 @@ class PreparedStatementMirror extends StatementMirror {
         parameters = new BindParameterList(PARAMETERS_INITIAL_CAPACITY);
     }
 
-    void addBatch() {
+    void addBatch(boolean captureBindParameters) {
+        if (!captureBindParameters) {
+            // only the batch size is displayed in this case
+            batchSize++;
+            return;
+        }
         // synchronization isn't an issue here as this method is called only by the monitored thread
         if (batchedParameters == null) {
             batchedParameters = Queues.newConcurrentLinkedQueue();
         }
-        if (batchSize++ < CAPTURED_BATCH_SIZE_LIMIT) {
+        if (batchSize++ < JdbcPluginProperties.batchBindParameterSampleSize()) {
             batchedParameters.add(parameters);
             parametersShared = true;
+        } else {
+            // bind parameters beyond the sample are not shared, so the next row just overwrites
+            // them (instead of copying), and only their types are retained
+            if (unsampledParameterTypes == null) {
+                unsampledParameterTypes = new BindParameterTypeHistogram();
+            }
+            unsampledParameterTypes.add(parameters);
         }
     }
 
@@ -68,6 +82,11 @@ class PreparedStatementMirror extends StatementMirror {
         }
     }
 
+    @Nullable
+    BindParameterTypeHistogram getUnsampledParameterTypes() {
+        return unsampledParameterTypes;
+    }
+
     @Nullable
     BindParameterList getParameters() {
         parametersShared = true;
@@ -114,6 +133,7 @@ class PreparedStatementMirror extends StatementMirror {
             parameters.clear();
         }
         batchedParameters = null;
+        unsampledParameterTypes = null;
         batchSize = 0;
     }
 
@@ -41,6 +41,9 @@ public class ResultSetAspect {
     private static final Logger logger = Agent.getLogger(ResultSetAspect.class);
     private static final ConfigService configService = Agent.getConfigService("jdbc");
 
+    private static final BooleanProperty rowCountOnly =
+            configService.getBooleanProperty("resultSetNavigateRowCountOnly");
+
     @Pointcut(className = "java.sql.ResultSet", methodName = "next", methodParameterTypes = {},
             nestingGroup = "jdbc")
     public static class NextAdvice {
@@ -48,7 +51,7 @@ public class ResultSetAspect {
                 configService.getBooleanProperty("captureResultSetNavigate");
         @IsEnabled
         public static boolean isEnabled(@BindReceiver HasStatementMirror resultSet) {
-            return timerEnabled.value() && isEnabledCommon(resultSet);
+            return timerEnabled.value() && !rowCountOnly.value() && isEnabledCommon(resultSet);
         }
         @OnBefore
         public static Timer onBefore(@BindReceiver HasStatementMirror resultSet) {
@@ -82,6 +85,39 @@ public class ResultSetAspect {
         }
     }
 
+    // this is the low overhead alternative to NextAdvice, it only increments a counter in the
+    // statement mirror (no thread context lookup, no timer and no query entry access per row), and
+    // the row count is reconciled with the query entry periodically, see StatementMirror
+    //
+    // no nesting group is needed since rows are counted per statement mirror, and only the
+    // outermost statement mirror has a query entry to flush to (e.g. when ResultSets are wrapped by
+    // a connection pool)
+    @Pointcut(className = "java.sql.ResultSet", methodName = "next", methodParameterTypes = {})
+    public static class NextRowCountAdvice {
+        @IsEnabled
+        public static boolean isEnabled(@BindReceiver HasStatementMirror resultSet) {
+            return rowCountOnly.value() && resultSet.glowroot$hasStatementMirror();
+        }
+        @OnReturn
+        public static void onReturn(@BindReturn boolean currentRowValid,
+                @BindReceiver HasStatementMirror resultSet) {
+            StatementMirror mirror = resultSet.glowroot$getStatementMirror();
+            if (mirror == null) {
+                // this shouldn't happen since just checked above in isEnabled(), unless some
+                // bizarre concurrent mis-usage of ResultSet
+                return;
+            }
+            if (currentRowValid) {
+                if (mirror.incrementCurrRow()) {
+                    mirror.flushCurrRow();
+                }
+            } else {
+                mirror.rowNavigationAttempted();
+                mirror.flushCurrRow();
+            }
+        }
+    }
+
     @Pointcut(className = "java.sql.ResultSet",
             methodName = "previous|relative|absolute|first|last", methodParameterTypes = "..",
             nestingGroup = "jdbc")
@@ -110,7 +146,12 @@ public class ResultSetAspect {
                     // tracing must be disabled (e.g. exceeded trace entry limit)
                     return;
                 }
-                lastQueryEntry.setCurrRow(((ResultSet) resultSet).getRow());
+                int row = ((ResultSet) resultSet).getRow();
+                lastQueryEntry.setCurrRow(row);
+                if (rowCountOnly.value()) {
+                    // keep subsequent ResultSet.next() row counting in sync
+                    mirror.setCurrRow(row);
+                }
             } catch (SQLException e) {
                 logger.warn(e.getMessage(), e);
             }
@@ -121,6 +162,22 @@ public class ResultSetAspect {
         }
     }
 
+    @Pointcut(className = "java.sql.ResultSet", methodName = "close", methodParameterTypes = {})
+    public static class CloseAdvice {
+        @IsEnabled
+        public static boolean isEnabled(@BindReceiver HasStatementMirror resultSet) {
+            return rowCountOnly.value() && resultSet.glowroot$hasStatementMirror();
+        }
+        @OnBefore
+        public static void onBefore(@BindReceiver HasStatementMirror resultSet) {
+            StatementMirror mirror = resultSet.glowroot$getStatementMirror();
+            if (mirror != null) {
+                // this should always be true since just checked hasStatementMirror() above
+                mirror.flushCurrRow();
+            }
+        }
+    }
+
     @Pointcut(className = "java.sql.ResultSet", methodName = "get*",
             methodParameterTypes = {"int", ".."}, nestingGroup = "jdbc")
     public static class ValueAdvice {
@@ -253,7 +253,7 @@ public class StatementAspect {
             PreparedStatementMirror mirror =
                     (PreparedStatementMirror) preparedStatement.glowroot$getStatementMirror();
             if (mirror != null) {
-                mirror.addBatch();
+                mirror.addBatch(captureBindParameters.value());
             }
         }
     }
@@ -539,7 +539,8 @@ public class StatementAspect {
             int batchSize = mirror.getBatchSize();
             if (captureBindParameters.value()) {
                 queryMessageSupplier = new BatchPreparedStatementMessageSupplier(
-                        mirror.getBatchedParameters(), batchSize);
+                        mirror.getBatchedParameters(), mirror.getUnsampledParameterTypes(),
+                        batchSize);
             } else {
                 queryMessageSupplier = new BatchPreparedStatementMessageSupplier2(batchSize);
             }
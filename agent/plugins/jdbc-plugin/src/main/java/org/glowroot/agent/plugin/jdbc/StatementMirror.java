@@ -30,6 +30,9 @@ import org.glowroot.agent.plugin.api.QueryEntry;
 // this class must be public since it is referenced from bytecode inside other packages via @Mixin
 public class StatementMirror {
 
+    // must be a power of 2 minus 1
+    private static final int ROW_COUNT_FLUSH_MASK = 1023;
+
     // this field is not used by PreparedStatementMirror subclass
     //
     // ok for this field to be non-volatile since it is only temporary storage for a single thread
@@ -40,6 +43,14 @@ public class StatementMirror {
     // while that thread is adding batches into the statement and executing it
     private @Nullable QueryEntry lastQueryEntry;
 
+    // this is only used when counting rows without capturing timings for ResultSet.next(), in which
+    // case the row count is only reconciled with the query entry periodically, see flushCurrRow()
+    //
+    // -1 means no navigation has been attempted (same as in the query entry)
+    //
+    // ok for this field to be non-volatile for the same reason as lastQueryEntry above
+    private long currRow = -1;
+
     void addBatch(String sql) {
         // synchronization isn't an issue here as this method is called only by
         // the monitored thread
@@ -67,10 +78,45 @@ public class StatementMirror {
     }
 
     void setLastQueryEntry(QueryEntry lastQueryEntry) {
+        flushCurrRow();
         this.lastQueryEntry = lastQueryEntry;
+        currRow = -1;
     }
 
     void clearLastQueryEntry() {
+        flushCurrRow();
         lastQueryEntry = null;
+        currRow = -1;
+    }
+
+    // returns true every 1024 rows, so the caller can flush periodically (this way the row count of
+    // a long running query is still visible in active traces)
+    boolean incrementCurrRow() {
+        if (currRow == -1) {
+            currRow = 1;
+        } else {
+            currRow++;
+        }
+        return (currRow & ROW_COUNT_FLUSH_MASK) == 0;
+    }
+
+    void rowNavigationAttempted() {
+        if (currRow == -1) {
+            currRow = 0;
+        }
+    }
+
+    void setCurrRow(long row) {
+        currRow = row;
+    }
+
+    void flushCurrRow() {
+        if (currRow == -1 || lastQueryEntry == null) {
+            return;
+        }
+        lastQueryEntry.rowNavigationAttempted();
+        if (currRow > 0) {
+            lastQueryEntry.setCurrRow(currRow);
+        }
     }
 }
@@ -17,6 +17,8 @@ package org.glowroot.agent.plugin.jdbc.message;
 
 import java.util.Collection;
 
+import javax.annotation.Nullable;
+
 import org.glowroot.agent.plugin.api.QueryMessage;
 import org.glowroot.agent.plugin.api.QueryMessageSupplier;
 
@@ -29,11 +31,13 @@ public class BatchPreparedStatementMessageSupplier extends QueryMessageSupplier
             Integer.getInteger("glowroot.message.char.limit", 512 * 1024);
 
     private final Collection<BindParameterList> batchedParameters;
+    private final @Nullable BindParameterTypeHistogram unsampledParameterTypes;
     private final int batchSize;
 
     public BatchPreparedStatementMessageSupplier(Collection<BindParameterList> batchedParameters,
-            int batchSize) {
+            @Nullable BindParameterTypeHistogram unsampledParameterTypes, int batchSize) {
         this.batchedParameters = batchedParameters;
+        this.unsampledParameterTypes = unsampledParameterTypes;
         this.batchSize = batchSize;
     }
 
@@ -43,7 +47,13 @@ public class BatchPreparedStatementMessageSupplier extends QueryMessageSupplier
         int capturedBatchSize = 0;
         String suffix;
         if (batchedParameters.isEmpty()) {
-            suffix = "";
+            if (unsampledParameterTypes == null) {
+                suffix = "";
+            } else {
+                StringBuilder sb = new StringBuilder();
+                unsampledParameterTypes.appendTo(sb, false);
+                suffix = sb.toString();
+            }
         } else {
             StringBuilder sb = new StringBuilder();
             boolean exceededMessageCharLimit = false;
@@ -61,6 +71,9 @@ public class BatchPreparedStatementMessageSupplier extends QueryMessageSupplier
             }
             if (!exceededMessageCharLimit && batchSize > capturedBatchSize) {
                 sb.append(" ...");
+                if (unsampledParameterTypes != null) {
+                    unsampledParameterTypes.appendTo(sb, true);
+                }
             }
             suffix = sb.toString();
         }
@@ -65,6 +65,11 @@ public class BindParameterList implements Iterable</*@Nullable*/ Object> {
         }
     }
 
+    @Nullable
+    Object get(int i) {
+        return parameters[i];
+    }
+
     public int size() {
         return size;
     }
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.jdbc.message;
+
+import java.util.Arrays;
+
+// counts the bind parameter types of batched rows whose bind parameters are not captured, so that
+// large batches (e.g. ETL bulk inserts) do not need to copy and retain every row
+//
+// micro-optimized since it is called for every row in the batch beyond the captured sample
+public class BindParameterTypeHistogram {
+
+    private static final int TYPES_INITIAL_CAPACITY = 4;
+
+    // there are typically only a handful of distinct types per statement, so linear search is
+    // faster than hashing
+    private Class<?>[] types = new Class<?>[TYPES_INITIAL_CAPACITY];
+    private int[] counts = new int[TYPES_INITIAL_CAPACITY];
+    private int size;
+    private int nullCount;
+
+    private int rowCount;
+
+    public void add(BindParameterList parameters) {
+        rowCount++;
+        for (int i = 0; i < parameters.size(); i++) {
+            Object parameter = parameters.get(i);
+            if (parameter == null) {
+                nullCount++;
+            } else {
+                increment(parameter.getClass());
+            }
+        }
+    }
+
+    void appendTo(StringBuilder sb, boolean afterCapturedRows) {
+        sb.append(" {");
+        sb.append(rowCount);
+        if (afterCapturedRows) {
+            sb.append(" more");
+        }
+        sb.append(rowCount == 1 ? " row" : " rows");
+        if (size > 0 || nullCount > 0) {
+            sb.append(", parameter types: ");
+            for (int i = 0; i < size; i++) {
+                if (i > 0) {
+                    sb.append(", ");
+                }
+                sb.append(getTypeName(types[i]));
+                sb.append('=');
+                sb.append(counts[i]);
+            }
+            if (nullCount > 0) {
+                if (size > 0) {
+                    sb.append(", ");
+                }
+                sb.append("null=");
+                sb.append(nullCount);
+            }
+        }
+        sb.append('}');
+    }
+
+    private void increment(Class<?> type) {
+        for (int i = 0; i < size; i++) {
+            if (types[i] == type) {
+                counts[i]++;
+                return;
+            }
+        }
+        if (size == types.length) {
+            types = Arrays.copyOf(types, size * 2);
+            counts = Arrays.copyOf(counts, size * 2);
+        }
+        types[size] = type;
+        counts[size] = 1;
+        size++;
+    }
+
+    private static String getTypeName(Class<?> type) {
+        String simpleName = type.getSimpleName();
+        // see wrapper classes in org.glowroot.agent.plugin.jdbc.PreparedStatementMirror
+        if (simpleName.equals("ByteArrayParameterValue")) {
+            return "byte[]";
+        } else if (simpleName.equals("StreamingParameterValue")) {
+            return "stream";
+        } else {
+            return simpleName;
+        }
+    }
+}
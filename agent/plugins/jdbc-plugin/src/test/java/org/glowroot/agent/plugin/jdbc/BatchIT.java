@@ -122,16 +122,85 @@ public class BatchIT {
             sb.append(j);
             sb.append("']");
         }
+        sb.append(" ... {1002 more rows, parameter types: String=1002}");
         if (driverCapturesBatchRows) {
-            sb.append(" ... => 2002 rows");
-        } else {
-            sb.append(" ...");
+            sb.append(" => 2002 rows");
         }
         assertThat(entry.getQueryEntryMessage().getSuffix()).isEqualTo(sb.toString());
 
         assertThat(i.hasNext()).isFalse();
     }
 
+    @Test
+    public void testBatchPreparedStatementWithSmallSample() throws Exception {
+        // given
+        container.getConfigService().setPluginProperty(PLUGIN_ID, "batchBindParameterSampleSize",
+                1.0);
+
+        // when
+        Trace trace = container.execute(ExecuteBatchPreparedStatement.class);
+
+        // then
+        Iterator<Trace.Entry> i = trace.getEntryList().iterator();
+
+        Trace.Entry entry = i.next();
+        assertThat(entry.getQueryEntryMessage().getPrefix()).isEqualTo("jdbc execution: 3 x ");
+        if (driverCapturesBatchRows) {
+            assertThat(entry.getQueryEntryMessage().getSuffix()).isEqualTo(
+                    " ['huckle'] ... {2 more rows, parameter types: String=2} => 3 rows");
+        } else {
+            assertThat(entry.getQueryEntryMessage().getSuffix())
+                    .isEqualTo(" ['huckle'] ... {2 more rows, parameter types: String=2}");
+        }
+
+        entry = i.next();
+        assertThat(entry.getQueryEntryMessage().getPrefix()).isEqualTo("jdbc execution: 2 x ");
+        if (driverCapturesBatchRows) {
+            assertThat(entry.getQueryEntryMessage().getSuffix()).isEqualTo(
+                    " ['lowly'] ... {1 more row, parameter types: String=1} => 2 rows");
+        } else {
+            assertThat(entry.getQueryEntryMessage().getSuffix())
+                    .isEqualTo(" ['lowly'] ... {1 more row, parameter types: String=1}");
+        }
+
+        assertThat(i.hasNext()).isFalse();
+    }
+
+    @Test
+    public void testBatchPreparedStatementWithoutSample() throws Exception {
+        // given
+        container.getConfigService().setPluginProperty(PLUGIN_ID, "batchBindParameterSampleSize",
+                (Double) null);
+
+        // when
+        Trace trace = container.execute(ExecuteBatchPreparedStatement.class);
+
+        // then
+        Iterator<Trace.Entry> i = trace.getEntryList().iterator();
+
+        Trace.Entry entry = i.next();
+        assertThat(entry.getQueryEntryMessage().getPrefix()).isEqualTo("jdbc execution: 3 x ");
+        if (driverCapturesBatchRows) {
+            assertThat(entry.getQueryEntryMessage().getSuffix())
+                    .isEqualTo(" {3 rows, parameter types: String=3} => 3 rows");
+        } else {
+            assertThat(entry.getQueryEntryMessage().getSuffix())
+                    .isEqualTo(" {3 rows, parameter types: String=3}");
+        }
+
+        entry = i.next();
+        assertThat(entry.getQueryEntryMessage().getPrefix()).isEqualTo("jdbc execution: 2 x ");
+        if (driverCapturesBatchRows) {
+            assertThat(entry.getQueryEntryMessage().getSuffix())
+                    .isEqualTo(" {2 rows, parameter types: String=2} => 2 rows");
+        } else {
+            assertThat(entry.getQueryEntryMessage().getSuffix())
+                    .isEqualTo(" {2 rows, parameter types: String=2}");
+        }
+
+        assertThat(i.hasNext()).isFalse();
+    }
+
     @Test
     public void testBatchPreparedStatementWithoutCaptureBindParams() throws Exception {
         // given
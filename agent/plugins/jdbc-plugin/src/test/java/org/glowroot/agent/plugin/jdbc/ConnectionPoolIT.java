@@ -0,0 +1,206 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.jdbc;
+
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.util.Set;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.tomcat.jdbc.pool.DataSource;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import org.glowroot.agent.it.harness.AppUnderTest;
+import org.glowroot.agent.it.harness.Container;
+import org.glowroot.agent.it.harness.Containers;
+import org.glowroot.agent.it.harness.TransactionMarker;
+import org.glowroot.wire.api.model.TraceOuterClass.Trace;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ConnectionPoolIT {
+
+    private static final String PLUGIN_ID = "jdbc";
+
+    private static Container container;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        container = Containers.create();
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        container.close();
+    }
+
+    @After
+    public void afterEachTest() throws Exception {
+        container.checkAndReset();
+    }
+
+    @Test
+    public void testPoolWait() throws Exception {
+        // when
+        Trace trace = container.execute(GetConnectionFromExhaustedTomcatJdbcPool.class);
+
+        // then
+        Trace.Timer rootTimer = trace.getHeader().getMainThreadRootTimer();
+        assertThat(rootTimer.getChildTimerList()).hasSize(1);
+        Trace.Timer getConnectionTimer = rootTimer.getChildTimerList().get(0);
+        assertThat(getConnectionTimer.getName()).isEqualTo("jdbc get connection");
+        assertThat(getConnectionTimer.getChildTimerList()).hasSize(1);
+        assertThat(getConnectionTimer.getChildTimerList().get(0).getName())
+                .isEqualTo("jdbc pool wait");
+    }
+
+    @Test
+    public void testNoPoolWaitWhenNotExhausted() throws Exception {
+        // when
+        Trace trace = container.execute(GetConnectionFromTomcatJdbcPool.class);
+
+        // then
+        Trace.Timer rootTimer = trace.getHeader().getMainThreadRootTimer();
+        assertThat(rootTimer.getChildTimerList()).hasSize(1);
+        Trace.Timer getConnectionTimer = rootTimer.getChildTimerList().get(0);
+        assertThat(getConnectionTimer.getName()).isEqualTo("jdbc get connection");
+        assertThat(getConnectionTimer.getChildTimerList()).isEmpty();
+    }
+
+    @Test
+    public void testWithoutPoolWait() throws Exception {
+        // given
+        container.getConfigService().setPluginProperty(PLUGIN_ID, "captureConnectionPoolWait",
+                false);
+
+        // when
+        Trace trace = container.execute(GetConnectionFromExhaustedTomcatJdbcPool.class);
+
+        // then
+        Trace.Timer rootTimer = trace.getHeader().getMainThreadRootTimer();
+        assertThat(rootTimer.getChildTimerList()).hasSize(1);
+        Trace.Timer getConnectionTimer = rootTimer.getChildTimerList().get(0);
+        assertThat(getConnectionTimer.getName()).isEqualTo("jdbc get connection");
+        assertThat(getConnectionTimer.getChildTimerList()).isEmpty();
+    }
+
+    @Test
+    public void testPoolGauge() throws Exception {
+        // when
+        container.execute(CheckTomcatJdbcPoolGauge.class);
+        // then
+        // assertions are in the app under test since the mbean is registered in the jvm under test
+    }
+
+    private static DataSource createTomcatJdbcPool(String poolName) {
+        DataSource ds = new DataSource();
+        ds.setDriverClassName("org.hsqldb.jdbc.JDBCDriver");
+        ds.setUrl("jdbc:hsqldb:mem:test");
+        ds.setName(poolName);
+        return ds;
+    }
+
+    public static class GetConnectionFromTomcatJdbcPool implements AppUnderTest, TransactionMarker {
+        private DataSource dataSource;
+        @Override
+        public void executeApp() throws Exception {
+            dataSource = createTomcatJdbcPool("pool wait test");
+            try {
+                // create the pool outside of the transaction
+                dataSource.getConnection().close();
+                transactionMarker();
+            } finally {
+                dataSource.close();
+            }
+        }
+        @Override
+        public void transactionMarker() throws Exception {
+            dataSource.getConnection().close();
+        }
+    }
+
+    public static class GetConnectionFromExhaustedTomcatJdbcPool
+            implements AppUnderTest, TransactionMarker {
+        private DataSource dataSource;
+        private Connection heldConnection;
+        @Override
+        public void executeApp() throws Exception {
+            dataSource = createTomcatJdbcPool("exhausted pool wait test");
+            dataSource.setMaxActive(1);
+            dataSource.setMaxWait(10000);
+            try {
+                heldConnection = dataSource.getConnection();
+                transactionMarker();
+            } finally {
+                dataSource.close();
+            }
+        }
+        @Override
+        public void transactionMarker() throws Exception {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Thread.sleep(100);
+                        heldConnection.close();
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+            thread.start();
+            // blocks until the other thread returns the only connection to the pool
+            dataSource.getConnection().close();
+            thread.join();
+        }
+    }
+
+    public static class CheckTomcatJdbcPoolGauge implements AppUnderTest, TransactionMarker {
+        private static final String OBJECT_NAME =
+                "org.glowroot:type=JdbcConnectionPool,name=Tomcat JDBC (gauge test)";
+        private DataSource dataSource;
+        @Override
+        public void executeApp() throws Exception {
+            dataSource = createTomcatJdbcPool("gauge test");
+            try {
+                transactionMarker();
+            } finally {
+                dataSource.close();
+            }
+            MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+            Set<ObjectName> objectNames = mbeanServer.queryNames(new ObjectName(OBJECT_NAME), null);
+            assertThat(objectNames).isEmpty();
+        }
+        @Override
+        public void transactionMarker() throws Exception {
+            Connection connection = dataSource.getConnection();
+            try {
+                MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+                ObjectName objectName = new ObjectName(OBJECT_NAME);
+                assertThat(mbeanServer.getAttribute(objectName, "ActiveConnections"))
+                        .isEqualTo(1);
+                assertThat(mbeanServer.getAttribute(objectName, "PendingThreads")).isEqualTo(0);
+            } finally {
+                connection.close();
+            }
+        }
+    }
+}
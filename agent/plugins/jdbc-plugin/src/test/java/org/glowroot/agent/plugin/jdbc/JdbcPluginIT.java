@@ -176,6 +176,20 @@ public class JdbcPluginIT {
         assertThat(found).isFalse();
     }
 
+    @Test
+    public void testWithResultSetRowCountOnlyUnderSeparateTraceEntry() throws Exception {
+        // given
+        container.getConfigService().setPluginProperty(PLUGIN_ID,
+                "resultSetNavigateRowCountOnly", true);
+        // when
+        Trace trace = container.execute(IterateOverResultsUnderSeparateTraceEntry.class);
+        // then
+        boolean found = findExtendedTimerName(trace, "jdbc execute");
+        assertThat(found).isFalse();
+        Trace.Entry entry = trace.getEntryList().get(0);
+        assertThat(entry.getQueryEntryMessage().getSuffix()).isEqualTo(" => 3 rows");
+    }
+
     @Test
     public void testDefaultStackTraceThreshold() throws Exception {
         // when
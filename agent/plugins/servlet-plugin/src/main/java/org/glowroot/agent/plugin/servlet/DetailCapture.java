@@ -19,19 +19,15 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.regex.Pattern;
 
 import javax.annotation.Nullable;
 
 import com.google.common.base.Strings;
-import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 
+import org.glowroot.agent.plugin.api.util.NameValueSnapshot;
 import org.glowroot.agent.plugin.servlet.ServletAspect.HttpServletRequest;
 
 // shallow copies are necessary because request may not be thread safe, which may affect ability
@@ -41,42 +37,45 @@ import org.glowroot.agent.plugin.servlet.ServletAspect.HttpServletRequest;
 // request is complete (e.g. tomcat does this) in order to reuse them, in which case this detail
 // would need to be captured synchronously at end of request anyways (although then it could be
 // captured only if trace met threshold for storage...)
+//
+// the shallow copies are raw snapshots though, matching against the capture/mask patterns is
+// deferred to ServletMessageSupplier.get(), which is only called if the trace is stored or viewed
 class DetailCapture {
 
+    private static final NameValueSnapshot EMPTY_SNAPSHOT = new NameValueSnapshot(0);
+
     private DetailCapture() {}
 
-    static ImmutableMap<String, Object> captureRequestParameters(
+    static NameValueSnapshot captureRequestParameters(
             Map</*@Nullable*/ String, /*@Nullable*/ String /*@Nullable*/ []> requestParameters) {
-        ImmutableList<Pattern> capturePatterns = ServletPluginProperties.captureRequestParameters();
-        ImmutableMap.Builder<String, Object> map = ImmutableMap.builder();
+        if (ServletPluginProperties.captureRequestParameters().isEmpty()) {
+            return EMPTY_SNAPSHOT;
+        }
+        NameValueSnapshot snapshot = new NameValueSnapshot(requestParameters.size());
         for (Entry</*@Nullable*/ String, /*@Nullable*/ String /*@Nullable*/ []> entry : requestParameters
                 .entrySet()) {
             String name = entry.getKey();
             if (name == null) {
                 continue;
             }
-            // converted to lower case for case-insensitive matching (patterns are lower case)
-            String keyLowerCase = name.toLowerCase(Locale.ENGLISH);
-            if (!matchesOneOf(keyLowerCase, capturePatterns)) {
-                continue;
-            }
             @Nullable
             String[] values = entry.getValue();
             if (values != null) {
-                set(map, name, values);
+                set(snapshot, name, values);
             }
         }
-        return map.build();
+        return snapshot;
     }
 
-    static ImmutableMap<String, Object> captureRequestParameters(HttpServletRequest request) {
+    static NameValueSnapshot captureRequestParameters(HttpServletRequest request) {
+        if (ServletPluginProperties.captureRequestParameters().isEmpty()) {
+            return EMPTY_SNAPSHOT;
+        }
         Enumeration<? extends /*@Nullable*/ Object> e = request.getParameterNames();
         if (e == null) {
-            return ImmutableMap.of();
+            return EMPTY_SNAPSHOT;
         }
-        ImmutableList<Pattern> capturePatterns = ServletPluginProperties.captureRequestParameters();
-        ImmutableList<Pattern> maskPatterns = ServletPluginProperties.maskRequestParameters();
-        ImmutableMap.Builder<String, Object> map = ImmutableMap.builder();
+        NameValueSnapshot snapshot = new NameValueSnapshot();
         while (e.hasMoreElements()) {
             Object nameObj = e.nextElement();
             if (nameObj == null) {
@@ -86,68 +85,52 @@ class DetailCapture {
                 continue;
             }
             String name = (String) nameObj;
-            // converted to lower case for case-insensitive matching (patterns are lower case)
-            String keyLowerCase = name.toLowerCase(Locale.ENGLISH);
-            if (!matchesOneOf(keyLowerCase, capturePatterns)) {
-                continue;
-            }
-            if (matchesOneOf(keyLowerCase, maskPatterns)) {
-                map.put(name, "****");
-                continue;
-            }
             @Nullable
             String[] values = request.getParameterValues(name);
             if (values != null) {
-                set(map, name, values);
+                set(snapshot, name, values);
             }
         }
-        return map.build();
+        return snapshot;
     }
 
-    private static void set(ImmutableMap.Builder<String, Object> map, String name,
-            @Nullable String[] values) {
+    private static void set(NameValueSnapshot snapshot, String name, @Nullable String[] values) {
         if (values == null) {
             return;
         }
         if (values.length == 1) {
             String value = values[0];
             if (value != null) {
-                map.put(name, value);
+                snapshot.put(name, value);
             }
         } else {
             List</*@Nullable*/ String> list =
                     new ArrayList</*@Nullable*/ String>(values.length);
             Collections.addAll(list, values);
-            map.put(name, list);
+            snapshot.put(name, list);
         }
     }
 
-    static ImmutableMap<String, Object> captureRequestHeaders(HttpServletRequest request) {
-        ImmutableList<Pattern> capturePatterns = ServletPluginProperties.captureRequestHeaders();
-        if (capturePatterns.isEmpty()) {
-            return ImmutableMap.of();
+    static NameValueSnapshot captureRequestHeaders(HttpServletRequest request) {
+        if (ServletPluginProperties.captureRequestHeaders().isEmpty()) {
+            return EMPTY_SNAPSHOT;
         }
-        Map<String, Object> requestHeaders = Maps.newHashMap();
         Enumeration</*@Nullable*/ String> headerNames = request.getHeaderNames();
         if (headerNames == null) {
-            return ImmutableMap.of();
+            return EMPTY_SNAPSHOT;
         }
+        NameValueSnapshot snapshot = new NameValueSnapshot();
         for (Enumeration</*@Nullable*/ String> e = headerNames; e.hasMoreElements();) {
             String name = e.nextElement();
             if (name == null) {
                 continue;
             }
-            // converted to lower case for case-insensitive matching (patterns are lower case)
-            String keyLowerCase = name.toLowerCase(Locale.ENGLISH);
-            if (!matchesOneOf(keyLowerCase, capturePatterns)) {
-                continue;
-            }
             Enumeration</*@Nullable*/ String> values = request.getHeaders(name);
             if (values != null) {
-                captureRequestHeader(name, values, requestHeaders);
+                captureRequestHeader(name, values, snapshot);
             }
         }
-        return ImmutableMap.copyOf(requestHeaders);
+        return snapshot;
     }
 
     static @Nullable String captureRequestRemoteAddr(HttpServletRequest request) {
@@ -166,30 +149,21 @@ class DetailCapture {
         }
     }
 
-    static boolean matchesOneOf(String key, List<Pattern> patterns) {
-        for (Pattern pattern : patterns) {
-            if (pattern.matcher(key).matches()) {
-                return true;
-            }
-        }
-        return false;
-    }
-
     private static void captureRequestHeader(String name, Enumeration</*@Nullable*/ String> values,
-            Map<String, Object> requestHeaders) {
+            NameValueSnapshot snapshot) {
         if (!values.hasMoreElements()) {
-            requestHeaders.put(name, "");
+            snapshot.put(name, "");
         } else {
             String value = values.nextElement();
             if (!values.hasMoreElements()) {
-                requestHeaders.put(name, Strings.nullToEmpty(value));
+                snapshot.put(name, Strings.nullToEmpty(value));
             } else {
                 List<String> list = Lists.newArrayList();
                 list.add(Strings.nullToEmpty(value));
                 while (values.hasMoreElements()) {
                     list.add(Strings.nullToEmpty(values.nextElement()));
                 }
-                requestHeaders.put(name, ImmutableList.copyOf(list));
+                snapshot.put(name, list);
             }
         }
     }
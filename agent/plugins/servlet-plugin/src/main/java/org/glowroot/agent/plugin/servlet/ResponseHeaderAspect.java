@@ -16,12 +16,9 @@
 package org.glowroot.agent.plugin.servlet;
 
 import java.util.Locale;
-import java.util.regex.Pattern;
 
 import javax.annotation.Nullable;
 
-import com.google.common.collect.ImmutableList;
-
 import org.glowroot.agent.plugin.api.ThreadContext;
 import org.glowroot.agent.plugin.api.weaving.BindClassMeta;
 import org.glowroot.agent.plugin.api.weaving.BindParameter;
@@ -325,9 +322,6 @@ public class ResponseHeaderAspect {
     }
 
     private static boolean captureResponseHeader(String name) {
-        ImmutableList<Pattern> capturePatterns = ServletPluginProperties.captureResponseHeaders();
-        // converted to lower case for case-insensitive matching (patterns are lower case)
-        String keyLowerCase = name.toLowerCase(Locale.ENGLISH);
-        return DetailCapture.matchesOneOf(keyLowerCase, capturePatterns);
+        return ServletPluginProperties.captureResponseHeaders().matches(name);
     }
 }
@@ -32,6 +32,7 @@ import org.glowroot.agent.plugin.api.ThreadContext.Priority;
 import org.glowroot.agent.plugin.api.TimerName;
 import org.glowroot.agent.plugin.api.TraceEntry;
 import org.glowroot.agent.plugin.api.util.FastThreadLocal;
+import org.glowroot.agent.plugin.api.util.NameValueSnapshot;
 import org.glowroot.agent.plugin.api.weaving.BindParameter;
 import org.glowroot.agent.plugin.api.weaving.BindReturn;
 import org.glowroot.agent.plugin.api.weaving.BindThrowable;
@@ -185,8 +186,7 @@ public class ServletAspect {
             String requestContextPath = Strings.nullToEmpty(request.getContextPath());
             String requestServletPath = Strings.nullToEmpty(request.getServletPath());
             String requestPathInfo = request.getPathInfo();
-            ImmutableMap<String, Object> requestHeaders =
-                    DetailCapture.captureRequestHeaders(request);
+            NameValueSnapshot requestHeaders = DetailCapture.captureRequestHeaders(request);
             String requestRemoteAddr = DetailCapture.captureRequestRemoteAddr(request);
             String requestRemoteHost = DetailCapture.captureRequestRemoteHost(request);
             if (session == null) {
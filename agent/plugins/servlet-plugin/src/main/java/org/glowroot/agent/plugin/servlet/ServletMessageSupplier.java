@@ -15,18 +15,14 @@
  */
 package org.glowroot.agent.plugin.servlet;
 
-import java.util.List;
-import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentMap;
-import java.util.regex.Pattern;
 
 import javax.annotation.Nullable;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
-import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
@@ -35,6 +31,8 @@ import org.checkerframework.checker.nullness.qual.RequiresNonNull;
 import org.glowroot.agent.plugin.api.Message;
 import org.glowroot.agent.plugin.api.MessageSupplier;
 import org.glowroot.agent.plugin.api.ThreadContext.ServletRequestInfo;
+import org.glowroot.agent.plugin.api.util.NameMatcher;
+import org.glowroot.agent.plugin.api.util.NameValueSnapshot;
 
 // this class is thread-safe (unlike other MessageSuppliers) since it gets passed around to
 // auxiliary thread contexts for handling async servlets
@@ -48,10 +46,13 @@ class ServletMessageSupplier extends MessageSupplier implements ServletRequestIn
     private final @Nullable String requestPathInfo;
     private final String requestUri;
     private final @Nullable String requestQueryString;
+    // cached since get() can be called more than once (e.g. when viewed live and then stored)
+    private volatile @MonotonicNonNull MaskedRequestQueryString maskedRequestQueryString;
 
-    private volatile @MonotonicNonNull ImmutableMap<String, Object> requestParameters;
+    // raw snapshots, captured against the configured patterns lazily in get()
+    private volatile @MonotonicNonNull NameValueSnapshot requestParameters;
 
-    private final ImmutableMap<String, Object> requestHeaders;
+    private final NameValueSnapshot requestHeaders;
 
     private final @Nullable String requestRemoteAddr;
     private final @Nullable String requestRemoteHost;
@@ -70,7 +71,7 @@ class ServletMessageSupplier extends MessageSupplier implements ServletRequestIn
 
     ServletMessageSupplier(String requestMethod, String requestContextPath,
             String requestServletPath, @Nullable String requestPathInfo, String requestUri,
-            @Nullable String requestQueryString, ImmutableMap<String, Object> requestHeaders,
+            @Nullable String requestQueryString, NameValueSnapshot requestHeaders,
             @Nullable String requestRemoteAddr, @Nullable String requestRemoteHost,
             ImmutableMap<String, String> sessionAttributeMap) {
         this.requestMethod = requestMethod;
@@ -87,21 +88,26 @@ class ServletMessageSupplier extends MessageSupplier implements ServletRequestIn
 
     @Override
     public Message get() {
-        ImmutableList<Pattern> maskPatterns = ServletPluginProperties.maskRequestParameters();
+        NameMatcher maskMatcher = ServletPluginProperties.maskRequestParameters();
         Map<String, Object> detail = Maps.newLinkedHashMap();
         detail.put("Request http method", requestMethod);
-        String maskedRequestQueryString = maskRequestQueryString(requestQueryString, maskPatterns);
+        String maskedRequestQueryString = getMaskedRequestQueryString(maskMatcher);
         if (maskedRequestQueryString != null) {
             // including empty query string since that means request ended with ?
             detail.put("Request query string", maskedRequestQueryString);
         }
-        Map<String, Object> maskedRequestParameters =
-                maskRequestParameters(requestParameters, maskPatterns);
-        if (maskedRequestParameters != null && !maskedRequestParameters.isEmpty()) {
-            detail.put("Request parameters", maskedRequestParameters);
+        NameValueSnapshot requestParameters = this.requestParameters;
+        if (requestParameters != null) {
+            Map<String, Object> capturedRequestParameters = requestParameters.toDetailMap(
+                    ServletPluginProperties.captureRequestParameters(), maskMatcher);
+            if (!capturedRequestParameters.isEmpty()) {
+                detail.put("Request parameters", capturedRequestParameters);
+            }
         }
-        if (!requestHeaders.isEmpty()) {
-            detail.put("Request headers", requestHeaders);
+        Map<String, Object> capturedRequestHeaders = requestHeaders.toDetailMap(
+                ServletPluginProperties.captureRequestHeaders(), NameMatcher.none());
+        if (!capturedRequestHeaders.isEmpty()) {
+            detail.put("Request headers", capturedRequestHeaders);
         }
         if (requestRemoteAddr != null) {
             detail.put("Request remote address", requestRemoteAddr);
@@ -146,7 +152,7 @@ class ServletMessageSupplier extends MessageSupplier implements ServletRequestIn
         return requestParameters != null;
     }
 
-    void setCaptureRequestParameters(ImmutableMap<String, Object> requestParameters) {
+    void setCaptureRequestParameters(NameValueSnapshot requestParameters) {
         this.requestParameters = requestParameters;
     }
 
@@ -223,13 +229,23 @@ class ServletMessageSupplier extends MessageSupplier implements ServletRequestIn
                 sessionAttributeUpdatedValueMap);
     }
 
+    private @Nullable String getMaskedRequestQueryString(NameMatcher maskMatcher) {
+        MaskedRequestQueryString masked = maskedRequestQueryString;
+        if (masked == null || masked.maskMatcher != maskMatcher) {
+            masked = new MaskedRequestQueryString(maskMatcher,
+                    maskRequestQueryString(requestQueryString, maskMatcher));
+            maskedRequestQueryString = masked;
+        }
+        return masked.value;
+    }
+
     @VisibleForTesting
     static @Nullable String maskRequestQueryString(@Nullable String requestQueryString,
-            List<Pattern> maskPatterns) {
+            NameMatcher maskMatcher) {
         if (requestQueryString == null) {
             return null;
         }
-        if (maskPatterns.isEmpty()) {
+        if (maskMatcher.isEmpty()) {
             return requestQueryString;
         }
         StringBuilder sb = new StringBuilder(requestQueryString.length());
@@ -253,10 +269,7 @@ class ServletMessageSupplier extends MessageSupplier implements ServletRequestIn
                     } else {
                         String key = sb.substring(keyStartIndex, sb.length());
                         sb.append('=');
-                        // converted to lower case for case-insensitive matching
-                        // (patterns are lower case)
-                        String keyLowerCase = key.toLowerCase(Locale.ENGLISH);
-                        if (DetailCapture.matchesOneOf(keyLowerCase, maskPatterns)) {
+                        if (maskMatcher.matches(key)) {
                             inMaskedValue = true;
                             sb.append(MASK_TEXT);
                             existMaskedParameters = true;
@@ -278,25 +291,14 @@ class ServletMessageSupplier extends MessageSupplier implements ServletRequestIn
         }
     }
 
-    private static @Nullable Map<String, Object> maskRequestParameters(
-            @Nullable Map<String, Object> requestParameters, List<Pattern> maskPatterns) {
-        if (requestParameters == null) {
-            return null;
-        }
-        if (maskPatterns.isEmpty()) {
-            return requestParameters;
-        }
-        Map<String, Object> maskedRequestParameters = Maps.newLinkedHashMap();
-        for (Entry<String, Object> entry : requestParameters.entrySet()) {
-            String name = entry.getKey();
-            // converted to lower case for case-insensitive matching (patterns are lower case)
-            String keyLowerCase = name.toLowerCase(Locale.ENGLISH);
-            if (DetailCapture.matchesOneOf(keyLowerCase, maskPatterns)) {
-                maskedRequestParameters.put(name, MASK_TEXT);
-            } else {
-                maskedRequestParameters.put(name, entry.getValue());
-            }
+    private static class MaskedRequestQueryString {
+
+        private final NameMatcher maskMatcher;
+        private final @Nullable String value;
+
+        private MaskedRequestQueryString(NameMatcher maskMatcher, @Nullable String value) {
+            this.maskMatcher = maskMatcher;
+            this.value = value;
         }
-        return maskedRequestParameters;
     }
 }
@@ -15,18 +15,13 @@
  */
 package org.glowroot.agent.plugin.servlet;
 
-import java.util.List;
-import java.util.Locale;
-import java.util.regex.Pattern;
-
 import com.google.common.base.Splitter;
-import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Lists;
 
 import org.glowroot.agent.plugin.api.Agent;
 import org.glowroot.agent.plugin.api.config.ConfigListener;
 import org.glowroot.agent.plugin.api.config.ConfigService;
+import org.glowroot.agent.plugin.api.util.NameMatcher;
 
 class ServletPluginProperties {
 
@@ -49,14 +44,14 @@ class ServletPluginProperties {
 
     private static final Splitter splitter = Splitter.on(',').trimResults().omitEmptyStrings();
 
-    private static ImmutableList<Pattern> captureRequestParameters = ImmutableList.of();
-    private static ImmutableList<Pattern> maskRequestParameters = ImmutableList.of();
-    private static ImmutableList<Pattern> captureRequestHeaders = ImmutableList.of();
+    private static NameMatcher captureRequestParameters = NameMatcher.none();
+    private static NameMatcher maskRequestParameters = NameMatcher.none();
+    private static NameMatcher captureRequestHeaders = NameMatcher.none();
 
     private static boolean captureRequestRemoteAddr;
     private static boolean captureRequestRemoteHost;
 
-    private static ImmutableList<Pattern> captureResponseHeaders = ImmutableList.of();
+    private static NameMatcher captureResponseHeaders = NameMatcher.none();
     private static boolean captureResponseHeadersNonEmpty;
 
     private static String sessionUserAttributePath = "";
@@ -74,15 +69,15 @@ class ServletPluginProperties {
 
     private ServletPluginProperties() {}
 
-    static ImmutableList<Pattern> captureRequestParameters() {
+    static NameMatcher captureRequestParameters() {
         return captureRequestParameters;
     }
 
-    static ImmutableList<Pattern> maskRequestParameters() {
+    static NameMatcher maskRequestParameters() {
         return maskRequestParameters;
     }
 
-    static ImmutableList<Pattern> captureRequestHeaders() {
+    static NameMatcher captureRequestHeaders() {
         return captureRequestHeaders;
     }
 
@@ -94,7 +89,7 @@ class ServletPluginProperties {
         return captureRequestRemoteHost;
     }
 
-    static ImmutableList<Pattern> captureResponseHeaders() {
+    static NameMatcher captureResponseHeaders() {
         return captureResponseHeaders;
     }
 
@@ -136,14 +131,14 @@ class ServletPluginProperties {
         }
 
         private static void recalculateProperties() {
-            captureRequestParameters = buildPatternList(CAPTURE_REQUEST_PARAMS_PROPERTY_NAME);
-            maskRequestParameters = buildPatternList(MASK_REQUEST_PARAMS_PROPERTY_NAME);
-            captureRequestHeaders = buildPatternList(CAPTURE_REQUEST_HEADER_PROPERTY_NAME);
+            captureRequestParameters = buildNameMatcher(CAPTURE_REQUEST_PARAMS_PROPERTY_NAME);
+            maskRequestParameters = buildNameMatcher(MASK_REQUEST_PARAMS_PROPERTY_NAME);
+            captureRequestHeaders = buildNameMatcher(CAPTURE_REQUEST_HEADER_PROPERTY_NAME);
             captureRequestRemoteAddr = configService
                     .getBooleanProperty(CAPTURE_REQUEST_REMOTE_ADDR_PROPERTY_NAME).value();
             captureRequestRemoteHost = configService
                     .getBooleanProperty(CAPTURE_REQUEST_REMOTE_HOST_PROPERTY_NAME).value();
-            captureResponseHeaders = buildPatternList(CAPTURE_RESPONSE_HEADER_PROPERTY_NAME);
+            captureResponseHeaders = buildNameMatcher(CAPTURE_RESPONSE_HEADER_PROPERTY_NAME);
             captureResponseHeadersNonEmpty = !captureResponseHeaders.isEmpty();
             sessionUserAttributePath = configService
                     .getStringProperty(SESSION_USER_ATTRIBUTE_PROPERTY_NAME).value();
@@ -159,15 +154,9 @@ class ServletPluginProperties {
                     configService.getBooleanProperty(TRACE_ERROR_ON_4XX_RESPONSE_CODE).value();
         }
 
-        private static ImmutableList<Pattern> buildPatternList(String propertyName) {
-            String captureRequestParametersText =
-                    configService.getStringProperty(propertyName).value();
-            List<Pattern> captureParameters = Lists.newArrayList();
-            for (String parameter : splitter.split(captureRequestParametersText)) {
-                // converted to lower case for case-insensitive matching
-                captureParameters.add(buildRegexPattern(parameter.toLowerCase(Locale.ENGLISH)));
-            }
-            return ImmutableList.copyOf(captureParameters);
+        private static NameMatcher buildNameMatcher(String propertyName) {
+            String wildcardPatternsText = configService.getStringProperty(propertyName).value();
+            return NameMatcher.of(splitter.split(wildcardPatternsText));
         }
 
         private static ImmutableSet<String> buildCaptureSessionAttributeNames() {
@@ -182,13 +171,5 @@ class ServletPluginProperties {
             }
             return names.build();
         }
-
-        private static Pattern buildRegexPattern(String wildcardPattern) {
-            // convert * into .* and quote the rest of the text using \Q...\E
-            String regex = "\\Q" + wildcardPattern.replace("*", "\\E.*\\Q") + "\\E";
-            // strip off unnecessary \\Q\\E in case * appeared at beginning or end of part
-            regex = regex.replace("\\Q\\E", "");
-            return Pattern.compile(regex);
-        }
     }
 }
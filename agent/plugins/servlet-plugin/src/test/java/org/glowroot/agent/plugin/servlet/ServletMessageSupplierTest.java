@@ -15,12 +15,11 @@
  */
 package org.glowroot.agent.plugin.servlet;
 
-import java.util.List;
-import java.util.regex.Pattern;
-
 import com.google.common.collect.ImmutableList;
 import org.junit.Test;
 
+import org.glowroot.agent.plugin.api.util.NameMatcher;
+
 import static org.assertj.core.api.Assertions.assertThat;
 
 public class ServletMessageSupplierTest {
@@ -28,11 +27,11 @@ public class ServletMessageSupplierTest {
     @Test
     public void shouldMask() {
         // given
-        List<Pattern> maskPatterns = ImmutableList.of(Pattern.compile(".*password.*"));
+        NameMatcher maskMatcher = NameMatcher.of(ImmutableList.of("*password*"));
         String requestQueryString = "test=one&xpasswordy=maskme&test=two";
         // when
         String maskRequestQueryString =
-                ServletMessageSupplier.maskRequestQueryString(requestQueryString, maskPatterns);
+                ServletMessageSupplier.maskRequestQueryString(requestQueryString, maskMatcher);
         // then
         assertThat(maskRequestQueryString).isEqualTo("test=one&xpasswordy=****&test=two");
     }
@@ -40,11 +39,11 @@ public class ServletMessageSupplierTest {
     @Test
     public void shouldNotMask() {
         // given
-        List<Pattern> maskPatterns = ImmutableList.of(Pattern.compile(".*password.*"));
+        NameMatcher maskMatcher = NameMatcher.of(ImmutableList.of("*password*"));
         String requestQueryString = "test=one&xpassworry=nomask&test=two";
         // when
         String maskRequestQueryString =
-                ServletMessageSupplier.maskRequestQueryString(requestQueryString, maskPatterns);
+                ServletMessageSupplier.maskRequestQueryString(requestQueryString, maskMatcher);
         // then
         assertThat(maskRequestQueryString).isEqualTo("test=one&xpassworry=nomask&test=two");
     }
@@ -52,11 +51,11 @@ public class ServletMessageSupplierTest {
     @Test
     public void shouldMaskStrange() {
         // given
-        List<Pattern> maskPatterns = ImmutableList.of(Pattern.compile(".*password.*"));
+        NameMatcher maskMatcher = NameMatcher.of(ImmutableList.of("*password*"));
         String requestQueryString = "test=one&&&===&=&xpasswordy=mask=me&&&==&test=two";
         // when
         String maskRequestQueryString =
-                ServletMessageSupplier.maskRequestQueryString(requestQueryString, maskPatterns);
+                ServletMessageSupplier.maskRequestQueryString(requestQueryString, maskMatcher);
         // then
         assertThat(maskRequestQueryString)
                 .isEqualTo("test=one&&&===&=&xpasswordy=****&&&==&test=two");
@@ -65,11 +64,11 @@ public class ServletMessageSupplierTest {
     @Test
     public void shouldNotMaskStrange() {
         // given
-        List<Pattern> maskPatterns = ImmutableList.of(Pattern.compile(".*password.*"));
+        NameMatcher maskMatcher = NameMatcher.of(ImmutableList.of("*password*"));
         String requestQueryString = "test=one&&&===&=&xpassworry=no=mask&&&==&test=two";
         // when
         String maskRequestQueryString =
-                ServletMessageSupplier.maskRequestQueryString(requestQueryString, maskPatterns);
+                ServletMessageSupplier.maskRequestQueryString(requestQueryString, maskMatcher);
         // then
         assertThat(maskRequestQueryString)
                 .isEqualTo("test=one&&&===&=&xpassworry=no=mask&&&==&test=two");
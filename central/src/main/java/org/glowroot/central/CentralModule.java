@@ -195,7 +195,7 @@ public class CentralModule {
             });
             rollupService = new RollupService(repos.getAgentRollupDao(), repos.getAggregateDao(),
                     repos.getGaugeValueDao(), repos.getSyntheticResultDao(), centralAlertingService,
-                    clock);
+                    clusterManager, centralConfig.rollupThreads(), clock);
             syntheticMonitorService = new SyntheticMonitorService(repos.getAgentRollupDao(),
                     repos.getConfigRepository(), repos.getIncidentDao(), alertingService,
                     repos.getSyntheticResultDao(), ticker, clock);
@@ -213,7 +213,8 @@ public class CentralModule {
                     .logDir(logDir)
                     .logFileNamePattern(Pattern.compile("glowroot-central.*\\.log"))
                     .clock(clock)
-                    .liveJvmService(new LiveJvmServiceImpl(downstreamService))
+                    .liveJvmService(new LiveJvmServiceImpl(downstreamService,
+                            new File(centralDir, "heap-dumps")))
                     .configRepository(repos.getConfigRepository())
                     .agentRollupRepository(repos.getAgentRollupDao())
                     .environmentRepository(repos.getEnvironmentDao())
@@ -572,6 +573,10 @@ public class CentralModule {
                 builder.grpcHttpsPort(Integer.parseInt(grpcHttpsPortText));
             }
         }
+        String rollupThreadsText = props.getProperty("rollup.threads");
+        if (!Strings.isNullOrEmpty(rollupThreadsText)) {
+            builder.rollupThreads(Integer.parseInt(rollupThreadsText));
+        }
         String uiBindAddress = props.getProperty("ui.bindAddress");
         if (!Strings.isNullOrEmpty(uiBindAddress)) {
             builder.uiBindAddress(uiBindAddress);
@@ -789,6 +794,11 @@ public class CentralModule {
             return null;
         }
 
+        @Value.Default
+        int rollupThreads() {
+            return 4;
+        }
+
         @Value.Default
         String uiBindAddress() {
             return "0.0.0.0";
@@ -15,6 +15,7 @@
  */
 package org.glowroot.central;
 
+import java.io.FileNotFoundException;
 import java.io.Serializable;
 import java.util.List;
 import java.util.Map;
@@ -62,6 +63,8 @@ import org.glowroot.wire.api.model.DownstreamServiceOuterClass.CapabilitiesReque
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.CentralRequest;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.EntriesRequest;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.EntriesResponse;
+import org.glowroot.wire.api.model.DownstreamServiceOuterClass.FileChunkRequest;
+import org.glowroot.wire.api.model.DownstreamServiceOuterClass.FileChunkResponse;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.FullTraceRequest;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.FullTraceResponse;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.GcRequest;
@@ -72,6 +75,9 @@ import org.glowroot.wire.api.model.DownstreamServiceOuterClass.HeaderResponse;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.HeapDumpFileInfo;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.HeapDumpRequest;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.HeapDumpResponse;
+import org.glowroot.wire.api.model.DownstreamServiceOuterClass.HeapDumpSummary;
+import org.glowroot.wire.api.model.DownstreamServiceOuterClass.HeapDumpSummaryRequest;
+import org.glowroot.wire.api.model.DownstreamServiceOuterClass.HeapDumpSummaryResponse;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.HeapHistogram;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.HeapHistogramRequest;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.HeapHistogramResponse;
@@ -203,6 +209,29 @@ class DownstreamServiceImpl extends DownstreamServiceImplBase {
         return response.getHeapDumpFileInfo();
     }
 
+    FileChunkResponse fileChunk(String agentId, String filePath, long offset, int maxBytes)
+            throws Exception {
+        AgentResponse responseWrapper = runOnCluster(agentId, CentralRequest.newBuilder()
+                .setFileChunkRequest(FileChunkRequest.newBuilder()
+                        .setFilePath(filePath)
+                        .setOffset(offset)
+                        .setMaxBytes(maxBytes))
+                .build());
+        return responseWrapper.getFileChunkResponse();
+    }
+
+    HeapDumpSummary heapDumpSummary(String agentId, String filePath) throws Exception {
+        AgentResponse responseWrapper = runOnCluster(agentId, CentralRequest.newBuilder()
+                .setHeapDumpSummaryRequest(HeapDumpSummaryRequest.newBuilder()
+                        .setFilePath(filePath))
+                .build());
+        HeapDumpSummaryResponse response = responseWrapper.getHeapDumpSummaryResponse();
+        if (response.getFileNotFound()) {
+            throw new FileNotFoundException(filePath);
+        }
+        return response.getHeapDumpSummary();
+    }
+
     HeapHistogram heapHistogram(String agentId) throws Exception {
         AgentResponse responseWrapper = runOnCluster(agentId, CentralRequest.newBuilder()
                 .setHeapHistogramRequest(HeapHistogramRequest.newBuilder())
@@ -548,6 +577,10 @@ class DownstreamServiceImpl extends DownstreamServiceImplBase {
                     case HEAP_DUMP_REQUEST:
                         timeoutSeconds = 180;
                         break;
+                    case HEAP_DUMP_SUMMARY_REQUEST:
+                        // the heap dump is read three times by a low priority thread
+                        timeoutSeconds = 600;
+                        break;
                     default:
                         timeoutSeconds = 60;
                 }
@@ -51,6 +51,7 @@ import org.glowroot.ui.ChunkSource.ChunkCopier;
 import org.glowroot.ui.CommonHandler;
 import org.glowroot.ui.CommonHandler.CommonRequest;
 import org.glowroot.ui.CommonHandler.CommonResponse;
+import org.glowroot.ui.JsonContent;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -126,6 +127,10 @@ public class GlowrootServlet extends HttpServlet {
                 zipWriter.close();
                 out.flush();
             }
+        } else if (content instanceof JsonContent) {
+            ServletOutputStream out = res.getOutputStream();
+            ((JsonContent) content).writeTo(out);
+            out.flush();
         } else {
             throw new IllegalStateException("Unexpected content: " + content.getClass().getName());
         }
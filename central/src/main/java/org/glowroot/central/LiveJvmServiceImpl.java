@@ -15,12 +15,22 @@
  */
 package org.glowroot.central;
 
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
 
 import org.glowroot.common.live.LiveJvmService;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.Capabilities;
+import org.glowroot.wire.api.model.DownstreamServiceOuterClass.FileChunkResponse;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.HeapDumpFileInfo;
+import org.glowroot.wire.api.model.DownstreamServiceOuterClass.HeapDumpSummary;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.HeapHistogram;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.MBeanDump;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.MBeanDumpRequest.MBeanDumpKind;
@@ -29,10 +39,18 @@ import org.glowroot.wire.api.model.DownstreamServiceOuterClass.ThreadDump;
 
 class LiveJvmServiceImpl implements LiveJvmService {
 
+    private static final int FILE_CHUNK_BYTES =
+            Integer.getInteger("glowroot.central.fileChunkBytes", 1024 * 1024);
+
     private final DownstreamServiceImpl downstreamService;
+    private final File heapDumpDir;
 
-    LiveJvmServiceImpl(DownstreamServiceImpl downstreamService) {
+    // absolute paths of local files currently being transferred
+    private final Set<String> transfersInProgress = Sets.newConcurrentHashSet();
+
+    LiveJvmServiceImpl(DownstreamServiceImpl downstreamService, File heapDumpDir) {
         this.downstreamService = downstreamService;
+        this.heapDumpDir = heapDumpDir;
     }
 
     @Override
@@ -60,6 +78,77 @@ class LiveJvmServiceImpl implements LiveJvmService {
         return downstreamService.heapDump(agentId, directory);
     }
 
+    // the file is pulled from the agent one chunk at a time (which also provides flow control) and
+    // appended to a ".part" file, so that only a single chunk is ever held in memory, and so that
+    // a transfer that is interrupted (e.g. agent reconnecting) resumes where it left off the next
+    // time it is requested
+    @Override
+    public HeapDumpFileInfo transferHeapDump(String agentId, String filePath,
+            TransferProgressListener progressListener) throws Exception {
+        File dir = new File(heapDumpDir, toSafeFileName(agentId));
+        File file = new File(dir, toSafeFileName(getFileName(filePath)));
+        if (file.exists()) {
+            return toHeapDumpFileInfo(file);
+        }
+        String key = file.getAbsolutePath();
+        if (!transfersInProgress.add(key)) {
+            throw new IllegalStateException("Transfer is already in progress: " + filePath);
+        }
+        try {
+            if (!dir.exists() && !dir.mkdirs()) {
+                throw new IOException("Could not create directory: " + dir.getAbsolutePath());
+            }
+            File partFile = new File(dir, file.getName() + ".part");
+            long offset = partFile.length();
+            boolean mismatch = false;
+            try (FileOutputStream out = new FileOutputStream(partFile, true)) {
+                while (true) {
+                    if (Thread.interrupted()) {
+                        // cancelled, the part file is kept so that the transfer can be resumed
+                        throw new InterruptedException();
+                    }
+                    FileChunkResponse chunk = downstreamService.fileChunk(agentId, filePath,
+                            offset, FILE_CHUNK_BYTES);
+                    if (chunk.getFileNotFound()) {
+                        throw new FileNotFoundException(filePath);
+                    }
+                    if (offset > chunk.getFileSizeBytes()) {
+                        mismatch = true;
+                        break;
+                    }
+                    if (offset == chunk.getFileSizeBytes()) {
+                        break;
+                    }
+                    if (chunk.getData().isEmpty()) {
+                        throw new IOException("Unexpected empty chunk: " + filePath);
+                    }
+                    chunk.getData().writeTo(out);
+                    offset += chunk.getData().size();
+                    progressListener.onProgress(offset, chunk.getFileSizeBytes());
+                    if (offset == chunk.getFileSizeBytes()) {
+                        break;
+                    }
+                }
+            }
+            if (mismatch) {
+                // part file is not from the same heap dump, so start over next time
+                if (!partFile.delete()) {
+                    throw new IOException("Could not delete file: " + partFile.getAbsolutePath());
+                }
+                throw new IOException("Partial transfer did not match: " + filePath);
+            }
+            Files.move(partFile, file);
+            return toHeapDumpFileInfo(file);
+        } finally {
+            transfersInProgress.remove(key);
+        }
+    }
+
+    @Override
+    public HeapDumpSummary heapDumpSummary(String agentId, String filePath) throws Exception {
+        return downstreamService.heapDumpSummary(agentId, filePath);
+    }
+
     @Override
     public HeapHistogram heapHistogram(String agentId) throws Exception {
         return downstreamService.heapHistogram(agentId);
@@ -96,4 +185,21 @@ class LiveJvmServiceImpl implements LiveJvmService {
     public Capabilities getCapabilities(String agentId) throws Exception {
         return downstreamService.capabilities(agentId);
     }
+
+    private static String getFileName(String filePath) {
+        // agent may be running on a different OS than central
+        int index = Math.max(filePath.lastIndexOf('/'), filePath.lastIndexOf('\\'));
+        return filePath.substring(index + 1);
+    }
+
+    private static String toSafeFileName(String name) {
+        return name.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+    private static HeapDumpFileInfo toHeapDumpFileInfo(File file) {
+        return HeapDumpFileInfo.newBuilder()
+                .setFilePath(file.getAbsolutePath())
+                .setFileSizeBytes(file.length())
+                .build();
+    }
 }
@@ -15,12 +15,19 @@
  */
 package org.glowroot.central;
 
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.annotation.Nullable;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.immutables.value.Value;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -30,8 +37,11 @@ import org.glowroot.central.repo.AgentRollupDao;
 import org.glowroot.central.repo.AggregateDao;
 import org.glowroot.central.repo.GaugeValueDao;
 import org.glowroot.central.repo.SyntheticResultDao;
+import org.glowroot.central.util.ClusterManager;
+import org.glowroot.central.util.MoreFutures;
 import org.glowroot.common.repo.AgentRollupRepository.AgentRollup;
 import org.glowroot.common.util.Clock;
+import org.glowroot.common.util.Styles;
 
 import static java.util.concurrent.TimeUnit.SECONDS;
 
@@ -44,21 +54,28 @@ class RollupService implements Runnable {
     private final GaugeValueDao gaugeValueDao;
     private final SyntheticResultDao syntheticResultDao;
     private final CentralAlertingService centralAlertingService;
+    private final ClusterManager clusterManager;
     private final Clock clock;
 
     private final ExecutorService executor;
+    private final ExecutorService workerExecutor;
 
     private volatile boolean closed;
 
     RollupService(AgentRollupDao agentRollupDao, AggregateDao aggregateDao,
             GaugeValueDao gaugeValueDao, SyntheticResultDao syntheticResultDao,
-            CentralAlertingService centralAlertingService, Clock clock) {
+            CentralAlertingService centralAlertingService, ClusterManager clusterManager,
+            int numWorkerThreads, Clock clock) {
         this.agentRollupDao = agentRollupDao;
         this.aggregateDao = aggregateDao;
         this.gaugeValueDao = gaugeValueDao;
         this.syntheticResultDao = syntheticResultDao;
         this.centralAlertingService = centralAlertingService;
+        this.clusterManager = clusterManager;
         this.clock = clock;
+        workerExecutor = Executors.newFixedThreadPool(numWorkerThreads,
+                new ThreadFactoryBuilder().setDaemon(true)
+                        .setNameFormat("Glowroot-Central-Rollup-Worker-%d").build());
         executor = Executors.newSingleThreadExecutor();
         executor.execute(castInitialized(this));
     }
@@ -81,11 +98,17 @@ class RollupService implements Runnable {
 
     void close() throws InterruptedException {
         closed = true;
-        // shutdownNow() is needed here to send interrupt to RollupService thread
+        // shutdownNow() is needed here to send interrupt to RollupService thread (and to any
+        // rollup worker threads)
         executor.shutdownNow();
+        workerExecutor.shutdownNow();
         if (!executor.awaitTermination(10, SECONDS)) {
             throw new IllegalStateException("Timed out waiting for rollup thread to terminate");
         }
+        if (!workerExecutor.awaitTermination(10, SECONDS)) {
+            throw new IllegalStateException(
+                    "Timed out waiting for rollup worker threads to terminate");
+        }
     }
 
     @Instrumentation.Transaction(transactionType = "Background",
@@ -93,27 +116,62 @@ class RollupService implements Runnable {
             timer = "outer rollup loop")
     private void runInternal() throws Exception {
         Glowroot.setTransactionOuter();
+        // each agent rollup tree is rolled up entirely on a single central node (so that children
+        // are always rolled up before their parent), and trees are spread across the cluster
+        List<AgentRollup> agentRollups = Lists.newArrayList();
         for (AgentRollup agentRollup : agentRollupDao.readAgentRollups()) {
-            rollupAggregates(agentRollup, null);
-            rollupGauges(agentRollup, null);
-            rollupSyntheticMonitors(agentRollup);
-            // checking aggregate and gauge alerts after rollup since their calculation can depend
-            // on rollups depending on time period length (and alerts on rollups are not checked
-            // anywhere else)
-            //
-            // agent (not rollup) alerts are also checked right after receiving the respective data
-            // (aggregate/gauge/heartbeat) from the agent, but need to also check these once a
-            // minute in case no data has been received from the agent recently
-            consumeAgentRollups(agentRollup, this::checkForDeletedAlerts);
-            consumeAgentRollups(agentRollup, this::checkAggregateAndGaugeAndHeartbeatAlertsAsync);
+            if (clusterManager.isLocalOwner(agentRollup.id())) {
+                agentRollups.add(agentRollup);
+            }
+        }
+        // rolling up level by level starting from the deepest level, so that all children are
+        // rolled up before their parent, while still allowing independent agent rollups (e.g. all
+        // agents under the same parent) to be rolled up in parallel
+        Set<String> failedGaugeRollups = Sets.newConcurrentHashSet();
+        List<List<RollupItem>> rollupItemsByDepth = getRollupItemsByDepth(agentRollups);
+        for (List<RollupItem> rollupItems : Lists.reverse(rollupItemsByDepth)) {
+            List<Future<?>> futures = Lists.newArrayList();
+            for (RollupItem rollupItem : rollupItems) {
+                futures.add(workerExecutor.submit(() -> {
+                    rollup(rollupItem, failedGaugeRollups);
+                    return null;
+                }));
+            }
+            MoreFutures.waitForAll(futures);
         }
     }
 
-    private void rollupAggregates(AgentRollup agentRollup, @Nullable String parentAgentRollupId)
-            throws InterruptedException {
+    private void rollup(RollupItem rollupItem, Set<String> failedGaugeRollups) throws Exception {
+        AgentRollup agentRollup = rollupItem.agentRollup();
+        String parentAgentRollupId = rollupItem.parentAgentRollupId();
+        rollupAggregates(agentRollup, parentAgentRollupId);
+        // important to not roll up parent gauges if exception occurs while rolling up a child's
+        // gauges, since gauge values initial roll up from children is done on the 1-min
+        // aggregates of the children
+        boolean childGaugeRollupFailed = false;
         for (AgentRollup childAgentRollup : agentRollup.children()) {
-            rollupAggregates(childAgentRollup, agentRollup.id());
+            if (failedGaugeRollups.contains(childAgentRollup.id())) {
+                childGaugeRollupFailed = true;
+                break;
+            }
         }
+        if (childGaugeRollupFailed || !rollupGauges(agentRollup, parentAgentRollupId)) {
+            failedGaugeRollups.add(agentRollup.id());
+        }
+        rollupSyntheticMonitors(agentRollup);
+        // checking aggregate and gauge alerts after rollup since their calculation can depend on
+        // rollups depending on time period length (and alerts on rollups are not checked anywhere
+        // else)
+        //
+        // agent (not rollup) alerts are also checked right after receiving the respective data
+        // (aggregate/gauge/heartbeat) from the agent, but need to also check these once a minute
+        // in case no data has been received from the agent recently
+        checkForDeletedAlerts(agentRollup);
+        checkAggregateAndGaugeAndHeartbeatAlertsAsync(agentRollup);
+    }
+
+    private void rollupAggregates(AgentRollup agentRollup, @Nullable String parentAgentRollupId)
+            throws InterruptedException {
         try {
             aggregateDao.rollup(agentRollup.id(), parentAgentRollupId,
                     agentRollup.children().isEmpty());
@@ -128,19 +186,6 @@ class RollupService implements Runnable {
     // returns true on success, false on failure
     private boolean rollupGauges(AgentRollup agentRollup, @Nullable String parentAgentRollupId)
             throws InterruptedException {
-        // important to roll up children first, since gauge values initial roll up from children is
-        // done on the 1-min aggregates of the children
-        boolean success = true;
-        for (AgentRollup childAgentRollup : agentRollup.children()) {
-            boolean childSuccess = rollupGauges(childAgentRollup, agentRollup.id());
-            success = success && childSuccess;
-        }
-        if (!success) {
-            // also important to not roll up parent if exception occurs while rolling up a child,
-            // since gauge values initial roll up from children is done on the 1-min aggregates of
-            // the children
-            return false;
-        }
         try {
             gaugeValueDao.rollup(agentRollup.id(), parentAgentRollupId,
                     agentRollup.children().isEmpty());
@@ -154,10 +199,7 @@ class RollupService implements Runnable {
         }
     }
 
-    private void rollupSyntheticMonitors(AgentRollup agentRollup) throws Exception {
-        for (AgentRollup childAgentRollup : agentRollup.children()) {
-            rollupSyntheticMonitors(childAgentRollup);
-        }
+    private void rollupSyntheticMonitors(AgentRollup agentRollup) throws InterruptedException {
         try {
             syntheticResultDao.rollup(agentRollup.id());
         } catch (InterruptedException e) {
@@ -168,14 +210,6 @@ class RollupService implements Runnable {
         }
     }
 
-    private void consumeAgentRollups(AgentRollup agentRollup,
-            AgentRollupConsumer agentRollupConsumer) throws Exception {
-        for (AgentRollup childAgentRollup : agentRollup.children()) {
-            consumeAgentRollups(childAgentRollup, agentRollupConsumer);
-        }
-        agentRollupConsumer.accept(agentRollup);
-    }
-
     private void checkForDeletedAlerts(AgentRollup agentRollup) {
         centralAlertingService.checkForDeletedAlerts(agentRollup.id(), agentRollup.display());
     }
@@ -185,6 +219,28 @@ class RollupService implements Runnable {
                 agentRollup.display(), clock.currentTimeMillis());
     }
 
+    // list index is depth in the agent rollup tree
+    @VisibleForTesting
+    static List<List<RollupItem>> getRollupItemsByDepth(List<AgentRollup> agentRollups) {
+        List<List<RollupItem>> rollupItemsByDepth = Lists.newArrayList();
+        List<RollupItem> currDepth = Lists.newArrayList();
+        for (AgentRollup agentRollup : agentRollups) {
+            currDepth.add(ImmutableRollupItem.of(agentRollup, null));
+        }
+        while (!currDepth.isEmpty()) {
+            rollupItemsByDepth.add(currDepth);
+            List<RollupItem> nextDepth = Lists.newArrayList();
+            for (RollupItem rollupItem : currDepth) {
+                AgentRollup agentRollup = rollupItem.agentRollup();
+                for (AgentRollup childAgentRollup : agentRollup.children()) {
+                    nextDepth.add(ImmutableRollupItem.of(childAgentRollup, agentRollup.id()));
+                }
+            }
+            currDepth = nextDepth;
+        }
+        return rollupItemsByDepth;
+    }
+
     @VisibleForTesting
     static long millisUntilNextRollup(long currentTimeMillis) {
         return 60000 - (currentTimeMillis - 10000) % 60000;
@@ -195,8 +251,11 @@ class RollupService implements Runnable {
         return obj;
     }
 
-    @FunctionalInterface
-    interface AgentRollupConsumer {
-        void accept(AgentRollup agentRollup) throws Exception;
+    @Value.Immutable
+    @Styles.AllParameters
+    interface RollupItem {
+        AgentRollup agentRollup();
+        @Nullable
+        String parentAgentRollupId();
     }
 }
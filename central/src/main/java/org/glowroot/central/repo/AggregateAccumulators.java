@@ -0,0 +1,344 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.central.repo;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.immutables.value.Value;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.glowroot.central.repo.AggregateDao.MutableErrorSummary;
+import org.glowroot.common.repo.MutableAggregate;
+import org.glowroot.common.util.Clock;
+import org.glowroot.common.util.Styles;
+import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
+import org.glowroot.wire.api.model.AggregateOuterClass.OldAggregatesByType;
+import org.glowroot.wire.api.model.AggregateOuterClass.OldTransactionAggregate;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+// accumulates the level-0 aggregates received by this central node, so that the level-1 rollup can
+// be written directly from memory instead of reading back all of the level-0 rows from Cassandra
+//
+// accumulated values are only used when they cover exactly the level-0 data stored in Cassandra for
+// the rollup interval, which is not the case e.g. after central restart, when some of the agent's
+// data was received by a different central node, or when data arrives after the interval was
+// already rolled up, in which case the rollup falls back to reading back the level-0 rows
+//
+// thread profiles are not accumulated since they are by far the largest structures, and are always
+// rolled up by reading back the level-0 rows
+//
+// an interval is closed when it is removed for the rollup, after which it is never modified again,
+// so that the rollup can read it without racing against a concurrent accumulate() for the same
+// interval (whose level-0 data is then missing from the accumulated capture times, which causes
+// the rollup to fall back to reading back the level-0 rows)
+//
+// the number of aggregates accumulated per interval is capped, since there is one per transaction
+// name, and an interval that goes over the cap is discarded so that its rollup falls back to
+// reading back the level-0 rows
+class AggregateAccumulators {
+
+    private static final Logger logger = LoggerFactory.getLogger(AggregateAccumulators.class);
+
+    // accumulated intervals are normally consumed by the rollup shortly after the interval ends,
+    // but may not be consumed e.g. if ownership of the agent's rollups moved to another central
+    // node
+    private static final long EXPIRATION_MILLIS = MINUTES.toMillis(15);
+
+    private static final int MAX_AGGREGATES_PER_INTERVAL = 10000;
+
+    private final Clock clock;
+    private final int maxAggregatesPerInterval;
+
+    private final ConcurrentMap<IntervalKey, AccumulatedInterval> intervals =
+            Maps.newConcurrentMap();
+
+    private final AtomicLong lastExpirationCheckTime = new AtomicLong();
+
+    private final AtomicBoolean overflowLogged = new AtomicBoolean();
+
+    AggregateAccumulators(Clock clock) {
+        this(clock, MAX_AGGREGATES_PER_INTERVAL);
+    }
+
+    @VisibleForTesting
+    AggregateAccumulators(Clock clock, int maxAggregatesPerInterval) {
+        this.clock = clock;
+        this.maxAggregatesPerInterval = maxAggregatesPerInterval;
+    }
+
+    // this should only be called after the level-0 data has been successfully stored
+    void accumulate(String agentId, long rollupCaptureTime, long captureTime,
+            List<OldAggregatesByType> aggregatesByTypeList,
+            List<Aggregate.SharedQueryText> sharedQueryTexts, int maxAggregateQueriesPerType,
+            int maxAggregateServiceCallsPerType) {
+        long currentTimeMillis = clock.currentTimeMillis();
+        expireIfNeeded(currentTimeMillis);
+        AccumulatedInterval interval = intervals.computeIfAbsent(
+                ImmutableIntervalKey.of(agentId, rollupCaptureTime),
+                k -> new AccumulatedInterval(currentTimeMillis, maxAggregatesPerInterval,
+                        maxAggregateQueriesPerType, maxAggregateServiceCallsPerType));
+        if (interval.accumulate(captureTime, aggregatesByTypeList, sharedQueryTexts)
+                && !overflowLogged.getAndSet(true)) {
+            logger.warn("more than {} aggregates in a single rollup interval for agent {}, the"
+                    + " rollups for such intervals will read back the level-0 aggregates from"
+                    + " cassandra instead of using the in-memory accumulation (this warning will"
+                    + " only be logged once)", maxAggregatesPerInterval, agentId);
+        }
+    }
+
+    @Nullable
+    AccumulatedInterval remove(String agentId, long rollupCaptureTime) {
+        AccumulatedInterval interval =
+                intervals.remove(ImmutableIntervalKey.of(agentId, rollupCaptureTime));
+        if (interval != null) {
+            interval.close();
+        }
+        return interval;
+    }
+
+    private void expireIfNeeded(long currentTimeMillis) {
+        long lastCheckTime = lastExpirationCheckTime.get();
+        if (currentTimeMillis - lastCheckTime < MINUTES.toMillis(1)
+                || !lastExpirationCheckTime.compareAndSet(lastCheckTime, currentTimeMillis)) {
+            return;
+        }
+        intervals.values().removeIf(
+                interval -> currentTimeMillis - interval.createdTime > EXPIRATION_MILLIS);
+    }
+
+    static class AccumulatedInterval {
+
+        private final long createdTime;
+        private final int maxAggregates;
+        private final int maxAggregateQueriesPerType;
+        private final int maxAggregateServiceCallsPerType;
+
+        // key is transaction type
+        private final Map<String, AccumulatedTransactionType> transactionTypes =
+                Maps.newHashMap();
+
+        private int aggregateCount;
+        private boolean overflowed;
+
+        private boolean closed;
+
+        private AccumulatedInterval(long createdTime, int maxAggregates,
+                int maxAggregateQueriesPerType, int maxAggregateServiceCallsPerType) {
+            this.createdTime = createdTime;
+            this.maxAggregates = maxAggregates;
+            this.maxAggregateQueriesPerType = maxAggregateQueriesPerType;
+            this.maxAggregateServiceCallsPerType = maxAggregateServiceCallsPerType;
+        }
+
+        // the returned value must only be read after the interval has been closed
+        synchronized @Nullable AccumulatedTransactionType get(String transactionType) {
+            if (!closed) {
+                throw new IllegalStateException("Interval has not been closed");
+            }
+            return transactionTypes.get(transactionType);
+        }
+
+        private synchronized void close() {
+            closed = true;
+        }
+
+        // returns true if this call caused the interval to go over the max number of aggregates
+        private synchronized boolean accumulate(long captureTime,
+                List<OldAggregatesByType> aggregatesByTypeList,
+                List<Aggregate.SharedQueryText> sharedQueryTexts) {
+            if (closed || overflowed) {
+                // the interval has already been removed for the rollup, or the rollup will read
+                // back the level-0 rows anyways
+                return false;
+            }
+            for (OldAggregatesByType aggregatesByType : aggregatesByTypeList) {
+                String transactionType = aggregatesByType.getTransactionType();
+                AccumulatedTransactionType accumulated = transactionTypes.get(transactionType);
+                if (accumulated == null) {
+                    accumulated = new AccumulatedTransactionType(maxAggregateQueriesPerType,
+                            maxAggregateServiceCallsPerType);
+                    transactionTypes.put(transactionType, accumulated);
+                    aggregateCount++;
+                }
+                aggregateCount +=
+                        accumulated.accumulate(captureTime, aggregatesByType, sharedQueryTexts);
+                if (aggregateCount > maxAggregates) {
+                    // release the memory, get() returns null from here on
+                    overflowed = true;
+                    transactionTypes.clear();
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    static class AccumulatedTransactionType {
+
+        private final int maxAggregateQueriesPerType;
+        private final int maxAggregateServiceCallsPerType;
+
+        private final Set<Long> captureTimes = Sets.newHashSet();
+        private final MutableAggregate overallAggregate;
+        private final Map<String, MutableAggregate> transactionAggregates = Maps.newHashMap();
+
+        // error summary transaction counts only include the level-0 intervals that had errors
+        private final MutableErrorSummary overallErrorSummary = new MutableErrorSummary();
+        private final Map<String, MutableErrorSummary> transactionErrorSummaries =
+                Maps.newHashMap();
+
+        private AccumulatedTransactionType(int maxAggregateQueriesPerType,
+                int maxAggregateServiceCallsPerType) {
+            this.maxAggregateQueriesPerType = maxAggregateQueriesPerType;
+            this.maxAggregateServiceCallsPerType = maxAggregateServiceCallsPerType;
+            overallAggregate = new MutableAggregate(maxAggregateQueriesPerType,
+                    maxAggregateServiceCallsPerType);
+        }
+
+        // these are compared against the level-0 capture times stored in Cassandra for the rollup
+        // interval in order to verify that the accumulated data is complete
+        Set<Long> getCaptureTimes() {
+            return ImmutableSet.copyOf(captureTimes);
+        }
+
+        MutableAggregate getOverallAggregate() {
+            return overallAggregate;
+        }
+
+        Map<String, MutableAggregate> getTransactionAggregates() {
+            return ImmutableMap.copyOf(transactionAggregates);
+        }
+
+        MutableErrorSummary getOverallErrorSummary() {
+            return overallErrorSummary;
+        }
+
+        Map<String, MutableErrorSummary> getTransactionErrorSummaries() {
+            return ImmutableMap.copyOf(transactionErrorSummaries);
+        }
+
+        // returns the number of transaction aggregates added
+        private int accumulate(long captureTime, OldAggregatesByType aggregatesByType,
+                List<Aggregate.SharedQueryText> sharedQueryTexts) {
+            if (!captureTimes.add(captureTime)) {
+                // agent retried sending the same data, which was overwritten in Cassandra
+                return 0;
+            }
+            int added = 0;
+            Aggregate overallAggregateProto = aggregatesByType.getOverallAggregate();
+            merge(overallAggregate, overallAggregateProto, sharedQueryTexts);
+            mergeErrorSummary(overallErrorSummary, overallAggregateProto);
+            for (OldTransactionAggregate transactionAggregate : aggregatesByType
+                    .getTransactionAggregateList()) {
+                String transactionName = transactionAggregate.getTransactionName();
+                MutableAggregate aggregate = transactionAggregates.get(transactionName);
+                if (aggregate == null) {
+                    aggregate = new MutableAggregate(maxAggregateQueriesPerType,
+                            maxAggregateServiceCallsPerType);
+                    transactionAggregates.put(transactionName, aggregate);
+                    added++;
+                }
+                merge(aggregate, transactionAggregate.getAggregate(), sharedQueryTexts);
+                if (transactionAggregate.getAggregate().getErrorCount() > 0) {
+                    MutableErrorSummary errorSummary =
+                            transactionErrorSummaries.get(transactionName);
+                    if (errorSummary == null) {
+                        errorSummary = new MutableErrorSummary();
+                        transactionErrorSummaries.put(transactionName, errorSummary);
+                    }
+                    mergeErrorSummary(errorSummary, transactionAggregate.getAggregate());
+                }
+            }
+            return added;
+        }
+
+        private static void mergeErrorSummary(MutableErrorSummary errorSummary,
+                Aggregate aggregate) {
+            if (aggregate.getErrorCount() > 0) {
+                errorSummary.errorCount += aggregate.getErrorCount();
+                errorSummary.transactionCount += aggregate.getTransactionCount();
+            }
+        }
+
+        // this needs to mirror the way the level-0 rows are merged when reading back
+        private static void merge(MutableAggregate mergedAggregate, Aggregate aggregate,
+                List<Aggregate.SharedQueryText> sharedQueryTexts) {
+            mergedAggregate.addTotalDurationNanos(aggregate.getTotalDurationNanos());
+            mergedAggregate.addTransactionCount(aggregate.getTransactionCount());
+            mergedAggregate.addErrorCount(aggregate.getErrorCount());
+            mergedAggregate.addAsyncTransactions(aggregate.getAsyncTransactions());
+            mergedAggregate.mergeMainThreadRootTimers(aggregate.getMainThreadRootTimerList());
+            mergedAggregate.mergeAuxThreadRootTimers(aggregate.getAuxThreadRootTimerList());
+            mergedAggregate.mergeAsyncTimers(aggregate.getAsyncTimerList());
+            Aggregate.ThreadStats mainThreadStats = aggregate.getMainThreadStats();
+            mergedAggregate.addMainThreadTotalCpuNanos(mainThreadStats.hasTotalCpuNanos()
+                    ? mainThreadStats.getTotalCpuNanos().getValue() : null);
+            mergedAggregate.addMainThreadTotalBlockedNanos(mainThreadStats.hasTotalBlockedNanos()
+                    ? mainThreadStats.getTotalBlockedNanos().getValue() : null);
+            mergedAggregate.addMainThreadTotalWaitedNanos(mainThreadStats.hasTotalWaitedNanos()
+                    ? mainThreadStats.getTotalWaitedNanos().getValue() : null);
+            mergedAggregate.addMainThreadTotalAllocatedBytes(
+                    mainThreadStats.hasTotalAllocatedBytes()
+                            ? mainThreadStats.getTotalAllocatedBytes().getValue() : null);
+            Aggregate.ThreadStats auxThreadStats = aggregate.getAuxThreadStats();
+            mergedAggregate.addAuxThreadTotalCpuNanos(auxThreadStats.hasTotalCpuNanos()
+                    ? auxThreadStats.getTotalCpuNanos().getValue() : null);
+            mergedAggregate.addAuxThreadTotalBlockedNanos(auxThreadStats.hasTotalBlockedNanos()
+                    ? auxThreadStats.getTotalBlockedNanos().getValue() : null);
+            mergedAggregate.addAuxThreadTotalWaitedNanos(auxThreadStats.hasTotalWaitedNanos()
+                    ? auxThreadStats.getTotalWaitedNanos().getValue() : null);
+            mergedAggregate.addAuxThreadTotalAllocatedBytes(auxThreadStats.hasTotalAllocatedBytes()
+                    ? auxThreadStats.getTotalAllocatedBytes().getValue() : null);
+            mergedAggregate.mergeDurationNanosHistogram(aggregate.getDurationNanosHistogram());
+            for (Aggregate.QueriesByType queriesByType : aggregate.getQueriesByTypeList()) {
+                for (Aggregate.Query query : queriesByType.getQueryList()) {
+                    Aggregate.SharedQueryText sharedQueryText =
+                            sharedQueryTexts.get(query.getSharedQueryTextIndex());
+                    String fullTextSha1 = Strings.emptyToNull(sharedQueryText.getFullTextSha1());
+                    String truncatedText = fullTextSha1 == null ? sharedQueryText.getFullText()
+                            : sharedQueryText.getTruncatedText();
+                    mergedAggregate.mergeQuery(queriesByType.getType(), truncatedText,
+                            fullTextSha1, query.getTotalDurationNanos(), query.getExecutionCount(),
+                            query.getRoundTripCount(), query.hasTotalRows(),
+                            query.getTotalRows().getValue());
+                }
+            }
+            mergedAggregate.mergeServiceCalls(aggregate.getServiceCallsByTypeList());
+        }
+    }
+
+    @Value.Immutable
+    @Styles.AllParameters
+    interface IntervalKey {
+        String agentId();
+        long rollupCaptureTime();
+    }
+}
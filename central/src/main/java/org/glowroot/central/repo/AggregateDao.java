@@ -52,6 +52,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.glowroot.agent.api.Instrumentation;
+import org.glowroot.central.repo.AggregateAccumulators.AccumulatedInterval;
+import org.glowroot.central.repo.AggregateAccumulators.AccumulatedTransactionType;
+import org.glowroot.central.repo.AggregateReadCache.BucketKey;
+import org.glowroot.central.util.Cache;
+import org.glowroot.central.util.ClusterManager;
 import org.glowroot.central.util.Messages;
 import org.glowroot.central.util.MoreFutures;
 import org.glowroot.central.util.Session;
@@ -171,6 +176,7 @@ public class AggregateDao implements AggregateRepository {
             .addColumns(ImmutableColumn.of("total_duration_nanos", "double"))
             .addColumns(ImmutableColumn.of("execution_count", "bigint"))
             .addColumns(ImmutableColumn.of("total_rows", "bigint"))
+            .addColumns(ImmutableColumn.of("round_trip_count", "bigint"))
             .addClusterKey("query_type")
             .addClusterKey("truncated_query_text")
             .addClusterKey("full_query_text_sha1") // need this for uniqueness
@@ -209,6 +215,7 @@ public class AggregateDao implements AggregateRepository {
     private final TransactionTypeDao transactionTypeDao;
     private final FullQueryTextDao fullQueryTextDao;
     private final ConfigRepositoryImpl configRepository;
+    private final ClusterManager clusterManager;
     private final Clock clock;
 
     // list index is rollupLevel
@@ -234,17 +241,36 @@ public class AggregateDao implements AggregateRepository {
     private final PreparedStatement readNeedsRollupFromChild;
     private final PreparedStatement deleteNeedsRollupFromChild;
 
+    private final PreparedStatement readCaptureTimesForRollupFromMemoryPS;
+
     private final ImmutableList<Table> allTables;
 
+    private final AggregateAccumulators aggregateAccumulators;
+
+    private final AggregateReadCache readCache;
+    private final Cache<BucketKey, List<OverviewAggregate>> overviewCache;
+    private final Cache<BucketKey, List<PercentileAggregate>> percentileCache;
+    private final Cache<BucketKey, List<ThroughputAggregate>> throughputCache;
+
     AggregateDao(Session session, AgentRollupDao agentRollupDao,
             TransactionTypeDao transactionTypeDao, FullQueryTextDao fullQueryTextDao,
-            ConfigRepositoryImpl configRepository, Clock clock) throws Exception {
+            ConfigRepositoryImpl configRepository, ClusterManager clusterManager, Clock clock)
+            throws Exception {
         this.session = session;
         this.agentRollupDao = agentRollupDao;
         this.transactionTypeDao = transactionTypeDao;
         this.fullQueryTextDao = fullQueryTextDao;
         this.configRepository = configRepository;
+        this.clusterManager = clusterManager;
         this.clock = clock;
+        aggregateAccumulators = new AggregateAccumulators(clock);
+        readCache = new AggregateReadCache(clusterManager, configRepository, clock);
+        overviewCache = readCache.createBucketCache("overviewAggregateCache",
+                this::readOverviewAggregatesInternal);
+        percentileCache = readCache.createBucketCache("percentileAggregateCache",
+                this::readPercentileAggregatesInternal);
+        throughputCache = readCache.createBucketCache("throughputAggregateCache",
+                this::readThroughputAggregatesInternal);
 
         int count = configRepository.getRollupConfigs().size();
         List<Integer> rollupExpirationHours =
@@ -327,6 +353,10 @@ public class AggregateDao implements AggregateRepository {
         this.readTransactionForRollupPS = ImmutableMap.copyOf(readTransactionForRollupMap);
         this.readTransactionForRollupFromChildPS =
                 ImmutableMap.copyOf(readTransactionForRollupFromChildMap);
+        readCaptureTimesForRollupFromMemoryPS = session.prepare("select capture_time from "
+                + getTableName(summaryTable.partialName(), false, 0)
+                + " where agent_rollup = ? and transaction_type = ? and capture_time > ?"
+                + " and capture_time <= ?");
 
         List<PreparedStatement> existsMainThreadProfileOverallPS = Lists.newArrayList();
         List<PreparedStatement> existsMainThreadProfileTransactionPS = Lists.newArrayList();
@@ -448,12 +478,8 @@ public class AggregateDao implements AggregateRepository {
             // transactionName rollups are based on finding transactionName in summary table
             MoreFutures.waitForAll(futures);
             futures.clear();
-            for (OldTransactionAggregate transactionAggregate : aggregatesByType
-                    .getTransactionAggregateList()) {
-                futures.addAll(storeTransactionSummary(agentId, transactionType,
-                        transactionAggregate.getTransactionName(), captureTime,
-                        transactionAggregate.getAggregate(), adjustedTTL));
-            }
+            futures.addAll(storeTransactionSummaries(agentId, transactionType, captureTime,
+                    aggregatesByType.getTransactionAggregateList(), adjustedTTL));
             futures.addAll(transactionTypeDao.store(agentRollupIds, transactionType));
         }
         futures.add(agentRollupDao.updateLastCaptureTime(agentId, captureTime));
@@ -462,6 +488,22 @@ public class AggregateDao implements AggregateRepository {
         futures.clear();
 
         List<RollupConfig> rollupConfigs = configRepository.getRollupConfigs();
+        long intervalMillis = rollupConfigs.get(1).intervalMillis();
+        long rollupCaptureTime = Utils.getRollupCaptureTime(captureTime, intervalMillis);
+        // accumulate before inserting "needs rollup" records so that the level-1 rollup will
+        // normally find the accumulated data already in place
+        //
+        // only accumulating on the central node that owns the agent's rollup tree, since the
+        // accumulated data is never read on the other central nodes
+        String topLevelAgentRollupId = agentRollupIds.get(agentRollupIds.size() - 1);
+        if (clusterManager.isLocalOwner(topLevelAgentRollupId)) {
+            RollupParams rollupParams = getRollupParams(agentId, 0, adjustedTTL);
+            aggregateAccumulators.accumulate(agentId, rollupCaptureTime, captureTime,
+                    aggregatesByTypeList, sharedQueryTexts,
+                    rollupParams.maxAggregateQueriesPerType(),
+                    rollupParams.maxAggregateServiceCallsPerType());
+        }
+
         // TODO report checker framework issue that occurs without this suppression
         @SuppressWarnings("assignment.type.incompatible")
         Set<String> transactionTypes = aggregatesByTypeList.stream()
@@ -480,8 +522,6 @@ public class AggregateDao implements AggregateRepository {
             futures.add(session.executeAsync(boundStatement));
         }
         // insert into aggregate_needs_rollup_1
-        long intervalMillis = rollupConfigs.get(1).intervalMillis();
-        long rollupCaptureTime = Utils.getRollupCaptureTime(captureTime, intervalMillis);
         BoundStatement boundStatement = insertNeedsRollup.get(0).bind();
         int i = 0;
         boundStatement.setString(i++, agentId);
@@ -491,6 +531,7 @@ public class AggregateDao implements AggregateRepository {
         boundStatement.setInt(i++, needsRollupAdjustedTTL);
         futures.add(session.executeAsync(boundStatement));
         MoreFutures.waitForAll(futures);
+        readCache.afterWrite(agentId, captureTime);
     }
 
     // query.from() is non-inclusive
@@ -577,6 +618,29 @@ public class AggregateDao implements AggregateRepository {
     @Override
     public List<OverviewAggregate> readOverviewAggregates(String agentRollupId,
             TransactionQuery query) throws Exception {
+        return readCache.read(overviewCache, agentRollupId, query,
+                this::readOverviewAggregatesInternal, OverviewAggregate::captureTime);
+    }
+
+    // query.from() is INCLUSIVE
+    @Override
+    public List<PercentileAggregate> readPercentileAggregates(String agentRollupId,
+            TransactionQuery query) throws Exception {
+        return readCache.read(percentileCache, agentRollupId, query,
+                this::readPercentileAggregatesInternal, PercentileAggregate::captureTime);
+    }
+
+    // query.from() is INCLUSIVE
+    @Override
+    public List<ThroughputAggregate> readThroughputAggregates(String agentRollupId,
+            TransactionQuery query) throws Exception {
+        return readCache.read(throughputCache, agentRollupId, query,
+                this::readThroughputAggregatesInternal, ThroughputAggregate::captureTime);
+    }
+
+    // query.from() is INCLUSIVE
+    private List<OverviewAggregate> readOverviewAggregatesInternal(String agentRollupId,
+            TransactionQuery query) throws Exception {
         ResultSet results = executeQuery(agentRollupId, query, overviewTable);
         List<OverviewAggregate> overviewAggregates = Lists.newArrayList();
         for (Row row : results) {
@@ -625,8 +689,7 @@ public class AggregateDao implements AggregateRepository {
     }
 
     // query.from() is INCLUSIVE
-    @Override
-    public List<PercentileAggregate> readPercentileAggregates(String agentRollupId,
+    private List<PercentileAggregate> readPercentileAggregatesInternal(String agentRollupId,
             TransactionQuery query) throws Exception {
         ResultSet results = executeQuery(agentRollupId, query, histogramTable);
         List<PercentileAggregate> percentileAggregates = Lists.newArrayList();
@@ -648,8 +711,7 @@ public class AggregateDao implements AggregateRepository {
     }
 
     // query.from() is INCLUSIVE
-    @Override
-    public List<ThroughputAggregate> readThroughputAggregates(String agentRollupId,
+    private List<ThroughputAggregate> readThroughputAggregatesInternal(String agentRollupId,
             TransactionQuery query) throws Exception {
         ResultSet results = executeQuery(agentRollupId, query, throughputTable);
         List<ThroughputAggregate> throughputAggregates = Lists.newArrayList();
@@ -691,8 +753,10 @@ public class AggregateDao implements AggregateRepository {
             long executionCount = row.getLong(i++);
             boolean hasTotalRows = !row.isNull(i);
             long totalRows = row.getLong(i++);
+            // null for data collected prior to 0.9.29 (read as zero)
+            long roundTripCount = row.getLong(i++);
             collector.mergeQuery(queryType, truncatedText, fullTextSha1, totalDurationNanos,
-                    executionCount, hasTotalRows, totalRows);
+                    executionCount, roundTripCount, hasTotalRows, totalRows);
             collector.updateLastCaptureTime(captureTime);
         }
     }
@@ -835,6 +899,7 @@ public class AggregateDao implements AggregateRepository {
             }
             // wait for above async work to ensure rollup complete before proceeding
             MoreFutures.waitForAll(futures);
+            readCache.afterWrite(agentRollupId, captureTime);
 
             if (parentAgentRollupId != null) {
                 // insert needs to happen first before call to postRollup(), see method-level
@@ -873,9 +938,21 @@ public class AggregateDao implements AggregateRepository {
             RollupParams rollupParams = getRollupParams(agentRollupId, rollupLevel, adjustedTTL);
             long from = captureTime - rollupIntervalMillis;
             Set<String> transactionTypes = needsRollup.getKeys();
+            AccumulatedInterval accumulatedInterval = null;
+            if (rollupLevel == 1) {
+                accumulatedInterval = aggregateAccumulators.remove(agentRollupId, captureTime);
+            }
             List<Future<?>> futures = Lists.newArrayList();
             for (String transactionType : transactionTypes) {
-                futures.addAll(rollupOne(rollupParams, transactionType, from, captureTime));
+                AccumulatedTransactionType accumulated = accumulatedInterval == null ? null
+                        : accumulatedInterval.get(transactionType);
+                if (accumulated != null && isAccumulatedComplete(agentRollupId, transactionType,
+                        from, captureTime, accumulated)) {
+                    futures.addAll(rollupOneFromAccumulated(rollupParams, transactionType, from,
+                            captureTime, accumulated));
+                } else {
+                    futures.addAll(rollupOne(rollupParams, transactionType, from, captureTime));
+                }
             }
             if (futures.isEmpty()) {
                 // no rollups occurred, warning already logged inside rollupOne() above
@@ -889,6 +966,7 @@ public class AggregateDao implements AggregateRepository {
             }
             // wait for above async work to ensure rollup complete before proceeding
             MoreFutures.waitForAll(futures);
+            readCache.afterWrite(agentRollupId, captureTime);
 
             PreparedStatement insertNeedsRollup = nextRollupIntervalMillis == null ? null
                     : this.insertNeedsRollup.get(rollupLevel);
@@ -957,6 +1035,97 @@ public class AggregateDao implements AggregateRepository {
         return futures;
     }
 
+    // the accumulated data can only be used if it was accumulated from exactly the same level-0
+    // aggregates that are stored for the interval
+    private boolean isAccumulatedComplete(String agentRollupId, String transactionType, long from,
+            long to, AccumulatedTransactionType accumulated) throws Exception {
+        BoundStatement boundStatement = readCaptureTimesForRollupFromMemoryPS.bind();
+        int i = 0;
+        boundStatement.setString(i++, agentRollupId);
+        boundStatement.setString(i++, transactionType);
+        boundStatement.setTimestamp(i++, new Date(from));
+        boundStatement.setTimestamp(i++, new Date(to));
+        ResultSet results = session.execute(boundStatement);
+        Set<Long> captureTimes = Sets.newHashSet();
+        for (Row row : results) {
+            captureTimes.add(checkNotNull(row.getTimestamp(0)).getTime());
+        }
+        return captureTimes.equals(accumulated.getCaptureTimes());
+    }
+
+    private List<Future<?>> rollupOneFromAccumulated(RollupParams rollup, String transactionType,
+            long from, long to, AccumulatedTransactionType accumulated) throws Exception {
+
+        ImmutableTransactionQuery query = ImmutableTransactionQuery.builder()
+                .transactionType(transactionType)
+                .from(from)
+                .to(to)
+                .rollupLevel(rollup.rollupLevel() - 1)
+                .build();
+        List<Future<?>> futures = Lists.newArrayList();
+
+        MutableAggregate overallAggregate = accumulated.getOverallAggregate();
+        futures.addAll(insertOverallSummary(rollup, query, overallAggregate.getTotalDurationNanos(),
+                overallAggregate.getTransactionCount()));
+        MutableErrorSummary overallErrorSummary = accumulated.getOverallErrorSummary();
+        if (overallErrorSummary.errorCount > 0) {
+            futures.addAll(insertErrorSummary(rollup, query, overallErrorSummary.errorCount,
+                    overallErrorSummary.transactionCount));
+        }
+
+        Map<String, MutableAggregate> transactionAggregates =
+                accumulated.getTransactionAggregates();
+        Map<String, MutableSummary> summaries = Maps.newHashMap();
+        for (Entry<String, MutableAggregate> entry : transactionAggregates.entrySet()) {
+            MutableAggregate aggregate = entry.getValue();
+            MutableSummary summary = new MutableSummary();
+            summary.totalDurationNanos = aggregate.getTotalDurationNanos();
+            summary.transactionCount = aggregate.getTransactionCount();
+            summaries.put(entry.getKey(), summary);
+        }
+        futures.addAll(insertTransactionSummaries(rollup, query, summaries));
+        futures.addAll(insertTransactionErrorSummaries(rollup, query,
+                accumulated.getTransactionErrorSummaries()));
+
+        ScratchBuffer scratchBuffer = new ScratchBuffer();
+        futures.addAll(rollupOtherPartsFromAccumulated(rollup, query, overallAggregate,
+                scratchBuffer));
+        for (Entry<String, MutableAggregate> entry : transactionAggregates.entrySet()) {
+            futures.addAll(rollupOtherPartsFromAccumulated(rollup,
+                    query.withTransactionName(entry.getKey()), entry.getValue(), scratchBuffer));
+        }
+        return futures;
+    }
+
+    private List<Future<?>> rollupOtherPartsFromAccumulated(RollupParams rollup,
+            TransactionQuery query, MutableAggregate aggregate, ScratchBuffer scratchBuffer)
+            throws Exception {
+        List<Future<?>> futures = Lists.newArrayList();
+        futures.addAll(insertOverview(rollup, query, aggregate.getTotalDurationNanos(),
+                aggregate.getTransactionCount(), aggregate.isAsyncTransactions(),
+                aggregate.getMainThreadRootTimersProto(), aggregate.getAuxThreadRootTimersProto(),
+                aggregate.getAsyncTimersProto(), aggregate.getMainThreadStats(),
+                aggregate.getAuxThreadStats()));
+        futures.addAll(insertHistogram(rollup, query, aggregate.getTotalDurationNanos(),
+                aggregate.getTransactionCount(), aggregate.getDurationNanosHistogram(),
+                scratchBuffer));
+        futures.addAll(insertThroughput(rollup, query, aggregate.getTransactionCount(),
+                aggregate.getErrorCount()));
+        QueryCollector queries = aggregate.getQueries();
+        if (queries != null) {
+            futures.addAll(insertQueries(queries.getSortedAndTruncatedQueries(),
+                    rollup.rollupLevel(), rollup.agentRollupId(), query.transactionType(),
+                    query.transactionName(), query.to(), rollup.adjustedTTL(), false));
+        }
+        futures.addAll(insertServiceCalls(aggregate.getServiceCallsProto(), rollup.rollupLevel(),
+                rollup.agentRollupId(), query.transactionType(), query.transactionName(),
+                query.to(), rollup.adjustedTTL()));
+        // thread profiles are not accumulated in memory
+        futures.addAll(rollupThreadProfile(rollup, query, mainThreadProfileTable));
+        futures.addAll(rollupThreadProfile(rollup, query, auxThreadProfileTable));
+        return futures;
+    }
+
     private List<Future<?>> rollupOtherParts(RollupParams rollup, TransactionQuery query,
             ScratchBuffer scratchBuffer) throws Exception {
         List<Future<?>> futures = Lists.newArrayList();
@@ -1020,6 +1189,11 @@ public class AggregateDao implements AggregateRepository {
             totalDurationNanos += row.getDouble(0);
             transactionCount += row.getLong(1);
         }
+        return insertOverallSummary(rollup, query, totalDurationNanos, transactionCount);
+    }
+
+    private List<Future<?>> insertOverallSummary(RollupParams rollup, TransactionQuery query,
+            double totalDurationNanos, long transactionCount) throws Exception {
         BoundStatement boundStatement =
                 getInsertOverallPS(summaryTable, rollup.rollupLevel()).bind();
         int i = 0;
@@ -1058,6 +1232,11 @@ public class AggregateDao implements AggregateRepository {
             errorCount += row.getLong(0);
             transactionCount += row.getLong(1);
         }
+        return insertErrorSummary(rollup, query, errorCount, transactionCount);
+    }
+
+    private List<Future<?>> insertErrorSummary(RollupParams rollup, TransactionQuery query,
+            long errorCount, long transactionCount) throws Exception {
         BoundStatement boundStatement =
                 getInsertOverallPS(errorSummaryTable, rollup.rollupLevel()).bind();
         int i = 0;
@@ -1105,7 +1284,6 @@ public class AggregateDao implements AggregateRepository {
     private List<Future<?>> rollupTransactionSummaryFromRows(RollupParams rollup,
             TransactionQuery query, Iterable<Row> rows, List<String> transactionNames)
             throws Exception {
-        BoundStatement boundStatement;
         Map<String, MutableSummary> summaries = Maps.newHashMap();
         for (Row row : rows) {
             int i = 0;
@@ -1118,12 +1296,19 @@ public class AggregateDao implements AggregateRepository {
             summary.totalDurationNanos += row.getDouble(i++);
             summary.transactionCount += row.getLong(i++);
         }
+        transactionNames.addAll(summaries.keySet());
+        return insertTransactionSummaries(rollup, query, summaries);
+    }
+
+    private List<Future<?>> insertTransactionSummaries(RollupParams rollup,
+            TransactionQuery query, Map<String, MutableSummary> summaries) throws Exception {
         List<Future<?>> futures = Lists.newArrayList();
+        List<BoundStatement> boundStatements = Lists.newArrayList();
         PreparedStatement preparedStatement =
                 getInsertTransactionPS(summaryTable, rollup.rollupLevel());
         for (Entry<String, MutableSummary> entry : summaries.entrySet()) {
             MutableSummary summary = entry.getValue();
-            boundStatement = preparedStatement.bind();
+            BoundStatement boundStatement = preparedStatement.bind();
             int i = 0;
             boundStatement.setString(i++, rollup.agentRollupId());
             boundStatement.setString(i++, query.transactionType());
@@ -1132,9 +1317,9 @@ public class AggregateDao implements AggregateRepository {
             boundStatement.setDouble(i++, summary.totalDurationNanos);
             boundStatement.setLong(i++, summary.transactionCount);
             boundStatement.setInt(i++, rollup.adjustedTTL());
-            futures.add(session.executeAsync(boundStatement));
+            boundStatements.add(boundStatement);
         }
-        transactionNames.addAll(summaries.keySet());
+        futures.addAll(session.executeAsyncUnloggedBatches(boundStatements));
         return futures;
     }
 
@@ -1164,7 +1349,6 @@ public class AggregateDao implements AggregateRepository {
 
     private List<Future<?>> rollupTransactionErrorSummaryFromRows(RollupParams rollup,
             TransactionQuery query, Iterable<Row> rows) throws Exception {
-        BoundStatement boundStatement;
         Map<String, MutableErrorSummary> summaries = Maps.newHashMap();
         for (Row row : rows) {
             int i = 0;
@@ -1177,12 +1361,18 @@ public class AggregateDao implements AggregateRepository {
             summary.errorCount += row.getLong(i++);
             summary.transactionCount += row.getLong(i++);
         }
+        return insertTransactionErrorSummaries(rollup, query, summaries);
+    }
+
+    private List<Future<?>> insertTransactionErrorSummaries(RollupParams rollup,
+            TransactionQuery query, Map<String, MutableErrorSummary> summaries) throws Exception {
         PreparedStatement preparedStatement =
                 getInsertTransactionPS(errorSummaryTable, rollup.rollupLevel());
         List<Future<?>> futures = Lists.newArrayList();
+        List<BoundStatement> boundStatements = Lists.newArrayList();
         for (Entry<String, MutableErrorSummary> entry : summaries.entrySet()) {
             MutableErrorSummary summary = entry.getValue();
-            boundStatement = preparedStatement.bind();
+            BoundStatement boundStatement = preparedStatement.bind();
             int i = 0;
             boundStatement.setString(i++, rollup.agentRollupId());
             boundStatement.setString(i++, query.transactionType());
@@ -1191,8 +1381,9 @@ public class AggregateDao implements AggregateRepository {
             boundStatement.setLong(i++, summary.errorCount);
             boundStatement.setLong(i++, summary.transactionCount);
             boundStatement.setInt(i++, rollup.adjustedTTL());
-            futures.add(session.executeAsync(boundStatement));
+            boundStatements.add(boundStatement);
         }
+        futures.addAll(session.executeAsyncUnloggedBatches(boundStatements));
         return futures;
     }
 
@@ -1255,6 +1446,17 @@ public class AggregateDao implements AggregateRepository {
             auxThreadStats.addTotalWaitedNanos(row.get(i++, Double.class));
             auxThreadStats.addTotalAllocatedBytes(row.get(i++, Double.class));
         }
+        return insertOverview(rollup, query, totalDurationNanos, transactionCount,
+                asyncTransactions, MutableAggregate.toProto(mainThreadRootTimers),
+                MutableAggregate.toProto(auxThreadRootTimers),
+                MutableAggregate.toProto(asyncTimers), mainThreadStats, auxThreadStats);
+    }
+
+    private List<Future<?>> insertOverview(RollupParams rollup, TransactionQuery query,
+            double totalDurationNanos, long transactionCount, boolean asyncTransactions,
+            List<Aggregate.Timer> mainThreadRootTimers, List<Aggregate.Timer> auxThreadRootTimers,
+            List<Aggregate.Timer> asyncTimers, MutableThreadStats mainThreadStats,
+            MutableThreadStats auxThreadStats) throws Exception {
         BoundStatement boundStatement;
         if (query.transactionName() == null) {
             boundStatement = getInsertOverallPS(overviewTable, rollup.rollupLevel()).bind();
@@ -1274,20 +1476,17 @@ public class AggregateDao implements AggregateRepository {
         if (mainThreadRootTimers.isEmpty()) {
             boundStatement.setToNull(i++);
         } else {
-            boundStatement.setBytes(i++,
-                    Messages.toByteBuffer(MutableAggregate.toProto(mainThreadRootTimers)));
+            boundStatement.setBytes(i++, Messages.toByteBuffer(mainThreadRootTimers));
         }
         if (auxThreadRootTimers.isEmpty()) {
             boundStatement.setToNull(i++);
         } else {
-            boundStatement.setBytes(i++,
-                    Messages.toByteBuffer(MutableAggregate.toProto(auxThreadRootTimers)));
+            boundStatement.setBytes(i++, Messages.toByteBuffer(auxThreadRootTimers));
         }
         if (asyncTimers.isEmpty()) {
             boundStatement.setToNull(i++);
         } else {
-            boundStatement.setBytes(i++,
-                    Messages.toByteBuffer(MutableAggregate.toProto(asyncTimers)));
+            boundStatement.setBytes(i++, Messages.toByteBuffer(asyncTimers));
         }
         boundStatement.setDouble(i++, mainThreadStats.getTotalCpuNanos());
         boundStatement.setDouble(i++, mainThreadStats.getTotalBlockedNanos());
@@ -1329,7 +1528,7 @@ public class AggregateDao implements AggregateRepository {
             Iterable<Row> rows, ScratchBuffer scratchBuffer) throws Exception {
         double totalDurationNanos = 0;
         long transactionCount = 0;
-        LazyHistogram durationNanosHistogram = new LazyHistogram();
+        LazyHistogram durationNanosHistogram = new LazyHistogram(scratchBuffer);
         for (Row row : rows) {
             int i = 0;
             totalDurationNanos += row.getDouble(i++);
@@ -1337,6 +1536,15 @@ public class AggregateDao implements AggregateRepository {
             ByteBuffer bytes = checkNotNull(row.getBytes(i++));
             durationNanosHistogram.merge(Aggregate.Histogram.parseFrom(bytes));
         }
+        List<Future<?>> futures = insertHistogram(rollup, query, totalDurationNanos,
+                transactionCount, durationNanosHistogram, scratchBuffer);
+        durationNanosHistogram.recycle();
+        return futures;
+    }
+
+    private List<Future<?>> insertHistogram(RollupParams rollup, TransactionQuery query,
+            double totalDurationNanos, long transactionCount, LazyHistogram durationNanosHistogram,
+            ScratchBuffer scratchBuffer) throws Exception {
         BoundStatement boundStatement;
         if (query.transactionName() == null) {
             boundStatement = getInsertOverallPS(histogramTable, rollup.rollupLevel()).bind();
@@ -1396,6 +1604,12 @@ public class AggregateDao implements AggregateRepository {
                 errorCount += row.getLong(1);
             }
         }
+        return insertThroughput(rollup, query, transactionCount,
+                hasMissingErrorCount ? null : errorCount);
+    }
+
+    private List<Future<?>> insertThroughput(RollupParams rollup, TransactionQuery query,
+            long transactionCount, @Nullable Long errorCount) throws Exception {
         BoundStatement boundStatement;
         if (query.transactionName() == null) {
             boundStatement = getInsertOverallPS(throughputTable, rollup.rollupLevel()).bind();
@@ -1410,7 +1624,7 @@ public class AggregateDao implements AggregateRepository {
         }
         boundStatement.setTimestamp(i++, new Date(query.to()));
         boundStatement.setLong(i++, transactionCount);
-        if (hasMissingErrorCount) {
+        if (errorCount == null) {
             boundStatement.setToNull(i++);
         } else {
             boundStatement.setLong(i++, errorCount);
@@ -1450,8 +1664,10 @@ public class AggregateDao implements AggregateRepository {
             long executionCount = row.getLong(i++);
             boolean hasTotalRows = !row.isNull(i);
             long totalRows = row.getLong(i++);
+            // null for data collected prior to 0.9.29 (read as zero)
+            long roundTripCount = row.getLong(i++);
             collector.mergeQuery(queryType, truncatedText, fullTextSha1, totalDurationNanos,
-                    executionCount, hasTotalRows, totalRows);
+                    executionCount, roundTripCount, hasTotalRows, totalRows);
         }
         return insertQueries(collector.getSortedAndTruncatedQueries(), rollup.rollupLevel(),
                 rollup.agentRollupId(), query.transactionType(), query.transactionName(),
@@ -1718,36 +1934,47 @@ public class AggregateDao implements AggregateRepository {
         return futures;
     }
 
-    private List<Future<?>> storeTransactionSummary(String agentRollupId, String transactionType,
-            String transactionName, long captureTime, Aggregate aggregate, int adjustedTTL)
-            throws Exception {
+    // all transaction summaries for a given transaction type share the same partition, so they
+    // are written using unlogged batches instead of one insert per transaction name
+    private List<Future<?>> storeTransactionSummaries(String agentRollupId, String transactionType,
+            long captureTime, List<OldTransactionAggregate> transactionAggregates,
+            int adjustedTTL) throws Exception {
 
         final int rollupLevel = 0;
 
-        List<Future<?>> futures = Lists.newArrayList();
-        BoundStatement boundStatement = getInsertTransactionPS(summaryTable, rollupLevel).bind();
-        int i = 0;
-        boundStatement.setString(i++, agentRollupId);
-        boundStatement.setString(i++, transactionType);
-        boundStatement.setTimestamp(i++, new Date(captureTime));
-        boundStatement.setString(i++, transactionName);
-        boundStatement.setDouble(i++, aggregate.getTotalDurationNanos());
-        boundStatement.setLong(i++, aggregate.getTransactionCount());
-        boundStatement.setInt(i++, adjustedTTL);
-        futures.add(session.executeAsync(boundStatement));
-
-        if (aggregate.getErrorCount() > 0) {
-            boundStatement = getInsertTransactionPS(errorSummaryTable, rollupLevel).bind();
-            i = 0;
+        List<BoundStatement> summaryBoundStatements = Lists.newArrayList();
+        List<BoundStatement> errorSummaryBoundStatements = Lists.newArrayList();
+        for (OldTransactionAggregate transactionAggregate : transactionAggregates) {
+            String transactionName = transactionAggregate.getTransactionName();
+            Aggregate aggregate = transactionAggregate.getAggregate();
+            BoundStatement boundStatement =
+                    getInsertTransactionPS(summaryTable, rollupLevel).bind();
+            int i = 0;
             boundStatement.setString(i++, agentRollupId);
             boundStatement.setString(i++, transactionType);
             boundStatement.setTimestamp(i++, new Date(captureTime));
             boundStatement.setString(i++, transactionName);
-            boundStatement.setLong(i++, aggregate.getErrorCount());
+            boundStatement.setDouble(i++, aggregate.getTotalDurationNanos());
             boundStatement.setLong(i++, aggregate.getTransactionCount());
             boundStatement.setInt(i++, adjustedTTL);
-            futures.add(session.executeAsync(boundStatement));
+            summaryBoundStatements.add(boundStatement);
+
+            if (aggregate.getErrorCount() > 0) {
+                boundStatement = getInsertTransactionPS(errorSummaryTable, rollupLevel).bind();
+                i = 0;
+                boundStatement.setString(i++, agentRollupId);
+                boundStatement.setString(i++, transactionType);
+                boundStatement.setTimestamp(i++, new Date(captureTime));
+                boundStatement.setString(i++, transactionName);
+                boundStatement.setLong(i++, aggregate.getErrorCount());
+                boundStatement.setLong(i++, aggregate.getTransactionCount());
+                boundStatement.setInt(i++, adjustedTTL);
+                errorSummaryBoundStatements.add(boundStatement);
+            }
         }
+        List<Future<?>> futures = Lists.newArrayList();
+        futures.addAll(session.executeAsyncUnloggedBatches(summaryBoundStatements));
+        futures.addAll(session.executeAsyncUnloggedBatches(errorSummaryBoundStatements));
         return futures;
     }
 
@@ -1756,6 +1983,7 @@ public class AggregateDao implements AggregateRepository {
             String transactionType, @Nullable String transactionName, long captureTime,
             int adjustedTTL) throws Exception {
         List<Future<?>> futures = Lists.newArrayList();
+        List<BoundStatement> boundStatements = Lists.newArrayList();
         for (Aggregate.QueriesByType queriesByType : queriesByTypeList) {
             for (Aggregate.Query query : queriesByType.getQueryList()) {
                 Aggregate.SharedQueryText sharedQueryText =
@@ -1790,10 +2018,12 @@ public class AggregateDao implements AggregateRepository {
                 } else {
                     boundStatement.setToNull(i++);
                 }
+                boundStatement.setLong(i++, query.getRoundTripCount());
                 boundStatement.setInt(i++, adjustedTTL);
-                futures.add(session.executeAsync(boundStatement));
+                boundStatements.add(boundStatement);
             }
         }
+        futures.addAll(session.executeAsyncUnloggedBatches(boundStatements));
         return futures;
     }
 
@@ -1801,6 +2031,7 @@ public class AggregateDao implements AggregateRepository {
             String agentRollupId, String transactionType, @Nullable String transactionName,
             long captureTime, int adjustedTTL, boolean rollupFromChildren) throws Exception {
         List<Future<?>> futures = Lists.newArrayList();
+        List<BoundStatement> boundStatements = Lists.newArrayList();
         for (Entry<String, List<MutableQuery>> entry : map.entrySet()) {
             for (MutableQuery query : entry.getValue()) {
                 BoundStatement boundStatement;
@@ -1828,13 +2059,15 @@ public class AggregateDao implements AggregateRepository {
                 } else {
                     boundStatement.setToNull(i++);
                 }
+                boundStatement.setLong(i++, query.getRoundTripCount());
                 boundStatement.setInt(i++, adjustedTTL);
-                futures.add(session.executeAsync(boundStatement));
+                boundStatements.add(boundStatement);
                 if (rollupFromChildren && fullTextSha1 != null) {
                     futures.addAll(fullQueryTextDao.updateTTL(agentRollupId, fullTextSha1));
                 }
             }
         }
+        futures.addAll(session.executeAsyncUnloggedBatches(boundStatements));
         return futures;
     }
 
@@ -1843,6 +2076,7 @@ public class AggregateDao implements AggregateRepository {
             String agentRollupId, String transactionType, @Nullable String transactionName,
             long captureTime, int adjustedTTL) throws Exception {
         List<Future<?>> futures = Lists.newArrayList();
+        List<BoundStatement> boundStatements = Lists.newArrayList();
         for (Aggregate.ServiceCallsByType serviceCallsByType : serviceCallsByTypeList) {
             for (Aggregate.ServiceCall serviceCall : serviceCallsByType.getServiceCallList()) {
                 BoundStatement boundStatement;
@@ -1863,9 +2097,10 @@ public class AggregateDao implements AggregateRepository {
                 boundStatement.setDouble(i++, serviceCall.getTotalDurationNanos());
                 boundStatement.setLong(i++, serviceCall.getExecutionCount());
                 boundStatement.setInt(i++, adjustedTTL);
-                futures.add(session.executeAsync(boundStatement));
+                boundStatements.add(boundStatement);
             }
         }
+        futures.addAll(session.executeAsyncUnloggedBatches(boundStatements));
         return futures;
     }
 
@@ -2514,13 +2749,13 @@ public class AggregateDao implements AggregateRepository {
         }
     }
 
-    private static class MutableSummary {
-        private double totalDurationNanos;
-        private long transactionCount;
+    static class MutableSummary {
+        double totalDurationNanos;
+        long transactionCount;
     }
 
-    private static class MutableErrorSummary {
-        private long errorCount;
-        private long transactionCount;
+    static class MutableErrorSummary {
+        long errorCount;
+        long transactionCount;
     }
 }
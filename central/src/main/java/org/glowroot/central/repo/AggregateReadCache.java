@@ -0,0 +1,151 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.central.repo;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.ToLongFunction;
+
+import javax.annotation.Nullable;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.immutables.value.Value;
+
+import org.glowroot.central.util.Cache;
+import org.glowroot.central.util.ClusterManager;
+import org.glowroot.common.live.ImmutableTransactionQuery;
+import org.glowroot.common.live.LiveAggregateRepository.TransactionQuery;
+import org.glowroot.common.repo.ConfigRepository;
+import org.glowroot.common.util.Clock;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+// caches chart aggregates in buckets of rollup intervals, so that only the tail of the chart (which
+// may still change) needs to be read from cassandra on each refresh
+//
+// buckets are only cached once all of their capture times are older than FINALIZED_DELAY_MILLIS,
+// and any later write to an older capture time (e.g. agent re-sending data after an outage, or a
+// delayed rollup) changes the agent rollup's version, which is part of the cache key, so that all
+// of its existing buckets are ignored across the cluster (and eventually evicted)
+class AggregateReadCache {
+
+    // this is chosen to comfortably exceed the normal delay for aggregate data to be stored and
+    // rolled up
+    @VisibleForTesting
+    static final long FINALIZED_DELAY_MILLIS = MINUTES.toMillis(10);
+
+    @VisibleForTesting
+    static final int INTERVALS_PER_BUCKET = 60;
+
+    private static final int MAX_BUCKETS_PER_CACHE = 10000;
+
+    private final ClusterManager clusterManager;
+    private final ConfigRepository configRepository;
+    private final Clock clock;
+
+    // key is agent rollup id
+    private final ConcurrentMap<String, Long> versions;
+
+    AggregateReadCache(ClusterManager clusterManager, ConfigRepository configRepository,
+            Clock clock) {
+        this.clusterManager = clusterManager;
+        this.configRepository = configRepository;
+        this.clock = clock;
+        versions = clusterManager.createReplicatedMap("aggregateReadCacheVersions");
+    }
+
+    <T> Cache<BucketKey, List<T>> createBucketCache(String cacheName, Reader<T> reader) {
+        return clusterManager.createSizeLimitedCache(cacheName, MAX_BUCKETS_PER_CACHE,
+                key -> ImmutableList.copyOf(reader.read(key.agentRollupId(),
+                        ImmutableTransactionQuery.builder()
+                                .transactionType(key.transactionType())
+                                .transactionName(key.transactionName())
+                                .from(key.bucketStart())
+                                .to(key.bucketStart() + key.bucketMillis() - 1)
+                                .rollupLevel(key.rollupLevel())
+                                .build())));
+    }
+
+    // query.from() is INCLUSIVE
+    <T> List<T> read(Cache<BucketKey, List<T>> cache, String agentRollupId,
+            TransactionQuery query, Reader<T> reader, ToLongFunction<T> captureTimeFn)
+            throws Exception {
+        long intervalMillis =
+                configRepository.getRollupConfigs().get(query.rollupLevel()).intervalMillis();
+        long bucketMillis = intervalMillis * INTERVALS_PER_BUCKET;
+        long finalizedBefore = clock.currentTimeMillis() - FINALIZED_DELAY_MILLIS;
+        long version = versions.getOrDefault(agentRollupId, 0L);
+        List<T> aggregates = Lists.newArrayList();
+        long from = query.from();
+        long bucketStart = (long) Math.floor(from / (double) bucketMillis) * bucketMillis;
+        while (from <= query.to() && bucketStart + bucketMillis <= finalizedBefore) {
+            List<T> bucket = cache.get(ImmutableBucketKey.builder()
+                    .agentRollupId(agentRollupId)
+                    .transactionType(query.transactionType())
+                    .transactionName(query.transactionName())
+                    .rollupLevel(query.rollupLevel())
+                    .bucketStart(bucketStart)
+                    .bucketMillis(bucketMillis)
+                    .version(version)
+                    .build());
+            for (T aggregate : bucket) {
+                long captureTime = captureTimeFn.applyAsLong(aggregate);
+                if (captureTime >= from && captureTime <= query.to()) {
+                    aggregates.add(aggregate);
+                }
+            }
+            bucketStart += bucketMillis;
+            from = bucketStart;
+        }
+        if (from <= query.to()) {
+            aggregates.addAll(reader.read(agentRollupId,
+                    ImmutableTransactionQuery.builder()
+                            .copyFrom(query)
+                            .from(from)
+                            .build()));
+        }
+        return aggregates;
+    }
+
+    // this must be called after the write has completed
+    void afterWrite(String agentRollupId, long captureTime) {
+        if (captureTime <= clock.currentTimeMillis() - FINALIZED_DELAY_MILLIS) {
+            // random instead of incrementing since replicated map updates are async and so
+            // concurrent increments on different central nodes could result in the same version
+            versions.put(agentRollupId, ThreadLocalRandom.current().nextLong());
+        }
+    }
+
+    interface Reader<T> {
+        List<T> read(String agentRollupId, TransactionQuery query) throws Exception;
+    }
+
+    @Value.Immutable
+    interface BucketKey extends Serializable {
+        String agentRollupId();
+        String transactionType();
+        @Nullable
+        String transactionName();
+        int rollupLevel();
+        long bucketStart();
+        long bucketMillis();
+        long version();
+    }
+}
@@ -59,7 +59,7 @@ public class CentralRepoModule {
         transactionTypeDao = new TransactionTypeDao(session, configRepository, clusterManager);
         FullQueryTextDao fullQueryTextDao = new FullQueryTextDao(session, configRepository);
         aggregateDao = new AggregateDao(session, agentRollupDao, transactionTypeDao,
-                fullQueryTextDao, configRepository, clock);
+                fullQueryTextDao, configRepository, clusterManager, clock);
         traceAttributeNameDao =
                 new TraceAttributeNameDao(session, configRepository, clusterManager);
         traceDao = new TraceDao(session, agentRollupDao, transactionTypeDao, fullQueryTextDao,
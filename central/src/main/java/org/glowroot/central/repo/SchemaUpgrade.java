@@ -94,7 +94,7 @@ public class SchemaUpgrade {
 
     private static final ObjectMapper mapper = ObjectMappers.create();
 
-    private static final int CURR_SCHEMA_VERSION = 34;
+    private static final int CURR_SCHEMA_VERSION = 35;
 
     private static final String WITH_LCS =
             "with compaction = { 'class' : 'LeveledCompactionStrategy' }";
@@ -286,6 +286,10 @@ public class SchemaUpgrade {
             populateGaugeNameTable();
             updateSchemaVersion(34);
         }
+        if (initialSchemaVersion < 35) {
+            addAggregateQueryRoundTripCountColumn();
+            updateSchemaVersion(35);
+        }
 
         // when adding new schema upgrade, make sure to update CURR_SCHEMA_VERSION above
         startupLogger.info("upgraded glowroot central schema from version {} to version {}",
@@ -1013,6 +1017,17 @@ public class SchemaUpgrade {
         addColumnIfNotExists("synthetic_result_rollup_3", "error_intervals", "blob");
     }
 
+    private void addAggregateQueryRoundTripCountColumn() throws Exception {
+        addColumnIfNotExists("aggregate_tt_query_rollup_0", "round_trip_count", "bigint");
+        addColumnIfNotExists("aggregate_tt_query_rollup_1", "round_trip_count", "bigint");
+        addColumnIfNotExists("aggregate_tt_query_rollup_2", "round_trip_count", "bigint");
+        addColumnIfNotExists("aggregate_tt_query_rollup_3", "round_trip_count", "bigint");
+        addColumnIfNotExists("aggregate_tn_query_rollup_0", "round_trip_count", "bigint");
+        addColumnIfNotExists("aggregate_tn_query_rollup_1", "round_trip_count", "bigint");
+        addColumnIfNotExists("aggregate_tn_query_rollup_2", "round_trip_count", "bigint");
+        addColumnIfNotExists("aggregate_tn_query_rollup_3", "round_trip_count", "bigint");
+    }
+
     private void populateGaugeNameTable() throws Exception {
         logger.info("populating new gauge name history table - this could take several minutes on"
                 + " large data sets ...");
@@ -17,6 +17,7 @@ package org.glowroot.central.util;
 
 import java.io.File;
 import java.io.Serializable;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Queue;
@@ -27,7 +28,9 @@ import java.util.regex.Pattern;
 
 import javax.annotation.Nullable;
 
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
 import com.google.common.collect.Queues;
 import org.infinispan.configuration.cache.CacheMode;
 import org.infinispan.configuration.cache.ConfigurationBuilder;
@@ -73,12 +76,21 @@ public abstract class ClusterManager {
     public abstract <K extends /*@NonNull*/ Serializable, V extends /*@NonNull*/ Object> Cache<K, V> createCache(
             String cacheName, CacheLoader<K, V> loader);
 
+    // entries beyond maxSize are evicted, so this should only be used for caching values that can
+    // be re-loaded
+    public abstract <K extends /*@NonNull*/ Serializable, V extends /*@NonNull*/ Object> Cache<K, V> createSizeLimitedCache(
+            String cacheName, int maxSize, CacheLoader<K, V> loader);
+
     public abstract <K extends /*@NonNull*/ Serializable, V extends /*@NonNull*/ Serializable> ConcurrentMap<K, V> createReplicatedMap(
             String mapName);
 
     public abstract <K extends /*@NonNull*/ Serializable, V extends /*@NonNull*/ Object> DistributedExecutionMap<K, V> createDistributedExecutionMap(
             String cacheName);
 
+    // used to partition work (e.g. rollups) across the central cluster, all nodes agree on the
+    // owner of a given key as long as they share the same view of the cluster membership
+    public abstract boolean isLocalOwner(String key);
+
     public abstract void close() throws InterruptedException;
 
     private static class ClusterManagerImpl extends ClusterManager {
@@ -106,6 +118,18 @@ public abstract class ClusterManager {
             return new CacheImpl<K, V>(cacheManager.getCache(cacheName), loader);
         }
 
+        @Override
+        public <K extends /*@NonNull*/ Serializable, V extends /*@NonNull*/ Object> Cache<K, V> createSizeLimitedCache(
+                String cacheName, int maxSize, CacheLoader<K, V> loader) {
+            ConfigurationBuilder configurationBuilder = new ConfigurationBuilder();
+            configurationBuilder.clustering()
+                    .cacheMode(CacheMode.INVALIDATION_ASYNC);
+            configurationBuilder.memory()
+                    .size(maxSize);
+            cacheManager.defineConfiguration(cacheName, configurationBuilder.build());
+            return new CacheImpl<K, V>(cacheManager.getCache(cacheName), loader);
+        }
+
         @Override
         public <K extends /*@NonNull*/ Serializable, V extends /*@NonNull*/ Serializable> ConcurrentMap<K, V> createReplicatedMap(
                 String mapName) {
@@ -126,6 +150,18 @@ public abstract class ClusterManager {
             return new DistributedExecutionMapImpl<K, V>(cacheManager.getCache(cacheName));
         }
 
+        @Override
+        public boolean isLocalOwner(String key) {
+            Address localAddress = cacheManager.getAddress();
+            List<Address> members = cacheManager.getMembers();
+            if (localAddress == null || members == null || members.isEmpty()) {
+                return true;
+            }
+            List<Address> sortedMembers = Ordering.natural().sortedCopy(members);
+            int index = Math.floorMod(key.hashCode(), sortedMembers.size());
+            return sortedMembers.get(index).equals(localAddress);
+        }
+
         @Override
         public void close() throws InterruptedException {
             cacheManager.stop();
@@ -186,6 +222,14 @@ public abstract class ClusterManager {
             return new NonClusterCacheImpl<K, V>(Maps.newConcurrentMap(), loader);
         }
 
+        @Override
+        public <K extends /*@NonNull*/ Serializable, V extends /*@NonNull*/ Object> Cache<K, V> createSizeLimitedCache(
+                String cacheName, int maxSize, CacheLoader<K, V> loader) {
+            ConcurrentMap<K, V> cache =
+                    CacheBuilder.newBuilder().maximumSize(maxSize).<K, V>build().asMap();
+            return new NonClusterCacheImpl<K, V>(cache, loader);
+        }
+
         @Override
         public <K extends /*@NonNull*/ Serializable, V extends /*@NonNull*/ Object> DistributedExecutionMap<K, V> createDistributedExecutionMap(
                 String cacheName) {
@@ -198,6 +242,11 @@ public abstract class ClusterManager {
             return Maps.newConcurrentMap();
         }
 
+        @Override
+        public boolean isLocalOwner(String key) {
+            return true;
+        }
+
         @Override
         public void close() {}
     }
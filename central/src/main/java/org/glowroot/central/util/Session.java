@@ -15,9 +15,11 @@
  */
 package org.glowroot.central.util;
 
+import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Semaphore;
 
+import com.datastax.driver.core.BatchStatement;
 import com.datastax.driver.core.Cluster;
 import com.datastax.driver.core.PreparedStatement;
 import com.datastax.driver.core.ResultSet;
@@ -26,6 +28,7 @@ import com.datastax.driver.core.Statement;
 import com.datastax.driver.core.exceptions.DriverException;
 import com.datastax.driver.core.exceptions.InvalidConfigurationInQueryException;
 import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
@@ -40,6 +43,10 @@ public class Session {
 
     public static final int MAX_CONCURRENT_QUERIES = 4096;
 
+    // keeps unlogged batches well under the default batch_size_fail_threshold_in_kb (50kb) which
+    // applies to single partition batches prior to Cassandra 3.6
+    private static final int MAX_STATEMENTS_PER_BATCH = 64;
+
     private static final Logger logger = LoggerFactory.getLogger(Session.class);
 
     private final com.datastax.driver.core.Session wrappedSession;
@@ -71,6 +78,25 @@ public class Session {
         return throttle(() -> wrappedSession.executeAsync(query));
     }
 
+    // all statements must be for the same partition, in which case the coordinator applies each
+    // unlogged batch as a single mutation, saving the per-statement round trips (multi-partition
+    // unlogged batches on the other hand just shift load onto the coordinator)
+    public List<ListenableFuture<ResultSet>> executeAsyncUnloggedBatches(
+            List<? extends Statement> statements) throws Exception {
+        List<ListenableFuture<ResultSet>> futures = Lists.newArrayList();
+        if (statements.size() == 1) {
+            futures.add(executeAsync(statements.get(0)));
+            return futures;
+        }
+        for (List<? extends Statement> partition : Lists.partition(statements,
+                MAX_STATEMENTS_PER_BATCH)) {
+            BatchStatement batchStatement = new BatchStatement(BatchStatement.Type.UNLOGGED);
+            batchStatement.addAll(partition);
+            futures.add(executeAsync(batchStatement));
+        }
+        return futures;
+    }
+
     public ResultSet execute(Statement statement) throws Exception {
         try {
             // do not use session.execute() because that calls getUninterruptibly() which can cause
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.central;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import com.google.common.io.Files;
+import com.google.protobuf.ByteString;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.glowroot.common.live.LiveJvmService.TransferProgressListener;
+import org.glowroot.wire.api.model.DownstreamServiceOuterClass.FileChunkResponse;
+import org.glowroot.wire.api.model.DownstreamServiceOuterClass.HeapDumpFileInfo;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class LiveJvmServiceImplTest {
+
+    private static final String FILE_PATH = "/tmp/heap-dump-2017-01-01-00-00-00.hprof";
+
+    private static final TransferProgressListener NOP = (transferredBytes, totalBytes) -> {};
+
+    private File heapDumpDir;
+    private byte[] fileBytes;
+    private DownstreamServiceImpl downstreamService;
+    private LiveJvmServiceImpl liveJvmService;
+
+    @Before
+    public void beforeEach() throws Exception {
+        heapDumpDir = Files.createTempDir();
+        fileBytes = new byte[5 * 1024 * 1024 / 2];
+        new Random().nextBytes(fileBytes);
+        downstreamService = mock(DownstreamServiceImpl.class);
+        when(downstreamService.fileChunk(eq("a::b"), eq(FILE_PATH), anyLong(), anyInt()))
+                .thenAnswer(invocation -> {
+                    long offset = invocation.getArgument(2);
+                    int maxBytes = invocation.getArgument(3);
+                    int length = (int) Math.min(maxBytes, fileBytes.length - offset);
+                    return FileChunkResponse.newBuilder()
+                            .setData(ByteString.copyFrom(fileBytes, (int) offset, length))
+                            .setFileSizeBytes(fileBytes.length)
+                            .build();
+                });
+        liveJvmService = new LiveJvmServiceImpl(downstreamService, heapDumpDir);
+    }
+
+    @After
+    public void afterEach() {
+        deleteRecursively(heapDumpDir);
+    }
+
+    @Test
+    public void shouldTransferInChunks() throws Exception {
+        // when
+        HeapDumpFileInfo heapDumpFileInfo = liveJvmService.transferHeapDump("a::b", FILE_PATH, NOP);
+        // then
+        File file = new File(heapDumpFileInfo.getFilePath());
+        assertThat(file.getParentFile().getName()).isEqualTo("a__b");
+        assertThat(file.getName()).isEqualTo("heap-dump-2017-01-01-00-00-00.hprof");
+        assertThat(heapDumpFileInfo.getFileSizeBytes()).isEqualTo(fileBytes.length);
+        assertThat(Files.toByteArray(file)).isEqualTo(fileBytes);
+        assertThat(new File(file.getPath() + ".part").exists()).isFalse();
+        verify(downstreamService, times(3)).fileChunk(anyString(), anyString(), anyLong(),
+                anyInt());
+    }
+
+    @Test
+    public void shouldResumePartialTransfer() throws Exception {
+        // given
+        File dir = new File(heapDumpDir, "a__b");
+        dir.mkdirs();
+        File partFile = new File(dir, "heap-dump-2017-01-01-00-00-00.hprof.part");
+        Files.write(Arrays.copyOf(fileBytes, 1024 * 1024), partFile);
+        // when
+        HeapDumpFileInfo heapDumpFileInfo = liveJvmService.transferHeapDump("a::b", FILE_PATH, NOP);
+        // then
+        assertThat(Files.toByteArray(new File(heapDumpFileInfo.getFilePath())))
+                .isEqualTo(fileBytes);
+        verify(downstreamService, never()).fileChunk(anyString(), anyString(), eq(0L), anyInt());
+        verify(downstreamService, times(2)).fileChunk(anyString(), anyString(), anyLong(),
+                anyInt());
+    }
+
+    @Test
+    public void shouldNotTransferAgainAfterCompleted() throws Exception {
+        // given
+        liveJvmService.transferHeapDump("a::b", FILE_PATH, NOP);
+        // when
+        liveJvmService.transferHeapDump("a::b", FILE_PATH, NOP);
+        // then
+        verify(downstreamService, times(3)).fileChunk(anyString(), anyString(), anyLong(),
+                anyInt());
+    }
+
+    @Test
+    public void shouldReportProgress() throws Exception {
+        // given
+        List<Long> progress = new ArrayList<>();
+        // when
+        liveJvmService.transferHeapDump("a::b", FILE_PATH, (transferredBytes, totalBytes) -> {
+            assertThat(totalBytes).isEqualTo(fileBytes.length);
+            progress.add(transferredBytes);
+        });
+        // then
+        assertThat(progress).containsExactly(1024 * 1024L, 2 * 1024 * 1024L,
+                (long) fileBytes.length);
+    }
+
+    @Test
+    public void shouldKeepPartFileWhenCancelled() throws Exception {
+        // given
+        File partFile = new File(heapDumpDir, "a__b/heap-dump-2017-01-01-00-00-00.hprof.part");
+        // when
+        try {
+            liveJvmService.transferHeapDump("a::b", FILE_PATH, (transferredBytes, totalBytes) -> {
+                // simulates cancel after first chunk
+                Thread.currentThread().interrupt();
+            });
+            fail("Expected InterruptedException");
+        } catch (InterruptedException e) {
+        }
+        // then
+        assertThat(partFile.length()).isEqualTo(1024 * 1024);
+        HeapDumpFileInfo heapDumpFileInfo = liveJvmService.transferHeapDump("a::b", FILE_PATH, NOP);
+        assertThat(Files.toByteArray(new File(heapDumpFileInfo.getFilePath())))
+                .isEqualTo(fileBytes);
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void shouldThrowFileNotFound() throws Exception {
+        // given
+        when(downstreamService.fileChunk(eq("a::b"), eq("/tmp/other.hprof"), anyLong(), anyInt()))
+                .thenReturn(FileChunkResponse.newBuilder()
+                        .setFileNotFound(true)
+                        .build());
+        // when
+        liveJvmService.transferHeapDump("a::b", "/tmp/other.hprof", NOP);
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -15,9 +15,17 @@
  */
 package org.glowroot.central;
 
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
 import org.junit.Test;
 
+import org.glowroot.central.RollupService.RollupItem;
+import org.glowroot.common.repo.AgentRollupRepository.AgentRollup;
+import org.glowroot.common.repo.ImmutableAgentRollup;
+
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
 
 public class RollupServiceTest {
 
@@ -28,4 +36,46 @@ public class RollupServiceTest {
         assertThat(RollupService.millisUntilNextRollup(45000)).isEqualTo(25000);
         assertThat(RollupService.millisUntilNextRollup(60000)).isEqualTo(10000);
     }
+
+    @Test
+    public void shouldGroupRollupItemsByDepth() {
+        // given
+        AgentRollup agent1 = agent("a::1");
+        AgentRollup agent2 = agent("a::2");
+        AgentRollup agent3 = agent("a::b::3");
+        AgentRollup rollupB = rollup("a::b::", agent3);
+        AgentRollup rollupA = rollup("a::", agent1, agent2, rollupB);
+        AgentRollup agent4 = agent("4");
+
+        // when
+        List<List<RollupItem>> rollupItemsByDepth =
+                RollupService.getRollupItemsByDepth(ImmutableList.of(rollupA, agent4));
+
+        // then
+        assertThat(rollupItemsByDepth).hasSize(3);
+        assertThat(rollupItemsByDepth.get(0)).extracting("agentRollup.id", "parentAgentRollupId")
+                .containsExactly(tuple("a::", null), tuple("4", null));
+        assertThat(rollupItemsByDepth.get(1)).extracting("agentRollup.id", "parentAgentRollupId")
+                .containsExactly(tuple("a::1", "a::"), tuple("a::2", "a::"),
+                        tuple("a::b::", "a::"));
+        assertThat(rollupItemsByDepth.get(2)).extracting("agentRollup.id", "parentAgentRollupId")
+                .containsExactly(tuple("a::b::3", "a::b::"));
+    }
+
+    private static AgentRollup agent(String id) {
+        return ImmutableAgentRollup.builder()
+                .id(id)
+                .display(id)
+                .agent(true)
+                .build();
+    }
+
+    private static AgentRollup rollup(String id, AgentRollup... children) {
+        return ImmutableAgentRollup.builder()
+                .id(id)
+                .display(id)
+                .agent(false)
+                .addChildren(children)
+                .build();
+    }
 }
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.central.repo;
+
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import org.glowroot.central.repo.AggregateAccumulators.AccumulatedInterval;
+import org.glowroot.central.repo.AggregateAccumulators.AccumulatedTransactionType;
+import org.glowroot.common.repo.MutableAggregate;
+import org.glowroot.common.util.Clock;
+import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
+import org.glowroot.wire.api.model.AggregateOuterClass.OldAggregatesByType;
+import org.glowroot.wire.api.model.AggregateOuterClass.OldTransactionAggregate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AggregateAccumulatorsTest {
+
+    @Test
+    public void shouldAccumulate() {
+        // given
+        AggregateAccumulators accumulators = new AggregateAccumulators(Clock.systemClock());
+        // when
+        accumulators.accumulate("a", 300000, 60000, createAggregates(0), ImmutableList.of(), 10,
+                10);
+        accumulators.accumulate("a", 300000, 120000, createAggregates(2), ImmutableList.of(), 10,
+                10);
+        // then
+        AccumulatedInterval interval = accumulators.remove("a", 300000);
+        assertThat(interval).isNotNull();
+        assertThat(accumulators.remove("a", 300000)).isNull();
+        AccumulatedTransactionType accumulated = interval.get("Web");
+        assertThat(accumulated.getCaptureTimes()).containsOnly(60000L, 120000L);
+        MutableAggregate overallAggregate = accumulated.getOverallAggregate();
+        assertThat(overallAggregate.getTotalDurationNanos()).isEqualTo(2000);
+        assertThat(overallAggregate.getTransactionCount()).isEqualTo(20);
+        assertThat(overallAggregate.getErrorCount()).isEqualTo(2);
+        assertThat(accumulated.getTransactionAggregates().get("abc").getTransactionCount())
+                .isEqualTo(20);
+        // error summary only includes the interval with errors
+        assertThat(accumulated.getOverallErrorSummary().errorCount).isEqualTo(2);
+        assertThat(accumulated.getOverallErrorSummary().transactionCount).isEqualTo(10);
+        assertThat(accumulated.getTransactionErrorSummaries().get("abc").transactionCount)
+                .isEqualTo(10);
+    }
+
+    @Test
+    public void shouldIgnoreRetriedCaptureTime() {
+        // given
+        AggregateAccumulators accumulators = new AggregateAccumulators(Clock.systemClock());
+        // when
+        accumulators.accumulate("a", 300000, 60000, createAggregates(0), ImmutableList.of(), 10,
+                10);
+        accumulators.accumulate("a", 300000, 60000, createAggregates(0), ImmutableList.of(), 10,
+                10);
+        // then
+        AccumulatedTransactionType accumulated = accumulators.remove("a", 300000).get("Web");
+        assertThat(accumulated.getCaptureTimes()).containsOnly(60000L);
+        assertThat(accumulated.getOverallAggregate().getTransactionCount()).isEqualTo(10);
+    }
+
+    @Test
+    public void shouldDiscardIntervalOverMaxAggregates() {
+        // given
+        AggregateAccumulators accumulators = new AggregateAccumulators(Clock.systemClock(), 3);
+        // when
+        accumulators.accumulate("a", 300000, 60000, createAggregates(0), ImmutableList.of(), 10,
+                10);
+        accumulators.accumulate("b", 300000, 60000, createAggregates(0), ImmutableList.of(), 10,
+                10);
+        accumulators.accumulate("b", 300000, 120000, createAggregates(0, "def"),
+                ImmutableList.of(), 10, 10);
+        accumulators.accumulate("b", 300000, 180000, createAggregates(0, "ghi"),
+                ImmutableList.of(), 10, 10);
+        // then
+        assertThat(accumulators.remove("a", 300000).get("Web")).isNotNull();
+        // rollup falls back to reading back the level-0 rows
+        AccumulatedInterval interval = accumulators.remove("b", 300000);
+        assertThat(interval).isNotNull();
+        assertThat(interval.get("Web")).isNull();
+    }
+
+    private static List<OldAggregatesByType> createAggregates(int errorCount) {
+        return createAggregates(errorCount, "abc");
+    }
+
+    private static List<OldAggregatesByType> createAggregates(int errorCount,
+            String transactionName) {
+        Aggregate aggregate = Aggregate.newBuilder()
+                .setTotalDurationNanos(1000)
+                .setTransactionCount(10)
+                .setErrorCount(errorCount)
+                .build();
+        return ImmutableList.of(OldAggregatesByType.newBuilder()
+                .setTransactionType("Web")
+                .setOverallAggregate(aggregate)
+                .addTransactionAggregate(OldTransactionAggregate.newBuilder()
+                        .setTransactionName(transactionName)
+                        .setAggregate(aggregate))
+                .build());
+    }
+}
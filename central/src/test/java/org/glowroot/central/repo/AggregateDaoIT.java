@@ -99,7 +99,7 @@ public class AggregateDaoIT {
                 new TransactionTypeDao(session, configRepository, clusterManager);
         FullQueryTextDao fullQueryTextDao = new FullQueryTextDao(session, configRepository);
         aggregateDao = new AggregateDao(session, agentRollupDao, transactionTypeDao,
-                fullQueryTextDao, configRepository, Clock.systemClock());
+                fullQueryTextDao, configRepository, clusterManager, Clock.systemClock());
     }
 
     @AfterClass
@@ -216,6 +216,7 @@ public class AggregateDaoIT {
         assertThat(query.hasTotalRows()).isTrue();
         assertThat(query.getTotalRows()).isEqualTo(10);
         assertThat(query.getExecutionCount()).isEqualTo(4);
+        assertThat(query.getRoundTripCount()).isEqualTo(2);
 
         // rollup
         aggregateDao.rollup("one", null, true);
@@ -289,6 +290,7 @@ public class AggregateDaoIT {
         assertThat(query.hasTotalRows()).isTrue();
         assertThat(query.getTotalRows()).isEqualTo(10);
         assertThat(query.getExecutionCount()).isEqualTo(4);
+        assertThat(query.getRoundTripCount()).isEqualTo(2);
     }
 
     @Test
@@ -394,6 +396,7 @@ public class AggregateDaoIT {
         assertThat(query.hasTotalRows()).isTrue();
         assertThat(query.getTotalRows()).isEqualTo(10);
         assertThat(query.getExecutionCount()).isEqualTo(4);
+        assertThat(query.getRoundTripCount()).isEqualTo(2);
 
         // check rolled-up data after rollup
         overallQuery = ImmutableOverallQuery.builder()
@@ -466,6 +469,7 @@ public class AggregateDaoIT {
         assertThat(query.hasTotalRows()).isTrue();
         assertThat(query.getTotalRows()).isEqualTo(10);
         assertThat(query.getExecutionCount()).isEqualTo(4);
+        assertThat(query.getRoundTripCount()).isEqualTo(2);
     }
 
     @Test
@@ -572,6 +576,7 @@ public class AggregateDaoIT {
         assertThat(query.hasTotalRows()).isTrue();
         assertThat(query.getTotalRows()).isEqualTo(10);
         assertThat(query.getExecutionCount()).isEqualTo(4);
+        assertThat(query.getRoundTripCount()).isEqualTo(2);
 
         // check rolled-up data after rollup
         overallQuery = ImmutableOverallQuery.builder()
@@ -644,6 +649,7 @@ public class AggregateDaoIT {
         assertThat(query.hasTotalRows()).isTrue();
         assertThat(query.getTotalRows()).isEqualTo(10);
         assertThat(query.getExecutionCount()).isEqualTo(4);
+        assertThat(query.getRoundTripCount()).isEqualTo(2);
     }
 
     private static List<OldAggregatesByType> createData() {
@@ -686,7 +692,8 @@ public class AggregateDaoIT {
                                 .setSharedQueryTextIndex(0)
                                 .setTotalDurationNanos(7)
                                 .setTotalRows(OptionalInt64.newBuilder().setValue(5))
-                                .setExecutionCount(2)))
+                                .setExecutionCount(2)
+                                .setRoundTripCount(1)))
                 .build();
     }
 
@@ -714,7 +721,8 @@ public class AggregateDaoIT {
                                         .setSharedQueryTextIndex(0)
                                         .setTotalDurationNanos(7)
                                         .setTotalRows(OptionalInt64.newBuilder().setValue(5))
-                                        .setExecutionCount(2))))
+                                        .setExecutionCount(2)
+                                        .setRoundTripCount(1))))
                 .build();
     }
 
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.central.repo;
+
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.glowroot.central.repo.AggregateReadCache.BucketKey;
+import org.glowroot.central.repo.AggregateReadCache.Reader;
+import org.glowroot.central.util.Cache;
+import org.glowroot.central.util.ClusterManager;
+import org.glowroot.common.live.ImmutableTransactionQuery;
+import org.glowroot.common.live.LiveAggregateRepository.TransactionQuery;
+import org.glowroot.common.repo.ConfigRepository;
+import org.glowroot.common.repo.ImmutableRollupConfig;
+import org.glowroot.common.util.Clock;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class AggregateReadCacheTest {
+
+    private static final long BUCKET_MILLIS = 60000 * AggregateReadCache.INTERVALS_PER_BUCKET;
+
+    private Clock clock;
+    private AggregateReadCache readCache;
+    private List<TransactionQuery> queries;
+    private Reader<Long> reader;
+    private Cache<BucketKey, List<Long>> cache;
+
+    @Before
+    public void beforeEach() {
+        ConfigRepository configRepository = mock(ConfigRepository.class);
+        when(configRepository.getRollupConfigs())
+                .thenReturn(ImmutableList.of(ImmutableRollupConfig.of(60000, 0)));
+        clock = mock(Clock.class);
+        when(clock.currentTimeMillis()).thenReturn(10 * BUCKET_MILLIS);
+        readCache = new AggregateReadCache(ClusterManager.create(), configRepository, clock);
+        queries = Lists.newArrayList();
+        // returns one capture time per minute
+        reader = (agentRollupId, query) -> {
+            queries.add(query);
+            List<Long> captureTimes = Lists.newArrayList();
+            for (long captureTime = query.from(); captureTime <= query.to(); captureTime +=
+                    60000) {
+                captureTimes.add(captureTime);
+            }
+            return captureTimes;
+        };
+        cache = readCache.createBucketCache("test", reader);
+    }
+
+    @Test
+    public void shouldOnlyReadTailAfterFirstRead() throws Exception {
+        // given
+        TransactionQuery query = createQuery(BUCKET_MILLIS + 60000, 10 * BUCKET_MILLIS);
+        // when
+        List<Long> captureTimes = readCache.read(cache, "a", query, reader, value -> value);
+        List<Long> captureTimesAgain = readCache.read(cache, "a", query, reader, value -> value);
+        // then
+        assertThat(captureTimes).hasSize(9 * AggregateReadCache.INTERVALS_PER_BUCKET);
+        assertThat(captureTimes.get(0)).isEqualTo(BUCKET_MILLIS + 60000);
+        assertThat(captureTimesAgain).isEqualTo(captureTimes);
+        // 8 finalized buckets + tail, then only tail
+        assertThat(queries).hasSize(10);
+        assertThat(queries.get(9).from()).isEqualTo(9 * BUCKET_MILLIS);
+    }
+
+    @Test
+    public void shouldIgnoreCachedBucketsAfterLateWrite() throws Exception {
+        // given
+        TransactionQuery query = createQuery(8 * BUCKET_MILLIS, 10 * BUCKET_MILLIS);
+        readCache.read(cache, "a", query, reader, value -> value);
+        queries.clear();
+        // when
+        readCache.afterWrite("a", 9 * BUCKET_MILLIS);
+        readCache.read(cache, "a", query, reader, value -> value);
+        // then
+        assertThat(queries).hasSize(2);
+    }
+
+    @Test
+    public void shouldNotIgnoreCachedBucketsAfterRecentWrite() throws Exception {
+        // given
+        TransactionQuery query = createQuery(8 * BUCKET_MILLIS, 10 * BUCKET_MILLIS);
+        readCache.read(cache, "a", query, reader, value -> value);
+        queries.clear();
+        // when
+        readCache.afterWrite("a", 10 * BUCKET_MILLIS);
+        readCache.read(cache, "a", query, reader, value -> value);
+        // then
+        assertThat(queries).hasSize(1);
+    }
+
+    private static TransactionQuery createQuery(long from, long to) {
+        return ImmutableTransactionQuery.builder()
+                .transactionType("Web")
+                .from(from)
+                .to(to)
+                .rollupLevel(0)
+                .build();
+    }
+}
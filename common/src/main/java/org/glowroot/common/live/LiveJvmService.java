@@ -20,6 +20,7 @@ import java.util.Map;
 
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.Capabilities;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.HeapDumpFileInfo;
+import org.glowroot.wire.api.model.DownstreamServiceOuterClass.HeapDumpSummary;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.HeapHistogram;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.MBeanDump;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.MBeanDumpRequest.MBeanDumpKind;
@@ -38,6 +39,16 @@ public interface LiveJvmService {
 
     HeapDumpFileInfo heapDump(String agentId, String directory) throws Exception;
 
+    // copies a heap dump previously created by heapDump() to the local disk (this is a no-op when
+    // the agent is running on the same host), returning the local file info
+    //
+    // the transfer can be cancelled by interrupting the calling thread
+    HeapDumpFileInfo transferHeapDump(String agentId, String filePath,
+            TransferProgressListener progressListener) throws Exception;
+
+    // summarizes a heap dump previously created by heapDump()
+    HeapDumpSummary heapDumpSummary(String agentId, String filePath) throws Exception;
+
     HeapHistogram heapHistogram(String agentId) throws Exception;
 
     void gc(String agentId) throws Exception;
@@ -54,6 +65,10 @@ public interface LiveJvmService {
 
     Capabilities getCapabilities(String agentId) throws Exception;
 
+    interface TransferProgressListener {
+        void onProgress(long transferredBytes, long totalBytes);
+    }
+
     @SuppressWarnings("serial")
     public class AgentNotConnectedException extends Exception {}
 
@@ -19,6 +19,8 @@ import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.List;
 
+import javax.annotation.Nullable;
+
 import com.google.common.annotations.VisibleForTesting;
 import com.google.protobuf.ByteString;
 import org.HdrHistogram.Histogram;
@@ -29,7 +31,10 @@ import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
 
 public class LazyHistogram {
 
-    private static final int HISTOGRAM_SIGNIFICANT_DIGITS = 5;
+    // lower precision trades percentile accuracy for (much) smaller histograms, which are faster to
+    // merge, encode and decode (HdrHistogram supports between 0 and 5 significant digits)
+    private static final int HISTOGRAM_SIGNIFICANT_DIGITS = Math.max(0,
+            Math.min(5, Integer.getInteger("glowroot.histogram.significantDigits", 5)));
     private static final int MAX_VALUES = 1024;
 
     private long[] values = new long[8];
@@ -38,10 +43,22 @@ public class LazyHistogram {
 
     private @MonotonicNonNull Histogram histogram;
 
-    public LazyHistogram() {}
+    private final @Nullable ScratchBuffer scratchBuffer;
+
+    public LazyHistogram() {
+        scratchBuffer = null;
+    }
+
+    // the histogram is recycled from the scratch buffer, and must be given back by calling
+    // recycle() once this instance is no longer needed, this avoids re-allocating the (large)
+    // histogram counts array in merge-heavy code paths that process many histograms in sequence
+    public LazyHistogram(ScratchBuffer scratchBuffer) {
+        this.scratchBuffer = scratchBuffer;
+    }
 
     // special constructor, histogram created this way cannot be further mutated
     public LazyHistogram(Aggregate.Histogram hist) {
+        scratchBuffer = null;
         ByteString encodedBytes = hist.getEncodedBytes();
         if (encodedBytes.isEmpty()) {
             List<Long> orderedRawValues = hist.getOrderedRawValueList();
@@ -84,10 +101,18 @@ public class LazyHistogram {
                 add(rawValue);
             }
         } else {
+            Histogram decodedHistogram =
+                    Histogram.decodeFromByteBuffer(encodedBytes.asReadOnlyByteBuffer(), 0);
+            if (histogram == null && size == 0 && scratchBuffer == null) {
+                // no need to allocate a new histogram and copy into it
+                decodedHistogram.setAutoResize(true);
+                histogram = decodedHistogram;
+                return;
+            }
             if (histogram == null) {
                 convertValuesToHistogram();
             }
-            histogram.add(Histogram.decodeFromByteBuffer(encodedBytes.asReadOnlyByteBuffer(), 0));
+            histogram.add(decodedHistogram);
         }
     }
 
@@ -122,6 +147,13 @@ public class LazyHistogram {
         return histogram.getValueAtPercentile(percentile);
     }
 
+    // this instance must not be used after calling this method
+    public void recycle() {
+        if (scratchBuffer != null && histogram != null) {
+            scratchBuffer.histogram = histogram;
+        }
+    }
+
     @VisibleForTesting
     public void add(long value) {
         ensureCapacity(size + 1);
@@ -151,9 +183,11 @@ public class LazyHistogram {
 
     @EnsuresNonNull("histogram")
     private void convertValuesToHistogram() {
-        // tracking nanoseconds, but only at microsecond precision (to save histogram space)
-        histogram = new Histogram(1000, 2000, HISTOGRAM_SIGNIFICANT_DIGITS);
-        histogram.setAutoResize(true);
+        if (scratchBuffer == null) {
+            histogram = createHistogram();
+        } else {
+            histogram = scratchBuffer.getHistogram();
+        }
         for (int i = 0; i < size; i++) {
             histogram.recordValue(values[i]);
         }
@@ -165,15 +199,35 @@ public class LazyHistogram {
         sorted = true;
     }
 
+    private static Histogram createHistogram() {
+        // tracking nanoseconds, but only at microsecond precision (to save histogram space)
+        Histogram histogram = new Histogram(1000, 2000, HISTOGRAM_SIGNIFICANT_DIGITS);
+        histogram.setAutoResize(true);
+        return histogram;
+    }
+
     public static class ScratchBuffer {
 
         private @MonotonicNonNull ByteBuffer buffer;
 
+        // recycled histogram, see LazyHistogram(ScratchBuffer)
+        private @Nullable Histogram histogram;
+
         ByteBuffer getBuffer(int capacity) {
             if (buffer == null || buffer.capacity() < capacity) {
                 buffer = ByteBuffer.allocate(capacity);
             }
             return buffer;
         }
+
+        private Histogram getHistogram() {
+            Histogram histogram = this.histogram;
+            if (histogram == null) {
+                return createHistogram();
+            }
+            this.histogram = null;
+            histogram.reset();
+            return histogram;
+        }
     }
 }
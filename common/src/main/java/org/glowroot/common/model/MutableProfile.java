@@ -76,6 +76,13 @@ public class MutableProfile {
     }
 
     public void merge(List<StackTraceElement> stackTraceElements, Thread.State threadState) {
+        merge(stackTraceElements, threadState, 0, 0);
+    }
+
+    // cpuNanos and allocatedBytes are the cpu time consumed and the amount allocated by the thread
+    // since its prior stack trace sample, which are attributed to this stack trace
+    public void merge(List<StackTraceElement> stackTraceElements, Thread.State threadState,
+            long cpuNanos, long allocatedBytes) {
         PeekingIterator<StackTraceElement> i =
                 Iterators.peekingIterator(Lists.reverse(stackTraceElements).iterator());
         ProfileNode lastMatchedNode = null;
@@ -123,6 +130,8 @@ public class MutableProfile {
                 mergeIntoNodes.add(node);
             }
             node.sampleCount++;
+            node.cpuNanos += cpuNanos;
+            node.allocatedBytes += allocatedBytes;
             lastMatchedNode = node;
             mergeIntoNodes = lastMatchedNode.childNodes;
         }
@@ -174,6 +183,34 @@ public class MutableProfile {
         }
     }
 
+    // replaces sample counts with cpu nanos, so that filtering, truncation and rendering all
+    // operate on cpu time, and removes branches that did not consume any cpu
+    public void weightByCpuNanos() {
+        weightBy(false);
+    }
+
+    // replaces sample counts with allocated bytes, so that filtering, truncation and rendering all
+    // operate on allocated bytes, and removes branches that have no allocations
+    public void weightByAllocatedBytes() {
+        weightBy(true);
+    }
+
+    public long getCpuNanos() {
+        long cpuNanos = 0;
+        for (ProfileNode rootNode : rootNodes) {
+            cpuNanos += rootNode.cpuNanos;
+        }
+        return cpuNanos;
+    }
+
+    public long getAllocatedBytes() {
+        long allocatedBytes = 0;
+        for (ProfileNode rootNode : rootNodes) {
+            allocatedBytes += rootNode.allocatedBytes;
+        }
+        return allocatedBytes;
+    }
+
     public long getSampleCount() {
         long sampleCount = 0;
         for (ProfileNode rootNode : rootNodes) {
@@ -190,6 +227,30 @@ public class MutableProfile {
         }
     }
 
+    private void weightBy(boolean allocatedBytes) {
+        Deque<ProfileNode> toBeVisited = new ArrayDeque<ProfileNode>();
+        for (Iterator<ProfileNode> i = rootNodes.iterator(); i.hasNext();) {
+            ProfileNode rootNode = i.next();
+            if (rootNode.getWeight(allocatedBytes) == 0) {
+                i.remove();
+            } else {
+                toBeVisited.add(rootNode);
+            }
+        }
+        ProfileNode node;
+        while ((node = toBeVisited.poll()) != null) {
+            node.sampleCount = node.getWeight(allocatedBytes);
+            for (Iterator<ProfileNode> i = node.childNodes.iterator(); i.hasNext();) {
+                ProfileNode childNode = i.next();
+                if (childNode.getWeight(allocatedBytes) == 0) {
+                    i.remove();
+                } else {
+                    toBeVisited.add(childNode);
+                }
+            }
+        }
+    }
+
     public Profile toProto() {
         List<Profile.ProfileNode> nodes = Lists.newArrayList();
         for (ProfileNode rootNode : rootNodes) {
@@ -321,6 +382,8 @@ public class MutableProfile {
         private final Profile.LeafThreadState leafThreadState;
 
         private long sampleCount;
+        private long cpuNanos;
+        private long allocatedBytes;
 
         private List<ProfileNode> childNodes = Lists.newArrayListWithCapacity(2);
 
@@ -340,6 +403,10 @@ public class MutableProfile {
             this.leafThreadState = leafThreadState;
         }
 
+        private long getWeight(boolean allocatedBytes) {
+            return allocatedBytes ? this.allocatedBytes : cpuNanos;
+        }
+
         private String getText() {
             if (text == null) {
                 String packageName = packageNames.get(packageNameIndex);
@@ -433,6 +500,8 @@ public class MutableProfile {
 
         private void merge(Profile.ProfileNode toBeMergedNode, ProfileNode destinationNode) {
             destinationNode.sampleCount += toBeMergedNode.getSampleCount();
+            destinationNode.cpuNanos += toBeMergedNode.getCpuNanos();
+            destinationNode.allocatedBytes += toBeMergedNode.getAllocatedBytes();
         }
     }
 
@@ -457,6 +526,8 @@ public class MutableProfile {
                     .setLineNumber(node.lineNumber)
                     .setLeafThreadState(node.leafThreadState)
                     .setSampleCount(node.sampleCount)
+                    .setCpuNanos(node.cpuNanos)
+                    .setAllocatedBytes(node.allocatedBytes)
                     .build());
             return node.childNodes;
         }
@@ -505,15 +576,21 @@ public class MutableProfile {
             }
             // node is a partial match, need to filter it out
             long filteredSampleCount = 0;
+            long filteredCpuNanos = 0;
+            long filteredAllocatedBytes = 0;
             for (Iterator<ProfileNode> i = node.childNodes.iterator(); i.hasNext();) {
                 ProfileNode childNode = i.next();
                 if (exclusion == !childNode.matched) {
                     filteredSampleCount += childNode.sampleCount;
+                    filteredCpuNanos += childNode.cpuNanos;
+                    filteredAllocatedBytes += childNode.allocatedBytes;
                 } else {
                     i.remove();
                 }
             }
             node.sampleCount = filteredSampleCount;
+            node.cpuNanos = filteredCpuNanos;
+            node.allocatedBytes = filteredAllocatedBytes;
         }
 
         private boolean isMatch(ProfileNode node) {
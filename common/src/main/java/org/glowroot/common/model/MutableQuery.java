@@ -34,6 +34,8 @@ public class MutableQuery {
 
     private double totalDurationNanos;
     private long executionCount;
+    // zero for data collected prior to 0.9.29
+    private long roundTripCount;
 
     private boolean hasTotalRows;
     private long totalRows;
@@ -59,6 +61,10 @@ public class MutableQuery {
         return executionCount;
     }
 
+    public long getRoundTripCount() {
+        return roundTripCount;
+    }
+
     public boolean hasTotalRows() {
         return hasTotalRows;
     }
@@ -75,6 +81,10 @@ public class MutableQuery {
         this.executionCount += executionCount;
     }
 
+    void addToRoundTripCount(long roundTripCount) {
+        this.roundTripCount += roundTripCount;
+    }
+
     void addToTotalRows(boolean hasTotalRows, long totalRows) {
         if (hasTotalRows) {
             this.hasTotalRows = true;
@@ -85,6 +95,7 @@ public class MutableQuery {
     void addTo(MutableQuery query) {
         addToTotalDurationNanos(query.totalDurationNanos);
         addToExecutionCount(query.executionCount);
+        addToRoundTripCount(query.roundTripCount);
         addToTotalRows(query.hasTotalRows, query.totalRows);
     }
 }
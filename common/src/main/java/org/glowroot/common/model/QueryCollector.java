@@ -85,19 +85,20 @@ public class QueryCollector {
     }
 
     public void mergeQuery(String queryType, String truncatedText, @Nullable String fullTextSha1,
-            double totalDurationNanos, long executionCount, boolean hasRows, long totalRows) {
+            double totalDurationNanos, long executionCount, long roundTripCount, boolean hasRows,
+            long totalRows) {
         Map<String, MutableQuery> queriesForType = queries.get(queryType);
         if (queriesForType == null) {
             queriesForType = Maps.newHashMap();
             queries.put(queryType, queriesForType);
         }
         mergeQuery(truncatedText, fullTextSha1, totalDurationNanos, executionCount,
-                hasRows, totalRows, queriesForType);
+                roundTripCount, hasRows, totalRows, queriesForType);
     }
 
     private void mergeQuery(String truncatedText, @Nullable String fullTextSha1,
-            double totalDurationNanos, long executionCount, boolean hasRows, long totalRows,
-            Map<String, MutableQuery> queriesForType) {
+            double totalDurationNanos, long executionCount, long roundTripCount, boolean hasRows,
+            long totalRows, Map<String, MutableQuery> queriesForType) {
         String queryKey = MoreObjects.firstNonNull(fullTextSha1, truncatedText);
         MutableQuery aggregateQuery = queriesForType.get(queryKey);
         if (aggregateQuery == null) {
@@ -106,6 +107,7 @@ public class QueryCollector {
         }
         aggregateQuery.addToTotalDurationNanos(totalDurationNanos);
         aggregateQuery.addToExecutionCount(executionCount);
+        aggregateQuery.addToRoundTripCount(roundTripCount);
         aggregateQuery.addToTotalRows(hasRows, totalRows);
     }
 }
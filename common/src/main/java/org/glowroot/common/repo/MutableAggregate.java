@@ -232,12 +232,12 @@ public class MutableAggregate {
 
     public void mergeQuery(String queryType, String truncatedQueryText,
             @Nullable String fullQueryTextSha1, double totalDurationNanos, long executionCount,
-            boolean hasTotalRows, long totalRows) {
+            long roundTripCount, boolean hasTotalRows, long totalRows) {
         if (queries == null) {
             queries = new QueryCollector(maxAggregateQueriesPerType);
         }
         queries.mergeQuery(queryType, truncatedQueryText, fullQueryTextSha1, totalDurationNanos,
-                executionCount, hasTotalRows, totalRows);
+                executionCount, roundTripCount, hasTotalRows, totalRows);
     }
 
     public void mergeServiceCalls(List<Aggregate.ServiceCallsByType> toBeMergedServiceCalls) {
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.common.model;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.Lists;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import org.glowroot.common.model.LazyHistogram.ScratchBuffer;
+import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
+
+// this lives next to LazyHistogram (in test scope) so that the agent benchmarks do not need to
+// depend on glowroot-common, run it using main() after mvn test-compile
+//
+// histogram precision can be compared by running with different values of
+// -Dglowroot.histogram.significantDigits
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class LazyHistogramBenchmark {
+
+    // number of encoded histograms merged per operation, e.g. number of level-0 rows in a rollup
+    @Param({"5", "60"})
+    private int histogramCount;
+
+    @Param({"100", "10000"})
+    private int valuesPerHistogram;
+
+    @Param
+    private HistogramType histogramType;
+
+    private List<Aggregate.Histogram> histograms;
+
+    private ScratchBuffer scratchBuffer;
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(LazyHistogramBenchmark.class.getName())
+                .jvmArgsAppend("-Dglowroot.histogram.significantDigits="
+                        + System.getProperty("glowroot.histogram.significantDigits", "5"))
+                .build()).run();
+    }
+
+    @Setup
+    public void setup() {
+        Random random = new Random(0);
+        histograms = Lists.newArrayList();
+        ScratchBuffer scratchBuffer = new ScratchBuffer();
+        for (int i = 0; i < histogramCount; i++) {
+            LazyHistogram histogram = new LazyHistogram();
+            for (int j = 0; j < valuesPerHistogram; j++) {
+                // log-normal-ish response times, mostly between 1 millisecond and 1 second
+                histogram.add((long) Math.exp(14 + 2 * random.nextGaussian()));
+            }
+            histograms.add(histogram.toProto(scratchBuffer));
+        }
+        this.scratchBuffer = new ScratchBuffer();
+    }
+
+    @Benchmark
+    public Aggregate.Histogram mergeAndEncode() {
+        LazyHistogram mergedHistogram = createHistogram();
+        for (Aggregate.Histogram histogram : histograms) {
+            mergedHistogram.merge(histogram);
+        }
+        Aggregate.Histogram proto = mergedHistogram.toProto(scratchBuffer);
+        mergedHistogram.recycle();
+        return proto;
+    }
+
+    @Benchmark
+    public long mergeAndComputePercentiles() {
+        LazyHistogram mergedHistogram = createHistogram();
+        for (Aggregate.Histogram histogram : histograms) {
+            mergedHistogram.merge(histogram);
+        }
+        long total = mergedHistogram.getValueAtPercentile(50)
+                + mergedHistogram.getValueAtPercentile(95)
+                + mergedHistogram.getValueAtPercentile(99);
+        mergedHistogram.recycle();
+        return total;
+    }
+
+    private LazyHistogram createHistogram() {
+        switch (histogramType) {
+            case RECYCLED:
+                return new LazyHistogram(scratchBuffer);
+            default:
+                return new LazyHistogram();
+        }
+    }
+
+    public enum HistogramType {
+        NEW, RECYCLED
+    }
+}
@@ -78,6 +78,20 @@ public class LazyHistogramTest {
         shouldDecodeOnTopOfExisting(100000000, 200000000);
     }
 
+    @Test
+    public void shouldTestRecycledDecodeOnTopOfExisting() throws Exception {
+        ScratchBuffer scratchBuffer = new ScratchBuffer();
+        // test smaller numbers in more detail since that is where laziness occurs
+        for (int i = 0; i < 2000000; i += 10000) {
+            shouldRecycledDecodeOnTopOfExisting(i, i, scratchBuffer);
+        }
+        shouldRecycledDecodeOnTopOfExisting(100000000, 100000000, scratchBuffer);
+        // recycled histogram has now auto-resized, make sure it is fully reset
+        for (int i = 0; i < 2000000; i += 10000) {
+            shouldRecycledDecodeOnTopOfExisting(i, 2 * i, scratchBuffer);
+        }
+    }
+
     private void shouldTestPercentiles(int num) {
         // given
         LazyHistogram lazyHistogram = new LazyHistogram();
@@ -153,6 +167,29 @@ public class LazyHistogramTest {
         assertPercentile(lazyHistogram, encodedSize + nonEncodedSize, 99.99);
     }
 
+    private void shouldRecycledDecodeOnTopOfExisting(int encodedSize, int nonEncodedSize,
+            ScratchBuffer scratchBuffer) throws Exception {
+        // given
+        LazyHistogram lazyHistogram = new LazyHistogram();
+        for (int i = encodedSize; i > 0; i -= 1000) {
+            lazyHistogram.add(i);
+        }
+        Aggregate.Histogram histogram = lazyHistogram.toProto(new ScratchBuffer());
+        lazyHistogram = new LazyHistogram(scratchBuffer);
+        // when
+        for (int i = nonEncodedSize + encodedSize; i > encodedSize; i -= 1000) {
+            lazyHistogram.add(i);
+        }
+        lazyHistogram.merge(histogram);
+        // then
+        assertPercentile(lazyHistogram, encodedSize + nonEncodedSize, 50);
+        assertPercentile(lazyHistogram, encodedSize + nonEncodedSize, 95);
+        assertPercentile(lazyHistogram, encodedSize + nonEncodedSize, 99);
+        assertPercentile(lazyHistogram, encodedSize + nonEncodedSize, 99.9);
+        assertPercentile(lazyHistogram, encodedSize + nonEncodedSize, 99.99);
+        lazyHistogram.recycle();
+    }
+
     private void assertPercentile(LazyHistogram lazyHistogram, int num, double percentile) {
         long low = (long) Math.floor(num * percentile * 0.99 / (100 * 1000)) * 1000;
         long high = (long) Math.ceil(num * percentile * 1.01 / (100 * 1000)) * 1000;
@@ -164,6 +164,83 @@ public class MutableProfileTest {
                 + "}").replace(" ", ""));
     }
 
+    @Test
+    public void testWeightByAllocatedBytes() throws IOException {
+        // given
+        MutableProfile profile = new MutableProfile();
+        List<StackTraceElement> stackTraceElements1 = Lists.newArrayList();
+        stackTraceElements1.add(new StackTraceElement("aa.bb.cc.Def", "ghi", "Def.java", 123));
+        stackTraceElements1.add(new StackTraceElement("xx.yy.zz.Main", "main", "Main.java", 789));
+        List<StackTraceElement> stackTraceElements2 = Lists.newArrayList();
+        stackTraceElements2.add(new StackTraceElement("aa.bb.cc.Def", "jkl", "Def.java", 456));
+        stackTraceElements2.add(new StackTraceElement("xx.yy.zz.Main", "main", "Main.java", 789));
+        profile.merge(stackTraceElements1, Thread.State.RUNNABLE, 0, 1000);
+        profile.merge(stackTraceElements1, Thread.State.RUNNABLE, 0, 500);
+        profile.merge(stackTraceElements2, Thread.State.RUNNABLE, 0, 0);
+        // round trip through proto, which is how profiles are stored
+        MutableProfile mergedProfile = new MutableProfile();
+        mergedProfile.merge(profile.toProto());
+        // when
+        mergedProfile.weightByAllocatedBytes();
+        // then
+        assertThat(mergedProfile.getAllocatedBytes()).isEqualTo(1500);
+        assertThat(mergedProfile.toJson()).isEqualTo(("{"
+                + "  \"unfilteredSampleCount\": 1500,"
+                + "  \"rootNodes\": ["
+                + "    {"
+                + "      \"stackTraceElement\": \"xx.yy.zz.Main.main(Main.java:789)\","
+                + "      \"sampleCount\": 1500,"
+                + "      \"childNodes\": ["
+                + "        {"
+                + "          \"stackTraceElement\": \"aa.bb.cc.Def.ghi(Def.java:123)\","
+                + "          \"leafThreadState\": \"RUNNABLE\","
+                + "          \"sampleCount\": 1500"
+                + "        }"
+                + "      ]"
+                + "    }"
+                + "  ]"
+                + "}").replace(" ", ""));
+    }
+
+    @Test
+    public void testWeightByCpuNanos() throws IOException {
+        // given
+        MutableProfile profile = new MutableProfile();
+        List<StackTraceElement> stackTraceElements1 = Lists.newArrayList();
+        stackTraceElements1.add(new StackTraceElement("aa.bb.cc.Def", "ghi", "Def.java", 123));
+        stackTraceElements1.add(new StackTraceElement("xx.yy.zz.Main", "main", "Main.java", 789));
+        List<StackTraceElement> stackTraceElements2 = Lists.newArrayList();
+        stackTraceElements2.add(new StackTraceElement("java.net.SocketInputStream", "read",
+                "SocketInputStream.java", 150));
+        stackTraceElements2.add(new StackTraceElement("xx.yy.zz.Main", "main", "Main.java", 789));
+        profile.merge(stackTraceElements1, Thread.State.RUNNABLE, 2000000, 0);
+        profile.merge(stackTraceElements2, Thread.State.RUNNABLE, 0, 0);
+        profile.merge(stackTraceElements2, Thread.State.RUNNABLE, 0, 0);
+        profile.merge(stackTraceElements2, Thread.State.RUNNABLE, 0, 0);
+        MutableProfile mergedProfile = new MutableProfile();
+        mergedProfile.merge(profile.toProto());
+        // when
+        mergedProfile.weightByCpuNanos();
+        // then
+        assertThat(mergedProfile.getCpuNanos()).isEqualTo(2000000);
+        assertThat(mergedProfile.toJson()).isEqualTo(("{"
+                + "  \"unfilteredSampleCount\": 2000000,"
+                + "  \"rootNodes\": ["
+                + "    {"
+                + "      \"stackTraceElement\": \"xx.yy.zz.Main.main(Main.java:789)\","
+                + "      \"sampleCount\": 2000000,"
+                + "      \"childNodes\": ["
+                + "        {"
+                + "          \"stackTraceElement\": \"aa.bb.cc.Def.ghi(Def.java:123)\","
+                + "          \"leafThreadState\": \"RUNNABLE\","
+                + "          \"sampleCount\": 2000000"
+                + "        }"
+                + "      ]"
+                + "    }"
+                + "  ]"
+                + "}").replace(" ", ""));
+    }
+
     // this is helpful when building tests
     @SuppressWarnings("unused")
     private static void prettyPrint(String json) throws IOException {
@@ -19,8 +19,9 @@
 glowroot.controller('JvmHeapDumpCtrl', [
   '$scope',
   '$http',
+  '$timeout',
   'httpErrors',
-  function ($scope, $http, httpErrors) {
+  function ($scope, $http, $timeout, httpErrors) {
 
     $scope.$parent.heading = 'Heap dump';
 
@@ -37,6 +38,8 @@ glowroot.controller('JvmHeapDumpCtrl', [
       };
       delete $scope.availableDiskSpaceBytes;
       $scope.heapDumpResponse = false;
+      $scope.heapDumpTransferResponse = false;
+      $scope.heapDumpSummary = false;
       $http.post('backend/jvm/available-disk-space?agent-id=' + encodeURIComponent($scope.agentId), postData)
           .then(function (response) {
             var data = response.data;
@@ -59,6 +62,7 @@ glowroot.controller('JvmHeapDumpCtrl', [
       };
       delete $scope.availableDiskSpaceBytes;
       $scope.heapDumpResponse = false;
+      $scope.heapDumpTransferResponse = false;
       $http.post('backend/jvm/heap-dump?agent-id=' + encodeURIComponent($scope.agentId), postData)
           .then(function (response) {
             var data = response.data;
@@ -75,6 +79,97 @@ glowroot.controller('JvmHeapDumpCtrl', [
           });
     };
 
+    // the transfer runs as a background job on the server, so this polls (showing progress) until
+    // it is done or cancelled
+    $scope.transferHeapDump = function (deferred) {
+      var postData = {
+        filePath: $scope.heapDumpResponse.filePath
+      };
+      $scope.heapDumpTransferResponse = false;
+      $scope.heapDumpTransferProgress = {
+        transferredBytes: 0
+      };
+      pollTransferHeapDump(postData, deferred);
+    };
+
+    $scope.cancelTransferHeapDump = function () {
+      var postData = {
+        filePath: $scope.heapDumpResponse.filePath
+      };
+      $scope.heapDumpTransferProgress = false;
+      $http.post('backend/jvm/heap-dump-transfer-cancel?agent-id=' + encodeURIComponent($scope.agentId),
+          postData)
+          .then(function () {
+            // nothing to do, the polling notices that the transfer was cancelled
+          }, function (response) {
+            httpErrors.handle(response, $scope);
+          });
+    };
+
+    function pollTransferHeapDump(postData, deferred) {
+      if (!$scope.heapDumpTransferProgress) {
+        deferred.reject('Copy cancelled');
+        return;
+      }
+      $http.post('backend/jvm/heap-dump-transfer?agent-id=' + encodeURIComponent($scope.agentId), postData)
+          .then(function (response) {
+            var data = response.data;
+            if (!$scope.heapDumpTransferProgress) {
+              deferred.reject('Copy cancelled');
+            } else if (data.error) {
+              $scope.heapDumpTransferProgress = false;
+              deferred.reject(data.error);
+            } else if (data.fileNotFound) {
+              $scope.heapDumpTransferProgress = false;
+              deferred.reject('Heap dump file no longer exists');
+            } else if (data.inProgress) {
+              $scope.heapDumpTransferProgress = data;
+              $timeout(function () {
+                pollTransferHeapDump(postData, deferred);
+              }, 1000);
+            } else {
+              $scope.heapDumpTransferProgress = false;
+              deferred.resolve('Heap dump copied');
+              $scope.heapDumpTransferResponse = data;
+            }
+          }, function (response) {
+            $scope.heapDumpTransferProgress = false;
+            httpErrors.handle(response, $scope, deferred);
+          });
+    }
+
+    // the summary runs as a background job on the server, so this polls until it is done
+    $scope.summarizeHeapDump = function (deferred) {
+      var postData = {
+        filePath: $scope.heapDumpResponse.filePath
+      };
+      $scope.heapDumpSummary = false;
+      pollHeapDumpSummary(postData, deferred);
+    };
+
+    function pollHeapDumpSummary(postData, deferred) {
+      $http.post('backend/jvm/heap-dump-summary?agent-id=' + encodeURIComponent($scope.agentId), postData)
+          .then(function (response) {
+            var data = response.data;
+            if (data.error) {
+              deferred.reject(data.error);
+            } else if (data.fileNotFound) {
+              deferred.reject('Heap dump file no longer exists');
+            } else if (data.agentUnsupportedOperation) {
+              deferred.reject('This feature is only supported by Glowroot agent 0.9.29 and later');
+            } else if (data.inProgress) {
+              $timeout(function () {
+                pollHeapDumpSummary(postData, deferred);
+              }, 1000);
+            } else {
+              deferred.resolve('See summary below');
+              $scope.heapDumpSummary = data;
+            }
+          }, function (response) {
+            httpErrors.handle(response, $scope, deferred);
+          });
+    }
+
     $http.get('backend/jvm/heap-dump-default-dir?agent-id=' + encodeURIComponent($scope.agentId))
         .then(function (response) {
           $scope.loaded = true;
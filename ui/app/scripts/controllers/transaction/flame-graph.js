@@ -34,6 +34,7 @@ glowroot.controller('TransactionFlameGraphCtrl', [
     $scope.last = Number($location.search().last);
     $scope.auxiliary = $location.search().auxiliary || false;
     $scope.filter = $location.search().filter;
+    $scope.weight = $location.search().weight;
     // larger truncate-branch-percentage compared to tree view
     // because svg flame graph is very slow with finer grained leafs
     // (especially removing it from the dom when going to another page)
@@ -63,6 +64,7 @@ glowroot.controller('TransactionFlameGraphCtrl', [
         from: $scope.from,
         to: $scope.to,
         auxiliary: $scope.auxiliary,
+        weight: $scope.weight,
         include: parseResult.includes,
         exclude: parseResult.excludes,
         truncateBranchPercentage: $scope.truncateBranchPercentage
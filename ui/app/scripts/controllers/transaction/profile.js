@@ -36,9 +36,10 @@ glowroot.controller('TransactionProfileCtrl', [
     $scope.showProfile = false;
     $scope.showSpinner = 0;
 
-    $scope.$watchGroup(['range.chartFrom', 'range.chartTo', 'range.chartRefresh', 'auxiliary'], function () {
+    $scope.$watchGroup(['range.chartFrom', 'range.chartTo', 'range.chartRefresh', 'auxiliary', 'weight'], function () {
       $location.search('filter', $scope.filter || null);
       $location.search('auxiliary', $scope.auxiliary ? 'true' : null);
+      $location.search('weight', $scope.weight !== 'samples' ? $scope.weight : null);
       refreshData();
     });
 
@@ -47,6 +48,9 @@ glowroot.controller('TransactionProfileCtrl', [
       if (auxiliary) {
         query.auxiliary = true;
       }
+      if ($scope.weight !== 'samples') {
+        query.weight = $scope.weight;
+      }
       return queryStrings.encodeObject(query);
     };
 
@@ -80,6 +84,9 @@ glowroot.controller('TransactionProfileCtrl', [
       if ($scope.auxiliary || (!$scope.hasUnfilteredMainThreadProfile && $scope.hasUnfilteredAuxThreadProfile)) {
         query.auxiliary = true;
       }
+      if ($scope.weight !== 'samples') {
+        query.weight = $scope.weight;
+      }
       return 'transaction/thread-flame-graph' + queryStrings.encodeObject(query);
     };
 
@@ -100,6 +107,7 @@ glowroot.controller('TransactionProfileCtrl', [
       $scope.filter = appliedFilter;
       $scope.truncateBranchPercentage = $location.search()['truncate-branch-percentage'] || 0.1;
       $scope.auxiliary = $location.search().auxiliary || false;
+      $scope.weight = $location.search().weight || 'samples';
     });
 
     $('.gt-profile-text-filter').on('gtClearProfileFilter', function (event, response) {
@@ -132,6 +140,9 @@ glowroot.controller('TransactionProfileCtrl', [
         exclude: parseResult.excludes,
         truncateBranchPercentage: $scope.truncateBranchPercentage
       };
+      if ($scope.weight !== 'samples') {
+        query.weight = $scope.weight;
+      }
       $scope.showSpinner++;
       $http.get('backend/transaction/profile' + queryStrings.encodeObject(query))
           .then(function (response) {
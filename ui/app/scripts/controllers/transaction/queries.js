@@ -316,6 +316,10 @@ glowroot.controller('TransactionQueriesCtrl', [
               } else {
                 query.rowsPerExecution = query.totalRows / query.executionCount;
               }
+              // round trip count is zero for data collected prior to 0.9.29
+              if (query.roundTripCount && query.roundTripCount !== query.executionCount) {
+                query.executionsPerRoundTrip = query.executionCount / query.roundTripCount;
+              }
               if (queryTypes[query.queryType] === undefined) {
                 queryTypes[query.queryType] = 0;
               }
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.ui;
+
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+
+import javax.annotation.Nullable;
+
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import static java.util.concurrent.TimeUnit.HOURS;
+
+// runs operations that can take minutes (e.g. heap dump summary) in the background so that they do
+// not hold an http request (and a request thread) open, the client starts the job and then polls
+// until it is done
+class BackgroundJobs {
+
+    // results that are never collected (e.g. browser closed) are discarded after this
+    private static final long EXPIRATION_MILLIS = HOURS.toMillis(1);
+
+    private final ExecutorService executor = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder()
+                    .setDaemon(true)
+                    .setNameFormat("Glowroot-Background-Job-%d")
+                    .build());
+
+    private final ConcurrentMap<String, Job<?>> jobs = Maps.newConcurrentMap();
+
+    // returns the existing job with the same key if there is one (which may already be done)
+    <T> Job<T> startIfAbsent(String key, final Callable<T> callable) {
+        return startIfAbsent(key, new Task<T>() {
+            @Override
+            public T run(Job<T> job) throws Exception {
+                return callable.call();
+            }
+        });
+    }
+
+    // returns the existing job with the same key if there is one (which may already be done)
+    @SuppressWarnings("unchecked")
+    <T> Job<T> startIfAbsent(String key, Task<T> task) {
+        removeExpired();
+        Job<T> job = (Job<T>) jobs.get(key);
+        if (job != null) {
+            return job;
+        }
+        job = new Job<T>(task);
+        Job<T> existing = (Job<T>) jobs.putIfAbsent(key, job);
+        if (existing != null) {
+            return existing;
+        }
+        executor.execute(job.future);
+        return job;
+    }
+
+    // returns the result (or throws the exception) of the job, or returns null if it is still in
+    // progress, once the result has been returned the job is forgotten
+    @Nullable
+    <T> T collect(String key, Job<T> job) throws Exception {
+        if (!job.isDone()) {
+            return null;
+        }
+        jobs.remove(key, job);
+        try {
+            return job.future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+    }
+
+    // the job is interrupted, and is forgotten right away
+    void cancel(String key) {
+        Job<?> job = jobs.remove(key);
+        if (job != null) {
+            job.future.cancel(true);
+        }
+    }
+
+    private void removeExpired() {
+        long now = System.currentTimeMillis();
+        Iterator<Job<?>> i = jobs.values().iterator();
+        while (i.hasNext()) {
+            Job<?> job = i.next();
+            if (job.completedTime != 0 && now - job.completedTime > EXPIRATION_MILLIS) {
+                i.remove();
+            }
+        }
+    }
+
+    interface Task<T> {
+        T run(Job<T> job) throws Exception;
+    }
+
+    static class Job<T> {
+
+        private final FutureTask<T> future;
+
+        private volatile long completedTime;
+
+        private volatile long progress;
+        private volatile long total;
+
+        private Job(final Task<T> task) {
+            future = new FutureTask<T>(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    return task.run(Job.this);
+                }
+            }) {
+                @Override
+                protected void done() {
+                    completedTime = System.currentTimeMillis();
+                }
+            };
+        }
+
+        boolean isDone() {
+            return future.isDone();
+        }
+
+        long getProgress() {
+            return progress;
+        }
+
+        long getTotal() {
+            return total;
+        }
+
+        void setProgress(long progress, long total) {
+            this.progress = progress;
+            this.total = total;
+        }
+    }
+}
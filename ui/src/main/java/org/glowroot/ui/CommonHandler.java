@@ -146,6 +146,11 @@ public class CommonHandler {
         this.jsonServiceMappings = ImmutableList.copyOf(jsonServiceMappings);
     }
 
+    @Nullable
+    String getSessionUsername(@Nullable String cookieHeader) throws Exception {
+        return httpSessionManager.getSessionUsername(cookieHeader);
+    }
+
     public CommonResponse handle(CommonRequest request) throws Exception {
         logger.debug("handleRequest(): path={}", request.getPath());
         CommonResponse response = handleIfLoginOrLogoutRequest(request);
@@ -334,6 +339,8 @@ public class CommonHandler {
             return (CommonResponse) responseObject;
         } else if (responseObject instanceof String) {
             return new CommonResponse(OK, MediaType.JSON_UTF_8, (String) responseObject);
+        } else if (responseObject instanceof JsonContent) {
+            return new CommonResponse(OK, MediaType.JSON_UTF_8, (JsonContent) responseObject);
         } else {
             logger.warn("unexpected type of json service response: {}",
                     responseObject.getClass().getName());
@@ -615,6 +622,10 @@ public class CommonHandler {
             this(status, mediaType, content, true);
         }
 
+        CommonResponse(HttpResponseStatus status, MediaType mediaType, JsonContent content) {
+            this(status, mediaType, content, true);
+        }
+
         CommonResponse(HttpResponseStatus status) {
             this(status, null, Unpooled.buffer(0), true);
         }
@@ -661,7 +672,7 @@ public class CommonHandler {
             return headers;
         }
 
-        // returns ByteBuf or ChunkSource
+        // returns ByteBuf, ChunkSource or JsonContent
         public Object getContent() {
             return content;
         }
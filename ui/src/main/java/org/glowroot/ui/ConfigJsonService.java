@@ -238,11 +238,13 @@ class ConfigJsonService {
 
         abstract ImmutableList<String> users();
         abstract @Nullable Integer profilingIntervalMillis();
+        abstract boolean allocationProfiling();
         abstract String version();
 
         private UserRecordingConfig convert() {
             UserRecordingConfig.Builder builder = UserRecordingConfig.newBuilder()
-                    .addAllUser(users());
+                    .addAllUser(users())
+                    .setAllocationProfiling(allocationProfiling());
             Integer profilingIntervalMillis = profilingIntervalMillis();
             if (profilingIntervalMillis != null) {
                 builder.setProfilingIntervalMillis(
@@ -254,7 +256,8 @@ class ConfigJsonService {
         private static UserRecordingConfigDto create(UserRecordingConfig config) {
             ImmutableUserRecordingConfigDto.Builder builder =
                     ImmutableUserRecordingConfigDto.builder()
-                            .users(config.getUserList());
+                            .users(config.getUserList())
+                            .allocationProfiling(config.getAllocationProfiling());
             if (config.hasProfilingIntervalMillis()) {
                 builder.profilingIntervalMillis(config.getProfilingIntervalMillis().getValue());
             }
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.ui;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import javax.annotation.Nullable;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Queues;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static io.netty.handler.codec.http.HttpResponseStatus.SERVICE_UNAVAILABLE;
+import static io.netty.handler.codec.http.HttpResponseStatus.TOO_MANY_REQUESTS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+// executes requests outside of the netty event loop, so that slow services (e.g. backed by
+// cassandra or h2 queries) do not block other connections that share the same event loop
+//
+// the number of requests executing concurrently for the same endpoint is limited so that a few
+// expensive endpoints cannot occupy all of the threads (requests beyond that limit wait in a queue
+// for their own endpoint), and the number of requests in flight (queued or executing) is limited
+// both overall and per user
+class HttpRequestExecutor {
+
+    private static final Logger logger = LoggerFactory.getLogger(HttpRequestExecutor.class);
+
+    private static final long SLOW_QUEUE_TIME_NANOS = SECONDS.toNanos(5);
+
+    private final ThreadPoolExecutor executor;
+    private final int maxInFlight;
+    private final int maxInFlightPerUser;
+    private final int maxExecutingPerEndpoint;
+    private final Ticker ticker;
+
+    private final Object lock = new Object();
+
+    // guarded by lock
+    private int inFlight;
+    // guarded by lock
+    private final Map<String, Integer> inFlightPerUser = Maps.newHashMap();
+    // guarded by lock
+    private final Map<String, EndpointQueue> endpointQueues = Maps.newHashMap();
+
+    private volatile long lastSlowQueueTimeWarningTick;
+
+    HttpRequestExecutor(int numThreads, int maxInFlight, int maxInFlightPerUser,
+            int maxExecutingPerEndpoint, Ticker ticker) {
+        // queue is unbounded since admission is already bounded by maxInFlight
+        executor = new ThreadPoolExecutor(numThreads, numThreads, 60, SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactoryBuilder()
+                        .setDaemon(true)
+                        .setNameFormat("Glowroot-Http-Request-%d")
+                        .build());
+        executor.allowCoreThreadTimeOut(true);
+        this.maxInFlight = maxInFlight;
+        this.maxInFlightPerUser = maxInFlightPerUser;
+        this.maxExecutingPerEndpoint = maxExecutingPerEndpoint;
+        this.ticker = ticker;
+        lastSlowQueueTimeWarningTick = ticker.read() - MINUTES.toNanos(1);
+    }
+
+    static HttpRequestExecutor create(int numWorkerThreads) {
+        int numThreads =
+                Integer.getInteger("glowroot.ui.requestThreads", Math.max(10, numWorkerThreads));
+        int maxInFlight = Integer.getInteger("glowroot.ui.maxPendingRequests", 1000);
+        int maxInFlightPerUser = Integer.getInteger("glowroot.ui.maxPendingRequestsPerUser", 100);
+        int maxExecutingPerEndpoint = Integer.getInteger("glowroot.ui.maxRequestsPerEndpoint",
+                Math.max(1, numThreads / 2));
+        return new HttpRequestExecutor(numThreads, maxInFlight, maxInFlightPerUser,
+                maxExecutingPerEndpoint, Ticker.systemTicker());
+    }
+
+    // returns null if the request was accepted, otherwise returns the status that should be sent
+    // back for the rejected request
+    @Nullable
+    HttpResponseStatus execute(String endpoint, String user, Request request) {
+        PendingRequest pendingRequest = new PendingRequest(endpoint, user, request, ticker.read());
+        synchronized (lock) {
+            if (inFlight >= maxInFlight) {
+                return SERVICE_UNAVAILABLE;
+            }
+            Integer userInFlight = inFlightPerUser.get(user);
+            if (userInFlight == null) {
+                userInFlight = 0;
+            }
+            if (userInFlight >= maxInFlightPerUser) {
+                return TOO_MANY_REQUESTS;
+            }
+            EndpointQueue endpointQueue = endpointQueues.get(endpoint);
+            if (endpointQueue == null) {
+                endpointQueue = new EndpointQueue();
+                endpointQueues.put(endpoint, endpointQueue);
+            }
+            inFlight++;
+            inFlightPerUser.put(user, userInFlight + 1);
+            if (endpointQueue.executing >= maxExecutingPerEndpoint) {
+                endpointQueue.waiting.add(pendingRequest);
+                return null;
+            }
+            endpointQueue.executing++;
+        }
+        try {
+            executor.execute(pendingRequest);
+        } catch (RejectedExecutionException e) {
+            // executor has been shut down
+            logger.debug(e.getMessage(), e);
+            afterExecute(pendingRequest);
+            return SERVICE_UNAVAILABLE;
+        }
+        return null;
+    }
+
+    void close() {
+        executor.shutdown();
+    }
+
+    private void afterExecute(PendingRequest pendingRequest) {
+        PendingRequest next;
+        synchronized (lock) {
+            inFlight--;
+            int userInFlight = inFlightPerUser.get(pendingRequest.user);
+            if (userInFlight == 1) {
+                inFlightPerUser.remove(pendingRequest.user);
+            } else {
+                inFlightPerUser.put(pendingRequest.user, userInFlight - 1);
+            }
+            EndpointQueue endpointQueue = endpointQueues.get(pendingRequest.endpoint);
+            next = endpointQueue.waiting.poll();
+            if (next == null && --endpointQueue.executing == 0) {
+                endpointQueues.remove(pendingRequest.endpoint);
+            }
+        }
+        if (next != null) {
+            try {
+                executor.execute(next);
+            } catch (RejectedExecutionException e) {
+                // executor has been shut down
+                logger.debug(e.getMessage(), e);
+                afterExecute(next);
+                next.request.reject(SERVICE_UNAVAILABLE);
+            }
+        }
+    }
+
+    private void recordQueueTime(String endpoint, long queueNanos) {
+        logger.debug("recordQueueTime(): endpoint={}, queueNanos={}", endpoint, queueNanos);
+        if (queueNanos < SLOW_QUEUE_TIME_NANOS) {
+            return;
+        }
+        long currTick = ticker.read();
+        if (currTick - lastSlowQueueTimeWarningTick < MINUTES.toNanos(1)) {
+            return;
+        }
+        lastSlowQueueTimeWarningTick = currTick;
+        int inFlightLocal;
+        synchronized (lock) {
+            inFlightLocal = inFlight;
+        }
+        logger.warn("request to {} waited {} milliseconds before executing ({} requests currently"
+                + " in flight, consider increasing -Dglowroot.ui.requestThreads, this warning"
+                + " will be logged at most once a minute)", endpoint,
+                NANOSECONDS.toMillis(queueNanos), inFlightLocal);
+    }
+
+    @VisibleForTesting
+    int getInFlight() {
+        synchronized (lock) {
+            return inFlight;
+        }
+    }
+
+    interface Request {
+
+        void execute(long queueNanos);
+
+        // called instead of execute() when a request that was waiting in its endpoint queue could
+        // not be executed (e.g. executor has been shut down)
+        void reject(HttpResponseStatus status);
+    }
+
+    private class PendingRequest implements Runnable {
+
+        private final String endpoint;
+        private final String user;
+        private final Request request;
+        private final long startTick;
+
+        private PendingRequest(String endpoint, String user, Request request, long startTick) {
+            this.endpoint = endpoint;
+            this.user = user;
+            this.request = request;
+            this.startTick = startTick;
+        }
+
+        @Override
+        public void run() {
+            try {
+                long queueNanos = ticker.read() - startTick;
+                recordQueueTime(endpoint, queueNanos);
+                request.execute(queueNanos);
+            } catch (Throwable t) {
+                logger.error(t.getMessage(), t);
+            } finally {
+                afterExecute(this);
+            }
+        }
+    }
+
+    private static class EndpointQueue {
+        private int executing;
+        private final Queue<PendingRequest> waiting = Queues.newArrayDeque();
+    }
+}
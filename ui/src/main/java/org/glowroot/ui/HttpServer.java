@@ -85,7 +85,8 @@ class HttpServer {
         bossGroup = new NioEventLoopGroup(1, bossThreadFactory);
         workerGroup = new NioEventLoopGroup(numWorkerThreads, workerThreadFactory);
 
-        final HttpServerHandler handler = new HttpServerHandler(contextPathSupplier, commonHandler);
+        final HttpServerHandler handler = new HttpServerHandler(contextPathSupplier, commonHandler,
+                HttpRequestExecutor.create(numWorkerThreads));
 
         if (https) {
             // upgrade from 0.9.26 to 0.9.27
@@ -214,6 +215,7 @@ class HttpServer {
         logger.debug("close(): stopping http server");
         workerGroup.shutdownGracefully();
         bossGroup.shutdownGracefully();
+        handler.close();
         logger.debug("close(): http server stopped");
     }
 
@@ -16,6 +16,11 @@
 package org.glowroot.ui;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.List;
 import java.util.Map;
 
@@ -37,7 +42,9 @@ import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.channel.group.ChannelGroup;
 import io.netty.channel.group.DefaultChannelGroup;
 import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpContent;
 import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.DefaultLastHttpContent;
 import io.netty.handler.codec.http.EmptyHttpHeaders;
 import io.netty.handler.codec.http.FullHttpRequest;
 import io.netty.handler.codec.http.FullHttpResponse;
@@ -45,39 +52,54 @@ import io.netty.handler.codec.http.HttpContent;
 import io.netty.handler.codec.http.HttpHeaderNames;
 import io.netty.handler.codec.http.HttpHeaderValues;
 import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.LastHttpContent;
 import io.netty.handler.codec.http.QueryStringDecoder;
 import io.netty.handler.stream.ChunkedInput;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
 import io.netty.util.concurrent.GlobalEventExecutor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.glowroot.ui.CommonHandler.CommonRequest;
 import org.glowroot.ui.CommonHandler.CommonResponse;
+import org.glowroot.ui.HttpRequestExecutor.Request;
 
 import static io.netty.handler.codec.http.HttpResponseStatus.BAD_REQUEST;
 import static io.netty.handler.codec.http.HttpResponseStatus.FOUND;
 import static io.netty.handler.codec.http.HttpResponseStatus.INTERNAL_SERVER_ERROR;
 import static io.netty.handler.codec.http.HttpResponseStatus.OK;
 import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
 @Sharable
 class HttpServerHandler extends ChannelInboundHandlerAdapter {
 
     private static final Logger logger = LoggerFactory.getLogger(HttpServerHandler.class);
 
+    private static final String ERROR_TRAILER = "X-Glowroot-Error";
+
+    private static final AttributeKey<ChannelRequests> CHANNEL_REQUESTS =
+            AttributeKey.valueOf("glowroot-channel-requests");
+
     private final ChannelGroup allChannels;
 
     private final Supplier<String> contextPathSupplier;
 
     private final CommonHandler commonHandler;
 
+    private final HttpRequestExecutor requestExecutor;
+
     private final ThreadLocal</*@Nullable*/ Channel> currentChannel =
             new ThreadLocal</*@Nullable*/ Channel>();
 
-    HttpServerHandler(Supplier<String> contextPathSupplier, CommonHandler commonHandler) {
+    HttpServerHandler(Supplier<String> contextPathSupplier, CommonHandler commonHandler,
+            HttpRequestExecutor requestExecutor) {
         this.contextPathSupplier = contextPathSupplier;
         this.commonHandler = commonHandler;
+        this.requestExecutor = requestExecutor;
         allChannels = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
     }
 
@@ -96,22 +118,123 @@ class HttpServerHandler extends ChannelInboundHandlerAdapter {
         }
     }
 
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        getChannelRequests(ctx).releasePending();
+        super.channelInactive(ctx);
+    }
+
     @Override
     public void channelReadComplete(ChannelHandlerContext ctx) {
         ctx.flush();
     }
 
+    // this is always called on the channel's event loop
     @Override
-    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+    public void channelRead(final ChannelHandlerContext ctx, Object msg) throws Exception {
         FullHttpRequest request = (FullHttpRequest) msg;
+        ChannelRequests channelRequests = getChannelRequests(ctx);
+        if (channelRequests.executing) {
+            // pipelined request, which is executed only after the response to the prior request
+            // has been written, so that responses are sent in the same order as the requests
+            channelRequests.pending.add(request);
+            return;
+        }
+        execute(ctx, request);
+    }
+
+    void close() {
+        requestExecutor.close();
+    }
+
+    // this is always called on the channel's event loop
+    private void execute(final ChannelHandlerContext ctx, final FullHttpRequest request)
+            throws IOException {
         if (request.decoderResult().isFailure()) {
             CommonResponse response = new CommonResponse(BAD_REQUEST, MediaType.PLAIN_TEXT_UTF_8,
                     Strings.nullToEmpty(request.decoderResult().cause().getMessage()));
             sendResponse(ctx, request, response, false);
+            request.release();
+            return;
+        }
+        String uri = request.uri();
+        logger.debug("execute(): request.uri={}", uri);
+        getChannelRequests(ctx).executing = true;
+        // stop reading from this connection while the request is executing, pipelined requests
+        // that have already been read are queued (see channelRead() above)
+        ctx.channel().config().setAutoRead(false);
+        @Nullable
+        HttpResponseStatus rejectedStatus = requestExecutor.execute(
+                new QueryStringDecoder(uri).path(), getUser(ctx, request), new Request() {
+                    @Override
+                    public void execute(long queueNanos) {
+                        try {
+                            handle(ctx, request, queueNanos);
+                        } catch (Throwable t) {
+                            exceptionCaught(ctx, t);
+                        } finally {
+                            ctx.channel().eventLoop().execute(new Runnable() {
+                                @Override
+                                public void run() {
+                                    requestComplete(ctx);
+                                }
+                            });
+                        }
+                    }
+                    @Override
+                    public void reject(final HttpResponseStatus status) {
+                        ctx.channel().eventLoop().execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                try {
+                                    sendRejectedResponse(ctx, request, status);
+                                } catch (Throwable t) {
+                                    exceptionCaught(ctx, t);
+                                }
+                            }
+                        });
+                    }
+                });
+        if (rejectedStatus != null) {
+            sendRejectedResponse(ctx, request, rejectedStatus);
+        }
+    }
+
+    // this is always called on the channel's event loop
+    private void sendRejectedResponse(ChannelHandlerContext ctx, FullHttpRequest request,
+            HttpResponseStatus status) throws IOException {
+        logger.debug("sendRejectedResponse(): request.uri={}, status={}", request.uri(), status);
+        CommonResponse response = new CommonResponse(status);
+        response.setHeader(HttpHeaderNames.RETRY_AFTER, 1);
+        sendResponse(ctx, request, response, false);
+        request.release();
+        requestComplete(ctx);
+    }
+
+    // this is always called on the channel's event loop
+    private void requestComplete(ChannelHandlerContext ctx) {
+        ChannelRequests channelRequests = getChannelRequests(ctx);
+        channelRequests.executing = false;
+        FullHttpRequest next = channelRequests.pending.poll();
+        if (next == null) {
+            ctx.channel().config().setAutoRead(true);
             return;
         }
+        if (!ctx.channel().isActive()) {
+            next.release();
+            channelRequests.releasePending();
+            return;
+        }
+        try {
+            execute(ctx, next);
+        } catch (Throwable t) {
+            exceptionCaught(ctx, t);
+        }
+    }
+
+    private void handle(ChannelHandlerContext ctx, FullHttpRequest request, long queueNanos)
+            throws IOException {
         String uri = request.uri();
-        logger.debug("channelRead(): request.uri={}", uri);
         Channel channel = ctx.channel();
         currentChannel.set(channel);
         try {
@@ -130,6 +253,9 @@ class HttpServerHandler extends ChannelInboundHandlerAdapter {
                 response.setHeader("Connection", "close");
                 keepAlive = false;
             }
+            // see https://www.w3.org/TR/server-timing/
+            response.setHeader("Server-Timing",
+                    "queue;dur=" + NANOSECONDS.toMillis(queueNanos) + ";desc=\"Queue time\"");
             sendResponse(ctx, request, response, keepAlive);
         } catch (Exception e) {
             logger.error("error handling request {}: {}", uri, e.getMessage(), e);
@@ -151,7 +277,13 @@ class HttpServerHandler extends ChannelInboundHandlerAdapter {
             sendFullResponse(ctx, request, resp, keepAlive);
         } else if (content instanceof ChunkSource) {
             HttpResponse resp = new DefaultHttpResponse(HTTP_1_1, OK, response.getHeaders());
-            resp.headers().set(HttpHeaderNames.TRANSFER_ENCODING, HttpHeaderValues.CHUNKED);
+            if (isChunkedSupported(request)) {
+                resp.headers().set(HttpHeaderNames.TRANSFER_ENCODING, HttpHeaderValues.CHUNKED);
+            } else {
+                // http/1.0 clients do not understand chunked encoding, so the end of the response
+                // body is signaled by closing the connection
+                keepAlive = false;
+            }
             ctx.write(resp);
             ChunkSource chunkSource = (ChunkSource) content;
             ChunkedInput<HttpContent> chunkedInput;
@@ -161,16 +293,55 @@ class HttpServerHandler extends ChannelInboundHandlerAdapter {
             } else {
                 chunkedInput = ChunkedInputs.createZipFileDownload(chunkSource, zipFileName);
             }
-            ChannelFuture future = ctx.write(chunkedInput);
+            ChannelFuture future = ctx.writeAndFlush(chunkedInput);
             HttpServices.addErrorListener(future);
             if (!keepAlive) {
                 HttpServices.addCloseListener(future);
             }
+        } else if (content instanceof JsonContent) {
+            sendJsonResponse(ctx, request, response, (JsonContent) content, keepAlive);
         } else {
             throw new IllegalStateException("Unexpected content: " + content.getClass().getName());
         }
     }
 
+    private void sendJsonResponse(ChannelHandlerContext ctx, FullHttpRequest request,
+            CommonResponse response, JsonContent content, boolean keepAlive) throws IOException {
+        HttpResponse resp =
+                new DefaultHttpResponse(HTTP_1_1, response.getStatus(), response.getHeaders());
+        // http/1.0 clients do not understand chunked encoding, so the response is buffered in that
+        // case and sent with a content length
+        boolean chunked = isChunkedSupported(request);
+        if (chunked) {
+            resp.headers().set(HttpHeaderNames.TRANSFER_ENCODING, HttpHeaderValues.CHUNKED);
+        }
+        HttpChunkOutputStream out = new HttpChunkOutputStream(ctx, resp, chunked);
+        try {
+            content.writeTo(out);
+        } catch (Exception e) {
+            logger.error("error streaming response to {}: {}", request.uri(), e.getMessage(), e);
+            out.discard();
+            if (!out.committed) {
+                // nothing has been sent yet, so a proper error response can still be sent
+                sendResponse(ctx, request,
+                        CommonHandler.newHttpResponseWithStackTrace(e, INTERNAL_SERVER_ERROR, null),
+                        keepAlive);
+                return;
+            }
+            // part of the response has already been sent, so the only option is to terminate the
+            // body with an error trailer and close the connection
+            LastHttpContent last = new DefaultLastHttpContent();
+            last.trailingHeaders().set(ERROR_TRAILER, Strings.nullToEmpty(e.getMessage()));
+            ctx.writeAndFlush(last).addListener(ChannelFutureListener.CLOSE);
+            return;
+        }
+        ChannelFuture future = out.finish();
+        HttpServices.addErrorListener(future);
+        if (!keepAlive) {
+            HttpServices.addCloseListener(future);
+        }
+    }
+
     @SuppressWarnings("argument.type.incompatible")
     private void sendFullResponse(ChannelHandlerContext ctx, FullHttpRequest request,
             FullHttpResponse response, boolean keepAlive) {
@@ -178,7 +349,7 @@ class HttpServerHandler extends ChannelInboundHandlerAdapter {
         if (keepAlive && !request.protocolVersion().isKeepAliveDefault()) {
             response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.KEEP_ALIVE);
         }
-        ChannelFuture f = ctx.write(response);
+        ChannelFuture f = ctx.writeAndFlush(response);
         if (!keepAlive) {
             f.addListener(ChannelFutureListener.CLOSE);
         }
@@ -192,6 +363,44 @@ class HttpServerHandler extends ChannelInboundHandlerAdapter {
         ctx.close();
     }
 
+    // keyed by the username of the authenticated session, so that changing or adding cookies
+    // cannot be used to get around the per-user limit, falling back to the remote address for
+    // anonymous requests
+    private String getUser(ChannelHandlerContext ctx, FullHttpRequest request) {
+        String username = null;
+        try {
+            username = commonHandler
+                    .getSessionUsername(request.headers().get(HttpHeaderNames.COOKIE));
+        } catch (Exception e) {
+            logger.debug(e.getMessage(), e);
+        }
+        if (username != null) {
+            return "user:" + username;
+        }
+        SocketAddress remoteAddress = ctx.channel().remoteAddress();
+        if (remoteAddress instanceof InetSocketAddress) {
+            return "address:" + ((InetSocketAddress) remoteAddress).getAddress().getHostAddress();
+        }
+        return "address:" + remoteAddress;
+    }
+
+    private static ChannelRequests getChannelRequests(ChannelHandlerContext ctx) {
+        Attribute<ChannelRequests> attribute = ctx.channel().attr(CHANNEL_REQUESTS);
+        ChannelRequests channelRequests = attribute.get();
+        if (channelRequests == null) {
+            channelRequests = new ChannelRequests();
+            ChannelRequests existing = attribute.setIfAbsent(channelRequests);
+            if (existing != null) {
+                channelRequests = existing;
+            }
+        }
+        return channelRequests;
+    }
+
+    private static boolean isChunkedSupported(FullHttpRequest request) {
+        return request.protocolVersion().compareTo(HTTP_1_1) >= 0;
+    }
+
     @VisibleForTesting
     static String stripContextPath(String path, String contextPath) {
         if (contextPath.equals("/")) {
@@ -203,6 +412,133 @@ class HttpServerHandler extends ChannelInboundHandlerAdapter {
         return path.substring(contextPath.length());
     }
 
+    // this is only accessed from the channel's event loop
+    private static class ChannelRequests {
+
+        private boolean executing;
+        private final Deque<FullHttpRequest> pending = new ArrayDeque<FullHttpRequest>();
+
+        private void releasePending() {
+            FullHttpRequest request;
+            while ((request = pending.poll()) != null) {
+                request.release();
+            }
+        }
+    }
+
+    // writes directly to pooled buffers which are sent as http chunks as they fill up
+    //
+    // the response headers are held back until the first chunk is sent, so that an error thrown
+    // while rendering the start of the response can still be sent as a proper error response
+    //
+    // when not chunked (http/1.0), the whole response is buffered and sent with a content length
+    private static class HttpChunkOutputStream extends OutputStream {
+
+        private static final int CHUNK_SIZE = 8192;
+
+        private final ChannelHandlerContext ctx;
+        private final HttpResponse response;
+        private final boolean chunked;
+
+        private @Nullable ByteBuf buf;
+
+        private boolean committed;
+
+        private HttpChunkOutputStream(ChannelHandlerContext ctx, HttpResponse response,
+                boolean chunked) {
+            this.ctx = ctx;
+            this.response = response;
+            this.chunked = chunked;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            ByteBuf buf = getBuf();
+            buf.writeByte(b);
+            if (chunked && buf.readableBytes() >= CHUNK_SIZE) {
+                sendChunk(buf);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (!chunked) {
+                getBuf().writeBytes(b, off, len);
+                return;
+            }
+            int offset = off;
+            int remaining = len;
+            while (remaining > 0) {
+                ByteBuf buf = getBuf();
+                int n = Math.min(remaining, CHUNK_SIZE - buf.readableBytes());
+                buf.writeBytes(b, offset, n);
+                offset += n;
+                remaining -= n;
+                if (buf.readableBytes() >= CHUNK_SIZE) {
+                    sendChunk(buf);
+                }
+            }
+        }
+
+        @SuppressWarnings("argument.type.incompatible")
+        private ChannelFuture finish() {
+            ByteBuf buf = this.buf;
+            this.buf = null;
+            if (!chunked) {
+                ByteBuf content = buf == null ? ctx.alloc().buffer(0) : buf;
+                FullHttpResponse fullResponse = new DefaultFullHttpResponse(
+                        response.protocolVersion(), response.status(), content, response.headers(),
+                        EmptyHttpHeaders.INSTANCE);
+                fullResponse.headers().set(HttpHeaderNames.CONTENT_LENGTH,
+                        content.readableBytes());
+                committed = true;
+                return ctx.writeAndFlush(fullResponse);
+            }
+            commit();
+            if (buf != null) {
+                ctx.write(new DefaultHttpContent(buf));
+            }
+            return ctx.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
+        }
+
+        private void discard() {
+            ByteBuf buf = this.buf;
+            if (buf != null) {
+                buf.release();
+                this.buf = null;
+            }
+        }
+
+        private ByteBuf getBuf() {
+            ByteBuf buf = this.buf;
+            if (buf == null) {
+                buf = ctx.alloc().buffer(CHUNK_SIZE);
+                this.buf = buf;
+            }
+            return buf;
+        }
+
+        private void commit() {
+            if (!committed) {
+                ctx.write(response);
+                committed = true;
+            }
+        }
+
+        private void sendChunk(ByteBuf buf) throws IOException {
+            this.buf = null;
+            commit();
+            ChannelFuture future = ctx.writeAndFlush(new DefaultHttpContent(buf));
+            if (!ctx.channel().isWritable() && !ctx.executor().inEventLoop()) {
+                // wait for the client to catch up instead of buffering the whole response
+                future.awaitUninterruptibly();
+                if (!future.isSuccess()) {
+                    throw new IOException(future.cause());
+                }
+            }
+        }
+    }
+
     private static class NettyRequest implements CommonRequest {
 
         private final FullHttpRequest request;
@@ -19,6 +19,7 @@ import java.math.BigInteger;
 import java.security.GeneralSecurityException;
 import java.security.SecureRandom;
 import java.util.Iterator;
+import java.util.Locale;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentMap;
@@ -153,7 +154,28 @@ class HttpSessionManager {
 
     @Nullable
     String getSessionId(CommonRequest request) throws Exception {
-        String cookieHeader = request.getHeader(HttpHeaderNames.COOKIE);
+        return getSessionId(request.getHeader(HttpHeaderNames.COOKIE));
+    }
+
+    // returns the (lower case) username of the authenticated session, used to key per-user limits
+    // (timed out sessions are still returned here since they are only used as a key)
+    @Nullable
+    String getSessionUsername(@Nullable String cookieHeader) throws Exception {
+        if (offline) {
+            return null;
+        }
+        String sessionId = getSessionId(cookieHeader);
+        if (sessionId == null) {
+            return null;
+        }
+        Session session = sessionMap.get(sessionId);
+        if (session == null) {
+            return null;
+        }
+        return session.caseAmbiguousUsername().toLowerCase(Locale.ENGLISH);
+    }
+
+    private @Nullable String getSessionId(@Nullable String cookieHeader) throws Exception {
         if (cookieHeader == null) {
             return null;
         }
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.ui;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.glowroot.common.util.ObjectMappers;
+
+// json response content that is written straight to the response output stream, instead of being
+// built up in memory as a string first, which matters for large responses (e.g. trace entries)
+public abstract class JsonContent {
+
+    private static final ObjectMapper mapper = ObjectMappers.create();
+
+    protected abstract void write(JsonGenerator jg) throws IOException;
+
+    // this does not close the output stream
+    public void writeTo(OutputStream out) throws IOException {
+        JsonGenerator jg = mapper.getFactory().createGenerator(out, JsonEncoding.UTF8);
+        jg.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        try {
+            write(jg);
+        } finally {
+            jg.close();
+        }
+    }
+}
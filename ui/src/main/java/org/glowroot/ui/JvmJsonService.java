@@ -16,6 +16,7 @@
 package org.glowroot.ui;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.StringWriter;
 import java.util.Collection;
@@ -25,6 +26,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
 
 import javax.annotation.Nullable;
 import javax.management.ObjectName;
@@ -51,12 +53,15 @@ import org.glowroot.common.live.LiveJvmService;
 import org.glowroot.common.live.LiveJvmService.AgentNotConnectedException;
 import org.glowroot.common.live.LiveJvmService.AgentUnsupportedOperationException;
 import org.glowroot.common.live.LiveJvmService.DirectoryDoesNotExistException;
+import org.glowroot.common.live.LiveJvmService.TransferProgressListener;
 import org.glowroot.common.live.LiveJvmService.UnavailableDueToRunningInIbmJvmException;
 import org.glowroot.common.live.LiveJvmService.UnavailableDueToRunningInJreException;
 import org.glowroot.common.repo.EnvironmentRepository;
 import org.glowroot.common.util.NotAvailableAware;
 import org.glowroot.common.util.ObjectMappers;
 import org.glowroot.common.util.UsedByJsonSerialization;
+import org.glowroot.ui.BackgroundJobs.Job;
+import org.glowroot.ui.BackgroundJobs.Task;
 import org.glowroot.wire.api.model.CollectorServiceOuterClass.Environment;
 import org.glowroot.wire.api.model.CollectorServiceOuterClass.HostInfo;
 import org.glowroot.wire.api.model.CollectorServiceOuterClass.JavaInfo;
@@ -64,6 +69,7 @@ import org.glowroot.wire.api.model.CollectorServiceOuterClass.ProcessInfo;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.Availability;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.Capabilities;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.HeapDumpFileInfo;
+import org.glowroot.wire.api.model.DownstreamServiceOuterClass.HeapDumpSummary;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.HeapHistogram;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.MBeanDump;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.MBeanDumpRequest.MBeanDumpKind;
@@ -89,6 +95,8 @@ class JvmJsonService {
     private final EnvironmentRepository environmentRepository;
     private final @Nullable LiveJvmService liveJvmService;
 
+    private final BackgroundJobs backgroundJobs = new BackgroundJobs();
+
     JvmJsonService(EnvironmentRepository environmentRepository,
             @Nullable LiveJvmService liveJvmService) {
         this.environmentRepository = environmentRepository;
@@ -285,12 +293,122 @@ class JvmJsonService {
             logger.debug(e.getMessage(), e);
             return "{\"directoryDoesNotExist\": true}";
         }
+        return toJson(heapDumpFileInfo);
+    }
+
+    // transferring a large heap dump can take minutes, so this starts a background job on the first
+    // call and the client polls (using the same request) for progress until the transfer is done
+    @POST(path = "/backend/jvm/heap-dump-transfer", permission = "agent:jvm:heapDump")
+    String transferHeapDump(@BindAgentId final String agentId,
+            @BindRequest final HeapDumpFileRequest request) throws Exception {
+        final LiveJvmService liveJvmService = checkNotNull(this.liveJvmService);
+        Job<HeapDumpFileInfo> job = backgroundJobs.startIfAbsent(
+                getTransferJobKey(agentId, request), new Task<HeapDumpFileInfo>() {
+                    @Override
+                    public HeapDumpFileInfo run(final Job<HeapDumpFileInfo> job)
+                            throws Exception {
+                        return liveJvmService.transferHeapDump(agentId, request.filePath(),
+                                new TransferProgressListener() {
+                                    @Override
+                                    public void onProgress(long transferredBytes,
+                                            long totalBytes) {
+                                        job.setProgress(transferredBytes, totalBytes);
+                                    }
+                                });
+                    }
+                });
+        HeapDumpFileInfo heapDumpFileInfo;
+        try {
+            heapDumpFileInfo = backgroundJobs.collect(getTransferJobKey(agentId, request), job);
+        } catch (FileNotFoundException e) {
+            logger.debug(e.getMessage(), e);
+            return "{\"fileNotFound\": true}";
+        }
+        if (heapDumpFileInfo == null) {
+            StringWriter sw = new StringWriter();
+            JsonGenerator jg = mapper.getFactory().createGenerator(sw);
+            try {
+                jg.writeStartObject();
+                jg.writeBooleanField("inProgress", true);
+                jg.writeNumberField("transferredBytes", job.getProgress());
+                jg.writeNumberField("totalBytes", job.getTotal());
+                jg.writeEndObject();
+            } finally {
+                jg.close();
+            }
+            return sw.toString();
+        }
+        return toJson(heapDumpFileInfo);
+    }
+
+    // the partially transferred file is kept, so the transfer resumes where it left off if it is
+    // requested again
+    @POST(path = "/backend/jvm/heap-dump-transfer-cancel", permission = "agent:jvm:heapDump")
+    void cancelTransferHeapDump(@BindAgentId String agentId,
+            @BindRequest HeapDumpFileRequest request) {
+        backgroundJobs.cancel(getTransferJobKey(agentId, request));
+    }
+
+    // summarizing a large heap dump can take minutes, so this starts a background job on the first
+    // call and the client polls (using the same request) until the summary is ready
+    @POST(path = "/backend/jvm/heap-dump-summary", permission = "agent:jvm:heapDump")
+    String heapDumpSummary(@BindAgentId final String agentId,
+            @BindRequest final HeapDumpFileRequest request) throws Exception {
+        final LiveJvmService liveJvmService = checkNotNull(this.liveJvmService);
+        String jobKey = "heap-dump-summary:" + agentId + ":" + request.filePath();
+        Job<HeapDumpSummary> job = backgroundJobs.startIfAbsent(jobKey,
+                new Callable<HeapDumpSummary>() {
+                    @Override
+                    public HeapDumpSummary call() throws Exception {
+                        return liveJvmService.heapDumpSummary(agentId, request.filePath());
+                    }
+                });
+        HeapDumpSummary summary;
+        try {
+            summary = backgroundJobs.collect(jobKey, job);
+        } catch (FileNotFoundException e) {
+            logger.debug(e.getMessage(), e);
+            return "{\"fileNotFound\": true}";
+        } catch (AgentUnsupportedOperationException e) {
+            // this operation introduced in 0.9.29
+            logger.debug(e.getMessage(), e);
+            return getAgentUnsupportedOperationResponse(agentId);
+        }
+        if (summary == null) {
+            return "{\"inProgress\": true}";
+        }
         StringWriter sw = new StringWriter();
         JsonGenerator jg = mapper.getFactory().createGenerator(sw);
         try {
             jg.writeStartObject();
-            jg.writeStringField("filePath", heapDumpFileInfo.getFilePath());
-            jg.writeNumberField("fileSizeBytes", heapDumpFileInfo.getFileSizeBytes());
+            jg.writeArrayFieldStart("classes");
+            for (HeapDumpSummary.ClassSummary classSummary : summary.getClassSummaryList()) {
+                jg.writeStartObject();
+                jg.writeStringField("className", classSummary.getClassName());
+                jg.writeNumberField("bytes", classSummary.getBytes());
+                jg.writeNumberField("count", classSummary.getCount());
+                if (classSummary.getRetainedBytes() != 0) {
+                    jg.writeNumberField("retainedBytes", classSummary.getRetainedBytes());
+                }
+                jg.writeEndObject();
+            }
+            jg.writeEndArray();
+            jg.writeNumberField("totalBytes", summary.getTotalBytes());
+            jg.writeNumberField("totalCount", summary.getTotalCount());
+            jg.writeNumberField("stringCount", summary.getStringCount());
+            jg.writeNumberField("duplicateStringCount", summary.getDuplicateStringTotalCount());
+            jg.writeNumberField("duplicateStringBytes", summary.getDuplicateStringTotalBytes());
+            jg.writeArrayFieldStart("duplicateStrings");
+            for (HeapDumpSummary.DuplicateString duplicateString : summary
+                    .getDuplicateStringList()) {
+                jg.writeStartObject();
+                jg.writeStringField("value", duplicateString.getValue());
+                jg.writeNumberField("count", duplicateString.getCount());
+                jg.writeNumberField("wastedBytes", duplicateString.getWastedBytes());
+                jg.writeEndObject();
+            }
+            jg.writeEndArray();
+            jg.writeBooleanField("truncated", summary.getTruncated());
             jg.writeEndObject();
         } finally {
             jg.close();
@@ -508,6 +626,24 @@ class JvmJsonService {
         return environment.getJavaInfo().getGlowrootAgentVersion();
     }
 
+    private static String getTransferJobKey(String agentId, HeapDumpFileRequest request) {
+        return "heap-dump-transfer:" + agentId + ":" + request.filePath();
+    }
+
+    private static String toJson(HeapDumpFileInfo heapDumpFileInfo) throws IOException {
+        StringWriter sw = new StringWriter();
+        JsonGenerator jg = mapper.getFactory().createGenerator(sw);
+        try {
+            jg.writeStartObject();
+            jg.writeStringField("filePath", heapDumpFileInfo.getFilePath());
+            jg.writeNumberField("fileSizeBytes", heapDumpFileInfo.getFileSizeBytes());
+            jg.writeEndObject();
+        } finally {
+            jg.close();
+        }
+        return sw.toString();
+    }
+
     private static void writeTransactionThread(ThreadDump.Transaction transaction, JsonGenerator jg)
             throws IOException {
         jg.writeStartObject();
@@ -709,6 +845,11 @@ class JvmJsonService {
         String directory();
     }
 
+    @Value.Immutable
+    interface HeapDumpFileRequest {
+        String filePath();
+    }
+
     @Value.Immutable
     interface MBeanTreeRequest {
         List<String> expanded();
@@ -291,6 +291,7 @@ class ReportJsonService {
                     .captureTime(lastRollupCaptureTime)
                     .build());
         }
+        LazyHistogram mergedHistogram = new LazyHistogram();
         PercentileAggregate priorAggregate = null;
         for (PercentileAggregate aggregate : aggregates) {
             if (priorAggregate != null
@@ -302,12 +303,10 @@ class ReportJsonService {
             dataSeries.add(getIntervalAverage(rollup, timeZone, aggregate.captureTime()),
                     durationNanosHistogram.getValueAtPercentile(percentile)
                             / NANOSECONDS_PER_MILLISECOND);
+            // merge the already decoded histogram instead of decoding it a second time
+            mergedHistogram.merge(durationNanosHistogram);
             priorAggregate = aggregate;
         }
-        LazyHistogram mergedHistogram = new LazyHistogram();
-        for (PercentileAggregate aggregate : aggregates) {
-            mergedHistogram.merge(aggregate.durationNanosHistogram());
-        }
         dataSeries.setOverall(
                 mergedHistogram.getValueAtPercentile(percentile) / NANOSECONDS_PER_MILLISECOND);
         return dataSeries;
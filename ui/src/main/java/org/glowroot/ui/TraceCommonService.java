@@ -89,7 +89,7 @@ class TraceCommonService {
     // overwritten entries will return {"overwritten":true}
     // expired (not found) trace will return {"expired":true}
     @Nullable
-    String getEntriesJson(String agentRollupId, String agentId, String traceId,
+    JsonContent getEntriesJson(String agentRollupId, String agentId, String traceId,
             boolean checkLiveTraces) throws Exception {
         if (checkLiveTraces) {
             // check active/pending traces first, and lastly stored traces to make sure that the
@@ -103,17 +103,17 @@ class TraceCommonService {
                 entries = null;
             }
             if (entries != null) {
-                return toJson(entries);
+                return toJsonContent(entries);
             }
         }
-        return toJson(getStoredEntries(agentRollupId, agentId, traceId,
+        return toJsonContent(getStoredEntries(agentRollupId, agentId, traceId,
                 new RetryCountdown(checkLiveTraces)));
     }
 
     // overwritten profile will return {"overwritten":true}
     // expired (not found) trace will return {"expired":true}
     @Nullable
-    String getMainThreadProfileJson(String agentRollupId, String agentId, String traceId,
+    JsonContent getMainThreadProfileJson(String agentRollupId, String agentId, String traceId,
             boolean checkLiveTraces) throws Exception {
         if (checkLiveTraces) {
             // check active/pending traces first, and lastly stored traces to make sure that the
@@ -127,17 +127,17 @@ class TraceCommonService {
                 profile = null;
             }
             if (profile != null) {
-                return toJson(profile);
+                return toJsonContent(profile);
             }
         }
-        return toJson(getStoredMainThreadProfile(agentRollupId, agentId, traceId,
+        return toJsonContent(getStoredMainThreadProfile(agentRollupId, agentId, traceId,
                 new RetryCountdown(checkLiveTraces)));
     }
 
     // overwritten profile will return {"overwritten":true}
     // expired (not found) trace will return {"expired":true}
     @Nullable
-    String getAuxThreadProfileJson(String agentRollupId, String agentId, String traceId,
+    JsonContent getAuxThreadProfileJson(String agentRollupId, String agentId, String traceId,
             boolean checkLiveTraces) throws Exception {
         if (checkLiveTraces) {
             // check active/pending traces first, and lastly stored traces to make sure that the
@@ -151,10 +151,10 @@ class TraceCommonService {
                 profile = null;
             }
             if (profile != null) {
-                return toJson(profile);
+                return toJsonContent(profile);
             }
         }
-        return toJson(getStoredAuxThreadProfile(agentRollupId, agentId, traceId,
+        return toJsonContent(getStoredAuxThreadProfile(agentRollupId, agentId, traceId,
                 new RetryCountdown(checkLiveTraces)));
     }
 
@@ -266,23 +266,21 @@ class TraceCommonService {
         return profile;
     }
 
-    private static @Nullable String toJson(@Nullable Entries entries) throws IOException {
+    private static @Nullable JsonContent toJsonContent(final @Nullable Entries entries) {
         if (entries == null) {
             return null;
         }
-        StringBuilder sb = new StringBuilder();
-        JsonGenerator jg = jsonFactory.createGenerator(CharStreams.asWriter(sb));
-        try {
-            jg.writeStartObject();
-            jg.writeFieldName("entries");
-            writeEntries(jg, entries.entries());
-            jg.writeFieldName("sharedQueryTexts");
-            writeSharedQueryTexts(jg, entries.sharedQueryTexts());
-            jg.writeEndObject();
-        } finally {
-            jg.close();
-        }
-        return sb.toString();
+        return new JsonContent() {
+            @Override
+            protected void write(JsonGenerator jg) throws IOException {
+                jg.writeStartObject();
+                jg.writeFieldName("entries");
+                writeEntries(jg, entries.entries());
+                jg.writeFieldName("sharedQueryTexts");
+                writeSharedQueryTexts(jg, entries.sharedQueryTexts());
+                jg.writeEndObject();
+            }
+        };
     }
 
     @VisibleForTesting
@@ -359,6 +357,20 @@ class TraceCommonService {
         jg.writeEndArray();
     }
 
+    private static @Nullable JsonContent toJsonContent(@Nullable Profile profile) {
+        if (profile == null) {
+            return null;
+        }
+        final MutableProfile mutableProfile = new MutableProfile();
+        mutableProfile.merge(profile);
+        return new JsonContent() {
+            @Override
+            protected void write(JsonGenerator jg) throws IOException {
+                mutableProfile.writeJson(jg);
+            }
+        };
+    }
+
     private static @Nullable String toJson(@Nullable Profile profile) throws IOException {
         if (profile == null) {
             return null;
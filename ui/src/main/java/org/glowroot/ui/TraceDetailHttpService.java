@@ -71,7 +71,7 @@ class TraceDetailHttpService implements HttpService {
                 + " checkLiveTraces={}", traceComponent, agentRollupId, agentId, traceId,
                 checkLiveTraces);
 
-        ChunkSource detail = getDetailChunkSource(traceComponent, agentRollupId, agentId, traceId,
+        JsonContent detail = getDetailJsonContent(traceComponent, agentRollupId, agentId, traceId,
                 checkLiveTraces);
         if (detail == null) {
             return new CommonResponse(NOT_FOUND);
@@ -79,33 +79,33 @@ class TraceDetailHttpService implements HttpService {
         return new CommonResponse(OK, MediaType.JSON_UTF_8, detail);
     }
 
-    private @Nullable ChunkSource getDetailChunkSource(String traceComponent, String agentRollupId,
+    private @Nullable JsonContent getDetailJsonContent(String traceComponent, String agentRollupId,
             String agentId, String traceId, boolean checkLiveTraces) throws Exception {
         if (traceComponent.equals("entries")) {
-            String entriesJson = traceCommonService.getEntriesJson(agentRollupId, agentId, traceId,
-                    checkLiveTraces);
+            JsonContent entriesJson = traceCommonService.getEntriesJson(agentRollupId, agentId,
+                    traceId, checkLiveTraces);
             if (entriesJson == null) {
                 // this includes trace was found but the trace had no entries
                 // caller should check trace.entry_count
                 return null;
             }
-            return ChunkSource.wrap(entriesJson);
+            return entriesJson;
         }
         if (traceComponent.equals("main-thread-profile")) {
-            String profileJson = traceCommonService.getMainThreadProfileJson(agentRollupId, agentId,
-                    traceId, checkLiveTraces);
+            JsonContent profileJson = traceCommonService.getMainThreadProfileJson(agentRollupId,
+                    agentId, traceId, checkLiveTraces);
             if (profileJson == null) {
                 return null;
             }
-            return ChunkSource.wrap(profileJson);
+            return profileJson;
         }
         if (traceComponent.equals("aux-thread-profile")) {
-            String profileJson = traceCommonService.getAuxThreadProfileJson(agentRollupId, agentId,
-                    traceId, checkLiveTraces);
+            JsonContent profileJson = traceCommonService.getAuxThreadProfileJson(agentRollupId,
+                    agentId, traceId, checkLiveTraces);
             if (profileJson == null) {
                 return null;
             }
-            return ChunkSource.wrap(profileJson);
+            return profileJson;
         }
         throw new IllegalStateException("Unexpected trace component: " + traceComponent);
     }
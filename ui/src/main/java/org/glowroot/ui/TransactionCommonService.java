@@ -370,9 +370,14 @@ class TransactionCommonService {
 
     // query.from() is non-inclusive
     MutableProfile getMergedProfile(String agentRollupId, TransactionQuery query, boolean auxiliary,
-            List<String> includes, List<String> excludes, double truncateBranchPercentage)
-            throws Exception {
+            ProfileWeight weight, List<String> includes, List<String> excludes,
+            double truncateBranchPercentage) throws Exception {
         MutableProfile profile = getMergedProfile(agentRollupId, query, auxiliary);
+        if (weight == ProfileWeight.CPU_NANOS) {
+            profile.weightByCpuNanos();
+        } else if (weight == ProfileWeight.ALLOCATED_BYTES) {
+            profile.weightByAllocatedBytes();
+        }
         if (!includes.isEmpty() || !excludes.isEmpty()) {
             profile.filter(includes, excludes);
         }
@@ -577,6 +582,10 @@ class TransactionCommonService {
         }
     }
 
+    enum ProfileWeight {
+        SAMPLES, CPU_NANOS, ALLOCATED_BYTES
+    }
+
     private static class RollupCaptureTimeFn implements Function<Long, Long> {
 
         private final long fixedIntervalMillis;
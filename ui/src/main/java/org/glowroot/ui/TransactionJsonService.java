@@ -15,6 +15,7 @@
  */
 package org.glowroot.ui;
 
+import java.io.IOException;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -27,6 +28,7 @@ import javax.annotation.Nullable;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Function;
+import com.google.common.base.MoreObjects;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
@@ -56,6 +58,7 @@ import org.glowroot.common.util.Clock;
 import org.glowroot.common.util.ObjectMappers;
 import org.glowroot.ui.AggregateMerging.MergedAggregate;
 import org.glowroot.ui.AggregateMerging.PercentileValue;
+import org.glowroot.ui.TransactionCommonService.ProfileWeight;
 import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -67,6 +70,15 @@ class TransactionJsonService {
 
     private static final ObjectMapper mapper = ObjectMappers.create();
 
+    private static final JsonContent OVERWRITTEN = new JsonContent() {
+        @Override
+        protected void write(JsonGenerator jg) throws IOException {
+            jg.writeStartObject();
+            jg.writeBooleanField("overwritten", true);
+            jg.writeEndObject();
+        }
+    };
+
     private final TransactionCommonService transactionCommonService;
     private final AggregateRepository aggregateRepository;
     private final ConfigRepository configRepository;
@@ -180,12 +192,12 @@ class TransactionJsonService {
     }
 
     @GET(path = "/backend/transaction/queries", permission = "agent:transaction:queries")
-    String getQueries(@BindAgentRollupId String agentRollupId,
+    JsonContent getQueries(@BindAgentRollupId String agentRollupId,
             @BindRequest TransactionDataRequest request) throws Exception {
         TransactionQuery query = toQuery(request);
         Map<String, List<MutableQuery>> queries =
                 transactionCommonService.getMergedQueries(agentRollupId, query);
-        List<Query> queryList = Lists.newArrayList();
+        final List<Query> queryList = Lists.newArrayList();
         for (Entry<String, List<MutableQuery>> entry : queries.entrySet()) {
             for (MutableQuery loopQuery : entry.getValue()) {
                 queryList.add(ImmutableQuery.builder()
@@ -194,21 +206,20 @@ class TransactionJsonService {
                         .fullQueryTextSha1(loopQuery.getFullTextSha1())
                         .totalDurationNanos(loopQuery.getTotalDurationNanos())
                         .executionCount(loopQuery.getExecutionCount())
+                        .roundTripCount(loopQuery.getRoundTripCount())
                         .totalRows(loopQuery.hasTotalRows() ? loopQuery.getTotalRows() : null)
                         .build());
             }
         }
         if (queryList.isEmpty() && aggregateRepository.shouldHaveQueries(agentRollupId, query)) {
-            return "{\"overwritten\":true}";
-        }
-        StringBuilder sb = new StringBuilder();
-        JsonGenerator jg = mapper.getFactory().createGenerator(CharStreams.asWriter(sb));
-        try {
-            jg.writeObject(queryList);
-        } finally {
-            jg.close();
+            return OVERWRITTEN;
         }
-        return sb.toString();
+        return new JsonContent() {
+            @Override
+            protected void write(JsonGenerator jg) throws IOException {
+                jg.writeObject(queryList);
+            }
+        };
     }
 
     @GET(path = "/backend/transaction/full-query-text", permission = "agent:transaction:queries")
@@ -233,12 +244,12 @@ class TransactionJsonService {
     }
 
     @GET(path = "/backend/transaction/service-calls", permission = "agent:transaction:serviceCalls")
-    String getServiceCalls(@BindAgentRollupId String agentRollupId,
+    JsonContent getServiceCalls(@BindAgentRollupId String agentRollupId,
             @BindRequest TransactionDataRequest request) throws Exception {
         TransactionQuery query = toQuery(request);
         List<Aggregate.ServiceCallsByType> queries =
                 transactionCommonService.getMergedServiceCalls(agentRollupId, query);
-        List<ServiceCall> serviceCallList = Lists.newArrayList();
+        final List<ServiceCall> serviceCallList = Lists.newArrayList();
         for (Aggregate.ServiceCallsByType queriesByType : queries) {
             for (Aggregate.ServiceCall aggServiceCall : queriesByType.getServiceCallList()) {
                 serviceCallList.add(ImmutableServiceCall.builder()
@@ -258,25 +269,25 @@ class TransactionJsonService {
         });
         if (serviceCallList.isEmpty()
                 && aggregateRepository.shouldHaveServiceCalls(agentRollupId, query)) {
-            return "{\"overwritten\":true}";
+            return OVERWRITTEN;
         }
-        StringBuilder sb = new StringBuilder();
-        JsonGenerator jg = mapper.getFactory().createGenerator(CharStreams.asWriter(sb));
-        try {
-            jg.writeObject(serviceCallList);
-        } finally {
-            jg.close();
-        }
-        return sb.toString();
+        return new JsonContent() {
+            @Override
+            protected void write(JsonGenerator jg) throws IOException {
+                jg.writeObject(serviceCallList);
+            }
+        };
     }
 
     @GET(path = "/backend/transaction/profile", permission = "agent:transaction:profile")
-    String getProfile(@BindAgentRollupId String agentRollupId,
+    JsonContent getProfile(@BindAgentRollupId String agentRollupId,
             @BindRequest TransactionProfileRequest request) throws Exception {
         TransactionQuery query = toQuery(request);
+        ProfileWeight weight = MoreObjects.firstNonNull(request.weight(), ProfileWeight.SAMPLES);
         MutableProfile profile =
                 transactionCommonService.getMergedProfile(agentRollupId, query, request.auxiliary(),
-                        request.include(), request.exclude(), request.truncateBranchPercentage());
+                        weight, request.include(), request.exclude(),
+                        request.truncateBranchPercentage());
         boolean hasUnfilteredMainThreadProfile;
         boolean hasUnfilteredAuxThreadProfile;
         if (request.auxiliary()) {
@@ -288,7 +299,8 @@ class TransactionJsonService {
                 hasUnfilteredMainThreadProfile = false;
                 // return and display aux profile instead
                 profile = transactionCommonService.getMergedProfile(agentRollupId, query, true,
-                        request.include(), request.exclude(), request.truncateBranchPercentage());
+                        weight, request.include(), request.exclude(),
+                        request.truncateBranchPercentage());
                 hasUnfilteredAuxThreadProfile = profile.getUnfilteredSampleCount() > 0;
             } else {
                 hasUnfilteredMainThreadProfile = true;
@@ -296,23 +308,29 @@ class TransactionJsonService {
                         transactionCommonService.hasAuxThreadProfile(agentRollupId, query);
             }
         }
-        StringBuilder sb = new StringBuilder();
-        JsonGenerator jg = mapper.getFactory().createGenerator(CharStreams.asWriter(sb));
-        try {
-            jg.writeStartObject();
-            jg.writeBooleanField("hasUnfilteredMainThreadProfile", hasUnfilteredMainThreadProfile);
-            jg.writeBooleanField("hasUnfilteredAuxThreadProfile", hasUnfilteredAuxThreadProfile);
-            if (profile.getUnfilteredSampleCount() == 0
-                    && isProfileOverwritten(request, agentRollupId, query)) {
-                jg.writeBooleanField("overwritten", true);
+        // an empty cpu or allocation profile just means that the data was not captured
+        final boolean overwritten = profile.getUnfilteredSampleCount() == 0
+                && weight == ProfileWeight.SAMPLES
+                && isProfileOverwritten(request, agentRollupId, query);
+        final boolean hasUnfilteredMainThreadProfileFinal = hasUnfilteredMainThreadProfile;
+        final boolean hasUnfilteredAuxThreadProfileFinal = hasUnfilteredAuxThreadProfile;
+        final MutableProfile profileFinal = profile;
+        return new JsonContent() {
+            @Override
+            protected void write(JsonGenerator jg) throws IOException {
+                jg.writeStartObject();
+                jg.writeBooleanField("hasUnfilteredMainThreadProfile",
+                        hasUnfilteredMainThreadProfileFinal);
+                jg.writeBooleanField("hasUnfilteredAuxThreadProfile",
+                        hasUnfilteredAuxThreadProfileFinal);
+                if (overwritten) {
+                    jg.writeBooleanField("overwritten", true);
+                }
+                jg.writeFieldName("profile");
+                profileFinal.writeJson(jg);
+                jg.writeEndObject();
             }
-            jg.writeFieldName("profile");
-            profile.writeJson(jg);
-            jg.writeEndObject();
-        } finally {
-            jg.close();
-        }
-        return sb.toString();
+        };
     }
 
     @GET(path = "/backend/transaction/summaries", permission = "agent:transaction:overview")
@@ -349,9 +367,11 @@ class TransactionJsonService {
     String getFlameGraph(@BindAgentRollupId String agentRollupId,
             @BindRequest FlameGraphRequest request) throws Exception {
         TransactionQuery query = toQuery(request);
+        ProfileWeight weight = MoreObjects.firstNonNull(request.weight(), ProfileWeight.SAMPLES);
         MutableProfile profile =
                 transactionCommonService.getMergedProfile(agentRollupId, query, request.auxiliary(),
-                        request.include(), request.exclude(), request.truncateBranchPercentage());
+                        weight, request.include(), request.exclude(),
+                        request.truncateBranchPercentage());
         return profile.toFlameGraphJson();
     }
 
@@ -718,6 +738,8 @@ class TransactionJsonService {
     @Value.Immutable
     interface TransactionProfileRequest extends RequestBase {
         boolean auxiliary();
+        @Nullable
+        ProfileWeight weight();
         // intentionally not plural since maps from query string
         ImmutableList<String> include();
         // intentionally not plural since maps from query string
@@ -728,6 +750,8 @@ class TransactionJsonService {
     @Value.Immutable
     interface FlameGraphRequest extends RequestBase {
         boolean auxiliary();
+        @Nullable
+        ProfileWeight weight();
         // intentionally not plural since maps from query string
         ImmutableList<String> include();
         // intentionally not plural since maps from query string
@@ -743,6 +767,7 @@ class TransactionJsonService {
         String fullQueryTextSha1();
         double totalDurationNanos();
         long executionCount();
+        long roundTripCount();
         @Nullable
         Long totalRows();
     }
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.ui;
+
+import java.io.FileNotFoundException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+
+import com.google.common.base.Stopwatch;
+import org.junit.Test;
+
+import org.glowroot.ui.BackgroundJobs.Job;
+import org.glowroot.ui.BackgroundJobs.Task;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BackgroundJobsTest {
+
+    @Test
+    public void shouldReturnResultOnceDone() throws Exception {
+        // given
+        BackgroundJobs backgroundJobs = new BackgroundJobs();
+        final CountDownLatch latch = new CountDownLatch(1);
+        Callable<String> callable = new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                latch.await();
+                return "abc";
+            }
+        };
+
+        // when
+        Job<String> job = backgroundJobs.startIfAbsent("key", callable);
+        Job<String> job2 = backgroundJobs.startIfAbsent("key", callable);
+
+        // then
+        assertThat(job2).isSameAs(job);
+        assertThat(backgroundJobs.collect("key", job)).isNull();
+        latch.countDown();
+        waitUntilDone(job);
+        assertThat(backgroundJobs.collect("key", job)).isEqualTo("abc");
+        // job is forgotten once the result has been collected
+        assertThat(backgroundJobs.startIfAbsent("key", callable)).isNotSameAs(job);
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void shouldThrowJobException() throws Exception {
+        // given
+        BackgroundJobs backgroundJobs = new BackgroundJobs();
+
+        // when
+        Job<String> job = backgroundJobs.startIfAbsent("key", new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                throw new FileNotFoundException();
+            }
+        });
+        waitUntilDone(job);
+
+        // then
+        backgroundJobs.collect("key", job);
+    }
+
+    @Test
+    public void shouldCancel() throws Exception {
+        // given
+        BackgroundJobs backgroundJobs = new BackgroundJobs();
+        final CountDownLatch latch = new CountDownLatch(1);
+        Job<String> job = backgroundJobs.startIfAbsent("key", new Task<String>() {
+            @Override
+            public String run(Job<String> job) throws Exception {
+                job.setProgress(1, 10);
+                try {
+                    Thread.sleep(SECONDS.toMillis(60));
+                } catch (InterruptedException e) {
+                    latch.countDown();
+                    throw e;
+                }
+                return "abc";
+            }
+        });
+        while (job.getProgress() == 0) {
+            Thread.sleep(1);
+        }
+
+        // when
+        backgroundJobs.cancel("key");
+
+        // then
+        assertThat(job.getTotal()).isEqualTo(10);
+        assertThat(latch.await(10, SECONDS)).isTrue();
+        assertThat(job.isDone()).isTrue();
+    }
+
+    private static void waitUntilDone(Job<?> job) throws InterruptedException {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        while (!job.isDone() && stopwatch.elapsed(SECONDS) < 10) {
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.ui;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.base.Ticker;
+import com.google.common.collect.Lists;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.glowroot.ui.HttpRequestExecutor.Request;
+
+import static io.netty.handler.codec.http.HttpResponseStatus.SERVICE_UNAVAILABLE;
+import static io.netty.handler.codec.http.HttpResponseStatus.TOO_MANY_REQUESTS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HttpRequestExecutorTest {
+
+    private HttpRequestExecutor executor;
+    private CountDownLatch expensiveLatch;
+
+    @Before
+    public void beforeEach() {
+        executor = new HttpRequestExecutor(4, 100, 50, 2, Ticker.systemTicker());
+        expensiveLatch = new CountDownLatch(1);
+    }
+
+    @After
+    public void afterEach() {
+        expensiveLatch.countDown();
+        executor.close();
+    }
+
+    @Test
+    public void shouldKeepCheapEndpointFastUnderConcurrentExpensiveRequests() throws Exception {
+        // given
+        for (int i = 0; i < 40; i++) {
+            assertThat(executor.execute("/backend/expensive", "user" + i, new BlockingRequest()))
+                    .isNull();
+        }
+        // when
+        List<Long> latencyMillis = Lists.newArrayList();
+        for (int i = 0; i < 20; i++) {
+            CountDownLatch latch = new CountDownLatch(1);
+            Stopwatch stopwatch = Stopwatch.createStarted();
+            assertThat(executor.execute("/backend/cheap", "other", new CountDownRequest(latch)))
+                    .isNull();
+            assertThat(latch.await(10, SECONDS)).isTrue();
+            latencyMillis.add(stopwatch.elapsed(MILLISECONDS));
+        }
+        // then
+        for (long millis : latencyMillis) {
+            assertThat(millis).isLessThan(1000);
+        }
+    }
+
+    @Test
+    public void shouldLimitInFlightRequestsPerUser() throws Exception {
+        // given
+        for (int i = 0; i < 50; i++) {
+            assertThat(executor.execute("/backend/expensive" + i, "user", new BlockingRequest()))
+                    .isNull();
+        }
+        // when
+        Object status = executor.execute("/backend/cheap", "user", new BlockingRequest());
+        Object otherUserStatus = executor.execute("/backend/cheap", "other", new BlockingRequest());
+        // then
+        assertThat(status).isEqualTo(TOO_MANY_REQUESTS);
+        assertThat(otherUserStatus).isNull();
+    }
+
+    @Test
+    public void shouldLimitInFlightRequests() throws Exception {
+        // given
+        for (int i = 0; i < 100; i++) {
+            assertThat(executor.execute("/backend/expensive", "user" + i, new BlockingRequest()))
+                    .isNull();
+        }
+        // when
+        Object status = executor.execute("/backend/cheap", "other", new BlockingRequest());
+        // then
+        assertThat(status).isEqualTo(SERVICE_UNAVAILABLE);
+    }
+
+    @Test
+    public void shouldExecuteWaitingRequestsAfterEndpointFreesUp() throws Exception {
+        // given
+        CountDownLatch latch = new CountDownLatch(5);
+        for (int i = 0; i < 2; i++) {
+            executor.execute("/backend/expensive", "user", new BlockingRequest());
+        }
+        for (int i = 0; i < 5; i++) {
+            executor.execute("/backend/expensive", "user", new CountDownRequest(latch));
+        }
+        Thread.sleep(100);
+        assertThat(latch.getCount()).isEqualTo(5);
+        // when
+        expensiveLatch.countDown();
+        // then
+        assertThat(latch.await(10, SECONDS)).isTrue();
+    }
+
+    @Test
+    public void shouldRejectWaitingRequestsAfterClose() throws Exception {
+        // given
+        for (int i = 0; i < 2; i++) {
+            executor.execute("/backend/expensive", "user", new BlockingRequest());
+        }
+        CountDownLatch latch = new CountDownLatch(1);
+        CountDownRequest waitingRequest = new CountDownRequest(latch);
+        executor.execute("/backend/expensive", "user", waitingRequest);
+        // when
+        executor.close();
+        expensiveLatch.countDown();
+        // then
+        assertThat(waitingRequest.rejectedLatch.await(10, SECONDS)).isTrue();
+        assertThat(waitingRequest.rejectedStatus).isEqualTo(SERVICE_UNAVAILABLE);
+        assertThat(latch.getCount()).isEqualTo(1);
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        while (executor.getInFlight() != 0 && stopwatch.elapsed(SECONDS) < 10) {
+            Thread.sleep(10);
+        }
+        assertThat(executor.getInFlight()).isZero();
+    }
+
+    private class BlockingRequest implements Request {
+        @Override
+        public void execute(long queueNanos) {
+            try {
+                expensiveLatch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        @Override
+        public void reject(HttpResponseStatus status) {}
+    }
+
+    private static class CountDownRequest implements Request {
+
+        private final CountDownLatch latch;
+        private final CountDownLatch rejectedLatch = new CountDownLatch(1);
+        private volatile @Nullable HttpResponseStatus rejectedStatus;
+
+        private CountDownRequest(CountDownLatch latch) {
+            this.latch = latch;
+        }
+
+        @Override
+        public void execute(long queueNanos) {
+            latch.countDown();
+        }
+
+        @Override
+        public void reject(HttpResponseStatus status) {
+            rejectedStatus = status;
+            rejectedLatch.countDown();
+        }
+    }
+}